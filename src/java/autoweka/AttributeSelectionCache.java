@@ -0,0 +1,177 @@
+package autoweka;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import weka.attributeSelection.ASEvaluation;
+import weka.attributeSelection.ASSearch;
+import weka.attributeSelection.AttributeTransformer;
+import weka.attributeSelection.CorrelationMatrixCache;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+
+/**
+ * Remembers which attributes an evaluator and search picked on a fold, along with how long it took, so that every later configuration that uses the same
+ * evaluator and search (with the same options) on the same fold can just reduce its data to those attributes.
+ *
+ * Selections are looked up by a hash of the training data and the evaluator's and search's classes and options, and are kept both in memory and as one small
+ * file per selection in a directory, so they outlive the runner and are shared with every other runner pointed at the same directory.
+ *
+ * Evaluators that transform the data (eg. PrincipalComponents) aren't cached, since the selected indices are no use without the transformation
+ */
+public class AttributeSelectionCache
+{
+    private static final String msFileExtension = ".attributes";
+
+    /**
+     * The attributes that were selected, and how many seconds that took
+     */
+    public static class Selection
+    {
+        private int[] mAttributes;
+        private float mTime;
+
+        public Selection(int[] attributes, float time)
+        {
+            mAttributes = attributes;
+            mTime = time;
+        }
+
+        public int[] getAttributes()
+        {
+            return mAttributes;
+        }
+
+        public float getTime()
+        {
+            return mTime;
+        }
+    }
+
+    private File mDirectory;
+    private Map<String, Selection> mSelections = new HashMap<String, Selection>();
+
+    /**
+     * Makes a cache that keeps its selections in the given directory
+     */
+    public AttributeSelectionCache(File directory)
+    {
+        mDirectory = directory;
+    }
+
+    /**
+     * Checks if the selections made by the given evaluator can be cached
+     */
+    public static boolean canCache(ASEvaluation eval)
+    {
+        return !(eval instanceof AttributeTransformer);
+    }
+
+    /**
+     * Gets the key that the selection the evaluator and search make on the data is cached under
+     */
+    public static String getKey(Instances data, ASEvaluation eval, ASSearch search) throws Exception
+    {
+        return CorrelationMatrixCache.getKey(data, getSpec(eval) + "\n" + getSpec(search));
+    }
+
+    private static String getSpec(Object obj)
+    {
+        if(obj instanceof OptionHandler)
+            return obj.getClass().getName() + " " + Utils.joinOptions(((OptionHandler)obj).getOptions());
+        return obj.getClass().getName();
+    }
+
+    /**
+     * Gets the selection with the given key, null if it hasn't been made yet
+     */
+    public synchronized Selection get(String key)
+    {
+        Selection selection = mSelections.get(key);
+        if(selection != null)
+            return selection;
+
+        File file = new File(mDirectory, key + msFileExtension);
+        if(!file.exists())
+            return null;
+
+        Properties props = new Properties();
+        try
+        {
+            FileInputStream in = new FileInputStream(file);
+            try
+            {
+                props.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+
+            String[] attributeStrs = props.getProperty("attributes", "").split(",");
+            int[] attributes = new int[attributeStrs.length];
+            for(int i = 0; i < attributes.length; i++)
+                attributes[i] = Integer.parseInt(attributeStrs[i].trim());
+            selection = new Selection(attributes, Float.parseFloat(props.getProperty("time", "0")));
+        }
+        catch(Exception e)
+        {
+            //Someone else is half way through writing it, or it's broken - either way, just select them again
+            return null;
+        }
+
+        mSelections.put(key, selection);
+        return selection;
+    }
+
+    /**
+     * Remembers the selection with the given key, and writes it out to the directory
+     */
+    public synchronized void put(String key, Selection selection)
+    {
+        mSelections.put(key, selection);
+
+        StringBuilder attributes = new StringBuilder();
+        for(int i = 0; i < selection.getAttributes().length; i++)
+        {
+            if(i > 0)
+                attributes.append(",");
+            attributes.append(selection.getAttributes()[i]);
+        }
+        Properties props = new Properties();
+        props.setProperty("attributes", attributes.toString());
+        props.setProperty("time", Float.toString(selection.getTime()));
+
+        //Write it to the side first so that nobody picks up half a file
+        File file = new File(mDirectory, key + msFileExtension);
+        File tmp = null;
+        try
+        {
+            mDirectory.mkdirs();
+            tmp = File.createTempFile(key, ".tmp", mDirectory);
+            FileOutputStream out = new FileOutputStream(tmp);
+            try
+            {
+                props.store(out, null);
+            }
+            finally
+            {
+                out.close();
+            }
+            if(!tmp.renameTo(file))
+                tmp.delete();
+        }
+        catch(IOException e)
+        {
+            System.err.println("Failed to write attribute selection to " + file + ": " + e.getMessage());
+            if(tmp != null)
+                tmp.delete();
+        }
+    }
+}
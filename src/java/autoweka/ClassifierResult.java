@@ -22,31 +22,54 @@ public class ClassifierResult
         public float getScore(Evaluation eval, Instances testingData);
     }
 
-    public static class ErrorRateMetric implements Metric
+    /**
+     * A metric that can also be worked out from a MetricAccumulator, so that the predictions don't have to go through an Evaluation
+     */
+    public static interface StreamingMetric extends Metric {
+        /**
+         * Whether the metric needs the score of every instance (to rank them) rather than just the running sums
+         */
+        public boolean needsScores();
+        public float getScore(MetricAccumulator acc);
+    }
+
+    public static class ErrorRateMetric implements StreamingMetric
     {
         public float getDefault() { return 100; }
         public float getScore(Evaluation eval, Instances testingData){
             return (float)(100 - eval.pctCorrect()); 
         } 
+        public boolean needsScores() { return false; }
+        public float getScore(MetricAccumulator acc){
+            return (float)(100 - acc.pctCorrect());
+        }
     }
     
-    public static class MeanAbsoluteErrorMetric implements Metric
+    public static class MeanAbsoluteErrorMetric implements StreamingMetric
     {
         public float getDefault() { return INFINITY; }
         public float getScore(Evaluation eval, Instances testingData){
             return (float)eval.meanAbsoluteError();
         }
+        public boolean needsScores() { return false; }
+        public float getScore(MetricAccumulator acc){
+            return (float)acc.meanAbsoluteError();
+        }
     } 
 
-    public static class RootMeanSquaredErrorMetric implements Metric
+    public static class RootMeanSquaredErrorMetric implements StreamingMetric
     {
         public float getDefault() { return INFINITY; }
         public float getScore(Evaluation eval, Instances testingData){
             return (float)eval.rootMeanSquaredError();
         }
+        public boolean needsScores() { return false; }
+        public float getScore(MetricAccumulator acc){
+            return (float)acc.rootMeanSquaredError();
+        }
     }
 
-    public static class RelativeAbsoluteErrorMetric implements Metric
+    public static class RelativeAbsoluteErrorMetric implements StreamingMetric
     {
         public float getDefault() { return INFINITY; }
         public float getScore(Evaluation eval, Instances testingData) {
@@ -56,20 +79,35 @@ public class ClassifierResult
                 throw new RuntimeException(e); 
             }
         } 
+        public boolean needsScores() { return false; }
+        public float getScore(MetricAccumulator acc){
+            return (float)acc.relativeAbsoluteError();
+        }
     }
-    public static class RootRelativeSquaredErrorMetric implements Metric
+    public static class RootRelativeSquaredErrorMetric implements StreamingMetric
     {
         public float getDefault() { return INFINITY; }
         public float getScore(Evaluation eval, Instances testingData) {
             return (float)eval.rootRelativeSquaredError(); 
         } 
+        public boolean needsScores() { return false; }
+        public float getScore(MetricAccumulator acc){
+            return (float)acc.rootRelativeSquaredError();
+        }
     }
-    public static class AreaAboveROC implements Metric
+    /**
+     * One minus the area under the ROC curve of the first class
+     */
+    public static class AreaAboveROC implements StreamingMetric
     {
         public float getDefault() { return 1.0f; }
         public float getScore(Evaluation eval, Instances testingData) {
-            return (float)(1.0 - eval.areaUnderROC(testingData.classIndex())); 
+            return (float)(1.0 - eval.areaUnderROC(0)); 
         } 
+        public boolean needsScores() { return true; }
+        public float getScore(MetricAccumulator acc){
+            return (float)(1.0 - acc.areaUnderROC());
+        }
     }
     
     private static Metric getMetricFromString(String className){
@@ -144,6 +182,27 @@ public class ClassifierResult
         setPercentEvaluated(eval);
     }
     
+    /**
+     * Makes an accumulator for the predictions on the testing data, or returns null if the metric needs an Evaluation
+     */
+    public MetricAccumulator createAccumulator(Instances testingData) {
+        if(!(mMetric instanceof StreamingMetric))
+            return null;
+        return new MetricAccumulator(testingData, ((StreamingMetric)mMetric).needsScores());
+    }
+
+    /**
+     * Whether an Evaluation has to keep its predictions around for the metric
+     */
+    public boolean needsPredictions() {
+        return !(mMetric instanceof StreamingMetric) || ((StreamingMetric)mMetric).needsScores();
+    }
+
+    public void setScoreFromAccumulator(MetricAccumulator acc) {
+        mRawScore = ((StreamingMetric)mMetric).getScore(acc);
+        mPercentEvaluated = 100.0f*(float)(1.0f - acc.unclassified() / acc.numInstances());
+    }
+
     public void setPercentEvaluated(Evaluation eval){
         mPercentEvaluated = 100.0f*(float)(1.0f - eval.unclassified() / eval.numInstances());
     }
@@ -187,7 +246,7 @@ public class ClassifierResult
     }
 
     public float getEvaluationTime(){
-        return mTrainingTime;
+        return mEvaluationTime;
     }
     
     public void setEvaluationTime(float time){
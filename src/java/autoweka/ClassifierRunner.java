@@ -1,6 +1,7 @@
 package autoweka;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.List;
@@ -10,17 +11,62 @@ import java.util.Properties;
 import weka.attributeSelection.ASEvaluation;
 import weka.attributeSelection.ASSearch;
 import weka.attributeSelection.AttributeSelection;
+import weka.attributeSelection.CfsSubsetEval;
+import weka.attributeSelection.CorrelationMatrixCache;
+import weka.attributeSelection.WrapperSubsetEval;
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.CrossValidationHandler;
 import weka.classifiers.Evaluation;
+import weka.classifiers.MultipleClassifiersCombiner;
+import weka.classifiers.ParallelMultipleFilteredClassifiersCombiner;
+import weka.classifiers.SingleClassifierEnhancer;
 import weka.classifiers.evaluation.output.prediction.CSV;
+import weka.classifiers.functions.MultilayerPerceptron;
+import weka.classifiers.functions.SMO;
+import weka.classifiers.functions.supportVector.CachedKernel;
+import weka.classifiers.lazy.IBk;
 import weka.classifiers.meta.FilteredClassifier;
+import weka.classifiers.meta.MultiClassClassifier;
+import weka.classifiers.misc.InputMappedClassifier;
 import weka.core.Instances;
+import weka.core.neighboursearch.LinearNNSearch;
+import weka.filters.FilterCache;
+
+import autoweka.instancegenerators.CrossValidation;
 
 /**
  * Class that is responsible for actually running a WEKA classifier from start to finish using the Auto-WEKA argument format.
  *
  * Note that this class can leak memory epically bad if it 'terminates' the classifier, so this should always be called in
  * a sub process from your main work to prevent memouts
+ *
+ * If the 'cfsCache' property is set to a directory, CfsSubsetEval computes its whole correlation matrix up front (with 'cfsThreads' threads) and keeps it
+ * there, so that every configuration that runs CFS on the same fold can reuse it. Up to 'cfsCacheMB' of matrices are also kept in memory, which pays off
+ * when the runner lives on in an EvaluationDaemon
+ *
+ * WrapperSubsetEval evaluates the subsets that a search proposes together on 'wrapperThreads' threads
+ *
+ * SVM kernels cache whole kernel rows in up to 'kernelCacheFraction' of the heap, which the experiment's memory setting determines;
+ * the budget is one pool for the whole JVM, shared by all folds, daemon requests and ensemble members that train kernels at the same time
+ *
+ * SMO and MultiClassClassifier train their binary sub-models, and Vote and Stacking their members (and Stacking's level-0 folds), on 'classifierThreads' threads.
+ * MultilayerPerceptron uses them to work out the gradients of its mini-batches, and IBk to look for the neighbours of several test instances at once
+ * (when it searches linearly)
+ *
+ * If 'foldStatistics' is true and the instance generator is a CrossValidation, classifiers that can build the models for all the folds in one pass
+ * (see CrossValidationHandler) do so the first time one of their folds comes along, and the other folds just pick up their model
+ *
+ * FilteredClassifiers (including the members of Vote and Stacking) keep the filters they fit, along with the filtered data, in up to 'filterCacheMB' of memory,
+ * so that configurations that only differ after the filter don't fit it to the same fold again. If 'filterCache' is set to a directory, filters that don't fit
+ * in memory are spilled there instead of being dropped. The directory is held to 'filterCacheDiskMB' (1024 by default), deleting the least recently used
+ * filters first
+ *
+ * If 'attributeSelectionCache' is set to a directory, the attributes that an evaluator and search select on a fold are kept there, and any later configuration
+ * that uses the same evaluator and search on the same fold reduces its data to them straight away, without being charged any attribute selection time
+ *
+ * The built in metrics are worked out as the predictions stream in, without holding on to them in an Evaluation, unless 'fullEvaluation' is true (or there's
+ * a predictions file to write)
  */
 public class ClassifierRunner
 {
@@ -29,8 +75,24 @@ public class ClassifierRunner
     private boolean mVerbose = true;
     private boolean mTestOnly = false;
     private boolean mDisableOutput = false;
-    private java.io.PrintStream mSavedOutput = null;
     private String mPredictionsFileName = null;
+    private boolean mFullEvaluation = false;
+    private boolean mShareCfsMatrices = false;
+    private int mCfsThreads = 1;
+    private int mWrapperThreads = 1;
+    private int mClassifierThreads = 1;
+    private FoldModelCache mFoldModels = null;
+    private AttributeSelectionCache mAttributeSelections = null;
+
+    private static final String[] msSettingNames = {"cfsCache", "cfsCacheMB", "cfsThreads", "wrapperThreads", "kernelCacheFraction", "classifierThreads", "foldStatistics", "filterCache", "filterCacheMB", "filterCacheDiskMB", "attributeSelectionCache", "fullEvaluation"};
+    private static final float msDefaultKernelCacheFraction = 0.25f;
+
+    //System.out/err are shared by every runner in the JVM, so swapping them around has to be counted
+    private static final Object msOutputLock = new Object();
+    private static int msOutputDisabledCount = 0;
+    private static java.io.PrintStream msSavedOutput = null;
+    private static int msErrRedirectedCount = 0;
+    private static java.io.PrintStream msSavedErr = null;
 
     /** 
      * Prepares a runner with the specified properties.
@@ -49,6 +111,94 @@ public class ClassifierRunner
         mTestOnly = Boolean.valueOf(props.getProperty("onlyTest", "false"));
         mDisableOutput = Boolean.valueOf(props.getProperty("disableOutput", "false"));
         mPredictionsFileName = props.getProperty("predictionsFileName", null);
+        mFullEvaluation = Boolean.valueOf(props.getProperty("fullEvaluation", "false"));
+
+        //Should CFS be sharing its correlation matrices?
+        String cfsCache = props.getProperty("cfsCache", null);
+        if(cfsCache != null && !cfsCache.isEmpty() && !cfsCache.equals("false"))
+        {
+            CorrelationMatrixCache.setDirectory(new File(cfsCache));
+            CorrelationMatrixCache.setBudget(Long.parseLong(props.getProperty("cfsCacheMB", "64")) << 20);
+            mCfsThreads = Integer.parseInt(props.getProperty("cfsThreads", "1"));
+            mShareCfsMatrices = true;
+        }
+
+        mWrapperThreads = Integer.parseInt(props.getProperty("wrapperThreads", "1"));
+
+        //Kernel rows are cached by memory rather than by a fixed number of entries, from one pool for all concurrent kernels
+        float kernelCacheFraction = Float.parseFloat(props.getProperty("kernelCacheFraction", Float.toString(msDefaultKernelCacheFraction)));
+        CachedKernel.setDefaultRowCacheBytes((long)(kernelCacheFraction * Runtime.getRuntime().maxMemory()));
+
+        mClassifierThreads = Integer.parseInt(props.getProperty("classifierThreads", "1"));
+
+        //Should fold models come out of one pass over the training data?
+        if(Boolean.valueOf(props.getProperty("foldStatistics", "false")) && mInstanceGenerator instanceof CrossValidation)
+            mFoldModels = new FoldModelCache((CrossValidation)mInstanceGenerator);
+
+        //Should fitted filters be shared between configurations?
+        String filterCache = props.getProperty("filterCache", null);
+        if(filterCache != null && !filterCache.isEmpty() && !filterCache.equals("false"))
+        {
+            FilterCache.setDirectory(new File(filterCache));
+            //Other processes share the directory, so it's kept in check by the files that are actually there
+            FilterCache.setDiskBudget(Long.parseLong(props.getProperty("filterCacheDiskMB", "1024")) << 20);
+        }
+        if(props.containsKey("filterCacheMB"))
+            FilterCache.setBudget(Long.parseLong(props.getProperty("filterCacheMB")) << 20);
+
+        //Should the attributes picked on a fold be remembered for the next configuration with the same evaluator and search?
+        String attributeSelectionCache = props.getProperty("attributeSelectionCache", null);
+        if(attributeSelectionCache != null && !attributeSelectionCache.isEmpty() && !attributeSelectionCache.equals("false"))
+            mAttributeSelections = new AttributeSelectionCache(new File(attributeSelectionCache));
+    }
+
+    /**
+     * Copies the settings that the runner picks up from an experiment's extra properties from one set of properties to another
+     */
+    public static void copySettings(Properties from, Properties to)
+    {
+        for(String name : msSettingNames)
+        {
+            if(from.containsKey(name))
+                to.setProperty(name, from.getProperty(name));
+        }
+    }
+
+    /**
+     * Hands the thread count to the first SMO, MultiClassClassifier or parallel ensemble found in each branch of the classifier, so that nested ones don't multiply it
+     */
+    private static void setClassifierThreads(Classifier classifier, int numThreads)
+    {
+        if(classifier instanceof SMO)
+        {
+            ((SMO)classifier).setNumExecutionSlots(numThreads);
+        }
+        else if(classifier instanceof MultiClassClassifier)
+        {
+            ((MultiClassClassifier)classifier).setNumExecutionSlots(numThreads);
+        }
+        else if(classifier instanceof MultilayerPerceptron)
+        {
+            ((MultilayerPerceptron)classifier).setNumExecutionSlots(numThreads);
+        }
+        else if(classifier instanceof IBk)
+        {
+            if(((IBk)classifier).getNearestNeighbourSearchAlgorithm() instanceof LinearNNSearch)
+                ((LinearNNSearch)((IBk)classifier).getNearestNeighbourSearchAlgorithm()).setNumExecutionSlots(numThreads);
+        }
+        else if(classifier instanceof ParallelMultipleFilteredClassifiersCombiner)
+        {
+            ((ParallelMultipleFilteredClassifiersCombiner)classifier).setNumExecutionSlots(numThreads);
+        }
+        else if(classifier instanceof SingleClassifierEnhancer)
+        {
+            setClassifierThreads(((SingleClassifierEnhancer)classifier).getClassifier(), numThreads);
+        }
+        else if(classifier instanceof MultipleClassifiersCombiner)
+        {
+            for(Classifier c : ((MultipleClassifiersCombiner)classifier).getClassifiers())
+                setClassifierThreads(c, numThreads);
+        }
     }
 
     /**
@@ -92,14 +242,14 @@ public class ClassifierRunner
      */
     public ClassifierResult run(String instanceStr, String resultMetric, float timeout, String mSeed, List<String> args)
     {
-        java.io.PrintStream stderr = System.err;
-        System.setErr(System.out);
+        redirectErr();
 
         RunnerThread runner = new RunnerThread(instanceStr, resultMetric, timeout, mSeed, args);
         float time = runner.runWorker(timeout * 2.05f);
-        System.setErr(stderr);
-        if(runner.getException() != null)
-            throw (RuntimeException)runner.getException();
+        restoreErr();
+        Exception e = runner.getException();
+        if(e != null)
+            throw (e instanceof RuntimeException) ? (RuntimeException)e : new RuntimeException(e);
         if(runner.terminated())
         {
             ClassifierResult res = new ClassifierResult(resultMetric);
@@ -145,7 +295,8 @@ public class ClassifierRunner
         String attribSearchClassName = propertyMap.get("attributesearch");
         String attribEvalClassName = propertyMap.get("attributeeval");
         String attribTime = propertyMap.get("attributetime");
-        if(!mTestOnly && ((attribSearchClassName != null && !attribSearchClassName.equals("NONE")) || (attribEvalClassName != null /*&& !attribEvalClassName.equals("NONE")*/) )){
+        boolean attributeSelection = !mTestOnly && ((attribSearchClassName != null && !attribSearchClassName.equals("NONE")) || (attribEvalClassName != null /*&& !attribEvalClassName.equals("NONE")*/) );
+        if(attributeSelection){
             //Make sure that we have everything we need
             if(attribSearchClassName == null)
                 throw new RuntimeException("Missing attribute search class name");
@@ -170,20 +321,67 @@ public class ClassifierRunner
                 throw new RuntimeException("Failed to create ASSearch " + attribSearchClassName + ": " + e.getMessage(), e);
             }
 
+            //Has this fold already had its attributes selected by the same evaluator and search?
+            String asKey = null;
+            AttributeSelectionCache.Selection cachedSelection = null;
+            if(mAttributeSelections != null && AttributeSelectionCache.canCache(asEval))
+            {
+                try{
+                    asKey = AttributeSelectionCache.getKey(training, asEval, asSearch);
+                }catch(Exception e){
+                    throw new RuntimeException("Failed to hash the training data for the attribute selection cache", e);
+                }
+                cachedSelection = mAttributeSelections.get(asKey);
+            }
+
+            //The whole matrix is only worth computing when it's going to be shared
+            if(mShareCfsMatrices && asEval instanceof CfsSubsetEval)
+            {
+                ((CfsSubsetEval)asEval).setPreComputeCorrelationMatrix(true);
+                ((CfsSubsetEval)asEval).setNumThreads(mCfsThreads);
+            }
+            if(asEval instanceof WrapperSubsetEval)
+                ((WrapperSubsetEval)asEval).setNumExecutionSlots(mWrapperThreads);
+
             //Build ourselves a selector
             AttributeSelection attribSelect = new AttributeSelection();
             attribSelect.setEvaluator(asEval);
             attribSelect.setSearch(asSearch);
-            
-            AttributeSelectorThread asThread = new AttributeSelectorThread(attribSelect, training);
-            
-            disableOutput();
-            float asTime = asThread.runWorker(attribTimeout);
-            enableOutput();
-            res.setAttributeSelectionTime(asTime);
+
+            AttributeSelectorThread asThread = null;
+            if(cachedSelection != null)
+            {
+                //It's already been paid for, so it doesn't count against this configuration
+                try{
+                    attribSelect.useSelectedAttributes(training, cachedSelection.getAttributes());
+                }catch(Exception e){
+                    throw new RuntimeException(e);
+                }
+                res.setAttributeSelectionTime(0);
+                if(mVerbose)
+                    System.out.println("Reusing attributes that took " + cachedSelection.getTime() + " seconds to select");
+            }
+            else
+            {
+                asThread = new AttributeSelectorThread(attribSelect, training);
+
+                disableOutput();
+                float asTime = asThread.runWorker(attribTimeout);
+                enableOutput();
+                res.setAttributeSelectionTime(asTime);
+
+                if(asKey != null && asThread.getException() == null && !asThread.terminated())
+                {
+                    try{
+                        mAttributeSelections.put(asKey, new AttributeSelectionCache.Selection(attribSelect.selectedAttributes(), asTime));
+                    }catch(Exception e){
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
 
             //If we had to stop/got an exception, we need to report a false run
-            if(asThread.getException() != null || asThread.terminated())
+            if(asThread != null && (asThread.getException() != null || asThread.terminated()))
             {
                 if(asThread.getException() != null)
                 {
@@ -274,6 +472,9 @@ public class ClassifierRunner
             e.printStackTrace();
             throw new RuntimeException("Failed to set classifier options: " + e.getMessage(), e);
         }
+
+        if(mClassifierThreads > 1)
+            setClassifierThreads(classifier, mClassifierThreads);
         
         
         try {
@@ -302,8 +503,12 @@ public class ClassifierRunner
             return res;
         }
 
-        //Prepare to train the critter
-        BuilderThread builderThread = new BuilderThread(classifier, training);
+        //Prepare to train the critter, or to pick up its model for this fold if it can build them all at once (which only works on the untouched training data)
+        BuilderThread builderThread;
+        if(mFoldModels != null && !attributeSelection && classifier instanceof CrossValidationHandler && ((CrossValidationHandler)classifier).canBuildFoldClassifiers(training))
+            builderThread = new FoldModelThread(classifier, instanceStr);
+        else
+            builderThread = new BuilderThread(classifier, training);
 
         disableOutput();
         float trainingTime = builderThread.runWorker(timeout);
@@ -330,6 +535,8 @@ public class ClassifierRunner
             //We have a good result so far
             res.setCompleted(true);
         }
+        classifier = builderThread.getClassifier();
+        res.setClassifier(classifier);
 
         if(mVerbose)
             System.out.println("Performing evaluation on " + testing.numInstances());
@@ -347,14 +554,21 @@ public class ClassifierRunner
     /**
      * Internal method that performs the evaluation of a classifier on a bunch of instances
      *
+     * Unless a full evaluation or a predictions file was asked for, the built in metrics are worked out as the predictions stream in, without an Evaluation
+     *
      * If true, then the training was good, otherwise it failed
      */
     private boolean _evaluateClassifierOnInstances(AbstractClassifier classifier, ClassifierResult res, Instances instances, float timeout)
     {
+        MetricAccumulator acc = createAccumulator(classifier, res, instances);
+        if(acc != null)
+            return _accumulateClassifierOnInstances(classifier, res, instances, timeout, acc);
+
         Evaluation eval = null;
         try
         {
             eval = new Evaluation(instances);
+            eval.setDiscardPredictions(!res.needsPredictions());
             EvaluatorThread evalThread = new EvaluatorThread(eval, classifier, instances, mPredictionsFileName);
 
             disableOutput();
@@ -411,22 +625,113 @@ public class ClassifierRunner
     }
 
 
+    /**
+     * Makes the accumulator that the classifier's predictions should stream into, or returns null if they have to go through an Evaluation
+     */
+    MetricAccumulator createAccumulator(AbstractClassifier classifier, ClassifierResult res, Instances instances)
+    {
+        if(mFullEvaluation || mPredictionsFileName != null || classifier instanceof InputMappedClassifier)
+            return null;
+        return res.createAccumulator(instances);
+    }
+
+    /**
+     * Evaluates the classifier into a MetricAccumulator, otherwise just like _evaluateClassifierOnInstances
+     */
+    private boolean _accumulateClassifierOnInstances(AbstractClassifier classifier, ClassifierResult res, Instances instances, float timeout, MetricAccumulator acc)
+    {
+        try
+        {
+            AccumulatorThread accThread = new AccumulatorThread(acc, classifier, instances);
+
+            disableOutput();
+            float evalTime = accThread.runWorker(timeout);
+            enableOutput();
+            res.setEvaluationTime(evalTime);
+
+            if(accThread.getException() != null) {
+                throw accThread.getException();
+            }
+
+            if(mVerbose)
+                System.out.println("Completed evaluation on (" +  acc.numInstances() + "/" + instances.numInstances() + ") unclassified: " + acc.unclassified());
+
+            //Make sure that if we terminated the eval, we crap out accordingly
+            res.setCompleted(!accThread.terminated());
+
+            res.setPercentEvaluated(100.0f*(float)(1.0f - acc.unclassified() / instances.numInstances()));
+            //Check to make sure we evaluated enough data
+            if(res.getPercentEvaluated() < 90)
+            {
+                res.setCompleted(false);
+                if(mVerbose)
+                    System.out.println("Failed to evaluate more then 90% of the data");
+            }
+            else if(!accThread.terminated())
+            {
+                res.setScoreFromAccumulator(acc);
+            }
+        } catch(Exception e) {
+            if(mVerbose){
+                System.out.println("Evaluating the classifier failed with the error: " + e.getMessage());
+                e.printStackTrace();
+            }
+            res.setCompleted(false);
+            res.setMemOut(e.getCause() instanceof OutOfMemoryError);
+            return false;
+        }
+        if(mVerbose)
+            System.out.println(res.getDescription());
+        return true;
+    }
+
     protected void disableOutput()
     {
         if(!mDisableOutput) return;
-        mSavedOutput = System.out;
-        System.setOut(new Util.NullPrintStream());
+        synchronized(msOutputLock)
+        {
+            if(msOutputDisabledCount++ == 0)
+            {
+                msSavedOutput = System.out;
+                System.setOut(new Util.NullPrintStream());
+            }
+        }
     }
 
     protected void enableOutput()
     {
         if(!mDisableOutput) return;
-        System.setOut(mSavedOutput);
+        synchronized(msOutputLock)
+        {
+            if(--msOutputDisabledCount == 0)
+                System.setOut(msSavedOutput);
+        }
+    }
+
+    private static void redirectErr()
+    {
+        synchronized(msOutputLock)
+        {
+            if(msErrRedirectedCount++ == 0)
+            {
+                msSavedErr = System.err;
+                System.setErr(System.out);
+            }
+        }
+    }
+
+    private static void restoreErr()
+    {
+        synchronized(msOutputLock)
+        {
+            if(--msErrRedirectedCount == 0)
+                System.setErr(msSavedErr);
+        }
     }
 
     class BuilderThread extends WorkerThread
     {
-        private AbstractClassifier mClassifier;
+        protected AbstractClassifier mClassifier;
         private Instances mTrainInstances;
 
         public BuilderThread(AbstractClassifier cls, Instances inst)
@@ -444,6 +749,33 @@ public class ClassifierRunner
         {
             return "Training of classifier";
         }
+
+        /**
+         * Gets the trained classifier
+         */
+        public AbstractClassifier getClassifier()
+        {
+            return mClassifier;
+        }
+    }
+
+    /**
+     * Swaps the classifier for its model on the current fold from the fold model cache, building the models for every fold if need be
+     */
+    class FoldModelThread extends BuilderThread
+    {
+        private String mInstanceStr;
+
+        public FoldModelThread(AbstractClassifier cls, String instanceStr)
+        {
+            super(cls, null);
+            mInstanceStr = instanceStr;
+        }
+
+        protected void doWork() throws Exception
+        {
+            mClassifier = mFoldModels.getModel(mClassifier, mInstanceStr);
+        }
     }
 
     public static class EvaluatorThread extends WorkerThread
@@ -498,6 +830,30 @@ public class ClassifierRunner
         }
     }
 
+    public static class AccumulatorThread extends WorkerThread
+    {
+        private MetricAccumulator mAccumulator;
+        private AbstractClassifier mClassifier;
+        private Instances mInstances;
+
+        public AccumulatorThread(MetricAccumulator acc, AbstractClassifier cls, Instances inst)
+        {
+            mAccumulator = acc;
+            mClassifier = cls;
+            mInstances = inst;
+        }
+
+        protected void doWork() throws Exception
+        {
+            mAccumulator.evaluateModel(mClassifier, mInstances);
+        }
+
+        protected String getOpName()
+        {
+            return "Evaluation of classifier";
+        }
+    }
+
     class AttributeSelectorThread extends WorkerThread
     {
         private AttributeSelection mSelection;
@@ -0,0 +1,359 @@
+package autoweka;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Keeps a binary, column major copy of the training and testing data from a dataset zip file so that we don't need to inflate and tokenize the ARFFs on every evaluation.
+ *
+ * Cache files are found by the zip's path, size and modification time, so a lookup never has to read the zip itself. They hold the SHA-1 of the zip's contents (which is
+ * worked out once, when the file is written), then the attribute headers (including the nominal/string dictionaries) followed by one block of doubles for the instance
+ * weights and one for each attribute.
+ *
+ * The blocks are memory mapped when the data is loaded back up, but every row still gets copied into a DenseInstance, since that's what the rest of WEKA works with. So the
+ * whole dataset does end up on the heap - what the cache saves is inflating, tokenizing and parsing the ARFFs.
+ *
+ * Datasets with relational attributes or sparse instances are not cached, and any failure to read or write a cache file just falls back to parsing the ARFFs.
+ *
+ * Nothing is cached unless the dataset string gives a 'datasetCache' directory. Nothing in here ever cleans that directory up, so it's best kept under the experiment
+ */
+public class DatasetCache
+{
+    private static final int msMagic = 0x41574443;
+    private static final int msVersion = 2;
+    private static final String msExtension = ".awcache";
+
+    private File mCacheDir;
+
+    /**
+     * Makes a cache that lives in the given directory
+     */
+    public DatasetCache(File cacheDir)
+    {
+        mCacheDir = cacheDir;
+    }
+
+    /**
+     * Tries to load the training and testing data for a zip file, returning null if they aren't in the cache
+     */
+    public Instances[] load(String zipFileName)
+    {
+        try
+        {
+            File cacheFile = getCacheFile(zipFileName);
+            if(!cacheFile.exists())
+                return null;
+
+            RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+            try
+            {
+                FileChannel channel = file.getChannel();
+                if(!readHeader(file, zipFileName))
+                    return null;
+                readString(file);
+
+                Instances training = readInstances(file, channel);
+                Instances testing = readInstances(file, channel);
+                return new Instances[]{training, testing};
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+        catch(Exception e)
+        {
+            System.out.println("WARNING: Failed to load dataset cache for '" + zipFileName + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the training and testing data from a zip file in the cache, if it's something that we know how to cache
+     */
+    public void save(String zipFileName, Instances training, Instances testing)
+    {
+        if(!canCache(training) || !canCache(testing))
+            return;
+
+        File tmpFile = null;
+        try
+        {
+            File cacheFile = getCacheFile(zipFileName);
+            Util.makePath(mCacheDir.getAbsolutePath());
+
+            //Write it out somewhere else first, so that no one ever sees half a cache file
+            tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", mCacheDir);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try
+            {
+                out.writeInt(msMagic);
+                out.writeInt(msVersion);
+                writeString(out, getFileKey(new File(zipFileName)));
+                writeString(out, hashFile(new File(zipFileName)));
+                writeInstances(out, training);
+                writeInstances(out, testing);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if(!tmpFile.renameTo(cacheFile) && !cacheFile.exists())
+                throw new RuntimeException("Failed to move cache file into place");
+        }
+        catch(Exception e)
+        {
+            System.out.println("WARNING: Failed to save dataset cache for '" + zipFileName + "': " + e.getMessage());
+        }
+        finally
+        {
+            if(tmpFile != null && tmpFile.exists())
+                tmpFile.delete();
+        }
+    }
+
+    /**
+     * Gets the SHA-1 of a zip's contents, from its cache file if it has an up to date one, otherwise by reading the whole zip
+     */
+    public String getContentHash(String zipFileName) throws Exception
+    {
+        File cacheFile = getCacheFile(zipFileName);
+        if(cacheFile.exists())
+        {
+            try
+            {
+                RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+                try
+                {
+                    if(readHeader(file, zipFileName))
+                        return readString(file);
+                }
+                finally
+                {
+                    file.close();
+                }
+            }
+            catch(Exception e)
+            {
+                //Fall back to working it out
+            }
+        }
+        return hashFile(new File(zipFileName));
+    }
+
+    /**
+     * Figures out where the cache file for a given zip should live
+     */
+    private File getCacheFile(String zipFileName) throws Exception
+    {
+        MessageDigest crypt = MessageDigest.getInstance("SHA-1");
+        crypt.update(getFileKey(new File(zipFileName)).getBytes("UTF-8"));
+        return new File(mCacheDir, new BigInteger(1, crypt.digest()).toString(16) + msExtension);
+    }
+
+    /**
+     * Gets something that changes whenever the file does (short of it being rewritten with the same size within the file system's timestamp resolution)
+     */
+    private static String getFileKey(File file) throws Exception
+    {
+        return file.getCanonicalPath() + "\n" + file.length() + "\n" + file.lastModified();
+    }
+
+    /**
+     * Checks that a cache file is one that we know how to read, and that it belongs to the zip as it is now, leaving the file positioned at the content hash
+     */
+    private static boolean readHeader(RandomAccessFile file, String zipFileName) throws Exception
+    {
+        if(file.readInt() != msMagic || file.readInt() != msVersion)
+            return false;
+        return readString(file).equals(getFileKey(new File(zipFileName)));
+    }
+
+    /**
+     * Gets the SHA-1 of a file's contents
+     */
+    static String hashFile(File file) throws Exception
+    {
+        MessageDigest crypt = MessageDigest.getInstance("SHA-1");
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while((read = in.read(buffer)) > 0)
+                crypt.update(buffer, 0, read);
+        }
+        finally
+        {
+            in.close();
+        }
+        return new BigInteger(1, crypt.digest()).toString(16);
+    }
+
+    private static boolean canCache(Instances instances)
+    {
+        for(int i = 0; i < instances.numAttributes(); i++)
+        {
+            if(instances.attribute(i).isRelationValued())
+                return false;
+        }
+        for(int i = 0; i < instances.numInstances(); i++)
+        {
+            if(instances.instance(i) instanceof SparseInstance)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes out the header (prefixed by its length), then the weights and each attribute as a block of doubles
+     */
+    private static void writeInstances(DataOutputStream out, Instances instances) throws Exception
+    {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        writeString(header, instances.relationName());
+        header.writeInt(instances.numAttributes());
+        header.writeInt(instances.numInstances());
+        for(int i = 0; i < instances.numAttributes(); i++)
+        {
+            Attribute att = instances.attribute(i);
+            writeString(header, att.name());
+            header.writeInt(att.type());
+            if(att.isNominal() || att.isString())
+            {
+                header.writeInt(att.numValues());
+                for(int j = 0; j < att.numValues(); j++)
+                    writeString(header, att.value(j));
+            }
+            else if(att.isDate())
+            {
+                writeString(header, att.getDateFormat());
+            }
+        }
+        header.close();
+
+        out.writeInt(headerBytes.size());
+        headerBytes.writeTo(out);
+
+        int numInstances = instances.numInstances();
+        for(int i = 0; i < numInstances; i++)
+            out.writeDouble(instances.instance(i).weight());
+        for(int j = 0; j < instances.numAttributes(); j++)
+        {
+            for(int i = 0; i < numInstances; i++)
+                out.writeDouble(instances.instance(i).value(j));
+        }
+    }
+
+    /**
+     * Reads back something written with writeInstances, leaving the file positioned right after it
+     */
+    private static Instances readInstances(RandomAccessFile file, FileChannel channel) throws Exception
+    {
+        byte[] headerBytes = new byte[file.readInt()];
+        file.readFully(headerBytes);
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes));
+
+        String relationName = readString(header);
+        int numAttributes = header.readInt();
+        int numInstances = header.readInt();
+        ArrayList<Attribute> attInfo = new ArrayList<Attribute>(numAttributes);
+        for(int i = 0; i < numAttributes; i++)
+        {
+            String name = readString(header);
+            int type = header.readInt();
+            if(type == Attribute.NUMERIC)
+            {
+                attInfo.add(new Attribute(name));
+            }
+            else if(type == Attribute.NOMINAL || type == Attribute.STRING)
+            {
+                int numValues = header.readInt();
+                List<String> values = new ArrayList<String>(numValues);
+                for(int j = 0; j < numValues; j++)
+                    values.add(readString(header));
+                if(type == Attribute.NOMINAL)
+                {
+                    attInfo.add(new Attribute(name, values));
+                }
+                else
+                {
+                    Attribute att = new Attribute(name, (List<String>)null);
+                    for(String value : values)
+                        att.addStringValue(value);
+                    attInfo.add(att);
+                }
+            }
+            else if(type == Attribute.DATE)
+            {
+                attInfo.add(new Attribute(name, readString(header)));
+            }
+            else
+            {
+                throw new RuntimeException("Unexpected attribute type " + type + " in cache file");
+            }
+        }
+
+        //Map the weights and each of the columns
+        long blockSize = 8L * numInstances;
+        long position = file.getFilePointer();
+        DoubleBuffer weights = channel.map(FileChannel.MapMode.READ_ONLY, position, blockSize).asDoubleBuffer();
+        DoubleBuffer[] columns = new DoubleBuffer[numAttributes];
+        for(int j = 0; j < numAttributes; j++)
+        {
+            position += blockSize;
+            columns[j] = channel.map(FileChannel.MapMode.READ_ONLY, position, blockSize).asDoubleBuffer();
+        }
+        file.seek(position + blockSize);
+
+        Instances instances = new Instances(relationName, attInfo, numInstances);
+        for(int i = 0; i < numInstances; i++)
+        {
+            //Instances only makes a shallow copy, so every row needs its own array
+            double[] values = new double[numAttributes];
+            for(int j = 0; j < numAttributes; j++)
+                values[j] = columns[j].get(i);
+            Instance inst = new DenseInstance(weights.get(i), values);
+            instances.add(inst);
+        }
+        return instances;
+    }
+
+    //writeUTF can't cope with anything over 64k, which string attributes can easily hit
+    private static void writeString(DataOutputStream out, String str) throws Exception
+    {
+        byte[] bytes = str.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws Exception
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,341 @@
+package autoweka;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+
+import weka.classifiers.trees.PresortedDataCache;
+
+/**
+ * A long lived replacement for forking a SubProcessWrapper for every evaluation.
+ *
+ * The daemon reads SubProcessWrapper argument lists (tab separated, one per line) from stdin and runs them back to back, keeping the ClassifierRunner
+ * (and hence the data that its InstanceGenerator loaded) resident between runs. The output of each run is exactly what a SubProcessWrapper would have printed,
+ * followed by a line saying that the daemon is done with the request.
+ *
+ * Since runs that get terminated can leak, a daemon recycles itself (ie. exits once it has replied) after a fixed number of runs, when its heap is getting full,
+ * or as soon as a run leaves a WorkerThread behind. The caller side of this lives in the static getErrorAndTime, which keeps a pool of idle daemons around.
+ *
+ * The daemon also keeps the presorted training sets that tree learners (RandomTree, RandomForest and bagged trees) build on in a PresortedDataCache,
+ * so that configurations tried on the same fold don't all have to sort the data again. The cache is bounded by 'evaluationDaemonPresortCacheMB', and
+ * how much of it is in use gets printed after each run.
+ *
+ * The daemon is switched on with the 'evaluationDaemon' property, and tuned with 'evaluationDaemonMaxRuns', 'evaluationDaemonHeapFraction' and
+ * 'evaluationDaemonPresortCacheMB'
+ */
+public class EvaluationDaemon
+{
+    private static final String msDoneLine = "EvaluationDaemon: Done";
+    private static final String msRecycleLine = "EvaluationDaemon: Recycling";
+    private static final String msSettingPrefix = "evaluationDaemon";
+    private static final int msDefaultMaxRuns = 50;
+    private static final float msDefaultHeapFraction = 0.75f;
+    private static final int msDefaultPresortCacheMB = 64;
+
+    private Map<String, ClassifierRunner> mRunners = new HashMap<String, ClassifierRunner>();
+    private int mMaxRuns = msDefaultMaxRuns;
+    private float mHeapFraction = msDefaultHeapFraction;
+    private int mNumRuns = 0;
+
+    /**
+     * Starts a daemon that serves requests from stdin until it's recycled or stdin is closed.
+     *
+     * Takes the optional arguments '-maxruns N', '-heapfraction F' and '-presortcache MB'
+     */
+    public static void main(String[] args)
+    {
+        EvaluationDaemon daemon = new EvaluationDaemon();
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-maxruns"))
+                daemon.mMaxRuns = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-heapfraction"))
+                daemon.mHeapFraction = Float.parseFloat(args[++i]);
+            else if(args[i].equals("-presortcache"))
+                PresortedDataCache.setBudget(Long.parseLong(args[++i]) << 20);
+        }
+        daemon.serve();
+        System.exit(0);
+    }
+
+    /**
+     * Main loop of the daemon
+     */
+    private void serve()
+    {
+        PrintStream stdout = System.out;
+        try
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                if(line.isEmpty())
+                    continue;
+
+                boolean recycle = false;
+                try
+                {
+                    new DaemonWrapper().run(line.split("\t"));
+                }
+                catch(Throwable t)
+                {
+                    t.printStackTrace(stdout);
+                    //Anything worse than an exception means we're in no state to keep going
+                    recycle = !(t instanceof Exception);
+                }
+                System.setOut(stdout);
+                mNumRuns++;
+                stdout.println("EvaluationDaemon: " + PresortedDataCache.getStatistics());
+
+                recycle = recycle || shouldRecycle();
+                if(recycle)
+                    stdout.println(msRecycleLine);
+                stdout.println(msDoneLine);
+                stdout.flush();
+
+                if(recycle)
+                    return;
+            }
+        }
+        catch(Exception e)
+        {
+            throw new RuntimeException("Evaluation daemon failed to read its requests", e);
+        }
+    }
+
+    /**
+     * Checks to see if this daemon has done enough work that we no longer trust it to give us clean results
+     */
+    private boolean shouldRecycle()
+    {
+        if(mNumRuns >= mMaxRuns)
+            return true;
+
+        //A hard stop can leave the shared caches half updated
+        if(WorkerThread.wasHardStopped())
+            return true;
+
+        //A worker thread that outlived its run couldn't be stopped, and is holding onto whatever it had
+        for(Thread t : Thread.getAllStackTraces().keySet())
+        {
+            if(t instanceof WorkerThread && t.isAlive())
+                return true;
+        }
+
+        Runtime rt = Runtime.getRuntime();
+        if(rt.totalMemory() - rt.freeMemory() > mHeapFraction * rt.maxMemory())
+        {
+            System.gc();
+            return rt.totalMemory() - rt.freeMemory() > mHeapFraction * rt.maxMemory();
+        }
+        return false;
+    }
+
+    /**
+     * A SubProcessWrapper that hangs on to ClassifierRunners between runs instead of reloading the data every time
+     */
+    private class DaemonWrapper extends SubProcessWrapper
+    {
+        @Override
+        protected ClassifierRunner _createRunner(Properties props)
+        {
+            //Key the runner on everything that went into making it
+            String key = new TreeMap<Object, Object>(props).toString();
+            ClassifierRunner runner = mRunners.get(key);
+            if(runner == null)
+            {
+                runner = super._createRunner(props);
+                mRunners.put(key, runner);
+            }
+            return runner;
+        }
+    }
+
+    /**
+     * Checks the given properties to see if evaluations should be sent to a daemon instead of a fresh sub process
+     */
+    public static boolean isEnabled(Properties props)
+    {
+        return Boolean.valueOf(props.getProperty(msSettingPrefix, "false"));
+    }
+
+    /**
+     * Copies any of the daemon settings found in one set of properties to another
+     */
+    public static void copySettings(Properties from, Properties to)
+    {
+        for(String key : from.stringPropertyNames())
+        {
+            if(key.startsWith(msSettingPrefix))
+                to.setProperty(key, from.getProperty(key));
+        }
+    }
+
+    /**
+     * Handle on a running daemon process that the caller can send requests to
+     */
+    private static class DaemonProcess
+    {
+        private Process mProc;
+        private Thread mKillerHook;
+        private BufferedReader mReader;
+        private PrintWriter mWriter;
+
+        public DaemonProcess(File runDir, String memory, int maxRuns, float heapFraction, int presortCacheMB) throws Exception
+        {
+            List<String> cmd = new ArrayList<String>();
+            cmd.add(Util.getJavaExecutable());
+            cmd.add("-Xmx" + memory);
+            cmd.add("-cp");
+            cmd.add(Util.getAbsoluteClasspath());
+            cmd.add("autoweka.EvaluationDaemon");
+            cmd.add("-maxruns");
+            cmd.add(Integer.toString(maxRuns));
+            cmd.add("-heapfraction");
+            cmd.add(Float.toString(heapFraction));
+            cmd.add("-presortcache");
+            cmd.add(Integer.toString(presortCacheMB));
+
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            if(runDir != null)
+                pb.directory(runDir);
+            pb.redirectErrorStream(true);
+            mProc = pb.start();
+
+            mKillerHook = new Util.ProcessKillerShutdownHook(mProc);
+            Runtime.getRuntime().addShutdownHook(mKillerHook);
+
+            mReader = new BufferedReader(new InputStreamReader(mProc.getInputStream()));
+            mWriter = new PrintWriter(new OutputStreamWriter(mProc.getOutputStream()));
+        }
+
+        /**
+         * Stops the daemon, either killing it or waiting for it to finish up if it's already on its way out
+         */
+        public void retire(boolean kill)
+        {
+            if(kill)
+                mProc.destroy();
+            mWriter.close();
+            try
+            {
+                mProc.waitFor();
+            }
+            catch(InterruptedException e)
+            {
+                mProc.destroy();
+            }
+            Runtime.getRuntime().removeShutdownHook(mKillerHook);
+        }
+    }
+
+    //Idle daemons, keyed by the settings that they were started with
+    private static final Map<String, LinkedList<DaemonProcess>> msIdleDaemons = new HashMap<String, LinkedList<DaemonProcess>>();
+
+    private static synchronized DaemonProcess acquire(String key, File runDir, String memory, int maxRuns, float heapFraction, int presortCacheMB) throws Exception
+    {
+        LinkedList<DaemonProcess> idle = msIdleDaemons.get(key);
+        if(idle != null && !idle.isEmpty())
+            return idle.poll();
+        return new DaemonProcess(runDir, memory, maxRuns, heapFraction, presortCacheMB);
+    }
+
+    private static synchronized void release(String key, DaemonProcess daemon)
+    {
+        LinkedList<DaemonProcess> idle = msIdleDaemons.get(key);
+        if(idle == null)
+        {
+            idle = new LinkedList<DaemonProcess>();
+            msIdleDaemons.put(key, idle);
+        }
+        idle.add(daemon);
+    }
+
+    /**
+     * Sends a run to a daemon (starting one if there are none idle), and returns the result back up to the caller.
+     *
+     * This is the daemon equivalent of SubProcessWrapper.getErrorAndTime, and gets called from there when the daemon is enabled
+     */
+    static SubProcessWrapper.ErrorAndTime getErrorAndTime(File runDir, String memory, Properties props, List<String> wrapperArgs, boolean verbose, String autowekaSeed)
+    {
+        int maxRuns = Integer.parseInt(props.getProperty(msSettingPrefix + "MaxRuns", Integer.toString(msDefaultMaxRuns)));
+        float heapFraction = Float.parseFloat(props.getProperty(msSettingPrefix + "HeapFraction", Float.toString(msDefaultHeapFraction)));
+        int presortCacheMB = Integer.parseInt(props.getProperty(msSettingPrefix + "PresortCacheMB", Integer.toString(msDefaultPresortCacheMB)));
+        String key = memory + ":" + (runDir == null ? "" : runDir.getAbsolutePath()) + ":" + maxRuns + ":" + heapFraction + ":" + presortCacheMB;
+
+        List<String> request = new ArrayList<String>();
+        request.add("-experimentseed");
+        request.add(autowekaSeed);
+        request.addAll(wrapperArgs);
+        String requestLine = Util.joinStrings("\t", request);
+        if(verbose)
+            System.out.println("EvaluationDaemon request: " + requestLine.replace('\t', ' '));
+
+        DaemonProcess daemon = null;
+        try
+        {
+            daemon = acquire(key, runDir, memory, maxRuns, heapFraction, presortCacheMB);
+            daemon.mWriter.println(requestLine);
+            daemon.mWriter.flush();
+
+            float error = 0;
+            float time = 0;
+            boolean foundMatch = false;
+            boolean done = false;
+            boolean recycle = false;
+
+            String line;
+            while((line = daemon.mReader.readLine()) != null)
+            {
+                if(line.equals(msDoneLine))
+                {
+                    done = true;
+                    break;
+                }
+                if(line.equals(msRecycleLine))
+                {
+                    recycle = true;
+                    continue;
+                }
+                if(verbose)
+                    System.out.println(line);
+                Matcher matcher = SubProcessWrapper.mResultPattern.matcher(line);
+                if(matcher.matches())
+                {
+                    time = Float.parseFloat(matcher.group(1));
+                    error = Float.parseFloat(matcher.group(2));
+                    foundMatch = true;
+                }
+            }
+
+            if(done && !recycle)
+                release(key, daemon);
+            else
+                daemon.retire(!done);
+            daemon = null;
+
+            if(!foundMatch)
+                throw new RuntimeException("Failed to find output line from evaluation daemon");
+
+            return new SubProcessWrapper.ErrorAndTime(error, time);
+        }
+        catch(Exception e)
+        {
+            if(daemon != null)
+                daemon.retire(true);
+            throw new RuntimeException("Failed to invoke evaluation daemon", e);
+        }
+    }
+}
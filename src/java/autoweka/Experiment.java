@@ -270,6 +270,12 @@ public class Experiment extends XmlSerializable
             BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
             BufferedWriter logOutput = new BufferedWriter(new FileWriter(experiment.getParentFile() + File.separator + "out" + File.separator + "logs" + File.separator + seed + ".log"));
 
+            //Keep an eye on the incumbent while the run is going
+            Thread liveUpdates = null;
+            float liveInterval = Float.parseFloat(Util.parsePropertyString(exp.extraPropsString).getProperty("liveTrajectoryInterval", "60"));
+            if(liveInterval > 0)
+                liveUpdates = TrajectoryParser.startLiveUpdates(exp, expFolder, seed, liveInterval);
+
             while ((line = reader.readLine ()) != null) {
                 if(!silent)
                     System.out.println(line);
@@ -277,6 +283,12 @@ public class Experiment extends XmlSerializable
                 logOutput.flush();
             }
 
+            if(liveUpdates != null)
+            {
+                liveUpdates.interrupt();
+                liveUpdates.join();
+            }
+
             //And we might as well do the trajectory parse
             TrajectoryParser.main(new String[]{"-single", expFolder.getAbsolutePath(), seed});
 
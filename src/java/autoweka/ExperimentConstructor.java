@@ -266,6 +266,9 @@ public abstract class ExperimentConstructor {
         props.setProperty("datasetString", mExperiment.datasetString);
         props.setProperty("instanceGenerator", mExperiment.instanceGenerator);
         props.setProperty("resultMetric", mExperiment.resultMetric);
+        Properties extraProps = Util.parsePropertyString(mExperiment.extraPropsString);
+        ResultCache.copySettings(extraProps, props);
+        ClassifierRunner.copySettings(extraProps, props);
 
         /*
          * if(mExperiment.regularizer != null) { sb.append(":regularizer=");
@@ -0,0 +1,269 @@
+package autoweka;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Evaluates a configuration on a number of instances (ie. the folds) at the same time inside this JVM, instead of forking a SubProcessWrapper for each one.
+ *
+ * All the folds share the data that was loaded by a single ClassifierRunner, and each fold's timeout is checked against the CPU time of its own threads
+ * so that folds running side by side don't eat into each others' budgets. Results come back in the same form as SubProcessWrapper.getErrorAndTime,
+ * so callers can keep applying whatever early-abort rule they had before.
+ *
+ * The number of folds that run at once comes from the 'foldParallelism' property, where anything less than 2 means the old sub process behaviour should be used.
+ *
+ * Runs go through the ResultCache when the properties switch it on, just like they do in a SubProcessWrapper
+ *
+ * Once a WorkerThread in this JVM has had to be stopped hard, nothing else gets run in here (see isUsable()) - folds that haven't started yet, and
+ * ones that finished while it happened, go through a SubProcessWrapper instead, as set up by setFallback()
+ */
+public class FoldEvaluator
+{
+    private static final long msAwaitInterval = 10;
+
+    private ClassifierRunner mRunner;
+    private Properties mProperties;
+    private ExecutorService mExecutor;
+    private File mFallbackDir;
+    private String mFallbackMemory;
+    private Properties mFallbackProperties;
+
+    /**
+     * Gets how many folds should be evaluated at once given a set of properties
+     */
+    public static int getParallelism(Properties props)
+    {
+        return Integer.parseInt(props.getProperty("foldParallelism", "1"));
+    }
+
+    /**
+     * Makes an evaluator with a ClassifierRunner built from the given properties (see ClassifierRunner for what it needs)
+     */
+    public FoldEvaluator(Properties runnerProps, int numThreads)
+    {
+        this(new ClassifierRunner(runnerProps), runnerProps, numThreads);
+    }
+
+    /**
+     * Makes an evaluator that runs everything through the given ClassifierRunner, which was built from the given properties
+     */
+    public FoldEvaluator(ClassifierRunner runner, Properties runnerProps, int numThreads)
+    {
+        mRunner = runner;
+        mProperties = runnerProps;
+        mExecutor = Executors.newFixedThreadPool(numThreads, new ThreadFactory(){
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "FoldEvaluator");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Gets the runner that the folds are run through
+     */
+    public ClassifierRunner getRunner()
+    {
+        return mRunner;
+    }
+
+    /**
+     * Sets up the SubProcessWrapper that runs are handed to once this JVM can't be trusted with them any more. Without one, those runs fail
+     */
+    public void setFallback(File runDir, String memory, Properties props)
+    {
+        mFallbackDir = runDir;
+        mFallbackMemory = memory;
+        mFallbackProperties = props;
+    }
+
+    /**
+     * Checks to see if runs can still be done in this JVM - after a hard stop, whatever the stopped thread held (the runner's caches included)
+     * could be half way through an update, so nothing more should be run through it or written to the ResultCache
+     */
+    public static boolean isUsable()
+    {
+        return !WorkerThread.wasHardStopped();
+    }
+
+    /**
+     * Queues up a run on each of the instances, returning futures for the results in the same order.
+     *
+     * Folds start in order, so if a caller decides to stop early it can cancel the tail of the list and only lose whatever was already running
+     */
+    public List<Future<SubProcessWrapper.ErrorAndTime>> submit(List<String> instances, final String resultMetric, final float timeout, final String experimentSeed, final List<String> args)
+    {
+        List<Future<SubProcessWrapper.ErrorAndTime>> futures = new ArrayList<Future<SubProcessWrapper.ErrorAndTime>>(instances.size());
+        for(String instance : instances)
+        {
+            final String instanceStr = instance.replace("{SEED}", experimentSeed);
+            futures.add(mExecutor.submit(new Callable<SubProcessWrapper.ErrorAndTime>(){
+                public SubProcessWrapper.ErrorAndTime call()
+                {
+                    return evaluate(instanceStr, resultMetric, timeout, experimentSeed, args);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * Does a single run, turning it into the same error and time that a SubProcessWrapper would have reported
+     */
+    private SubProcessWrapper.ErrorAndTime evaluate(String instance, String resultMetric, float timeout, String experimentSeed, List<String> args)
+    {
+        if(!isUsable())
+            return fallback(instance, timeout, experimentSeed, args);
+
+        java.lang.management.ThreadMXBean threadBean = java.lang.management.ManagementFactory.getThreadMXBean();
+        long startTime = threadBean.getCurrentThreadCpuTime();
+        try
+        {
+            ClassifierResult res = ResultCache.run(mRunner, mProperties, instance, resultMetric, timeout, experimentSeed, args);
+            if(res == null)
+                return new SubProcessWrapper.ErrorAndTime(1.0e10f, 0);
+
+            //A timeout stays a timeout, but anything else could have come from what the hard stop left behind
+            if(!res.getCompleted())
+                return new SubProcessWrapper.ErrorAndTime(1.0e10f, res.getTime());
+            if(!isUsable())
+                return fallback(instance, timeout, experimentSeed, args);
+            return new SubProcessWrapper.ErrorAndTime(res.getScore(), res.getTime());
+        }
+        catch(Throwable e)
+        {
+            e.printStackTrace();
+            if(!isUsable())
+                return fallback(instance, timeout, experimentSeed, args);
+
+            //Same penalty that Wrapper._doRun hands out
+            long stopTime = threadBean.getCurrentThreadCpuTime();
+            return new SubProcessWrapper.ErrorAndTime(1.0e10f, 1.0f + ((stopTime - startTime) * 1e-9f));
+        }
+    }
+
+    /**
+     * Does a run in a SubProcessWrapper, for when this JVM is no longer usable
+     */
+    private SubProcessWrapper.ErrorAndTime fallback(String instance, float timeout, String experimentSeed, List<String> args)
+    {
+        if(mFallbackProperties == null)
+            throw new IllegalStateException("A worker thread was stopped hard, and there's nowhere else to run " + instance);
+        return SubProcessWrapper.getErrorAndTime(mFallbackDir, mFallbackMemory, mFallbackProperties, timeout, instance, Util.joinStrings(" ", args), true, experimentSeed);
+    }
+
+    /**
+     * Waits on the result of a single fold
+     */
+    public static SubProcessWrapper.ErrorAndTime get(Future<SubProcessWrapper.ErrorAndTime> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch(Exception e)
+        {
+            throw new RuntimeException("Failed to get the result of a fold", e);
+        }
+    }
+
+    /**
+     * Called once a caller is done looking at results: anything from index 'from' onwards that hasn't started is cancelled,
+     * and anything that's already running is waited on. Returns the time reported by the runs that were waited on
+     */
+    public static float finish(List<Future<SubProcessWrapper.ErrorAndTime>> futures, int from)
+    {
+        float time = 0;
+        for(int i = from; i < futures.size(); i++)
+            futures.get(i).cancel(false);
+        for(int i = from; i < futures.size(); i++)
+        {
+            Future<SubProcessWrapper.ErrorAndTime> future = futures.get(i);
+            if(future.isCancelled())
+                continue;
+            try
+            {
+                time += future.get().time;
+            }
+            catch(Exception e)
+            {
+                //It's already been cancelled/reported, nothing more to do
+            }
+        }
+        return time;
+    }
+
+    /**
+     * Waits for whichever fold that hasn't been handled yet finishes first, so that results can be looked at in the order they come in.
+     *
+     * Returns the index of that fold, or -1 if they've all been handled
+     */
+    public static int awaitAny(List<Future<SubProcessWrapper.ErrorAndTime>> futures, boolean[] handled)
+    {
+        while(true)
+        {
+            int pending = -1;
+            for(int i = 0; i < futures.size(); i++)
+            {
+                if(handled[i])
+                    continue;
+                if(futures.get(i).isDone())
+                    return i;
+                if(pending < 0)
+                    pending = i;
+            }
+            if(pending < 0)
+                return -1;
+
+            //Folds start in order, so the first one that's still going is as good a thing to wait on as any
+            try
+            {
+                futures.get(pending).get(msAwaitInterval, java.util.concurrent.TimeUnit.MILLISECONDS);
+            }
+            catch(java.util.concurrent.TimeoutException e)
+            {
+                //Go around and see if something else is done
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting on a fold", e);
+            }
+            catch(Exception e)
+            {
+                //It's done, just not well - get() will report that
+            }
+        }
+    }
+
+    /**
+     * Like finish, but for when the results were looked at out of order: everything that hasn't been handled is cancelled or waited on
+     */
+    public static float finish(List<Future<SubProcessWrapper.ErrorAndTime>> futures, boolean[] handled)
+    {
+        List<Future<SubProcessWrapper.ErrorAndTime>> remaining = new ArrayList<Future<SubProcessWrapper.ErrorAndTime>>();
+        for(int i = 0; i < futures.size(); i++)
+        {
+            if(!handled[i])
+                remaining.add(futures.get(i));
+        }
+        return finish(remaining, 0);
+    }
+
+    /**
+     * Stops the threads that run the folds once everything currently queued is done
+     */
+    public void shutdown()
+    {
+        mExecutor.shutdown();
+    }
+}
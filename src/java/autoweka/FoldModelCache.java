@@ -0,0 +1,110 @@
+package autoweka;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import autoweka.instancegenerators.CrossValidation;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.CrossValidationHandler;
+import weka.core.Utils;
+
+/**
+ * Keeps the models that a CrossValidationHandler (eg. NaiveBayes) builds for every fold of a cross-validation in one pass over the data, so that when the folds of
+ * a configuration are evaluated through the same ClassifierRunner, be it one after the other or side by side in a FoldEvaluator, only the first one has to look at the data.
+ *
+ * Sets of models are looked up by the classifier's class and options along with the seed, number of folds and stratification of the CV, and only the few most recently
+ * used sets are kept around
+ */
+public class FoldModelCache
+{
+    private static final int msMaxEntries = 8;
+
+    private CrossValidation mGenerator;
+
+    //Whoever asks for a set of models first builds it, everyone else waits on the same task
+    private Map<String, FutureTask<Classifier[]>> mModels = new ModelMap();
+
+    /**
+     * Drops the least recently used set of models once there are too many
+     */
+    private static class ModelMap extends LinkedHashMap<String, FutureTask<Classifier[]>>
+    {
+        private static final long serialVersionUID = -4127096837218150583L;
+
+        ModelMap()
+        {
+            super(16, 0.75f, true);
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<String, FutureTask<Classifier[]>> eldest)
+        {
+            return size() > msMaxEntries;
+        }
+    }
+
+    /**
+     * Makes a cache for the folds that come out of the given generator
+     */
+    public FoldModelCache(CrossValidation generator)
+    {
+        mGenerator = generator;
+    }
+
+    /**
+     * Gets the model for the fold in the instance string, building the models for all the folds if they aren't around yet.
+     *
+     * The classifier must be a CrossValidationHandler that can build fold models from the training data; it's only used as a template
+     */
+    public AbstractClassifier getModel(final AbstractClassifier classifier, String instanceStr) throws Exception
+    {
+        final Properties params = Util.parsePropertyString(instanceStr);
+        int fold = Integer.parseInt(params.getProperty("fold", "-1"));
+        String key = classifier.getClass().getName() + " " + Utils.joinOptions(classifier.getOptions()) + ":" + params.getProperty("seed", "0") + ":"
+                   + params.getProperty("numFolds", "-1") + ":" + params.getProperty("stratify", "false");
+
+        FutureTask<Classifier[]> task;
+        boolean owner = false;
+        synchronized(this)
+        {
+            task = mModels.get(key);
+            if(task == null)
+            {
+                task = new FutureTask<Classifier[]>(new Callable<Classifier[]>(){
+                    public Classifier[] call() throws Exception
+                    {
+                        int numFolds = Integer.parseInt(params.getProperty("numFolds", "-1"));
+                        return ((CrossValidationHandler)classifier).buildFoldClassifiers(mGenerator.getSharedTraining(), mGenerator.getFoldAssignments(params), numFolds);
+                    }
+                });
+                mModels.put(key, task);
+                owner = true;
+            }
+        }
+
+        if(owner)
+            task.run();
+
+        try
+        {
+            return (AbstractClassifier)task.get()[fold];
+        }
+        catch(ExecutionException e)
+        {
+            //Don't hang on to failures, the next configuration to come along might have more time
+            synchronized(this)
+            {
+                if(mModels.get(key) == task)
+                    mModels.remove(key);
+            }
+            if(e.getCause() instanceof Exception)
+                throw (Exception)e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package autoweka;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -58,7 +59,7 @@ public abstract class InstanceGenerator
             }catch(Exception e){
               	e.printStackTrace();
                 System.out.println("It looks like you're using an old experiment that doesn't indicate the type of dataset that it is using");
-                loadZipFile(datasetString, "last");
+                loadZipFile(datasetString, "last", null);
                 return;
             }
 
@@ -67,7 +68,7 @@ public abstract class InstanceGenerator
             if(type == null){
                 throw new RuntimeException("Dataset string does not contain a type");
             }else if(type.equals("zipFile")){
-                loadZipFile(props.getProperty("zipFile"), props.getProperty("classIndex", "last"));
+                loadZipFile(props.getProperty("zipFile"), props.getProperty("classIndex", "last"), props.getProperty("datasetCache", null));
             }else if(type.equals("trainTestArff")){
                 loadTrainTestArff(props.getProperty("trainArff"), props.getProperty("testArff"), props.getProperty("classIndex", "last"));
             }else{
@@ -77,10 +78,27 @@ public abstract class InstanceGenerator
     }
 
     /**
-     * Loads up the training and testing data from a zip file
+     * Loads up the training and testing data from a zip file.
+     *
+     * If the dataset string gives a 'datasetCache' directory, the data is pulled out of the DatasetCache living there, parsing the zip (and populating the cache) only on a miss
      */
-    private void loadZipFile(String zipFileName, String classIndex)
+    private void loadZipFile(String zipFileName, String classIndex, String datasetCache)
     {
+        DatasetCache cache = null;
+        if(datasetCache != null && !datasetCache.isEmpty() && !datasetCache.equals("false"))
+        {
+            cache = new DatasetCache(new File(datasetCache));
+            Instances[] cached = cache.load(zipFileName);
+            if(cached != null)
+            {
+                mTraining = cached[0];
+                mTesting = cached[1];
+                setClassIndex(mTraining, classIndex);
+                setClassIndex(mTesting, classIndex);
+                return;
+            }
+        }
+
         InputStream trainSource = null, testSource = null;
         //The instance file is a zipped file containing a file called 'train' and one called 'test'
         ZipFile zipFile = null;
@@ -113,12 +131,6 @@ public abstract class InstanceGenerator
         //Get the training data
         try {
             mTraining = Util.loadDataSource(trainSource);
-            if (mTraining.classIndex() == -1){
-                if(classIndex.equals("last"))
-                    mTraining.setClassIndex(mTraining.numAttributes() - 1);
-                else
-                    mTraining.setClassIndex(Integer.parseInt(classIndex));
-            }
         } catch(Exception e) {
             throw new RuntimeException("Failed to load training data provided in zip", e);
         }
@@ -126,12 +138,6 @@ public abstract class InstanceGenerator
         //Get the testing data
         try {
             mTesting  = Util.loadDataSource(testSource);
-            if (mTesting.classIndex() == -1){
-                if(classIndex.equals("last"))
-                    mTesting.setClassIndex(mTesting.numAttributes() - 1);
-                else
-                    mTesting.setClassIndex(Integer.parseInt(classIndex));
-            }
         } catch(Exception e) {
             throw new RuntimeException("Failed to load testing data provided in zip", e);
         }
@@ -142,6 +148,26 @@ public abstract class InstanceGenerator
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        //The cache holds the data as it came out of the ARFFs, before we go choosing a class
+        if(cache != null)
+            cache.save(zipFileName, mTraining, mTesting);
+
+        setClassIndex(mTraining, classIndex);
+        setClassIndex(mTesting, classIndex);
+    }
+
+    /**
+     * Sets the class index on some freshly loaded data, unless the data already came with one
+     */
+    private static void setClassIndex(Instances instances, String classIndex)
+    {
+        if (instances.classIndex() == -1){
+            if(classIndex.equals("last"))
+                instances.setClassIndex(instances.numAttributes() - 1);
+            else
+                instances.setClassIndex(Integer.parseInt(classIndex));
+        }
     }
     
     private void loadTrainTestArff(String trainArff, String testArff, String classIndex)
@@ -220,6 +246,14 @@ public abstract class InstanceGenerator
         return new Instances(mTraining);
     }
 
+    /**
+     * Gets the training data itself rather than a copy - callers must not modify what they get back
+     */
+    protected Instances getSharedTraining()
+    {
+        return mTraining;
+    }
+
     /**
      * Gets a copy of the testing data
      */
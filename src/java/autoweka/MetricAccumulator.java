@@ -0,0 +1,287 @@
+package autoweka;
+
+import weka.classifiers.Classifier;
+import weka.core.BatchPredictor;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Keeps the running sums that the built in metrics need as predictions stream in, without the prediction object per instance that weka's Evaluation holds on to.
+ *
+ * The sums are the same ones Evaluation keeps, with the priors taken from the data it's made with just like new Evaluation(data), so the scores come out the same.
+ * If asked to, it also keeps the predicted probability of the first class and the label of every instance in primitive arrays, so that the area under the ROC
+ * curve can be worked out with one sort at the end
+ */
+public class MetricAccumulator
+{
+    private int mNumClasses;
+    private boolean mClassIsNominal;
+    private double[] mClassPriors;
+    private double mClassPriorsSum;
+
+    private double mWithClass = 0;
+    private double mUnclassified = 0;
+    private double mCorrect = 0;
+    private double mSumAbsErr = 0;
+    private double mSumSqrErr = 0;
+    private double mSumPriorAbsErr = 0;
+    private double mSumPriorSqrErr = 0;
+
+    //Only there when the scores are kept
+    private double[] mScores = null;
+    private double[] mWeights = null;
+    private boolean[] mPositive = null;
+    private int mNumScores = 0;
+
+    /**
+     * Prepares to accumulate predictions on the given data, which the priors are taken from
+     */
+    public MetricAccumulator(Instances data)
+    {
+        this(data, false);
+    }
+
+    /**
+     * Prepares to accumulate predictions on the given data, which the priors are taken from, and optionally keeps the scores needed for the area under the ROC curve
+     */
+    public MetricAccumulator(Instances data, boolean keepScores)
+    {
+        mNumClasses = data.numClasses();
+        mClassIsNominal = data.classAttribute().isNominal();
+        mClassPriors = new double[mNumClasses];
+
+        //Same as Evaluation.setPriors
+        if(mClassIsNominal)
+        {
+            for(int i = 0; i < mNumClasses; i++)
+                mClassPriors[i] = 1;
+            mClassPriorsSum = mNumClasses;
+            for(int i = 0; i < data.numInstances(); i++)
+            {
+                Instance inst = data.instance(i);
+                if(!inst.classIsMissing())
+                {
+                    mClassPriors[(int)inst.classValue()] += inst.weight();
+                    mClassPriorsSum += inst.weight();
+                }
+            }
+        }
+        else
+        {
+            mClassPriors[0] = mClassPriorsSum = 0;
+            for(int i = 0; i < data.numInstances(); i++)
+            {
+                Instance inst = data.instance(i);
+                if(!inst.classIsMissing())
+                {
+                    mClassPriors[0] += inst.classValue() * inst.weight();
+                    mClassPriorsSum += inst.weight();
+                }
+            }
+        }
+
+        if(keepScores && mClassIsNominal)
+        {
+            mScores = new double[data.numInstances()];
+            mWeights = new double[data.numInstances()];
+            mPositive = new boolean[data.numInstances()];
+        }
+    }
+
+    /**
+     * Runs the classifier over the data, a batch at a time if it can predict in batches, and adds up its predictions.
+     *
+     * Stops part way through if the thread is interrupted, just like Evaluation.evaluateModel
+     */
+    public void evaluateModel(Classifier classifier, Instances data) throws Exception
+    {
+        if(classifier instanceof BatchPredictor)
+        {
+            int batchSize = data.numInstances();
+            try
+            {
+                batchSize = Integer.parseInt(((BatchPredictor)classifier).getBatchSize());
+            }
+            catch(NumberFormatException e)
+            {
+            }
+            batchSize = Math.max(1, batchSize);
+
+            for(int start = 0; start < data.numInstances(); start += batchSize)
+            {
+                int size = Math.min(batchSize, data.numInstances() - start);
+                double[][] dists = ((BatchPredictor)classifier).distributionsForInstances(new Instances(data, start, size));
+                for(int j = 0; j < size; j++)
+                    addPrediction(dists[j], data.instance(start + j));
+                if(Thread.currentThread().isInterrupted())
+                    break;
+            }
+        }
+        else
+        {
+            for(int i = 0; i < data.numInstances(); i++)
+            {
+                Instance inst = data.instance(i);
+                Instance classMissing = (Instance)inst.copy();
+                classMissing.setDataset(inst.dataset());
+                classMissing.setClassMissing();
+                addPrediction(classifier.distributionForInstance(classMissing), inst);
+                if(Thread.currentThread().isInterrupted())
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adds the prediction for one instance
+     */
+    public void addPrediction(double[] dist, Instance instance)
+    {
+        //ThresholdCurve checks for a missing class with ==, which never matches NaN, so Evaluation ranks those instances as negatives
+        if(mScores != null && instance.weight() >= 0)
+        {
+            mScores[mNumScores] = dist[0];
+            mWeights[mNumScores] = instance.weight();
+            mPositive[mNumScores] = !instance.classIsMissing() && (int)instance.classValue() == 0;
+            mNumScores++;
+        }
+
+        if(instance.classIsMissing())
+            return;
+
+        double weight = instance.weight();
+        double classValue = instance.classValue();
+        int actualClass = (int)classValue;
+        mWithClass += weight;
+
+        if(mClassIsNominal)
+        {
+            //The first class with the highest probability, none if they're all 0
+            int predictedClass = -1;
+            double bestProb = 0;
+            for(int i = 0; i < mNumClasses; i++)
+            {
+                if(dist[i] > bestProb)
+                {
+                    predictedClass = i;
+                    bestProb = dist[i];
+                }
+            }
+            if(predictedClass < 0)
+            {
+                mUnclassified += weight;
+                return;
+            }
+            if(predictedClass == actualClass)
+                mCorrect += weight;
+        }
+        else if(Utils.isMissingValue(dist[0]))
+        {
+            mUnclassified += weight;
+            return;
+        }
+
+        //Same arithmetic as Evaluation.updateNumericScores, with the actual distribution worked out on the fly
+        double sumAbsErr = 0, sumSqrErr = 0;
+        double sumPriorAbsErr = 0, sumPriorSqrErr = 0;
+        for(int i = 0; i < mNumClasses; i++)
+        {
+            double actual = mClassIsNominal ? (i == actualClass ? 1 : 0) : classValue;
+            double diff = dist[i] - actual;
+            sumAbsErr += Math.abs(diff);
+            sumSqrErr += diff * diff;
+            diff = (mClassPriors[i] / mClassPriorsSum) - actual;
+            sumPriorAbsErr += Math.abs(diff);
+            sumPriorSqrErr += diff * diff;
+        }
+        mSumAbsErr += weight * sumAbsErr / mNumClasses;
+        mSumSqrErr += weight * sumSqrErr / mNumClasses;
+        mSumPriorAbsErr += weight * sumPriorAbsErr / mNumClasses;
+        mSumPriorSqrErr += weight * sumPriorSqrErr / mNumClasses;
+    }
+
+    /**
+     * Gets the total weight of the instances that had a class
+     */
+    public double numInstances()
+    {
+        return mWithClass;
+    }
+
+    /**
+     * Gets the total weight of the instances that no prediction was made for
+     */
+    public double unclassified()
+    {
+        return mUnclassified;
+    }
+
+    public double pctCorrect()
+    {
+        return 100 * mCorrect / mWithClass;
+    }
+
+    public double meanAbsoluteError()
+    {
+        return mSumAbsErr / (mWithClass - mUnclassified);
+    }
+
+    public double rootMeanSquaredError()
+    {
+        return Math.sqrt(mSumSqrErr / (mWithClass - mUnclassified));
+    }
+
+    public double relativeAbsoluteError()
+    {
+        return 100 * meanAbsoluteError() / (mSumPriorAbsErr / mWithClass);
+    }
+
+    public double rootRelativeSquaredError()
+    {
+        return 100.0 * rootMeanSquaredError() / Math.sqrt(mSumPriorSqrErr / mWithClass);
+    }
+
+    /**
+     * Gets the area under the ROC curve with the first class as the positive one, NaN if the scores weren't kept.
+     *
+     * Instances are ranked by their probability of the first class, and ties count half, which is the area ThresholdCurve.getROCArea comes up with
+     */
+    public double areaUnderROC()
+    {
+        if(mScores == null)
+            return Double.NaN;
+
+        double[] scores = new double[mNumScores];
+        System.arraycopy(mScores, 0, scores, 0, mNumScores);
+        int[] order = Utils.sort(scores);
+
+        double totalPos = 0, totalNeg = 0;
+        for(int i = 0; i < mNumScores; i++)
+        {
+            if(mPositive[i])
+                totalPos += mWeights[i];
+            else
+                totalNeg += mWeights[i];
+        }
+
+        //Go up through the groups of equal scores, counting the negatives below each positive
+        double area = 0, cumNeg = 0;
+        int i = 0;
+        while(i < mNumScores)
+        {
+            double score = scores[order[i]];
+            double pos = 0, neg = 0;
+            for(; i < mNumScores && scores[order[i]] == score; i++)
+            {
+                if(mPositive[order[i]])
+                    pos += mWeights[order[i]];
+                else
+                    neg += mWeights[order[i]];
+            }
+            area += pos * (cumNeg + 0.5 * neg);
+            cumNeg += neg;
+        }
+        return area / (totalNeg * totalPos);
+    }
+}
@@ -0,0 +1,516 @@
+package autoweka;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * A persistent store of evaluation results that is shared between seeds, optimisers and restarts, so that a configuration that has already been evaluated on an instance
+ * doesn't need to be trained all over again.
+ *
+ * Results are keyed on the SHA-1 of the dataset's contents, the instance generator, the instance string, the classifier arguments (in the canonical form that
+ * WekaArgumentConverter hands to WEKA, so inactive parameters and argument order don't matter) and the result metric. They are appended to 'results.log' in the cache directory,
+ * while 'results.idx' holds a sorted index from keys to log offsets that covers the start of the log. Anything past the indexed part is scanned on a lookup, and the index gets rebuilt
+ * once that tail grows long. Every write happens under a lock on the log file, so any number of wrappers can share a cache.
+ *
+ * Completed runs are always reused, while a run that didn't complete is only reused if its timeout was at least as long as the one that's being asked for. Runs that threw
+ * or ran out of memory are never stored. A cached result reports the times of the original run, so trajectories look the same whether or not the cache was hit.
+ *
+ * The cache is switched on by setting the 'resultCache' property to the directory that it should live in
+ */
+public class ResultCache
+{
+    private static final int msIndexMagic = 0x41575243;
+    private static final int msIndexVersion = 1;
+    private static final int msKeyLength = 20;
+    private static final int msIndexHeaderLength = 20;
+    private static final int msIndexEntryLength = msKeyLength + 8;
+    private static final int msReindexThreshold = 256;
+    private static final String msSettingName = "resultCache";
+
+    //File locks belong to the whole JVM, so threads in here have to take turns before asking for one
+    private static final Object msFileLockMonitor = new Object();
+    //Hashing a dataset is slow, so only do it once per dataset string
+    private static final Map<String, String> msDatasetHashes = new HashMap<String, String>();
+
+    private File mDir;
+    private File mLogFile;
+    private File mIndexFile;
+
+    /**
+     * Makes a cache that lives in the given directory
+     */
+    public ResultCache(File dir)
+    {
+        mDir = dir;
+        mLogFile = new File(dir, "results.log");
+        mIndexFile = new File(dir, "results.idx");
+    }
+
+    /**
+     * Gets the cache that a run with the given properties should use, or null if there isn't one.
+     *
+     * Runs that have to hand back the trained model (ie. to save it, make predictions or do extra runs on it) never use the cache
+     */
+    public static ResultCache create(Properties props)
+    {
+        String dir = props.getProperty(msSettingName, null);
+        if(dir == null || dir.isEmpty() || dir.equals("false"))
+            return null;
+        if(props.containsKey("modelOutputFilePrefix") || props.containsKey("predictionsFileName") || props.containsKey("extraRun0"))
+            return null;
+        return new ResultCache(new File(dir));
+    }
+
+    /**
+     * Does a run through the runner, unless the properties switch on a cache that already has a result for it. A fresh result is added to the cache, unless a WorkerThread has been stopped hard since this JVM started.
+     *
+     * Anything that the runner throws is passed on, and nothing gets cached for it
+     */
+    public static ClassifierResult run(ClassifierRunner runner, Properties props, String instance, String resultMetric, float timeout, String seed, List<String> args)
+    {
+        ResultCache cache = create(props);
+        String key = null;
+        if(cache != null)
+        {
+            key = getKey(props, instance, args, resultMetric);
+            ClassifierResult cached = (key == null) ? null : cache.get(key, resultMetric, timeout);
+            if(cached != null)
+            {
+                System.out.println("Using cached result " + key);
+                return cached;
+            }
+        }
+
+        ClassifierResult res = runner.run(instance, resultMetric, timeout, seed, args);
+        //Once something's been stopped hard, the result can't be trusted enough to hand out again
+        if(key != null && !WorkerThread.wasHardStopped())
+            cache.put(key, timeout, res);
+        return res;
+    }
+
+    /**
+     * Copies the cache setting from one set of properties to another
+     */
+    public static void copySettings(Properties from, Properties to)
+    {
+        if(from.containsKey(msSettingName))
+            to.setProperty(msSettingName, from.getProperty(msSettingName));
+    }
+
+    /**
+     * Gets the key for a run, or null if the arguments are something that we can't make sense of (in which case the run should just go ahead uncached)
+     */
+    public static String getKey(Properties props, String instance, List<String> args, String resultMetric)
+    {
+        String canonicalArgs;
+        try
+        {
+            WekaArgumentConverter.Arguments wekaArgs = WekaArgumentConverter.convert(args);
+            canonicalArgs = new TreeMap<String, String>(wekaArgs.propertyMap).toString() + new TreeMap<String, List<String>>(wekaArgs.argMap).toString();
+        }
+        catch(Exception e)
+        {
+            return null;
+        }
+
+        try
+        {
+            MessageDigest crypt = MessageDigest.getInstance("SHA-1");
+            String datasetString = props.getProperty("datasetString", "");
+            for(String part : new String[]{getDatasetHash(datasetString), props.getProperty("instanceGenerator", ""), instance, canonicalArgs, resultMetric})
+            {
+                crypt.update(part.getBytes("UTF-8"));
+                crypt.update((byte)'\n');
+            }
+            return String.format("%040x", new BigInteger(1, crypt.digest()));
+        }
+        catch(Exception e)
+        {
+            throw new RuntimeException("Failed to hash result cache key", e);
+        }
+    }
+
+    /**
+     * Boils the dataset string down to something that changes whenever the data does
+     */
+    private static synchronized String getDatasetHash(String datasetString)
+    {
+        String hash = msDatasetHashes.get(datasetString);
+        if(hash != null)
+            return hash;
+
+        hash = datasetString;
+        try
+        {
+            Properties props = Util.parsePropertyString(datasetString);
+            String type = props.getProperty("type", "");
+            String classIndex = props.getProperty("classIndex", "last");
+            String datasetCache = props.getProperty("datasetCache", null);
+            if(type.equals("zipFile") && datasetCache != null && !datasetCache.isEmpty() && !datasetCache.equals("false"))
+                hash = "zipFile:" + new DatasetCache(new File(datasetCache)).getContentHash(props.getProperty("zipFile")) + ":" + classIndex;
+            else if(type.equals("zipFile"))
+                hash = "zipFile:" + DatasetCache.hashFile(new File(props.getProperty("zipFile"))) + ":" + classIndex;
+            else if(type.equals("trainTestArff"))
+                hash = "trainTestArff:" + DatasetCache.hashFile(new File(props.getProperty("trainArff"))) + ":" + DatasetCache.hashFile(new File(props.getProperty("testArff"))) + ":" + classIndex;
+        }
+        catch(Exception e)
+        {
+            //Not something we know how to look inside, so just go by the name
+        }
+        msDatasetHashes.put(datasetString, hash);
+        return hash;
+    }
+
+    /**
+     * Looks up a run, returning null if there's nothing in the cache that can stand in for it
+     */
+    public ClassifierResult get(String key, String resultMetric, float timeout)
+    {
+        if(!mLogFile.exists())
+            return null;
+
+        try
+        {
+            List<Long> offsets = new ArrayList<Long>();
+            long indexedLength = readIndex(key, offsets);
+
+            Record best = null;
+            int tailLength = 0;
+            RandomAccessFile log = new RandomAccessFile(mLogFile, "r");
+            try
+            {
+                FileChannel channel = log.getChannel();
+                for(long offset : offsets)
+                    best = Record.better(best, Record.parse(readLines(channel, offset, 1).get(0).line), timeout);
+
+                for(LogLine line : readLines(channel, indexedLength, Integer.MAX_VALUE))
+                {
+                    tailLength++;
+                    if(line.line.startsWith(key))
+                        best = Record.better(best, Record.parse(line.line), timeout);
+                }
+            }
+            finally
+            {
+                log.close();
+            }
+
+            if(tailLength > msReindexThreshold)
+                reindex();
+
+            return best == null ? null : best.toResult(resultMetric);
+        }
+        catch(Exception e)
+        {
+            System.out.println("WARNING: Failed to look up result cache in '" + mDir + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Adds the result of a run to the cache
+     */
+    public void put(String key, float timeout, ClassifierResult res)
+    {
+        if(res == null || res.getMemOut())
+            return;
+
+        String line = key + "\t" + res.getCompleted() + "\t" + timeout + "\t" + res.getRawScore() + "\t" + res.getNormalizationPenalty() + "\t" + res.getPercentEvaluated()
+                    + "\t" + res.getAttributeSelectionTime() + "\t" + res.getTrainingTime() + "\t" + res.getEvaluationTime() + "\n";
+        try
+        {
+            Util.makePath(mDir.getAbsolutePath());
+            synchronized(msFileLockMonitor)
+            {
+                FileOutputStream out = new FileOutputStream(mLogFile, true);
+                try
+                {
+                    FileChannel channel = out.getChannel();
+                    FileLock lock = channel.lock();
+                    try
+                    {
+                        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes("UTF-8"));
+                        while(buffer.hasRemaining())
+                            channel.write(buffer);
+                    }
+                    finally
+                    {
+                        lock.release();
+                    }
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+        }
+        catch(Exception e)
+        {
+            System.out.println("WARNING: Failed to save to result cache in '" + mDir + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finds all the offsets for a key in the index, returning how much of the log the index covers
+     */
+    private long readIndex(String key, List<Long> offsets) throws Exception
+    {
+        if(!mIndexFile.exists())
+            return 0;
+
+        RandomAccessFile index = new RandomAccessFile(mIndexFile, "r");
+        try
+        {
+            if(index.length() < msIndexHeaderLength || index.readInt() != msIndexMagic || index.readInt() != msIndexVersion)
+                return 0;
+            long indexedLength = index.readLong();
+            int count = index.readInt();
+            MappedByteBuffer entries = index.getChannel().map(FileChannel.MapMode.READ_ONLY, msIndexHeaderLength, (long)count * msIndexEntryLength);
+
+            //Binary search for the first entry with this key
+            byte[] target = toBytes(key);
+            byte[] current = new byte[msKeyLength];
+            int lo = 0;
+            int hi = count;
+            while(lo < hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                entries.position(mid * msIndexEntryLength);
+                entries.get(current);
+                if(compareKeys(current, target) < 0)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            for(int i = lo; i < count; i++)
+            {
+                entries.position(i * msIndexEntryLength);
+                entries.get(current);
+                if(compareKeys(current, target) != 0)
+                    break;
+                offsets.add(entries.getLong());
+            }
+            return indexedLength;
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+
+    /**
+     * Rebuilds the index so that it covers the whole log
+     */
+    private void reindex()
+    {
+        File tmpFile = null;
+        try
+        {
+            synchronized(msFileLockMonitor)
+            {
+                RandomAccessFile log = new RandomAccessFile(mLogFile, "rw");
+                try
+                {
+                    //Holding the lock means no one is halfway through adding a line
+                    FileLock lock = log.getChannel().lock();
+                    try
+                    {
+                        List<LogLine> lines = readLines(log.getChannel(), 0, Integer.MAX_VALUE);
+                        long indexedLength = lines.isEmpty() ? 0 : lines.get(lines.size() - 1).end;
+
+                        final List<byte[]> keys = new ArrayList<byte[]>(lines.size());
+                        List<Integer> order = new ArrayList<Integer>(lines.size());
+                        for(LogLine line : lines)
+                        {
+                            order.add(keys.size());
+                            keys.add(toBytes(line.line.substring(0, 2 * msKeyLength)));
+                        }
+                        //Stable, so lines with the same key stay in the order they were added
+                        Collections.sort(order, new Comparator<Integer>() {
+                            public int compare(Integer a, Integer b)
+                            {
+                                return compareKeys(keys.get(a), keys.get(b));
+                            }
+                        });
+
+                        tmpFile = File.createTempFile("results.idx", ".tmp", mDir);
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+                        try
+                        {
+                            out.writeInt(msIndexMagic);
+                            out.writeInt(msIndexVersion);
+                            out.writeLong(indexedLength);
+                            out.writeInt(order.size());
+                            for(int i : order)
+                            {
+                                out.write(keys.get(i));
+                                out.writeLong(lines.get(i).start);
+                            }
+                        }
+                        finally
+                        {
+                            out.close();
+                        }
+
+                        if(!tmpFile.renameTo(mIndexFile))
+                        {
+                            mIndexFile.delete();
+                            if(!tmpFile.renameTo(mIndexFile))
+                                throw new RuntimeException("Failed to move index into place");
+                        }
+                    }
+                    finally
+                    {
+                        lock.release();
+                    }
+                }
+                finally
+                {
+                    log.close();
+                }
+            }
+        }
+        catch(Exception e)
+        {
+            System.out.println("WARNING: Failed to rebuild result cache index in '" + mDir + "': " + e.getMessage());
+        }
+        finally
+        {
+            if(tmpFile != null && tmpFile.exists())
+                tmpFile.delete();
+        }
+    }
+
+    /**
+     * A line out of the log, along with where it lives
+     */
+    private static class LogLine
+    {
+        public String line;
+        public long start;
+        public long end;
+    }
+
+    /**
+     * Reads up to maxLines complete lines from the log, starting at the given offset. A line that is still being written (ie. has no newline yet) is left out
+     */
+    private static List<LogLine> readLines(FileChannel channel, long start, int maxLines) throws Exception
+    {
+        List<LogLine> lines = new ArrayList<LogLine>();
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(start)));
+        ByteArrayOutputStream current = new ByteArrayOutputStream();
+        long position = start;
+        int b;
+        while(lines.size() < maxLines && (b = in.read()) != -1)
+        {
+            position++;
+            if(b != '\n')
+            {
+                current.write(b);
+                continue;
+            }
+            LogLine line = new LogLine();
+            line.line = current.toString("UTF-8");
+            line.start = position - current.size() - 1;
+            line.end = position;
+            lines.add(line);
+            current.reset();
+        }
+        return lines;
+    }
+
+    private static byte[] toBytes(String key)
+    {
+        byte[] bytes = new byte[msKeyLength];
+        for(int i = 0; i < msKeyLength; i++)
+            bytes[i] = (byte)Integer.parseInt(key.substring(2 * i, 2 * i + 2), 16);
+        return bytes;
+    }
+
+    private static int compareKeys(byte[] a, byte[] b)
+    {
+        for(int i = 0; i < msKeyLength; i++)
+        {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if(cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    /**
+     * Everything we keep about a single run
+     */
+    private static class Record
+    {
+        public boolean completed;
+        public float timeout;
+        public float rawScore;
+        public float penalty;
+        public float percentEvaluated;
+        public float attributeSelectionTime;
+        public float trainingTime;
+        public float evaluationTime;
+
+        public static Record parse(String line)
+        {
+            String[] parts = line.split("\t");
+            Record rec = new Record();
+            rec.completed = Boolean.parseBoolean(parts[1]);
+            rec.timeout = Float.parseFloat(parts[2]);
+            rec.rawScore = Float.parseFloat(parts[3]);
+            rec.penalty = Float.parseFloat(parts[4]);
+            rec.percentEvaluated = Float.parseFloat(parts[5]);
+            rec.attributeSelectionTime = Float.parseFloat(parts[6]);
+            rec.trainingTime = Float.parseFloat(parts[7]);
+            rec.evaluationTime = Float.parseFloat(parts[8]);
+            return rec;
+        }
+
+        /**
+         * Picks whichever of the two records should be handed back for a run with the given timeout, preferring the earliest completed one
+         */
+        public static Record better(Record best, Record rec, float timeout)
+        {
+            if(!rec.completed && rec.timeout < timeout)
+                return best;
+            if(best == null || (!best.completed && rec.completed))
+                return rec;
+            return best;
+        }
+
+        public ClassifierResult toResult(String resultMetric)
+        {
+            ClassifierResult res = new ClassifierResult(resultMetric);
+            res.setCompleted(completed);
+            res._setRawScore(rawScore);
+            res.setRegularizationPenalty(penalty);
+            res.setPercentEvaluated(percentEvaluated);
+            res.setAttributeSelectionTime(attributeSelectionTime);
+            res.setTrainingTime(trainingTime);
+            res.setEvaluationTime(evaluationTime);
+            return res;
+        }
+    }
+}
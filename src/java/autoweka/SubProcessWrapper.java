@@ -16,7 +16,7 @@ import java.util.regex.Matcher;
  */
 public class SubProcessWrapper extends Wrapper
 {
-    private static Pattern mResultPattern = Pattern.compile("SubProcessWrapper: Time\\(([\\.\\d]+)\\) Score\\(([\\.\\deE+-]+)\\)");
+    static Pattern mResultPattern = Pattern.compile("SubProcessWrapper: Time\\(([\\.\\d]+)\\) Score\\(([\\.\\deE+-]+)\\)");
 
     /**
      * Calls the SubProcessWrapper using the given arguments 
@@ -115,6 +115,10 @@ public class SubProcessWrapper extends Wrapper
         props.put("instanceGenerator", exp.instanceGenerator);
         props.put("instanceGeneratorArgs", exp.instanceGeneratorArgs);
         props.put("resultMetric", exp.resultMetric);
+        Properties extraProps = Util.parsePropertyString(exp.extraPropsString);
+        EvaluationDaemon.copySettings(extraProps, props);
+        ResultCache.copySettings(extraProps, props);
+        ClassifierRunner.copySettings(extraProps, props);
 
         return getErrorAndTime(runDir, exp.memory, props, exp.trainTimeout, instance, args, true, autowekaSeed);
     }
@@ -131,6 +135,10 @@ public class SubProcessWrapper extends Wrapper
         props.put("instanceGenerator", exp.instanceGenerator);
         props.put("instanceGeneratorArgs", exp.instanceGeneratorArgs);
         props.put("resultMetric", exp.resultMetric);
+        Properties extraProps = Util.parsePropertyString(exp.extraPropsString);
+        EvaluationDaemon.copySettings(extraProps, props);
+        ResultCache.copySettings(extraProps, props);
+        ClassifierRunner.copySettings(extraProps, props);
 
         return getErrorAndTime(runDir, exp.memory, props, exp.trainTimeout, instance, args, true, autowekaSeed);
     }
@@ -139,10 +147,15 @@ public class SubProcessWrapper extends Wrapper
      * Calls the SubProcessWrapper as a SubProcess, and returns the result back up to the caller. 
      *
      * This method is super useful to ensure that leaking doesn't happen/memory limits are enforced, since all the work is done in a subprocess - if anything
-     * bad happens, it dies down there, letting your process carry on willy nilly
+     * bad happens, it dies down there, letting your process carry on willy nilly.
+     *
+     * If the 'evaluationDaemon' property is set, the work is instead handed to a warm EvaluationDaemon that gets recycled often enough to give the same guarantees
      */
     public static ErrorAndTime getErrorAndTime(File runDir, String memory, Properties props, float trainTimeout, String instance, String args, boolean verbose, String autowekaSeed)
     {
+        if(EvaluationDaemon.isEnabled(props))
+            return EvaluationDaemon.getErrorAndTime(runDir, memory, props, getWrapperArgs(props, trainTimeout, instance, args), verbose, autowekaSeed);
+
         try
         {
             List<String> wrapperCmd = new ArrayList<String>();
@@ -151,13 +164,7 @@ public class SubProcessWrapper extends Wrapper
             wrapperCmd.add("-cp");
             wrapperCmd.add(autoweka.Util.getAbsoluteClasspath());
             wrapperCmd.add("autoweka.SubProcessWrapper");
-            wrapperCmd.add("-prop");
-            wrapperCmd.add(Util.propertiesToString(props));
-            wrapperCmd.add("-timeout");
-            wrapperCmd.add(Float.toString(trainTimeout));
-            wrapperCmd.add("-wrapper");
-            wrapperCmd.add(instance);
-            wrapperCmd.addAll(Arrays.asList(args.split(" ")));
+            wrapperCmd.addAll(getWrapperArgs(props, trainTimeout, instance, args));
 
             for(String c : wrapperCmd)
                 System.out.print(c+" ");
@@ -205,5 +212,20 @@ public class SubProcessWrapper extends Wrapper
             throw new RuntimeException("Failed to invoke child process", e);
         }
     }
-}
 
+    /**
+     * Builds the arguments that are handed to a SubProcessWrapper for a single run
+     */
+    static List<String> getWrapperArgs(Properties props, float trainTimeout, String instance, String args)
+    {
+        List<String> wrapperArgs = new ArrayList<String>();
+        wrapperArgs.add("-prop");
+        wrapperArgs.add(Util.propertiesToString(props));
+        wrapperArgs.add("-timeout");
+        wrapperArgs.add(Float.toString(trainTimeout));
+        wrapperArgs.add("-wrapper");
+        wrapperArgs.add(instance);
+        wrapperArgs.addAll(Arrays.asList(args.split(" ")));
+        return wrapperArgs;
+    }
+}
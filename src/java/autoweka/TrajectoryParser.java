@@ -13,6 +13,60 @@ public abstract class TrajectoryParser
     /** Does the work for a specific trajectory */
     public abstract Trajectory parseTrajectory(Experiment experiment, File folder, String seed);
 
+    /** Parsers that can follow a run while it's still going override this to bring the trajectory up to date with whatever has been written so far.
+     *  Returns null if that isn't supported
+     */
+    public Trajectory updateTrajectory(Experiment experiment, File folder, String seed)
+    {
+        return null;
+    }
+
+    /** Starts a thread that keeps updating the trajectory of a run every so often, and whenever a new incumbent turns up prints it and writes
+     *  out the trajectory so far (to the same place that the final parse does). Interrupt the thread to stop it
+     */
+    public static Thread startLiveUpdates(final Experiment experiment, final File folder, final String seed, final float intervalSeconds)
+    {
+        final TrajectoryParser parser = createParser(experiment);
+        Thread t = new Thread(new Runnable(){
+            public void run()
+            {
+                Trajectory.Point lastPublished = null;
+                while(!Thread.currentThread().isInterrupted())
+                {
+                    try
+                    {
+                        Thread.sleep((long)(intervalSeconds * 1000));
+                        Trajectory traj = parser.updateTrajectory(experiment, folder, seed);
+                        if(traj == null)
+                            return;
+
+                        Trajectory.Point incumbent = traj.getLastPoint();
+                        if(incumbent != null && incumbent != lastPublished)
+                        {
+                            lastPublished = incumbent;
+                            System.out.println("Incumbent at time " + incumbent.getTime() + " has error " + incumbent.getErrorEstimate() + ": " + incumbent.getArgs());
+                            TrajectoryGroup group = new TrajectoryGroup(experiment);
+                            group.addTrajectory(traj);
+                            group.toXML(folder.getAbsolutePath() + File.separator + folder.getName() + ".trajectories." + seed);
+                        }
+                    }
+                    catch(InterruptedException e)
+                    {
+                        return;
+                    }
+                    catch(Exception e)
+                    {
+                        //The files might just be half written, try again next time
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, "TrajectoryParser");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
     /** Call this on a specific experiment to automatically create the correct trajectory parser that will
      *  be used to extract the data
      */
@@ -88,6 +142,11 @@ public abstract class TrajectoryParser
     }
 
     public static Trajectory getTrajectory(Experiment experiment, File folder, String seed)
+    {
+        return createParser(experiment).parseTrajectory(experiment, folder, seed);
+    }
+
+    private static TrajectoryParser createParser(Experiment experiment)
     {
         //Get a Trajectory parser for this experiment
         TrajectoryParser parser;
@@ -107,6 +166,6 @@ public abstract class TrajectoryParser
             throw new RuntimeException("Failed to instantiate '" + experiment.trajectoryParserClassName + "': " + e, e);
         }
 
-        return parser.parseTrajectory(experiment, folder, seed);
+        return parser;
     }
 }
@@ -1,18 +1,58 @@
 package autoweka;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
- * Generic WorkerThread that runs for a specific amount of time, then sends an interrupt to the work once a timeout has been hit - if the thread still doesn't stop, it gets killed hard
+ * Generic WorkerThread that runs for a specific amount of time, then sends an interrupt to the work once a timeout has been hit - if the work still doesn't stop, it gets cancelled
+ *
+ * Each worker runs in its own ThreadGroup, so any threads that the work starts (like the executor threads of the parallel ensembles) land in there as well. The timeout is checked
+ * against the CPU time of the threads in the group (plus any WorkerThreads that get made along the way) rather than the whole process, so several of these can run side by side.
+ *
+ * Cancelling is cooperative: the whole group gets interrupted, and the learners and Evaluation check for that in their main loops. Anything that's still going after a grace
+ * period gets stopped hard as a last resort. That lets go of its memory, but it also lets go of its locks part way through whatever they were guarding, so the shared
+ * static caches (filters, presorted data, correlation matrices, fold models) may be left half updated. Once that has happened the JVM shouldn't be trusted with
+ * any more runs - see wasHardStopped()
  */
 abstract class WorkerThread extends Thread
 {
-    private com.sun.management.OperatingSystemMXBean mOSBean = (com.sun.management.OperatingSystemMXBean) java.lang.management.ManagementFactory.getOperatingSystemMXBean();
+    private java.lang.management.ThreadMXBean mThreadBean = java.lang.management.ManagementFactory.getThreadMXBean();
     private static final int msPollInterval = 5;
+    private static final long msStopWaitTime = 1000;
     private static final float msTimeoutMultiplyer = 1.5f;
     private static final float msWalltimeMultiplyer = 2.0f;
 
+    //Set for good once any worker in this JVM has had to be stopped hard
+    private static volatile boolean msHardStopped = false;
+
     private volatile Exception mException = null;
     private volatile boolean mCompleted = false;
     private volatile boolean mTerminated = false;
+    private volatile boolean mInterrupted = false;
+
+    private ThreadGroup mGroup;
+    private volatile long mFinalThreadCpuTime = -1;
+    //The last CPU time seen for each thread in our group, so that threads which have already finished still count
+    private Map<Long, Long> mGroupCpuTimes = new HashMap<Long, Long>();
+    private List<WorkerThread> mChildren = new CopyOnWriteArrayList<WorkerThread>();
+
+    public WorkerThread()
+    {
+        this(new ThreadGroup("WorkerThread"));
+    }
+
+    private WorkerThread(ThreadGroup group)
+    {
+        super(group, "WorkerThread");
+        mGroup = group;
+
+        //If we're being made from inside another worker, it needs to know about our CPU time
+        Thread parent = Thread.currentThread();
+        if(parent instanceof WorkerThread)
+            ((WorkerThread)parent).mChildren.add(this);
+    }
 
     /** The run method of the thread */
     public void run()
@@ -24,12 +64,48 @@ abstract class WorkerThread extends Thread
                 mCompleted = true;
             }
         } catch (Exception e) {
-            mException = e;
+            //Once we've asked the work to stop, whatever gets thrown is just it giving up
+            if(mInterrupted)
+                mTerminated = true;
+            else
+                mException = e;
         } catch (Throwable t) {
-            mException = new RuntimeException(t);
+            if(mInterrupted)
+                mTerminated = true;
+            else
+                mException = new RuntimeException(t);
+        } finally {
+            //Once we're dead the bean can't tell anyone how long we ran for
+            mFinalThreadCpuTime = mThreadBean.getCurrentThreadCpuTime();
         }
     }
 
+    /**
+     * Gets the CPU time in ns that has been used by the threads in this worker's group and its child WorkerThreads
+     */
+    long getThreadCpuTime()
+    {
+        long time = 0;
+        synchronized(mGroupCpuTimes)
+        {
+            Thread[] threads = new Thread[mGroup.activeCount() + 16];
+            int count = mGroup.enumerate(threads, false);
+            for(int i = 0; i < count; i++)
+            {
+                long threadTime = mThreadBean.getThreadCpuTime(threads[i].getId());
+                if(threadTime >= 0)
+                    mGroupCpuTimes.put(threads[i].getId(), threadTime);
+            }
+            if(mFinalThreadCpuTime >= 0)
+                mGroupCpuTimes.put(getId(), mFinalThreadCpuTime);
+            for(long threadTime : mGroupCpuTimes.values())
+                time += threadTime;
+        }
+        for(WorkerThread child : mChildren)
+            time += child.getThreadCpuTime();
+        return time;
+    }
+
     /**
      * Gets whatever exception was thrown by this thread
      */
@@ -49,7 +125,7 @@ abstract class WorkerThread extends Thread
     abstract protected String getOpName();
 
     /**
-     * True if the job finished before it was killed hard
+     * True if the job finished before it was cancelled
      */
     public boolean completed()
     {
@@ -57,17 +133,84 @@ abstract class WorkerThread extends Thread
     }
 
     /**
-     * Request that a job be stopped
+     * Cancels the job, first by interrupting everything in its group and then by stopping whatever doesn't listen.
+     *
+     * Returns once the threads have died, or we've given up waiting on them
      */
     public void terminate()
     {
         mTerminated = true;
-        this.suspend();
-        this.setPriority(Thread.MIN_PRIORITY);
+        stopGroup();
+    }
+
+    /**
+     * Checks to see if any worker in this JVM has had to be stopped hard, in which case shared state may be corrupt
+     */
+    static boolean wasHardStopped()
+    {
+        return msHardStopped;
+    }
+
+    /**
+     * Gets rid of every thread in the group, asking nicely before stopping them hard
+     */
+    private void stopGroup()
+    {
+        interruptGroup();
+        if(waitForGroup(msStopWaitTime))
+            return;
+
+        //Whatever these threads held locks on could be left half way through an update
+        msHardStopped = true;
+        Thread[] threads = new Thread[mGroup.activeCount() + 16];
+        int count = mGroup.enumerate(threads, true);
+        for(int i = 0; i < count; i++)
+        {
+            try
+            {
+                threads[i].stop();
+            }
+            catch(UnsupportedOperationException e)
+            {
+                //Newer JVMs won't let us do this, so the threads are left to their own devices
+            }
+        }
+        if(!waitForGroup(msStopWaitTime))
+            System.out.println(getOpName() + " could not be stopped - leaks are likely!");
+    }
+
+    private void interruptGroup()
+    {
+        mInterrupted = true;
+        mGroup.interrupt();
+    }
+
+    /**
+     * Waits for up to the given number of ms for every thread in the group to die
+     */
+    private boolean waitForGroup(long waitTime)
+    {
+        long deadline = System.currentTimeMillis() + waitTime;
+        while(mGroup.activeCount() > 0)
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0)
+                return false;
+            try
+            {
+                Thread.sleep(Math.min(remaining, msPollInterval));
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Checks to see if the job was killed hard
+     * Checks to see if the job was cancelled
      */
     public boolean terminated()
     {
@@ -75,61 +218,84 @@ abstract class WorkerThread extends Thread
     }
 
     /**
-     * Main way of using this class - you should tell it how long you want to run for, and it will return withing some multiplyer of that time
+     * Main way of using this class - you should tell it how long you want to run for, and it will return withing some multiplyer of that time.
+     *
+     * Once the CPU time goes over the timeout (or the wall time goes over a multiple of it), the job gets interrupted so that anything that can wrap up early does so.
+     * If it's still going once a bit more time has gone by, it gets cancelled
      */
     float runWorker(float timeoutSeconds)
     {
         long timeout = (long)(timeoutSeconds * 1.0e9);
-        long wallTime = 0;
 
         //Record the start time
-        long startTime = mOSBean.getProcessCpuTime();
+        long startTime = getThreadCpuTime();
+        long startWallTime = System.nanoTime();
         this.start();
 
         boolean interrupted = false;
-        boolean stopped = false;
-        long pollInterval = timeout / 1000000;
 
         while(true)
         {
             try {
-                this.join(pollInterval);
-                wallTime += pollInterval;
-                pollInterval = msPollInterval;
+                this.join(msPollInterval);
             } catch(InterruptedException e) {
-                //If somehow we get the interrupted exception, we should abort
+                //Whoever is running us wants us to stop, so the job has to go too
+                this.terminate();
+                Thread.currentThread().interrupt();
                 break;
             }
 
             //Did the sucker complete?
-            if(this.completed() || this.getException() != null)
+            if(!this.isAlive())
             {
-                System.out.println(getOpName() + " completed");
+                if(this.completed() || this.getException() != null)
+                    System.out.println(getOpName() + " completed");
                 break;
             }
 
+            long cpuTime = getThreadCpuTime() - startTime;
+            long wallTime = System.nanoTime() - startWallTime;
+
             //Are we at a point where we need to kill the sucker?
-            if(!interrupted && (mOSBean.getProcessCpuTime() - startTime > timeout /*|| wallTime > timeout * mWalltimeMultiplyer*/))
+            if(!interrupted && (cpuTime > timeout || wallTime > timeout * msWalltimeMultiplyer))
             {
                 //Try to interrupt the bugger
-                this.interrupt();
-                pollInterval = (long)(timeout * Math.max(0, (msTimeoutMultiplyer - 1)))/1000000;
+                interruptGroup();
                 System.out.println(getOpName() + " interrupted");
                 interrupted = true;
-                break;
             }
-            else if(!stopped && (mOSBean.getProcessCpuTime() - startTime > timeout * msTimeoutMultiplyer /*|| wallTime > timeout * mWalltimeMultiplyer * mTimeoutMultiplyer*/))
+            else if(interrupted && (cpuTime > timeout * msTimeoutMultiplyer || wallTime > timeout * msWalltimeMultiplyer * msTimeoutMultiplyer))
             {
-                //Try to interrupt the bugger
                 this.terminate();
-                System.out.println(getOpName() + " aborted (it's only been suspended - leaks are likely!)");
-                stopped = true;
+                System.out.println(getOpName() + " cancelled");
                 break;
             }
         }
-        long stopTime = mOSBean.getProcessCpuTime();
+
+        //Anything the job started and left behind is of no use to anyone now
+        if(mGroup.activeCount() > 0 && !mTerminated)
+            stopGroup();
+
+        long stopTime = getThreadCpuTime();
+        destroyGroup();
         return (stopTime - startTime) * 1e-9f;
     }
 
-}
+    /**
+     * Removes our group from its parent once all of its threads are gone, so that long lived processes don't pile them up
+     */
+    private void destroyGroup()
+    {
+        if(mGroup.activeCount() > 0 || mGroup.isDestroyed())
+            return;
+        try
+        {
+            mGroup.destroy();
+        }
+        catch(IllegalThreadStateException e)
+        {
+            //Something snuck in after all, so it stays around until that's done
+        }
+    }
 
+}
@@ -126,7 +126,7 @@ public class Wrapper
         _preRun();
 
         //Build the classifier runner
-        mRunner = new ClassifierRunner(mProperties);
+        mRunner = _createRunner(mProperties);
 
         ClassifierResult res = _doRun(wrapperArgs);
 
@@ -146,7 +146,7 @@ public class Wrapper
      */
     protected ClassifierResult _doRun(List<String> runnerArgs)
     {
-        //Run it
+        //Run it (unless this exact run has been done before)
         ClassifierResult res = new ClassifierResult(mResultMetric);
         res.setCompleted(false);
         com.sun.management.OperatingSystemMXBean OSBean = (com.sun.management.OperatingSystemMXBean) java.lang.management.ManagementFactory.getOperatingSystemMXBean();
@@ -156,7 +156,7 @@ public class Wrapper
             //System.out.println("Adding arg " + s);
 
         try {
-            res = mRunner.run(mInstance, mResultMetric, mTimeout, mSeed, runnerArgs);
+            res = ResultCache.run(mRunner, mProperties, mInstance, mResultMetric, mTimeout, mSeed, runnerArgs);
         } catch (Throwable e) {
             e.printStackTrace();
             long stopTime = OSBean.getProcessCpuTime();
@@ -166,6 +166,16 @@ public class Wrapper
         return res;
     }
 
+    /**
+     * Builds the ClassifierRunner used for this run.
+     *
+     * Override this if you want to hang on to a runner (and the data its InstanceGenerator has loaded) between runs
+     */
+    protected ClassifierRunner _createRunner(Properties props)
+    {
+        return new ClassifierRunner(props);
+    }
+
     /**
      * Override this when you want to get at parameters as soon as you hit the -wrapper.
      *
@@ -0,0 +1,30 @@
+package autoweka.hyperband;
+
+import autoweka.randomsearch.RandomSearchExperimentConstructor;
+
+/**
+ * Sets up an experiment that's optimised with asynchronous successive halving (ASHA), or Hyperband when more than one bracket is used.
+ *
+ * Configurations are sampled the same way as for random search, but are first evaluated on small subsamples of the data and only the best get promoted up
+ * to the full instances. See HyperbandWorker for the properties that control this
+ */
+public class HyperbandExperimentConstructor extends RandomSearchExperimentConstructor
+{
+    @Override
+    public String getTrajectoryParserClassName()
+    {
+        return "autoweka.hyperband.HyperbandTrajectoryParser";
+    }
+
+    @Override
+    public String getType()
+    {
+        return "Hyperband";
+    }
+
+    @Override
+    protected String getWorkerClassName()
+    {
+        return "autoweka.hyperband.HyperbandWorker";
+    }
+}
@@ -0,0 +1,57 @@
+package autoweka.hyperband;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import autoweka.Experiment;
+import autoweka.Trajectory;
+import autoweka.TrajectoryParser;
+
+/**
+ * Builds a trajectory out of the evaluations that a HyperbandWorker printed to its log.
+ *
+ * The time of a point is all the time spent up until then (on every rung), but only results on the top rung can become the incumbent
+ */
+public class HyperbandTrajectoryParser extends TrajectoryParser
+{
+    private Pattern mResultPattern = Pattern.compile(HyperbandWorker.msResultPrefix + "Rung\\((\\d+)/(\\d+)\\) Time\\(([\\.\\deE+-]+)\\) Score\\(([\\.\\deE+-]+|NaN|Infinity)\\) ArgString (.*)");
+
+    public Trajectory parseTrajectory(Experiment experiment, File folder, String seed)
+    {
+        Trajectory traj = new Trajectory(seed);
+        try
+        {
+            Scanner scanner = new Scanner(new FileInputStream(folder.getAbsolutePath() + File.separator + "out" + File.separator + "logs" + File.separator + seed + ".log"));
+
+            double totalTime = 0;
+            double currentBest = Double.MAX_VALUE;
+            int numEvals = 0;
+            while(scanner.hasNextLine())
+            {
+                Matcher matcher = mResultPattern.matcher(scanner.nextLine());
+                if(!matcher.matches())
+                    continue;
+
+                numEvals++;
+                totalTime += Double.parseDouble(matcher.group(3));
+                double score = Double.parseDouble(matcher.group(4));
+                boolean topRung = matcher.group(1).equals(matcher.group(2));
+                if(topRung && score < currentBest)
+                {
+                    currentBest = score;
+                    traj.addPoint(new Trajectory.Point(totalTime, score, matcher.group(5)));
+                }
+            }
+            scanner.close();
+            traj.setEvaluationCounts(numEvals, -1, -1);
+        }
+        catch(Exception e)
+        {
+            throw new RuntimeException("Failed to parse trajectory", e);
+        }
+        return traj;
+    }
+}
@@ -0,0 +1,312 @@
+package autoweka.hyperband;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import autoweka.ClassParams;
+import autoweka.ClassifierRunner;
+import autoweka.EvaluationDaemon;
+import autoweka.Experiment;
+import autoweka.FoldEvaluator;
+import autoweka.InstanceGenerator;
+import autoweka.Parameter;
+import autoweka.ResultCache;
+import autoweka.SubProcessWrapper;
+import autoweka.Util;
+
+/**
+ * Runs asynchronous successive halving over random configurations.
+ *
+ * Each configuration is evaluated on a number of rungs - the top rung is the experiment's own instances (ie. the full CV folds), while each rung below that
+ * wraps those instances in a MultiLevel generator that keeps 1/eta as much of the data as the rung above it. Whenever a rung has a configuration in its best 1/eta
+ * that hasn't been promoted yet, it gets evaluated on the next rung up; otherwise a new configuration is sampled at the bottom. Since nothing waits on a rung to
+ * fill up, the time budget can run out at any point without wasting work.
+ *
+ * With more than one bracket, new configurations take turns starting on higher rungs (as in Hyperband), which hedges against the small subsamples being misleading.
+ *
+ * Every evaluation gets printed to the log, which is what the HyperbandTrajectoryParser reads back. The following can be set in the experiment's extra properties:
+ *   hyperbandEta - the reduction factor between rungs (default 3)
+ *   hyperbandRungs - the number of rungs, including the full instances (default 4)
+ *   hyperbandBrackets - the number of brackets (default 1)
+ */
+class HyperbandWorker
+{
+    static final String msResultPrefix = "Hyperband: ";
+    private static final float msFailedError = 1.0e10f;
+
+    String mSeed;
+    Random mRand;
+    float mTimeRemaining;
+    Experiment mExperiment;
+    ClassParams mParams;
+    File mExperimentDir;
+    int mEta;
+    int mNumRungs;
+    List<Bracket> mBrackets = new ArrayList<Bracket>();
+    int mNextBracket = 0;
+    Set<String> mSampled = new HashSet<String>();
+
+    //The instances, properties and (if we're doing folds in here) evaluator for each rung
+    List<List<String>> mRungInstances = new ArrayList<List<String>>();
+    List<Properties> mRungProperties = new ArrayList<Properties>();
+    List<FoldEvaluator> mRungEvaluators = new ArrayList<FoldEvaluator>();
+
+    public static void main(String[] args){
+        HyperbandWorker worker = new HyperbandWorker(new File(args[0]).getAbsoluteFile().getParentFile(), Experiment.fromXML(args[0]), args[1]);
+        worker.run();
+    }
+
+    public HyperbandWorker(File experimentDir, Experiment experiment, String seed)
+    {
+        mSeed = seed;
+        mRand = new Random(Integer.parseInt(seed));
+        mExperiment = experiment;
+        mExperimentDir = experimentDir;
+        mTimeRemaining = experiment.tunerTimeout;
+
+        mParams = new ClassParams(experimentDir.getAbsolutePath() + File.separator + "autoweka.params");
+
+        Properties extraProps = Util.parsePropertyString(experiment.extraPropsString);
+        mEta = Integer.parseInt(extraProps.getProperty("hyperbandEta", "3"));
+        mNumRungs = Integer.parseInt(extraProps.getProperty("hyperbandRungs", "4"));
+        int numBrackets = Integer.parseInt(extraProps.getProperty("hyperbandBrackets", "1"));
+        if(mEta < 2)
+            throw new RuntimeException("hyperbandEta must be at least 2");
+        if(mNumRungs < 1)
+            throw new RuntimeException("hyperbandRungs must be at least 1");
+        if(numBrackets < 1 || numBrackets > mNumRungs)
+            throw new RuntimeException("hyperbandBrackets must be between 1 and the number of rungs");
+        for(int i = 0; i < numBrackets; i++)
+            mBrackets.add(new Bracket(i));
+
+        List<String> instances = InstanceGenerator.create(experiment.instanceGenerator, "__dummy__").getAllInstanceStrings(experiment.instanceGeneratorArgs);
+        int parallelism = FoldEvaluator.getParallelism(extraProps);
+        FoldEvaluator subsampleEvaluator = null;
+        for(int rung = 0; rung < mNumRungs; rung++)
+        {
+            Properties props = new Properties();
+            props.put("datasetString", experiment.datasetString);
+            props.put("instanceGeneratorArgs", experiment.instanceGeneratorArgs);
+            props.put("resultMetric", experiment.resultMetric);
+            EvaluationDaemon.copySettings(extraProps, props);
+            ResultCache.copySettings(extraProps, props);
+            ClassifierRunner.copySettings(extraProps, props);
+
+            List<String> rungInstances = new ArrayList<String>();
+            if(rung == mNumRungs - 1)
+            {
+                props.put("instanceGenerator", experiment.instanceGenerator);
+                rungInstances.addAll(instances);
+            }
+            else
+            {
+                //MultiLevel keeps levelPercent of the data (level + 1) times over, then hands that off to the experiment's generator
+                props.put("instanceGenerator", "autoweka.instancegenerators.MultiLevel");
+                String levelArgs = "levelSeed={SEED}:levelPercent=" + (100.0 / mEta) + ":level=" + (mNumRungs - 2 - rung);
+                for(String instance : instances)
+                    rungInstances.add(new InstanceGenerator.NestedArgs(levelArgs, experiment.instanceGenerator, instance).toString());
+            }
+            mRungInstances.add(rungInstances);
+            mRungProperties.add(props);
+
+            if(parallelism > 1)
+            {
+                //All the subsampled rungs go through the same generator, so they can share an evaluator
+                FoldEvaluator evaluator;
+                if(rung == mNumRungs - 1)
+                    evaluator = new FoldEvaluator(props, parallelism);
+                else
+                {
+                    if(subsampleEvaluator == null)
+                        subsampleEvaluator = new FoldEvaluator(props, parallelism);
+                    evaluator = subsampleEvaluator;
+                }
+                //Same as the sub processes that would be used without it, for once a hard stop means we can't run in here any more
+                evaluator.setFallback(mExperimentDir, experiment.memory, props);
+                mRungEvaluators.add(evaluator);
+            }
+            else
+            {
+                mRungEvaluators.add(null);
+            }
+        }
+    }
+
+    public void run()
+    {
+        while(mTimeRemaining > 0)
+        {
+            Bracket bracket = mBrackets.get(mNextBracket);
+            mNextBracket = (mNextBracket + 1) % mBrackets.size();
+
+            //Can anything move up?
+            Result promotion = bracket.getPromotion();
+            if(promotion != null)
+            {
+                promotion.promoted = true;
+                bracket.add(evaluate(promotion.argString, promotion.rung + 1));
+            }
+            else
+            {
+                String argString = sampleArgString();
+                if(argString == null)
+                {
+                    System.out.println("Ran out of new configurations to try");
+                    break;
+                }
+                bracket.add(evaluate(argString, bracket.mMinRung));
+            }
+        }
+
+        for(FoldEvaluator evaluator : new HashSet<FoldEvaluator>(mRungEvaluators))
+        {
+            if(evaluator != null)
+                evaluator.shutdown();
+        }
+    }
+
+    /**
+     * Gets a random configuration that hasn't been tried before, or null if we can't seem to find one
+     */
+    private String sampleArgString()
+    {
+        for(int attempt = 0; attempt < 1000; attempt++)
+        {
+            Map<String, String> argMap = new HashMap<String, String>();
+            for(Parameter param : mParams.getParameters()){
+                argMap.put(param.name, param.getRandomValue(mRand));
+            }
+            String argString = Util.argMapToString(mParams.filterParams(argMap));
+            if(mSampled.add(argString))
+                return argString;
+        }
+        return null;
+    }
+
+    /**
+     * Evaluates a configuration on all the instances of a rung, returning the mean error over them
+     */
+    private Result evaluate(String argString, int rung)
+    {
+        List<String> instances = mRungInstances.get(rung);
+        FoldEvaluator evaluator = mRungEvaluators.get(rung);
+        Properties props = mRungProperties.get(rung);
+
+        List<Future<SubProcessWrapper.ErrorAndTime>> futures = null;
+        if(evaluator != null){
+            futures = evaluator.submit(instances, mExperiment.resultMetric, mExperiment.trainTimeout, mSeed, Arrays.asList(argString.split(" ")));
+        }
+
+        float error = 0;
+        float time = 0;
+        int numProcessed = 0;
+        for(String instance : instances){
+            numProcessed++;
+            try{
+                SubProcessWrapper.ErrorAndTime errAndTime;
+                if(futures != null)
+                    errAndTime = FoldEvaluator.get(futures.get(numProcessed-1));
+                else
+                    errAndTime = SubProcessWrapper.getErrorAndTime(mExperimentDir, mExperiment.memory, props, mExperiment.trainTimeout, instance, argString, true, mSeed);
+                time += errAndTime.time;
+                //No point in looking at the rest if one of them isn't working
+                if(errAndTime.error >= msFailedError){
+                    error = msFailedError;
+                    break;
+                }
+                error += errAndTime.error / instances.size();
+            }
+            catch(Exception e){
+                e.printStackTrace();
+                error = msFailedError;
+                break;
+            }
+        }
+
+        //Folds that were already running when we stopped still come out of the budget
+        if(futures != null){
+            time += FoldEvaluator.finish(futures, numProcessed);
+        }
+        mTimeRemaining -= time;
+
+        System.out.println(msResultPrefix + "Rung(" + rung + "/" + (mNumRungs - 1) + ") Time(" + time + ") Score(" + error + ") ArgString " + argString);
+        return new Result(argString, rung, error);
+    }
+
+    /**
+     * How well a configuration did on a rung
+     */
+    static class Result
+    {
+        final String argString;
+        final int rung;
+        final float error;
+        boolean promoted = false;
+
+        Result(String _argString, int _rung, float _error)
+        {
+            argString = _argString;
+            rung = _rung;
+            error = _error;
+        }
+    }
+
+    /**
+     * A set of rungs that new configurations start at the bottom of
+     */
+    class Bracket
+    {
+        final int mMinRung;
+        final List<List<Result>> mRungs = new ArrayList<List<Result>>();
+
+        Bracket(int minRung)
+        {
+            mMinRung = minRung;
+            for(int i = 0; i < mNumRungs; i++)
+                mRungs.add(new ArrayList<Result>());
+        }
+
+        void add(Result res)
+        {
+            mRungs.get(res.rung).add(res);
+        }
+
+        /**
+         * Finds the highest rung with something in its top 1/eta that hasn't been promoted yet
+         */
+        Result getPromotion()
+        {
+            for(int rung = mNumRungs - 2; rung >= mMinRung; rung--)
+            {
+                List<Result> results = new ArrayList<Result>(mRungs.get(rung));
+                Collections.sort(results, new Comparator<Result>(){
+                    public int compare(Result a, Result b)
+                    {
+                        return Float.compare(a.error, b.error);
+                    }
+                });
+                int numToPromote = results.size() / mEta;
+                for(int i = 0; i < numToPromote; i++)
+                {
+                    Result res = results.get(i);
+                    if(res.error >= msFailedError)
+                        break;
+                    if(!res.promoted)
+                        return res;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -3,7 +3,10 @@ package autoweka.instancegenerators;
 import autoweka.InstanceGenerator;
 import autoweka.Util;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import weka.core.Instances;
@@ -14,11 +17,15 @@ import weka.core.Instances;
  * instanceGeneratorArguments: A property string with:
  *   seed - The seed to use for splitting up the training data
  *   numFolds - The number of folds to make
+ *   stratify - (optional) true if the folds should be stratified on the class
  *  
  * instance string format:
  *   seed - The seed to use for splitting up the training data
  *   numFolds - The number of folds to make
  *   fold - the index of the current fold   
+ *   stratify - (optional) true if the folds should be stratified on the class
+ *
+ * The data is only shuffled once per seed, and folds are kept as indices into the training data until they're asked for
  */ 
 public class CrossValidation extends InstanceGenerator
 {
@@ -39,19 +46,29 @@ public class CrossValidation extends InstanceGenerator
 
     public Instances _getTrainingFromParams(String paramString)
     {
-        return getInstances(true, getTraining(), Util.parsePropertyString(paramString));
+        return materialize(getFoldIndices(true, Util.parsePropertyString(paramString)));
     }
 
     public Instances _getTestingFromParams(String paramString)
     {
-        return getInstances(false, getTraining(), Util.parsePropertyString(paramString));
+        return materialize(getFoldIndices(false, Util.parsePropertyString(paramString)));
     }
 
-    protected Instances getInstances(boolean trainingFold, Instances instances, Properties params)
+    //The shuffled (and possibly stratified) order of the training data, keyed on how it was made
+    private Map<String, int[]> mOrders = new HashMap<String, int[]>();
+
+    /**
+     * Gets the indices into the training data that make up one side of a fold.
+     *
+     * The instances come out in exactly the same order as they would from randomizing a copy of the data and calling trainCV/testCV on it,
+     * but the shuffling is only ever done once per seed
+     */
+    public int[] getFoldIndices(boolean trainingFold, Properties params)
     {
         int seed = Integer.parseInt(params.getProperty("seed", "0"));
         int numFolds = Integer.parseInt(params.getProperty("numFolds", "-1"));
         int currentFold = Integer.parseInt(params.getProperty("fold", "-1"));
+        boolean stratify = Boolean.valueOf(params.getProperty("stratify", "false"));
 
         if(numFolds <= 0)
             throw new RuntimeException("numFolds must be set to something > 0");
@@ -59,14 +76,122 @@ public class CrossValidation extends InstanceGenerator
         if(currentFold < 0|| numFolds <= currentFold)
             throw new RuntimeException("fold must be set to something in [0," + numFolds + "]");
 
+        int[] order = getOrder(seed, stratify ? numFolds : 0);
+        int numInstances = order.length;
+        if(numFolds > numInstances)
+            throw new IllegalArgumentException("Can't have more folds than instances!");
+
+        //Same arithmetic as Instances.trainCV/testCV
+        int numInstForFold = numInstances / numFolds;
+        int offset;
+        if(currentFold < numInstances % numFolds){
+            numInstForFold++;
+            offset = currentFold;
+        }else{
+            offset = numInstances % numFolds;
+        }
+        int first = currentFold * (numInstances / numFolds) + offset;
+
+        if(!trainingFold)
+            return Arrays.copyOfRange(order, first, first + numInstForFold);
+
+        int[] indices = new int[numInstances - numInstForFold];
+        System.arraycopy(order, 0, indices, 0, first);
+        System.arraycopy(order, first + numInstForFold, indices, first, numInstances - first - numInstForFold);
+        return indices;
+    }
+
+    /**
+     * Gets the fold that each instance of the training data is held out in, for the seed, number of folds and stratification in the params
+     */
+    public int[] getFoldAssignments(Properties params)
+    {
+        int numFolds = Integer.parseInt(params.getProperty("numFolds", "-1"));
+        if(numFolds <= 0)
+            throw new RuntimeException("numFolds must be set to something > 0");
+
+        Properties foldParams = new Properties();
+        foldParams.putAll(params);
+        int[] folds = new int[getSharedTraining().numInstances()];
+        for(int k = 0; k < numFolds; k++)
+        {
+            foldParams.setProperty("fold", Integer.toString(k));
+            for(int i : getFoldIndices(false, foldParams))
+                folds[i] = k;
+        }
+        return folds;
+    }
+
+    /**
+     * Makes a new set of instances containing the given rows of the training data
+     */
+    protected Instances materialize(int[] indices)
+    {
+        Instances data = getSharedTraining();
+        Instances fold = new Instances(data, indices.length);
+        for(int i : indices)
+            fold.add(data.instance(i));
+        return fold;
+    }
+
+    /**
+     * Gets the order the training data would be in after Instances.randomize (and Instances.stratify, if stratifyFolds is > 0)
+     */
+    private synchronized int[] getOrder(int seed, int stratifyFolds)
+    {
+        String key = seed + ":" + stratifyFolds;
+        int[] order = mOrders.get(key);
+        if(order != null)
+            return order;
+
+        Instances data = getSharedTraining();
+        int numInstances = data.numInstances();
+        order = new int[numInstances];
+        for(int i = 0; i < numInstances; i++)
+            order[i] = i;
+
         Random rand = new Random(seed);
-        Instances randData = getTraining();
-        randData.randomize(rand);
+        for(int j = numInstances - 1; j > 0; j--)
+            swap(order, j, rand.nextInt(j+1));
 
-        if(trainingFold)
-            return randData.trainCV(numFolds, currentFold);
-        else
-            return randData.testCV(numFolds, currentFold);
+        if(stratifyFolds > 1 && data.classIndex() >= 0 && data.classAttribute().isNominal())
+        {
+            //Sort by class, then deal the instances out in the same way as Instances.stratify
+            double[] classValues = new double[numInstances];
+            for(int i = 0; i < numInstances; i++)
+                classValues[i] = data.instance(i).classValue();
+
+            int index = 1;
+            while(index < numInstances){
+                double class1 = classValues[order[index-1]];
+                for(int j = index; j < numInstances; j++){
+                    double class2 = classValues[order[j]];
+                    if(class1 == class2 || (Double.isNaN(class1) && Double.isNaN(class2))){
+                        swap(order, index, j);
+                        index++;
+                    }
+                }
+                index++;
+            }
+
+            int[] stratified = new int[numInstances];
+            int pos = 0;
+            for(int start = 0; pos < numInstances; start++){
+                for(int j = start; j < numInstances; j += stratifyFolds)
+                    stratified[pos++] = order[j];
+            }
+            order = stratified;
+        }
+
+        mOrders.put(key, order);
+        return order;
+    }
+
+    private static void swap(int[] array, int i, int j)
+    {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
     }
 
     public List<String> getAllInstanceStrings(String paramStr)
@@ -88,11 +213,13 @@ public class CrossValidation extends InstanceGenerator
         if(numFolds <= 0)
             throw new RuntimeException("numFolds must be set to something > 0");
 
+        boolean stratify = Boolean.valueOf(params.getProperty("stratify", "false"));
+
         List<String> instanceStrings = new ArrayList<String>(numFolds);
         for(int i = 0; i < numFolds; i++)
         {
             //Should probably change this to using a Properties object, but meh
-            instanceStrings.add("seed=" + seed + ":numFolds=" + numFolds + ":fold=" + i);
+            instanceStrings.add("seed=" + seed + ":numFolds=" + numFolds + ":fold=" + i + (stratify ? ":stratify=true" : ""));
         }
         return instanceStrings;
     }
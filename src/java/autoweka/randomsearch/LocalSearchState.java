@@ -0,0 +1,35 @@
+package autoweka.randomsearch;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Keeps track of the claimed points and the budget in memory, without ever having to lock so that slots don't wait on each other
+ */
+class LocalSearchState implements SearchState
+{
+    private final ConcurrentHashMap<String, Boolean> mClaimed = new ConcurrentHashMap<String, Boolean>();
+    private final DoubleAdder mSpent = new DoubleAdder();
+    private final float mBudget;
+
+    public LocalSearchState(float budget)
+    {
+        mBudget = budget;
+    }
+
+    public boolean claim(String argHash)
+    {
+        return mClaimed.putIfAbsent(argHash, Boolean.TRUE) == null;
+    }
+
+    public float spend(float time)
+    {
+        mSpent.add(time);
+        return getTimeRemaining();
+    }
+
+    public float getTimeRemaining()
+    {
+        return (float)(mBudget - mSpent.sum());
+    }
+}
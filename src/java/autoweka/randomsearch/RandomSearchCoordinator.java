@@ -0,0 +1,194 @@
+package autoweka.randomsearch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Lets several random search workers, possibly on different machines, draw from the same budget and never evaluate the same point twice.
+ *
+ * The first worker that starts on the coordinator's host binds the port and holds a LocalSearchState for everyone, with its budget set to that
+ * worker's tuner timeout. Every worker (including that first one) then talks to it over a plain text protocol, one request per line:
+ *   CLAIM hash - replies true if the point was free, false if it was already taken
+ *   SPEND time - takes the time out of the budget and replies with how much is left
+ *   REMAINING  - replies with how much of the budget is left
+ *
+ * If the coordinator goes away (ie. the worker that held it finished), the budget is treated as spent
+ *
+ * There is no authentication, so the coordinator only listens on the loopback interface unless it's given another address to bind to.
+ * Workers on other machines need that (e.g. 0.0.0.0), which should only ever be done on a trusted network.
+ */
+class RandomSearchCoordinator implements Runnable
+{
+    private ServerSocket mServer;
+    private SearchState mState;
+
+    private RandomSearchCoordinator(ServerSocket server, SearchState state)
+    {
+        mServer = server;
+        mState = state;
+    }
+
+    /**
+     * Gets a SearchState that goes through the coordinator on the given host and port, starting the coordinator in here if it's meant to be on this machine and nobody has yet.
+     * The coordinator binds to the given address, or to the loopback interface if that's null
+     */
+    public static SearchState connect(String host, int port, String bindAddress, float budget)
+    {
+        try
+        {
+            if(isLocalHost(host))
+            {
+                try
+                {
+                    InetAddress bindAddr = (bindAddress != null) ? InetAddress.getByName(bindAddress) : InetAddress.getLoopbackAddress();
+                    ServerSocket server = new ServerSocket(port, 50, bindAddr);
+                    Thread t = new Thread(new RandomSearchCoordinator(server, new LocalSearchState(budget)), "RandomSearchCoordinator");
+                    t.setDaemon(true);
+                    t.start();
+                    System.out.println("Coordinating random search on " + bindAddr.getHostAddress() + ":" + port);
+                }
+                catch(BindException e)
+                {
+                    //Someone else got there first
+                }
+            }
+            return new RemoteSearchState(new Socket(host, port));
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("Failed to connect to the random search coordinator at " + host + ":" + port, e);
+        }
+    }
+
+    private static boolean isLocalHost(String host) throws IOException
+    {
+        InetAddress addr = InetAddress.getByName(host);
+        return addr.isLoopbackAddress() || addr.isAnyLocalAddress() || NetworkInterface.getByInetAddress(addr) != null;
+    }
+
+    public void run()
+    {
+        while(true)
+        {
+            try
+            {
+                final Socket socket = mServer.accept();
+                Thread t = new Thread(new Runnable(){
+                    public void run()
+                    {
+                        serve(socket);
+                    }
+                }, "RandomSearchCoordinator");
+                t.setDaemon(true);
+                t.start();
+            }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of a single worker until it hangs up
+     */
+    private void serve(Socket socket)
+    {
+        try
+        {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "utf8"));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                String[] request = line.trim().split(" ", 2);
+                if(request[0].equals("CLAIM") && request.length == 2)
+                    out.println(mState.claim(request[1]));
+                else if(request[0].equals("SPEND") && request.length == 2)
+                    out.println(mState.spend(Float.parseFloat(request[1])));
+                else if(request[0].equals("REMAINING"))
+                    out.println(mState.getTimeRemaining());
+                else
+                    out.println("ERROR");
+            }
+            socket.close();
+        }
+        catch(Exception e)
+        {
+            //They've gone away, which is their business
+        }
+    }
+
+    /**
+     * The worker's end of the connection - the slots of a worker share this, taking turns on the socket
+     */
+    static class RemoteSearchState implements SearchState
+    {
+        private Socket mSocket;
+        private BufferedReader mIn;
+        private PrintWriter mOut;
+        private boolean mLost = false;
+
+        RemoteSearchState(Socket socket) throws IOException
+        {
+            mSocket = socket;
+            mSocket.setTcpNoDelay(true);
+            mIn = new BufferedReader(new InputStreamReader(socket.getInputStream(), "utf8"));
+            mOut = new PrintWriter(socket.getOutputStream(), true);
+        }
+
+        public boolean claim(String argHash)
+        {
+            return Boolean.parseBoolean(request("CLAIM " + argHash, "false"));
+        }
+
+        public float spend(float time)
+        {
+            return Float.parseFloat(request("SPEND " + time, "0"));
+        }
+
+        public float getTimeRemaining()
+        {
+            return Float.parseFloat(request("REMAINING", "0"));
+        }
+
+        /**
+         * Sends a request and waits on the reply, or gives back the fallback if the coordinator isn't there anymore
+         */
+        private synchronized String request(String line, String fallback)
+        {
+            if(mLost)
+                return fallback;
+            try
+            {
+                mOut.println(line);
+                String reply = mIn.readLine();
+                if(reply == null || reply.equals("ERROR"))
+                    throw new IOException("Coordinator did not reply to '" + line + "'");
+                return reply;
+            }
+            catch(IOException e)
+            {
+                System.out.println("Lost the random search coordinator: " + e.getMessage());
+                mLost = true;
+                try
+                {
+                    mSocket.close();
+                }
+                catch(IOException e2)
+                {
+                    //Nothing more to do
+                }
+                return fallback;
+            }
+        }
+    }
+}
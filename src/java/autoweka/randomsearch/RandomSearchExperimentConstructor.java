@@ -7,6 +7,7 @@ import java.util.List;
 
 import autoweka.Conditional;
 import autoweka.ExperimentConstructor;
+import autoweka.FoldEvaluator;
 import autoweka.Parameter;
 import autoweka.ParameterConditionalGroup;
 import autoweka.Util;
@@ -38,10 +39,14 @@ public class RandomSearchExperimentConstructor extends ExperimentConstructor
     {
         List<String> args = new ArrayList<String>();
         args.add(Util.getJavaExecutable());
-        args.add("-Xmx1000m");
+        //Folds done in the worker itself need the experiment's memory
+        if(FoldEvaluator.getParallelism(Util.parsePropertyString(mExperiment.extraPropsString)) > 1)
+            args.add("-Xmx" + mExperiment.memory);
+        else
+            args.add("-Xmx1000m");
         args.add("-cp");
         args.add(Util.getAbsoluteClasspath());
-        args.add("autoweka.randomsearch.RandomSearchWorker");
+        args.add(getWorkerClassName());
         args.add(mExperiment.name + ".experiment");
         args.add("{SEED}");
 
@@ -53,6 +58,14 @@ public class RandomSearchExperimentConstructor extends ExperimentConstructor
         return "RandomSearch";
     }
 
+    /**
+     * Gets the class whose main method does the actual search, given the experiment file and the seed
+     */
+    protected String getWorkerClassName()
+    {
+        return "autoweka.randomsearch.RandomSearchWorker";
+    }
+
     private void printParamFile(PrintStream out)
     {
         ParameterConditionalGroup paramGroup = generateAlgorithmParameterConditionalGroupForDAG();
@@ -2,32 +2,60 @@ package autoweka.randomsearch;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.Future;
 
 import autoweka.ClassParams;
+import autoweka.ClassifierRunner;
+import autoweka.EvaluationDaemon;
 import autoweka.Experiment;
+import autoweka.FoldEvaluator;
 import autoweka.InstanceGenerator;
 import autoweka.Parameter;
+import autoweka.ResultCache;
 import autoweka.SubProcessWrapper;
 import autoweka.Trajectory;
 import autoweka.Trajectory.Point;
 import autoweka.TrajectoryGroup;
 import autoweka.Util;
 
+/**
+ * Evaluates random points until the budget runs out.
+ *
+ * A number of slots sample and evaluate points at the same time, each taking a fold's time out of the shared budget as soon as that fold's result
+ * comes in. Points are claimed in a SearchState before they get evaluated so that nothing is done twice; results that are already on disk
+ * (from an earlier run in the same directory) are skipped as well. The following can be set in the experiment's extra properties:
+ *   randomSearchSlots - the number of points to evaluate at once (default 1)
+ *   randomSearchCoordinatorPort - if set, the budget and claimed points are shared through a RandomSearchCoordinator on this port
+ *   randomSearchCoordinatorHost - the host that the coordinator lives on (default localhost)
+ *   randomSearchCoordinatorBindAddress - the address the coordinator listens on (default the loopback interface, so only workers on the same machine can reach it)
+ */
 class RandomSearchWorker
 {
+    private static final float msFailedError = 1.0e10f;
+    private static final int msMaxSampleAttempts = 1000;
+
     String mSeed;
     Random mRand;
-    float mTimeRemaining;
+    SearchState mState;
+    int mNumSlots;
     Experiment mExperiment;
     ClassParams mParams;
     File mExperimentDir;
     List<String> mInstances;
     Trajectory trajectory;
     TrajectoryGroup trajectoryGroup;
+    FoldEvaluator mFoldEvaluator;
+
+    //Everything the slots report back, guarded by the trajectory
+    double mBestError = 1E10;
+    double mTotalTime = 0;
+    int mNumTotalEvaluations = 0;
 
     public static void main(String[] args){
         RandomSearchWorker worker = new RandomSearchWorker(new File(args[0]).getAbsoluteFile().getParentFile(), Experiment.fromXML(args[0]), args[1]);
@@ -47,85 +75,212 @@ class RandomSearchWorker
 
         mExperiment = experiment;
         mExperimentDir = experimentDir;
-        mTimeRemaining = experiment.tunerTimeout;
         trajectory = new Trajectory(seed);
         trajectoryGroup = new TrajectoryGroup(experiment);
 
         mParams = new ClassParams(experimentDir.getAbsolutePath() + File.separator + "autoweka.params");
+
+        Properties extraProps = Util.parsePropertyString(experiment.extraPropsString);
+        mNumSlots = Integer.parseInt(extraProps.getProperty("randomSearchSlots", "1"));
+        if(mNumSlots < 1)
+            throw new RuntimeException("randomSearchSlots must be at least 1");
+
+        String port = extraProps.getProperty("randomSearchCoordinatorPort");
+        if(port != null)
+            mState = RandomSearchCoordinator.connect(extraProps.getProperty("randomSearchCoordinatorHost", "localhost"), Integer.parseInt(port),
+                                                     extraProps.getProperty("randomSearchCoordinatorBindAddress"), experiment.tunerTimeout);
+        else
+            mState = new LocalSearchState(experiment.tunerTimeout);
+
+        //Should we be doing the folds in here, all at once?
+        int parallelism = FoldEvaluator.getParallelism(extraProps);
+        if(parallelism > 1)
+        {
+            Properties props = new Properties();
+            props.put("datasetString", experiment.datasetString);
+            props.put("instanceGenerator", experiment.instanceGenerator);
+            props.put("instanceGeneratorArgs", experiment.instanceGeneratorArgs);
+            props.put("resultMetric", experiment.resultMetric);
+            EvaluationDaemon.copySettings(extraProps, props);
+            ResultCache.copySettings(extraProps, props);
+            ClassifierRunner.copySettings(extraProps, props);
+            mFoldEvaluator = new FoldEvaluator(props, parallelism);
+            //The same thing a sub process would have been given, for once a hard stop means we can't run in here any more
+            mFoldEvaluator.setFallback(mExperimentDir, experiment.memory, props);
+        }
     }
 
     public void run()
     {
-      	
-      	double bestError = 1E10;
-      	double totalTime = 0;
-      	int numTotalEvaluations = 0;
-      	
-        while(mTimeRemaining > 0)
+        List<Thread> slots = new ArrayList<Thread>();
+        for(int i = 0; i < mNumSlots; i++)
         {
-          RandomSearchResult res = evaluatePoint();
-          double error = 0;
-          if (res.results.size() > 0) {
-                // Skip test error (the last element in the results array)
-                for(RandomSearchResult.InstanceResult instanceResult : res.results.subList(0, res.results.size()-1)){
-                  error += instanceResult.error;
-                  totalTime += instanceResult.time;
+            Thread slot = new Thread(new Runnable(){
+                public void run()
+                {
+                    runSlot();
                 }
-                error /= res.results.size()-1;
-                numTotalEvaluations += res.results.size();
-          } else {
-              error = 1E10;
-          }
-          
-          if (error < bestError) {
-            bestError = error;
-            trajectory.addPoint(new Point(totalTime, error, res.argString));
-          }
+            }, "RandomSearchSlot-" + i);
+            slot.start();
+            slots.add(slot);
+        }
+        for(Thread slot : slots)
+        {
+            try
+            {
+                slot.join();
+            }
+            catch(InterruptedException e)
+            {
+                throw new RuntimeException("Interrupted while waiting on the slots", e);
+            }
         }
-        trajectory.setEvaluationCounts(numTotalEvaluations, -1, -1);
-        
+
+        if(mFoldEvaluator != null)
+            mFoldEvaluator.shutdown();
+
+        trajectory.setEvaluationCounts(mNumTotalEvaluations, -1, -1);
         trajectoryGroup.addTrajectory(trajectory);
         trajectoryGroup.toXML(mExperimentDir + File.separator + mExperimentDir.getName() + ".trajectories." + mSeed);
     }
 
-    private RandomSearchResult evaluatePoint(){
-        boolean resultExists = true;
-        String argString = null;
-        RandomSearchResult res = null;
-        while(resultExists){
-            Map<String, String> argMap = new HashMap<String, String>();        
-            
-            for(Parameter param : mParams.getParameters()){
-                argMap.put(param.name, param.getRandomValue(mRand));
+    /**
+     * Keeps evaluating new points until the budget is gone
+     */
+    private void runSlot()
+    {
+        try
+        {
+            while(mState.getTimeRemaining() > 0)
+            {
+                RandomSearchResult res = claimPoint();
+                if(res == null)
+                {
+                    System.out.println("Ran out of new points to try");
+                    break;
+                }
+                evaluatePoint(res);
+                recordResult(res);
             }
-            argString = Util.argMapToString(mParams.filterParams(argMap));
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
 
-            //Make the output result
-            res = new RandomSearchResult(argString);
-            resultExists = res.resultExists(mExperimentDir);
+    /**
+     * Samples points until one comes up that nobody has done or is doing, giving up with null if that takes too long
+     */
+    private RandomSearchResult claimPoint()
+    {
+        for(int attempt = 0; attempt < msMaxSampleAttempts; attempt++)
+        {
+            Map<String, String> argMap = new HashMap<String, String>();
+            //The slots take turns so that a seed always samples the same sequence of points
+            synchronized(mRand)
+            {
+                for(Parameter param : mParams.getParameters()){
+                    argMap.put(param.name, param.getRandomValue(mRand));
+                }
+            }
+            RandomSearchResult res = new RandomSearchResult(Util.argMapToString(mParams.filterParams(argMap)));
+            if(!res.resultExists(mExperimentDir) && mState.claim(res.argHash))
+                return res;
         }
+        return null;
+    }
 
-        res.touchResultFile(mExperimentDir);
+    /**
+     * Runs a point on all the instances, reporting each one as it finishes and stopping early if one of them fails
+     */
+    private void evaluatePoint(RandomSearchResult res)
+    {
         System.out.println("Evaluating point with hash '" + res.argHash + "'");
 
-        for(String instance : mInstances){
-          try{
-            SubProcessWrapper.ErrorAndTime errAndTime = SubProcessWrapper.getErrorAndTime(mExperimentDir, mExperiment, instance, argString, mSeed);
-            res.addInstanceResult(instance, errAndTime);
-            mTimeRemaining -= errAndTime.time;
-            System.out.println("Spent " + errAndTime.time + " getting a response of " + errAndTime.error);
-            // Stop processing folds if one of them is not working
-            if (errAndTime.error>=1.0E10){
-              break;
+        SubProcessWrapper.ErrorAndTime[] results = new SubProcessWrapper.ErrorAndTime[mInstances.size()];
+        if(mFoldEvaluator != null)
+        {
+            List<Future<SubProcessWrapper.ErrorAndTime>> futures = mFoldEvaluator.submit(mInstances, mExperiment.resultMetric, mExperiment.trainTimeout, mSeed, Arrays.asList(res.argString.split(" ")));
+            boolean[] handled = new boolean[futures.size()];
+            int i;
+            while((i = FoldEvaluator.awaitAny(futures, handled)) >= 0)
+            {
+                handled[i] = true;
+                results[i] = FoldEvaluator.get(futures.get(i));
+                if(!reportInstance(res, mInstances.get(i), results[i]))
+                    break;
+            }
+            //Folds that were already running when we stopped still come out of the budget
+            mState.spend(FoldEvaluator.finish(futures, handled));
+        }
+        else
+        {
+            for(int i = 0; i < mInstances.size(); i++)
+            {
+                try
+                {
+                    results[i] = SubProcessWrapper.getErrorAndTime(mExperimentDir, mExperiment, mInstances.get(i), res.argString, mSeed);
+                }
+                catch(Exception e)
+                {
+                    e.printStackTrace();
+                    break;
+                }
+                if(!reportInstance(res, mInstances.get(i), results[i]))
+                    break;
             }
-          }
-          catch(Exception e){
-            e.printStackTrace();
-            break;
-          }
         }
 
+        //Keep the results in instance order, so the test one stays at the end
+        for(int i = 0; i < results.length; i++)
+        {
+            if(results[i] != null)
+                res.addInstanceResult(mInstances.get(i), results[i]);
+        }
         res.saveResultFile(mExperimentDir);
-        return res;
+    }
+
+    /**
+     * Takes the time of an instance out of the budget, returning false if there's no point looking at the rest of them
+     */
+    private boolean reportInstance(RandomSearchResult res, String instance, SubProcessWrapper.ErrorAndTime errAndTime)
+    {
+        mState.spend(errAndTime.time);
+        System.out.println("Spent " + errAndTime.time + " getting a response of " + errAndTime.error + " on " + instance + " for point '" + res.argHash + "'");
+        return errAndTime.error < msFailedError;
+    }
+
+    /**
+     * Updates the trajectory with a point that's been evaluated
+     */
+    private void recordResult(RandomSearchResult res)
+    {
+        //The error is the average over the CV instances that were done, a failed one dragging it up
+        double error = 0;
+        double time = 0;
+        int numCVResults = 0;
+        for(RandomSearchResult.InstanceResult instanceResult : res.results){
+            if(instanceResult.instance.equals("default"))
+                continue;
+            error += instanceResult.error;
+            time += instanceResult.time;
+            numCVResults++;
+        }
+        if(numCVResults > 0)
+            error /= numCVResults;
+        else
+            error = msFailedError;
+
+        synchronized(trajectory)
+        {
+            mTotalTime += time;
+            mNumTotalEvaluations += res.results.size();
+            if(error < mBestError)
+            {
+                mBestError = error;
+                trajectory.addPoint(new Point(mTotalTime, error, res.argString));
+            }
+        }
     }
 }
@@ -0,0 +1,24 @@
+package autoweka.randomsearch;
+
+/**
+ * What the evaluation slots of a random search share: which points have already been claimed by someone, and how much of the time budget is left.
+ *
+ * This can either live in the worker itself (LocalSearchState), or be held by a RandomSearchCoordinator that several workers talk to
+ */
+interface SearchState
+{
+    /**
+     * Tries to claim the point with the given hash, returning false if someone else already has
+     */
+    boolean claim(String argHash);
+
+    /**
+     * Takes some time out of the budget, returning how much is left afterwards
+     */
+    float spend(float time);
+
+    /**
+     * Gets how much of the budget is left
+     */
+    float getTimeRemaining();
+}
@@ -2,8 +2,13 @@ package autoweka.smac;
 
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Future;
 
 import autoweka.ClassifierResult;
+import autoweka.ClassifierRunner;
+import autoweka.EvaluationDaemon;
+import autoweka.FoldEvaluator;
+import autoweka.ResultCache;
 import autoweka.Util;
 import autoweka.SubProcessWrapper;
 
@@ -32,14 +37,39 @@ public class MultiInstanceWrapper extends SMACWrapper
         int executedCount = 0;
         int failedCount = 0;
 
-        for(String instance : instances){
+        //What a sub process needs to do a single fold
+        Properties props = new Properties();
+        props.put("datasetString", mProperties.getProperty("datasetString"));
+        props.put("instanceGenerator", mProperties.getProperty("instanceGenerator"));
+        props.put("instanceGeneratorArgs", mInstance);
+        props.put("resultMetric", mResultMetric);
+        EvaluationDaemon.copySettings(mProperties, props);
+        ResultCache.copySettings(mProperties, props);
+        ClassifierRunner.copySettings(mProperties, props);
+
+        //If we're allowed, get all the folds going in here rather than one sub process at a time
+        List<Future<SubProcessWrapper.ErrorAndTime>> futures = null;
+        int parallelism = FoldEvaluator.getParallelism(mProperties);
+        if(parallelism > 1)
+        {
+            FoldEvaluator evaluator = new FoldEvaluator(mRunner, mProperties, parallelism);
+            evaluator.setFallback(null, memory, props);
+            futures = evaluator.submit(instances, mResultMetric, mTimeout, mExperimentSeed, runnerArgs);
+            evaluator.shutdown();
+        }
+
+        for(int i = 0; i < instances.size(); i++){
+            String instance = instances.get(i);
             System.out.println(instance);
-            Properties props = new Properties();
-            props.put("datasetString", mProperties.getProperty("datasetString"));
-            props.put("instanceGenerator", mProperties.getProperty("instanceGenerator"));
-            props.put("instanceGeneratorArgs", mInstance);
-            props.put("resultMetric", mResultMetric);
-            SubProcessWrapper.ErrorAndTime errTime = SubProcessWrapper.getErrorAndTime(null, memory, props, mTimeout, instance, Util.joinStrings(" ", runnerArgs), false, mExperimentSeed);
+            SubProcessWrapper.ErrorAndTime errTime;
+            if(futures != null)
+            {
+                errTime = FoldEvaluator.get(futures.get(i));
+            }
+            else
+            {
+                errTime = SubProcessWrapper.getErrorAndTime(null, memory, props, mTimeout, instance, Util.joinStrings(" ", runnerArgs), false, mExperimentSeed);
+            }
             //Update the res's time and estimate
             res._setRawScore((res.getRawScore()*executedCount + errTime.error)/(executedCount+1));
             res.setTrainingTime(res.getTrainingTime() + errTime.time);
@@ -48,6 +78,9 @@ public class MultiInstanceWrapper extends SMACWrapper
             if(errTime.error > 99.99){
                 failedCount++;
                 if(failedCount >= 3){
+                    //Any folds that were already running still cost us time
+                    if(futures != null)
+                        res.setTrainingTime(res.getTrainingTime() + FoldEvaluator.finish(futures, i+1));
                     return res;
                 }
             }
@@ -1,10 +1,14 @@
 package autoweka.smac;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -14,158 +18,335 @@ import autoweka.Parameter;
 import autoweka.Trajectory;
 import autoweka.TrajectoryParser;
 
+/**
+ * Builds a trajectory out of the runs_and_results and paramstrings files that SMAC leaves in its state-run folder.
+ *
+ * Rather than going through those files from the top every time, each seed's files are tailed: only the lines that have been added since the last
+ * look get parsed, and the trajectory is updated in place. SMAC writes a new pair of files every iteration that start with everything in the old ones,
+ * so when a newer iteration shows up we skip past the lines that were already seen. This lets updateTrajectory be called while SMAC is still going
+ */
 public class SMACTrajectoryParser extends TrajectoryParser
 {
     // configurationId: configurationParameters
-    private Pattern mTrajPattern = Pattern.compile("([\\-\\.\\d]+): (.*)");
-    private Pattern mRunsAndResultFileNamePattern = Pattern.compile("runs_and_results-it(\\d+).csv");
+    private static final Pattern msTrajPattern = Pattern.compile("([\\-\\.\\d]+): (.*)");
+    private static final Pattern msRunsAndResultFileNamePattern = Pattern.compile("runs_and_results-it(\\d+).csv");
     // seed=0:numFolds=10
-    private Pattern mInstanceGeneratorArgsPattern = Pattern.compile("seed=\\d+:numFolds=(\\d+)");
+    private static final Pattern msInstanceGeneratorArgsPattern = Pattern.compile("seed=\\d+:numFolds=(\\d+)");
+
+    //Where the files of each seed that's being followed have been read up to, so that the final parse only has to look at what was written since the last update.
+    //The final parse takes its seed out again
+    private static final Map<String, Tail> msTails = new HashMap<String, Tail>();
 
     public Trajectory parseTrajectory(Experiment experiment, File folder, String seed)
     {
-        int numFolds = 10; //set 10 as default and then parse the value from experiment
-      	Matcher matcher = mInstanceGeneratorArgsPattern.matcher(experiment.instanceGeneratorArgs);
-      	if(matcher.matches()){
-      	  numFolds = Integer.parseInt(matcher.group(1));
-      	}
-      	
-        //Load up the conditional params
-        ClassParams params = new ClassParams(folder.getAbsolutePath() + File.separator + "autoweka.params");
+        Tail tail;
+        synchronized(msTails)
+        {
+            tail = msTails.remove(getTailKey(folder, seed));
+        }
+        if(tail == null)
+            tail = new Tail(experiment, folder, seed);
+        synchronized(tail)
+        {
+            if(!tail.update())
+                System.err.println("Could not find runs_and_results file");
+            return tail.mTraj;
+        }
+    }
+
+    @Override
+    public Trajectory updateTrajectory(Experiment experiment, File folder, String seed)
+    {
+        Tail tail = getTail(experiment, folder, seed);
+        synchronized(tail)
+        {
+            tail.update();
+            return tail.mTraj;
+        }
+    }
 
-        Trajectory traj = new Trajectory(seed);
+    private static String getTailKey(File folder, String seed)
+    {
+        return folder.getAbsolutePath() + File.pathSeparator + seed;
+    }
 
-        try
+    private static Tail getTail(Experiment experiment, File folder, String seed)
+    {
+        String key = getTailKey(folder, seed);
+        synchronized(msTails)
         {
-            File[] files = new File(folder.getAbsolutePath() + File.separator + "out" + File.separator + "autoweka").listFiles();
-
-            // Parse the runs_and_results file
-            String runsAndResultsFileName = null;
-            int runsAndResultsIteration = -1;
-            String path = folder.getAbsolutePath() + File.separator + "out" + File.separator + "autoweka" + File.separator + "state-run" + seed + File.separator;
-            files = new File(path).listFiles();
-            for(File f: files)
+            Tail tail = msTails.get(key);
+            if(tail == null)
             {
-                String s = f.getName();
-                matcher = mRunsAndResultFileNamePattern.matcher(s);
-                if(matcher.matches())
+                tail = new Tail(experiment, folder, seed);
+                msTails.put(key, tail);
+            }
+            return tail;
+        }
+    }
+
+    /**
+     * Everything that's been read so far for one seed
+     */
+    static class Tail
+    {
+        private final File mStateDir;
+        private final ClassParams mParams;
+        private int mNumFolds = 10; //set 10 as default and then parse the value from experiment
+        private final Trajectory mTraj;
+
+        private int mIteration = -1;
+        private long mRunsOffset = 0;
+        private long mParamsOffset = 0;
+        private int mNumRunsRows = 0;
+        private int mNumParamsLines = 0;
+
+        private final HashMap<Integer, String> mConfigurationParameters = new HashMap<Integer, String>();
+        private final HashMap<Integer, Double> mResponses = new HashMap<Integer, Double>();
+        private final HashMap<Integer, Integer> mEvaluatedFolds = new HashMap<Integer, Integer>();
+        //Points whose configuration hadn't been written out yet when they were added
+        private final HashMap<Integer, List<Trajectory.Point>> mMissingArgs = new HashMap<Integer, List<Trajectory.Point>>();
+        private double mCurrentBest = 1e100;
+        private int mNumEvals = 0;
+        private int mNumCompleted = 0;
+        private int mNumMemOut = 0;
+        private int mNumTimeOut = 0;
+        private int mNumCrashed = 0;
+
+        Tail(Experiment experiment, File folder, String seed)
+        {
+            Matcher matcher = msInstanceGeneratorArgsPattern.matcher(experiment.instanceGeneratorArgs);
+            if(matcher.matches()){
+                mNumFolds = Integer.parseInt(matcher.group(1));
+            }
+
+            //Load up the conditional params
+            mParams = new ClassParams(folder.getAbsolutePath() + File.separator + "autoweka.params");
+            mStateDir = new File(folder.getAbsolutePath() + File.separator + "out" + File.separator + "autoweka" + File.separator + "state-run" + seed);
+            mTraj = new Trajectory(seed);
+        }
+
+        /**
+         * Reads whatever has been added since the last update, returning false if there's nothing to read yet
+         */
+        boolean update()
+        {
+            try
+            {
+                //Has SMAC moved on to a new iteration?
+                int iteration = -1;
+                File[] files = mStateDir.listFiles();
+                if(files != null)
                 {
-                    int itr = Integer.parseInt(matcher.group(1));
-                    if(itr > runsAndResultsIteration){
-                        runsAndResultsFileName = f.getAbsolutePath();
-                        runsAndResultsIteration = itr;
+                    for(File f: files)
+                    {
+                        Matcher matcher = msRunsAndResultFileNamePattern.matcher(f.getName());
+                        if(matcher.matches())
+                            iteration = Math.max(iteration, Integer.parseInt(matcher.group(1)));
                     }
                 }
-            }
+                if(iteration < 0)
+                    return mIteration >= 0;
 
-            if(runsAndResultsFileName != null)
-            {
-              
-                // Load the configurations to store them later in the trajectory file
-                String line;
-                HashMap<Integer, String> configurationParameters = new HashMap<Integer, String>();
-                Scanner scanner = new Scanner(new FileInputStream(path + "paramstrings-it"+runsAndResultsIteration+".txt"));
-                while (scanner.hasNextLine()) {
-                    line = scanner.nextLine();
-                    matcher = mTrajPattern.matcher(line);
+                if(iteration != mIteration)
+                {
+                    //Skip the header, plus everything we've already seen in the older files
+                    long runsOffset = offsetAfterLines(getRunsFile(iteration), 1 + mNumRunsRows);
+                    long paramsOffset = offsetAfterLines(getParamsFile(iteration), mNumParamsLines);
+                    if(runsOffset >= 0 && paramsOffset >= 0)
+                    {
+                        mIteration = iteration;
+                        mRunsOffset = runsOffset;
+                        mParamsOffset = paramsOffset;
+                    }
+                    else if(mIteration < 0)
+                    {
+                        //It's only just been made
+                        return false;
+                    }
+                }
+
+                // Load the configurations first so that the runs can refer to them
+                List<String> lines = new ArrayList<String>();
+                mParamsOffset = readNewLines(getParamsFile(mIteration), mParamsOffset, lines);
+                for(String line : lines)
+                {
+                    mNumParamsLines++;
+                    Matcher matcher = msTrajPattern.matcher(line);
                     if (matcher.matches()) {
                         Integer configurationId = Integer.parseInt(matcher.group(1));
-                        String argString = filterArgString(params, matcher.group(2));
-                        configurationParameters.put(configurationId, argString);
+                        String argString = filterArgString(mParams, matcher.group(2));
+                        mConfigurationParameters.put(configurationId, argString);
+                        List<Trajectory.Point> missing = mMissingArgs.remove(configurationId);
+                        if(missing != null)
+                        {
+                            for(Trajectory.Point point : missing)
+                                point.mArgs = argString;
+                        }
                     }
                     else {
-                      System.out.println("Line not matching: " + line);
+                        System.out.println("Line not matching: " + line);
                     }
                 }
-                scanner.close();
-              
-              	double currentBest = 1e100;
-                int numEvals = 0;
-                //int numGood = 0;
-                int numCompleted = 0;
-                int numMemOut = 0;
-                int numTimeOut = 0;
-                int numCrashed = 0;
-                scanner = new Scanner(new FileInputStream(runsAndResultsFileName));
-                
-                HashMap<Integer,Double> responses = new HashMap<Integer, Double>();   
-                HashMap<Integer,Integer> evaluatedFolds = new HashMap<Integer, Integer>();
-
-                //Skip the header
-                scanner.nextLine();
-                String[] row;
-                while(scanner.hasNextLine())
+
+                lines.clear();
+                mRunsOffset = readNewLines(getRunsFile(mIteration), mRunsOffset, lines);
+                for(String line : lines)
                 {
-                    //Split the line
-                    row = scanner.nextLine().split(",");
+                    mNumRunsRows++;
                     try {
-                        numEvals++;
-                        
-                        switch (row[13]) {
-                          case "SAT":
-                            // all good
-                            //numGood++;
-                            Integer configurationId = Integer.parseInt(row[1]);
-                            //Integer instanceId = Integer.parseInt(row[2]);
-                            Double response = Double.parseDouble(row[3]);
-                            
-                            // Store response
-                            Double sumResponse = responses.get(configurationId) != null ? responses.get(configurationId)+response : response;
-                            responses.put(configurationId, sumResponse);
-                            
-                            // Increment number of evaluated folds
-                            Integer numEvaluatedFolds = evaluatedFolds.get(configurationId) != null ? evaluatedFolds.get(configurationId)+1 : 1;
-                            evaluatedFolds.put(configurationId, numEvaluatedFolds);
-                            if (numEvaluatedFolds >= numFolds) {
-                              // Add the configuration to the trajectory if it has been evaluated in all the folds
-                              Float time = Float.parseFloat(row[12]); // SMAC cumulative runtime
-                              Double score = responses.get(configurationId) / numFolds;
-
-                              if (score <= currentBest){
-                        	currentBest = score;
-                        	String args = configurationParameters.get(configurationId);
-                        	if (args==null){
-                        	  System.err.println("Configuration not found: " + configurationId);
-                        	}
-                        	traj.addPoint(new Trajectory.Point(time, score, args));
-                              }
-                              numCompleted++;
-                            }
-                            break;
-                          case "TIMEOUT":
-                            numTimeOut++;
-                            break;
-                          case "MEMOUT":
-                            numMemOut++;
-                            break;
-                          case "CRASHED":
-                            numCrashed++;
-                            break;
-                          default:
-                            System.err.println("Unexpected evaluation status: " + row[13]);
-                        }
-                        
+                        addRun(line.split(","));
                     } catch (Exception e) {
                         //Whatevs... it's wrong
                         e.printStackTrace();
                     }
                 }
-                traj.setEvaluationCounts(numEvals, numMemOut, numTimeOut, numCompleted, numCrashed);
-                scanner.close();
+                mTraj.setEvaluationCounts(mNumEvals, mNumMemOut, mNumTimeOut, mNumCompleted, mNumCrashed);
+                return true;
             }
-            else
+            catch(Exception e)
             {
-                System.err.println("Could not find runs_and_results file");
+                throw new RuntimeException("Failed to parse trajectory", e);
+            }
+        }
+
+        private void addRun(String[] row)
+        {
+            mNumEvals++;
+
+            switch (row[13]) {
+              case "SAT":
+                Integer configurationId = Integer.parseInt(row[1]);
+                double response = Double.parseDouble(row[3]);
+
+                // Store response
+                Double sumResponse = mResponses.get(configurationId);
+                mResponses.put(configurationId, sumResponse != null ? sumResponse + response : response);
+
+                // Increment number of evaluated folds
+                Integer numEvaluatedFolds = mEvaluatedFolds.get(configurationId);
+                numEvaluatedFolds = numEvaluatedFolds != null ? numEvaluatedFolds + 1 : 1;
+                mEvaluatedFolds.put(configurationId, numEvaluatedFolds);
+                if (numEvaluatedFolds >= mNumFolds) {
+                    // Add the configuration to the trajectory if it has been evaluated in all the folds
+                    float time = Float.parseFloat(row[12]); // SMAC cumulative runtime
+                    double score = mResponses.get(configurationId) / mNumFolds;
+
+                    if (score <= mCurrentBest){
+                        mCurrentBest = score;
+                        Trajectory.Point point = new Trajectory.Point(time, score, mConfigurationParameters.get(configurationId));
+                        if (point.getArgs()==null){
+                            //It'll probably show up in the paramstrings next time around
+                            System.err.println("Configuration not found: " + configurationId);
+                            List<Trajectory.Point> missing = mMissingArgs.get(configurationId);
+                            if(missing == null)
+                            {
+                                missing = new ArrayList<Trajectory.Point>();
+                                mMissingArgs.put(configurationId, missing);
+                            }
+                            missing.add(point);
+                        }
+                        mTraj.addPoint(point);
+                    }
+                    mNumCompleted++;
+                }
+                break;
+              case "TIMEOUT":
+                mNumTimeOut++;
+                break;
+              case "MEMOUT":
+                mNumMemOut++;
+                break;
+              case "CRASHED":
+                mNumCrashed++;
+                break;
+              default:
+                System.err.println("Unexpected evaluation status: " + row[13]);
+            }
+        }
+
+        private File getRunsFile(int iteration)
+        {
+            return new File(mStateDir, "runs_and_results-it" + iteration + ".csv");
+        }
+
+        private File getParamsFile(int iteration)
+        {
+            return new File(mStateDir, "paramstrings-it" + iteration + ".txt");
+        }
+    }
+
+    /**
+     * Adds every complete line in the file after the offset to the list, returning the offset just past the last one.
+     *
+     * A line that's still being written (ie. has no newline yet) is left for next time. Lines are decoded as UTF-8 once they're complete
+     */
+    static long readNewLines(File file, long offset, List<String> lines) throws IOException
+    {
+        if(!file.exists())
+            return offset;
+        FileInputStream stream = new FileInputStream(file);
+        try
+        {
+            stream.getChannel().position(offset);
+            BufferedInputStream in = new BufferedInputStream(stream, 1 << 16);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long pos = offset;
+            int c;
+            while((c = in.read()) != -1)
+            {
+                pos++;
+                if(c == '\n')
+                {
+                    String s = line.toString("UTF-8");
+                    if(s.endsWith("\r"))
+                        s = s.substring(0, s.length() - 1);
+                    lines.add(s);
+                    line.reset();
+                    offset = pos;
+                }
+                else
+                {
+                    line.write(c);
+                }
             }
         }
-        catch(Exception e)
+        finally
         {
-            throw new RuntimeException("Failed to parse trajectory", e);
+            stream.close();
         }
-        return traj;
+        return offset;
     }
 
-    private String filterArgString(ClassParams params, String args)
+    /**
+     * Gets the offset just past the given number of complete lines, or -1 if the file doesn't have that many yet
+     */
+    static long offsetAfterLines(File file, int numLines) throws IOException
+    {
+        if(numLines == 0)
+            return 0;
+        if(!file.exists())
+            return -1;
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        try
+        {
+            long pos = 0;
+            int c;
+            while((c = in.read()) != -1)
+            {
+                pos++;
+                if(c == '\n' && --numLines == 0)
+                    return pos;
+            }
+            return -1;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static String filterArgString(ClassParams params, String args)
     {
         //First, we need to make a map out of everything
         Map<String, Parameter> paramMap = params.getParameterMap();
@@ -189,4 +370,3 @@ public class SMACTrajectoryParser extends TrajectoryParser
         return autoweka.Util.argMapToString(params.filterParams(argMap));
     }
 }
-
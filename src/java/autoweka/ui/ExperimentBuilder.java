@@ -88,6 +88,7 @@ public class ExperimentBuilder extends JFrame
         mOptimisationMethodCombo.addItem(new autoweka.ui.experimentconstructors.SMAC(this));
         mOptimisationMethodCombo.addItem(new autoweka.ui.experimentconstructors.TPE(this));
         mOptimisationMethodCombo.addItem(new autoweka.ui.experimentconstructors.RandomSearch(this));
+        mOptimisationMethodCombo.addItem(new autoweka.ui.experimentconstructors.Hyperband(this));
 
         activateDatasetSelection();
     }
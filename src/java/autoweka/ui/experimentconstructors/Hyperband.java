@@ -0,0 +1,44 @@
+package autoweka.ui.experimentconstructors;
+
+import java.awt.Frame;
+import java.util.Properties;
+
+import javax.swing.JTextField;
+
+import org.javabuilders.swing.SwingJavaBuilder;
+
+import autoweka.ui.PropertyPanel;
+
+public class Hyperband
+  extends PropertyPanel {
+
+  private static final long serialVersionUID = -4412369880725301553L;
+
+  private JTextField mEtaText;
+  private JTextField mRungsText;
+  private JTextField mBracketsText;
+
+  public Hyperband(Frame owner) {
+    super(owner);
+    SwingJavaBuilder.build(this);
+  }
+
+  @Override
+  public String getClassName() {
+    return "autoweka.hyperband.HyperbandExperimentConstructor";
+  }
+
+  public String toString() {
+    return "Hyperband";
+  }
+
+  @Override
+  public Properties getProperties() {
+    Properties props = new Properties();
+    props.setProperty("hyperbandEta", mEtaText.getText());
+    props.setProperty("hyperbandRungs", mRungsText.getText());
+    props.setProperty("hyperbandBrackets", mBracketsText.getText());
+    return props;
+  }
+
+}
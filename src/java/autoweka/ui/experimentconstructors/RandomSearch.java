@@ -4,6 +4,8 @@ package autoweka.ui.experimentconstructors;
 import java.awt.Frame;
 import java.util.Properties;
 
+import javax.swing.JTextField;
+
 import org.javabuilders.swing.SwingJavaBuilder;
 
 import autoweka.ui.PropertyPanel;
@@ -13,6 +15,8 @@ public class RandomSearch
 
   private static final long serialVersionUID = 7669500148438547238L;
 
+  private JTextField mSlotsText;
+
   public RandomSearch(Frame owner) {
     super(owner);
     SwingJavaBuilder.build(this);
@@ -30,6 +34,7 @@ public class RandomSearch
   @Override
   public Properties getProperties() {
     Properties props = new Properties();
+    props.setProperty("randomSearchSlots", mSlotsText.getText());
     return props;
   }
 
@@ -0,0 +1,24 @@
+package autoweka;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * Runs all the Auto-WEKA tests
+ */
+public class AutoWEKATestSuite
+{
+    public static Test suite()
+    {
+        TestSuite suite = new TestSuite();
+        suite.addTest(ClassifierRunnerTest.suite());
+        suite.addTest(MetricAccumulatorTest.suite());
+        suite.addTest(ResultCacheTest.suite());
+        return suite;
+    }
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+}
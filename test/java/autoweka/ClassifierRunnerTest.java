@@ -0,0 +1,98 @@
+package autoweka;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import weka.classifiers.Evaluation;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.core.Instances;
+
+/**
+ * Checks how the ClassifierRunner evaluates the classifiers it trains
+ */
+public class ClassifierRunnerTest extends TestCase
+{
+    public ClassifierRunnerTest(String name)
+    {
+        super(name);
+    }
+
+    private static ClassifierRunner createRunner(Properties extra)
+    {
+        Properties props = new Properties();
+        props.setProperty("instanceGenerator", "autoweka.instancegenerators.Default");
+        props.setProperty("datasetString", "__dummy__");
+        props.setProperty("verbose", "false");
+        props.putAll(extra);
+        return new ClassifierRunner(props);
+    }
+
+    /**
+     * Out of the box, the built in metrics stream into an accumulator rather than an Evaluation
+     */
+    public void testDefaultUsesAccumulator()
+    {
+        ClassifierRunner runner = createRunner(new Properties());
+        Instances testing = runner.getInstanceGenerator().getTestingFromParams("default");
+        assertNotNull(runner.createAccumulator(new NaiveBayes(), new ClassifierResult("errorRate"), testing));
+        assertNotNull(runner.createAccumulator(new NaiveBayes(), new ClassifierResult("autoweka.ClassifierResult$AreaAboveROC"), testing));
+    }
+
+    /**
+     * Asking for a full evaluation or a predictions file goes back to an Evaluation
+     */
+    public void testFullEvaluation()
+    {
+        Properties props = new Properties();
+        props.setProperty("fullEvaluation", "true");
+        ClassifierRunner runner = createRunner(props);
+        Instances testing = runner.getInstanceGenerator().getTestingFromParams("default");
+        assertNull(runner.createAccumulator(new NaiveBayes(), new ClassifierResult("errorRate"), testing));
+
+        props = new Properties();
+        props.setProperty("predictionsFileName", "predictions.csv");
+        runner = createRunner(props);
+        assertNull(runner.createAccumulator(new NaiveBayes(), new ClassifierResult("errorRate"), testing));
+    }
+
+    /**
+     * The setting is forwarded along with the rest of the runner's settings
+     */
+    public void testFullEvaluationIsForwarded()
+    {
+        Properties from = new Properties();
+        from.setProperty("fullEvaluation", "true");
+        Properties to = new Properties();
+        ClassifierRunner.copySettings(from, to);
+        assertEquals("true", to.getProperty("fullEvaluation"));
+    }
+
+    /**
+     * A whole run on the default path scores the same as an Evaluation does
+     */
+    public void testRunMatchesEvaluation() throws Exception
+    {
+        ClassifierRunner runner = createRunner(new Properties());
+        List<String> args = Arrays.asList("-targetclass", "weka.classifiers.bayes.NaiveBayes");
+        ClassifierResult res = runner.run("default", "rmse", 60, "0", args);
+        assertTrue(res.getCompleted());
+
+        Instances training = runner.getInstanceGenerator().getTrainingFromParams("default");
+        Instances testing = runner.getInstanceGenerator().getTestingFromParams("default");
+        NaiveBayes nb = new NaiveBayes();
+        nb.buildClassifier(training);
+        Evaluation eval = new Evaluation(testing);
+        eval.evaluateModel(nb, testing);
+        assertEquals((float)eval.rootMeanSquaredError(), res.getRawScore(), 0f);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ClassifierRunnerTest.class);
+    }
+}
@@ -0,0 +1,140 @@
+package autoweka;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import weka.classifiers.Evaluation;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.J48;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Checks that a MetricAccumulator comes up with the same scores as an Evaluation for all the built in metrics
+ */
+public class MetricAccumulatorTest extends TestCase
+{
+    private static final double msTolerance = 1e-12;
+
+    public MetricAccumulatorTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Nominal class data with uneven weights, a few missing classes, and probabilities on a coarse grid so that there are plenty of ties
+     */
+    public void testNominalWithTiesAndWeights() throws Exception
+    {
+        Instances data = Util.createDummyInstances(300, 3, 1, 1, 1, 0, 0, 1);
+        Random rand = new Random(2);
+        for(int i = 0; i < data.numInstances(); i++)
+        {
+            data.instance(i).setWeight(0.5 + rand.nextInt(4));
+            if(i % 37 == 0)
+                data.instance(i).setClassMissing();
+        }
+
+        Evaluation eval = new Evaluation(data);
+        MetricAccumulator acc = new MetricAccumulator(data, true);
+        for(int i = 0; i < data.numInstances(); i++)
+        {
+            double[] dist = new double[3];
+            //Every so often nothing gets predicted at all
+            if(i % 23 != 0)
+            {
+                for(int j = 0; j < dist.length; j++)
+                    dist[j] = rand.nextInt(4);
+                if(Utils.sum(dist) == 0)
+                    dist[0] = 1;
+                Utils.normalize(dist);
+            }
+            eval.evaluateModelOnceAndRecordPrediction(dist, data.instance(i));
+            acc.addPrediction(dist, data.instance(i));
+        }
+
+        assertSameScores(eval, acc, true);
+    }
+
+    /**
+     * Numeric class data, including predictions that are missing
+     */
+    public void testNumeric() throws Exception
+    {
+        ArrayList<Attribute> atts = new ArrayList<Attribute>();
+        atts.add(new Attribute("x"));
+        atts.add(new Attribute("y"));
+        Instances data = new Instances("numeric", atts, 200);
+        data.setClassIndex(1);
+        Random rand = new Random(3);
+        for(int i = 0; i < 200; i++)
+        {
+            double x = rand.nextGaussian();
+            Instance inst = new DenseInstance(0.25 + rand.nextInt(3), new double[]{x, 2 * x + rand.nextGaussian()});
+            data.add(inst);
+        }
+
+        Evaluation eval = new Evaluation(data);
+        MetricAccumulator acc = new MetricAccumulator(data);
+        for(int i = 0; i < data.numInstances(); i++)
+        {
+            double[] dist = new double[]{(i % 17 == 0) ? Utils.missingValue() : 2 * data.instance(i).value(0)};
+            eval.evaluateModelOnceAndRecordPrediction(dist, data.instance(i));
+            acc.addPrediction(dist, data.instance(i));
+        }
+
+        assertSameScores(eval, acc, false);
+    }
+
+    /**
+     * Runs real classifiers over the data, one that predicts in batches and one that doesn't
+     */
+    public void testEvaluateModel() throws Exception
+    {
+        Instances train = Util.createDummyInstances(200, 2, 2, 1, 1, 1, 3, 4);
+        Instances test = Util.createDummyInstances(150, 2, 2, 1, 1, 1, 3, 5);
+
+        NaiveBayes nb = new NaiveBayes();
+        nb.buildClassifier(train);
+        Evaluation eval = new Evaluation(test);
+        eval.evaluateModel(nb, test);
+        MetricAccumulator acc = new MetricAccumulator(test, true);
+        acc.evaluateModel(nb, test);
+        assertSameScores(eval, acc, true);
+
+        J48 j48 = new J48();
+        j48.buildClassifier(train);
+        eval = new Evaluation(test);
+        eval.evaluateModel(j48, test);
+        acc = new MetricAccumulator(test, true);
+        acc.evaluateModel(j48, test);
+        assertSameScores(eval, acc, true);
+    }
+
+    private void assertSameScores(Evaluation eval, MetricAccumulator acc, boolean nominal) throws Exception
+    {
+        assertEquals("unclassified", eval.unclassified(), acc.unclassified(), msTolerance);
+        if(nominal)
+            assertEquals("pctCorrect", eval.pctCorrect(), acc.pctCorrect(), msTolerance);
+        assertEquals("meanAbsoluteError", eval.meanAbsoluteError(), acc.meanAbsoluteError(), msTolerance);
+        assertEquals("rootMeanSquaredError", eval.rootMeanSquaredError(), acc.rootMeanSquaredError(), msTolerance);
+        assertEquals("relativeAbsoluteError", eval.relativeAbsoluteError(), acc.relativeAbsoluteError(), msTolerance);
+        assertEquals("rootRelativeSquaredError", eval.rootRelativeSquaredError(), acc.rootRelativeSquaredError(), msTolerance);
+        if(nominal)
+            assertEquals("areaUnderROC", eval.areaUnderROC(0), acc.areaUnderROC(), msTolerance);
+        else
+            assertTrue("areaUnderROC", Double.isNaN(acc.areaUnderROC()));
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(MetricAccumulatorTest.class);
+    }
+}
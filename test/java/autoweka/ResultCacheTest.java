@@ -0,0 +1,162 @@
+package autoweka;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that the ResultCache hands back the right runs, and that every way of running the folds goes through it
+ */
+public class ResultCacheTest extends TestCase
+{
+    private static final List<String> msArgs = Arrays.asList("-targetclass", "weka.classifiers.bayes.NaiveBayes", "-K", "REMOVED");
+
+    private File mDir;
+
+    public ResultCacheTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        mDir = File.createTempFile("resultcache", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    protected void tearDown()
+    {
+        File[] files = mDir.listFiles();
+        if(files != null)
+        {
+            for(File f : files)
+                f.delete();
+        }
+        mDir.delete();
+    }
+
+    private Properties createProps()
+    {
+        Properties props = new Properties();
+        props.setProperty("instanceGenerator", "autoweka.instancegenerators.Default");
+        props.setProperty("datasetString", "__dummy__");
+        props.setProperty("verbose", "false");
+        props.setProperty("resultCache", mDir.getAbsolutePath());
+        return props;
+    }
+
+    private static ClassifierResult createResult(boolean completed, float score)
+    {
+        ClassifierResult res = new ClassifierResult("errorRate");
+        res.setCompleted(completed);
+        res._setRawScore(score);
+        res.setTrainingTime(3);
+        res.setEvaluationTime(1);
+        return res;
+    }
+
+    public void testRoundTrip()
+    {
+        ResultCache cache = new ResultCache(mDir);
+        String key = ResultCache.getKey(createProps(), "default", msArgs, "errorRate");
+        assertNull(cache.get(key, "errorRate", 10));
+
+        cache.put(key, 10, createResult(true, 12.5f));
+        ClassifierResult res = cache.get(key, "errorRate", 10);
+        assertNotNull(res);
+        assertTrue(res.getCompleted());
+        assertEquals(12.5f, res.getRawScore(), 0f);
+        assertEquals(3f, res.getTrainingTime(), 0f);
+        assertEquals(1f, res.getEvaluationTime(), 0f);
+    }
+
+    /**
+     * A run that didn't complete only stands in for runs with no longer a timeout, and a completed run always wins
+     */
+    public void testTimeouts()
+    {
+        ResultCache cache = new ResultCache(mDir);
+        String key = ResultCache.getKey(createProps(), "default", msArgs, "errorRate");
+        cache.put(key, 10, createResult(false, 100));
+        assertNull(cache.get(key, "errorRate", 20));
+        assertFalse(cache.get(key, "errorRate", 10).getCompleted());
+
+        cache.put(key, 20, createResult(true, 30));
+        assertEquals(30f, cache.get(key, "errorRate", 5).getRawScore(), 0f);
+    }
+
+    public void testMemOutIsNotCached()
+    {
+        ResultCache cache = new ResultCache(mDir);
+        String key = ResultCache.getKey(createProps(), "default", msArgs, "errorRate");
+        ClassifierResult res = createResult(false, 100);
+        res.setMemOut(true);
+        cache.put(key, 10, res);
+        assertNull(cache.get(key, "errorRate", 10));
+    }
+
+    /**
+     * Keys go by what WEKA ends up seeing, not how the optimiser wrote it down
+     */
+    public void testKeys()
+    {
+        Properties props = createProps();
+        String key = ResultCache.getKey(props, "default", msArgs, "errorRate");
+        List<String> reordered = Arrays.asList("-K", "REMOVED", "-targetclass", "weka.classifiers.bayes.NaiveBayes");
+        assertEquals(key, ResultCache.getKey(props, "default", reordered, "errorRate"));
+        assertFalse(key.equals(ResultCache.getKey(props, "default", msArgs, "rmse")));
+        assertFalse(key.equals(ResultCache.getKey(props, "fold=1", msArgs, "errorRate")));
+    }
+
+    /**
+     * Lookups still work once the log has been indexed
+     */
+    public void testReindex()
+    {
+        ResultCache cache = new ResultCache(mDir);
+        Properties props = createProps();
+        for(int i = 0; i < 300; i++)
+            cache.put(ResultCache.getKey(props, "fold=" + i, msArgs, "errorRate"), 10, createResult(true, i));
+
+        //The first lookup sees a long unindexed tail, and builds the index
+        assertEquals(0f, cache.get(ResultCache.getKey(props, "fold=0", msArgs, "errorRate"), "errorRate", 10).getRawScore(), 0f);
+        assertTrue(new File(mDir, "results.idx").exists());
+        for(int i = 0; i < 300; i++)
+            assertEquals((float)i, cache.get(ResultCache.getKey(props, "fold=" + i, msArgs, "errorRate"), "errorRate", 10).getRawScore(), 0f);
+    }
+
+    /**
+     * Folds evaluated in process look in the cache first, and fill it in
+     */
+    public void testFoldEvaluator()
+    {
+        Properties props = createProps();
+        ResultCache cache = new ResultCache(mDir);
+        String key = ResultCache.getKey(props, "default", msArgs, "errorRate");
+        cache.put(key, 60, createResult(true, 42));
+
+        FoldEvaluator evaluator = new FoldEvaluator(props, 2);
+        SubProcessWrapper.ErrorAndTime errTime = FoldEvaluator.get(evaluator.submit(Collections.singletonList("default"), "errorRate", 60, "0", msArgs).get(0));
+        assertEquals(42f, errTime.error, 0f);
+
+        List<String> otherArgs = Arrays.asList("-targetclass", "weka.classifiers.bayes.NaiveBayes", "-D", "REMOVED");
+        String otherKey = ResultCache.getKey(props, "default", otherArgs, "errorRate");
+        errTime = FoldEvaluator.get(evaluator.submit(Collections.singletonList("default"), "errorRate", 60, "0", otherArgs).get(0));
+        evaluator.shutdown();
+        ClassifierResult stored = cache.get(otherKey, "errorRate", 60);
+        assertNotNull(stored);
+        assertEquals(errTime.error, stored.getScore(), 0f);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ResultCacheTest.class);
+    }
+}
@@ -786,6 +786,46 @@ public class AttributeSelection
     m_trainInstances = new Instances(m_trainInstances, 0);
   }
 
+  /**
+   * Sets up the selection as if SelectAttributes() had chosen the given
+   * attributes on the supplied data, e.g., because an earlier run with the
+   * same evaluator and search on the same data already chose them. Only
+   * works for evaluators that aren't AttributeTransformers, since the
+   * transformation itself would be missing.
+   *
+   * @param data the instances the attributes were selected from
+   * @param selectedAttributes the selected attributes, including the class
+   * @exception Exception if the evaluator transforms the data, or the
+   * attributes can't be selected
+   */
+  public void useSelectedAttributes(Instances data, int[] selectedAttributes)
+    throws Exception {
+
+    if (m_ASEvaluator instanceof AttributeTransformer) {
+      throw new Exception("Can't reuse the attributes selected by an "
+        + "AttributeTransformer!");
+    }
+
+    m_transformer = null;
+    m_trainInstances = new Instances(data, 0);
+    m_selectedAttributeSet = selectedAttributes.clone();
+    m_attributeRanking = null;
+    m_selectionResults = new StringBuffer();
+    m_selectionResults.append("\n\n=== Attribute Selection on all input data ===\n\n"
+      + "Selected attributes: ");
+    for (int i = 0; i < m_selectedAttributeSet.length; i++) {
+      if (m_selectedAttributeSet[i] != data.classIndex()) {
+        m_selectionResults.append((m_selectedAttributeSet[i] + 1) + " ");
+      }
+    }
+    m_selectionResults.append("\n");
+
+    m_attributeFilter = new Remove();
+    m_attributeFilter.setAttributeIndicesArray(m_selectedAttributeSet);
+    m_attributeFilter.setInvertSelection(true);
+    m_attributeFilter.setInputFormat(m_trainInstances);
+  }
+
   /**
    * Perform attribute selection with a particular evaluator and
    * a set of options specifying search method and options for the
@@ -778,6 +778,14 @@ public class BestFirst
       }
 
       do {
+	// a wrapper can evaluate all the new candidates side by side
+	Hashtable merits = null;
+	if ((ASEvaluator instanceof WrapperSubsetEval)
+	    && (((WrapperSubsetEval)ASEvaluator).getNumExecutionSlots() > 1)) {
+	  merits = evaluateCandidates((WrapperSubsetEval)ASEvaluator, 
+				      temp_group, sd, lookup);
+	}
+
 	for (i = 0; i < m_numAttribs; i++) {
 	  if (sd == SELECTION_FORWARD) {
 	    z = ((i != m_classIndex) && (!temp_group.get(i)));
@@ -801,7 +809,11 @@ public class BestFirst
 	    hashC = tt.toString();
 	    
 	    if (lookup.containsKey(hashC) == false) {
-	      merit = ASEvaluator.evaluateSubset(temp_group);
+	      if ((merits != null) && merits.containsKey(hashC)) {
+		merit = ((Double)merits.get(hashC)).doubleValue();
+	      } else {
+		merit = ASEvaluator.evaluateSubset(temp_group);
+	      }
 	      m_totalEvals++;
 	      
 	      // insert this one in the hashtable
@@ -880,6 +892,42 @@ public class BestFirst
   }
 
 
+  /**
+   * Evaluates all the subsets that are one step away from the given group
+   * in the given direction, and haven't been seen before, in one go.
+   *
+   * @param evaluator the wrapper to evaluate the subsets with
+   * @param group the group being expanded
+   * @param direction the direction to expand the group in
+   * @param lookup the subsets that have been seen before
+   * @return the merits of the subsets, keyed like the lookup table
+   * @throws Exception if a subset could not be evaluated
+   */
+  protected Hashtable evaluateCandidates(WrapperSubsetEval evaluator, 
+					 BitSet group, int direction, 
+					 Hashtable lookup) throws Exception {
+    Vector candidates = new Vector();
+    for (int i = 0; i < m_numAttribs; i++) {
+      if ((i != m_classIndex) 
+	  && (group.get(i) == (direction != SELECTION_FORWARD))) {
+	BitSet candidate = (BitSet)group.clone();
+	candidate.flip(i);
+	if (!lookup.containsKey(candidate.toString())) {
+	  candidates.addElement(candidate);
+	}
+      }
+    }
+
+    BitSet[] subsets = new BitSet[candidates.size()];
+    candidates.copyInto(subsets);
+    double[] merits = evaluator.evaluateSubsets(subsets);
+    Hashtable result = new Hashtable(subsets.length);
+    for (int i = 0; i < subsets.length; i++) {
+      result.put(subsets[i].toString(), new Double(merits[i]));
+    }
+    return result;
+  }
+
   /**
    * Reset options to default values
    */
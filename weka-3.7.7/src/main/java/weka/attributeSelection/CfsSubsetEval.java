@@ -21,9 +21,15 @@
 
 package  weka.attributeSelection;
 
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
@@ -78,6 +84,14 @@ import weka.filters.supervised.attribute.Discretize;
  * <pre> -L
  *  Don't include locally predictive attributes.</pre>
  * 
+ * <pre> -Z
+ *  Precompute the full correlation matrix at the outset, rather
+ *  than computing correlations lazily as they are needed.</pre>
+ * 
+ * <pre> -E &lt;num&gt;
+ *  The number of threads to precompute the correlation matrix with.
+ *  (default 1)</pre>
+ * 
  <!-- options-end -->
  *
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
@@ -116,6 +130,13 @@ public class CfsSubsetEval
   private double[] m_std_devs;
   /** Threshold for admitting locally predictive features */
   private double m_c_Threshold;
+  /** Compute the full correlation matrix up front */
+  private boolean m_preComputeCorrelationMatrix;
+  /** Number of threads to compute the full correlation matrix with */
+  private int m_numThreads;
+  /** Number of rows and columns in each tile of the correlation matrix
+      that a thread computes in one go */
+  private static final int TILE_SIZE = 64;
 
   /**
    * Returns a string describing this attribute evaluator
@@ -166,11 +187,17 @@ public class CfsSubsetEval
    *
    **/
   public Enumeration listOptions () {
-    Vector newVector = new Vector(3);
+    Vector newVector = new Vector(4);
     newVector.addElement(new Option("\tTreat missing values as a separate " 
                                     + "value.", "M", 0, "-M"));
     newVector.addElement(new Option("\tDon't include locally predictive attributes" 
                                     + ".", "L", 0, "-L"));
+    newVector.addElement(new Option("\tPrecompute the full correlation matrix at the "
+                                    + "outset, rather\n\tthan computing correlations "
+                                    + "lazily as they are needed.", "Z", 0, "-Z"));
+    newVector.addElement(new Option("\tThe number of threads to precompute the "
+                                    + "correlation matrix with.\n\t(default 1)", 
+                                    "E", 1, "-E <num>"));
     return  newVector.elements();
   }
 
@@ -187,6 +214,14 @@ public class CfsSubsetEval
    * <pre> -L
    *  Don't include locally predictive attributes.</pre>
    * 
+   * <pre> -Z
+   *  Precompute the full correlation matrix at the outset, rather
+   *  than computing correlations lazily as they are needed.</pre>
+   * 
+   * <pre> -E &lt;num&gt;
+   *  The number of threads to precompute the correlation matrix with.
+   *  (default 1)</pre>
+   * 
    <!-- options-end -->
    *
    * @param options the list of options as an array of strings
@@ -199,6 +234,70 @@ public class CfsSubsetEval
     resetOptions();
     setMissingSeparate(Utils.getFlag('M', options));
     setLocallyPredictive(!Utils.getFlag('L', options));
+    setPreComputeCorrelationMatrix(Utils.getFlag('Z', options));
+    String numThreads = Utils.getOption('E', options);
+    if (numThreads.length() != 0) {
+      setNumThreads(Integer.parseInt(numThreads));
+    }
+  }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String preComputeCorrelationMatrixTipText() {
+    return "Precompute the full correlation matrix at the outset, rather "
+      +"than computing correlations lazily as they are needed. This only "
+      +"pays off if the search is going to look at most of the attribute "
+      +"pairs anyway, or if the matrix can be reused from the "
+      +"CorrelationMatrixCache.";
+  }
+
+  /**
+   * Set whether to precompute the full correlation matrix
+   *
+   * @param p true if the matrix is to be precomputed
+   */
+  public void setPreComputeCorrelationMatrix (boolean p) {
+    m_preComputeCorrelationMatrix = p;
+  }
+
+  /**
+   * Return true if the full correlation matrix is precomputed
+   *
+   * @return true if the matrix is precomputed
+   */
+  public boolean getPreComputeCorrelationMatrix () {
+    return m_preComputeCorrelationMatrix;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads to precompute the correlation matrix "
+      +"with.";
+  }
+
+  /**
+   * Set the number of threads to precompute the correlation matrix with
+   *
+   * @param n the number of threads
+   */
+  public void setNumThreads (int n) {
+    m_numThreads = n;
+  }
+
+  /**
+   * Get the number of threads to precompute the correlation matrix with
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads () {
+    return m_numThreads;
   }
 
   /**
@@ -269,7 +368,7 @@ public class CfsSubsetEval
    * @return an array of strings suitable for passing to setOptions()
    */
   public String[] getOptions () {
-    String[] options = new String[2];
+    String[] options = new String[5];
     int current = 0;
 
     if (getMissingSeparate()) {
@@ -280,6 +379,13 @@ public class CfsSubsetEval
       options[current++] = "-L";
     }
 
+    if (getPreComputeCorrelationMatrix()) {
+      options[current++] = "-Z";
+    }
+
+    options[current++] = "-E";
+    options[current++] = "" + getNumThreads();
+
     while (current < options.length) {
       options[current++] = "";
     }
@@ -317,7 +423,9 @@ public class CfsSubsetEval
    * evaluator that are not being set via options.
    *
    * CFS also discretises attributes (if necessary) and initializes
-   * the correlation matrix.
+   * the correlation matrix. If requested, the full matrix is computed
+   * straight away, or taken from the CorrelationMatrixCache if it has
+   * already been computed for the same data.
    *
    * @param data set of instances serving as training data 
    * @throws Exception if the evaluator has not been 
@@ -336,6 +444,19 @@ public class CfsSubsetEval
     m_numInstances = m_trainInstances.numInstances();
     m_isNumeric = m_trainInstances.attribute(m_classIndex).isNumeric();
 
+    // has the full matrix for this data been computed before?
+    String key = null;
+    if (m_preComputeCorrelationMatrix && CorrelationMatrixCache.isEnabled()) {
+      key = CorrelationMatrixCache.getKey(m_trainInstances, 
+                                          "missingSeparate=" + m_missingSeparate);
+      CorrelationMatrixCache.Entry entry = CorrelationMatrixCache.get(key);
+      if (entry != null) {
+        m_corr_matrix = entry.getMatrix();
+        m_std_devs = entry.getStdDevs();
+        return;
+      }
+    }
+
     if (!m_isNumeric) {
       m_disTransform = new Discretize();
       m_disTransform.setUseBetterEncoding(true);
@@ -359,6 +480,121 @@ public class CfsSubsetEval
         m_corr_matrix[i][j] = -999;
       }
     }
+
+    if (m_preComputeCorrelationMatrix) {
+      computeCorrelationMatrix();
+      if (key != null) {
+        CorrelationMatrixCache.put(key, 
+          new CorrelationMatrixCache.Entry(m_corr_matrix, m_std_devs));
+      }
+    }
+  }
+
+
+  /**
+   * Computes the whole correlation matrix. The lower triangle is cut into
+   * square tiles, which are handed out to the threads, so that the work
+   * is spread evenly however many attributes there are. The attributes of
+   * each pair are correlated in the same order as when the correlations
+   * are computed lazily, so that the matrix comes out the same.
+   *
+   * @throws Exception if the computation is interrupted
+   */
+  private void computeCorrelationMatrix() throws Exception {
+    int numTiles = (m_numAttribs + TILE_SIZE - 1) / TILE_SIZE;
+    List<Callable<Object>> tiles = new ArrayList<Callable<Object>>();
+
+    for (int i = 0; i < numTiles; i++) {
+      for (int j = 0; j <= i; j++) {
+        final int rowTile = i;
+        final int colTile = j;
+        tiles.add(new Callable<Object>() {
+            public Object call() throws Exception {
+              computeTile(rowTile, colTile);
+              return null;
+            }
+          });
+      }
+    }
+
+    if (m_numThreads <= 1) {
+      for (Callable<Object> tile : tiles) {
+        tile.call();
+      }
+      return;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(m_numThreads);
+    try {
+      for (Future<Object> result : pool.invokeAll(tiles)) {
+        try {
+          result.get();
+        } catch (java.util.concurrent.ExecutionException e) {
+          throw (e.getCause() instanceof Exception) 
+            ? (Exception) e.getCause() : e;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+
+  /**
+   * Computes the correlations in one tile of the lower triangle of the
+   * correlation matrix.
+   *
+   * @param rowTile the row of the tile
+   * @param colTile the column of the tile
+   * @throws Exception if the computation is interrupted
+   */
+  private void computeTile (int rowTile, int colTile) throws Exception {
+    int rowStart = rowTile * TILE_SIZE;
+    int rowEnd = Math.min(rowStart + TILE_SIZE, m_numAttribs);
+    int colStart = colTile * TILE_SIZE;
+    int colEnd = Math.min(colStart + TILE_SIZE, m_numAttribs);
+
+    // When all attributes are nominal, pull the values of the tile's 
+    // attributes out of the instances once, so that the contingency tables
+    // for all pairs in the tile are filled from a few arrays that stay in
+    // the cache
+    int[][] rowColumns = null;
+    int[][] colColumns = null;
+    if (!m_isNumeric) {
+      rowColumns = new int[rowEnd - rowStart][];
+      for (int i = rowStart; i < rowEnd; i++) {
+        rowColumns[i - rowStart] = nominalColumn(i);
+      }
+      colColumns = rowColumns;
+      if (colTile != rowTile) {
+        colColumns = new int[colEnd - colStart][];
+        for (int j = colStart; j < colEnd; j++) {
+          colColumns[j - colStart] = nominalColumn(j);
+        }
+      }
+    }
+
+    for (int i = rowStart; i < rowEnd; i++) {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException("Computing the correlation matrix "
+                                       + "was interrupted");
+      }
+
+      for (int j = colStart; j < Math.min(colEnd, i); j++) {
+        // the class always goes second
+        if (m_isNumeric) {
+          m_corr_matrix[i][j] = (i == m_classIndex) 
+            ? correlate(j, i) : correlate(i, j);
+        }
+        else {
+          m_corr_matrix[i][j] = (i == m_classIndex)
+            ? (float) symmUncertCorr(j, i, colColumns[j - colStart], 
+                                     rowColumns[i - rowStart])
+            : (float) symmUncertCorr(i, j, rowColumns[i - rowStart], 
+                                     colColumns[j - colStart]);
+        }
+      }
+    }
   }
 
 
@@ -464,12 +700,35 @@ public class CfsSubsetEval
 
 
   private double symmUncertCorr (int att1, int att2) {
+    return symmUncertCorr(att1, att2, nominalColumn(att1), nominalColumn(att2));
+  }
+
+
+  /**
+   * Returns the values of a nominal attribute as value indices, with -1
+   * for missing values.
+   *
+   * @param att the attribute
+   * @return the value indices
+   */
+  private int[] nominalColumn (int att) {
+    int[] column = new int[m_numInstances];
+
+    for (int i = 0; i < m_numInstances; i++) {
+      Instance inst = m_trainInstances.instance(i);
+      column[i] = inst.isMissing(att) ? -1 : (int)inst.value(att);
+    }
+    return column;
+  }
+
+
+  private double symmUncertCorr (int att1, int att2, 
+                                 int[] column1, int[] column2) {
     int i, j, k, ii, jj;
     int ni, nj;
     double sum = 0.0;
     double sumi[], sumj[];
     double counts[][];
-    Instance inst;
     double corr_measure;
     boolean flag = false;
     double temp = 0.0;
@@ -495,22 +754,8 @@ public class CfsSubsetEval
 
     // Fill the contingency table
     for (i = 0; i < m_numInstances; i++) {
-      inst = m_trainInstances.instance(i);
-
-      if (inst.isMissing(att1)) {
-        ii = ni - 1;
-      }
-      else {
-        ii = (int)inst.value(att1);
-      }
-
-      if (inst.isMissing(att2)) {
-        jj = nj - 1;
-      }
-      else {
-        jj = (int)inst.value(att2);
-      }
-
+      ii = (column1[i] < 0) ? ni - 1 : column1[i];
+      jj = (column2[i] < 0) ? nj - 1 : column2[i];
       counts[ii][jj]++;
     }
 
@@ -986,6 +1231,10 @@ public class CfsSubsetEval
       if (m_locallyPredictive) {
         text.append("\tIncluding locally predictive attributes\n");
       }
+
+      if (m_preComputeCorrelationMatrix) {
+        text.append("\tPrecomputing the full correlation matrix\n");
+      }
     }
 
     return  text.toString();
@@ -1117,6 +1366,8 @@ public class CfsSubsetEval
     m_missingSeparate = false;
     m_locallyPredictive = true;
     m_c_Threshold = 0.0;
+    m_preComputeCorrelationMatrix = false;
+    m_numThreads = 1;
   }
   
   /**
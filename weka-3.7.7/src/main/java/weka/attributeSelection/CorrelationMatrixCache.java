@@ -0,0 +1,418 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    CorrelationMatrixCache.java
+ *    Copyright (C) 2012 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Keeps the full correlation matrices that CfsSubsetEval has computed for
+ * recently used training sets, so that searches that are run on the same
+ * data one after the other (e.g. when trying out different search methods
+ * on the same fold) only have to compute the matrix once. Matrices are
+ * looked up by a SHA-1 hash of the data's header and values together with
+ * the evaluator's settings. <p/>
+ *
+ * The cache holds on to at most a given number of bytes in memory,
+ * dropping the least recently used matrices first. If a directory is set,
+ * every matrix is also written to a file there, so that other processes
+ * working on the same data can pick it up. By default the budget is zero
+ * and there is no directory, i.e., nothing is cached.
+ *
+ * @version $Revision: 8034 $
+ */
+public class CorrelationMatrixCache {
+
+  /** Identifies a matrix file. */
+  protected static final int MAGIC = 0x43464343;
+
+  /** The version of the matrix file format. */
+  protected static final int VERSION = 1;
+
+  /** The extension of matrix files. */
+  protected static final String FILE_EXTENSION = ".cfs";
+
+  /**
+   * A correlation matrix, along with the standard deviations of the
+   * attributes that go with it. Neither is changed once it is cached.
+   */
+  public static class Entry {
+
+    /** The lower triangle of the correlation matrix. */
+    protected float[][] m_Matrix;
+
+    /** The standard deviations of the attributes. */
+    protected double[] m_StdDevs;
+
+    /**
+     * Initializes the entry.
+     *
+     * @param matrix the lower triangle of the correlation matrix
+     * @param stdDevs the standard deviations of the attributes
+     */
+    public Entry(float[][] matrix, double[] stdDevs) {
+      m_Matrix = matrix;
+      m_StdDevs = stdDevs;
+    }
+
+    /**
+     * Returns the lower triangle of the correlation matrix.
+     *
+     * @return the matrix
+     */
+    public float[][] getMatrix() {
+      return m_Matrix;
+    }
+
+    /**
+     * Returns the standard deviations of the attributes.
+     *
+     * @return the standard deviations
+     */
+    public double[] getStdDevs() {
+      return m_StdDevs;
+    }
+
+    /**
+     * Returns roughly how much memory the entry takes up.
+     *
+     * @return the size in bytes
+     */
+    public long numBytes() {
+      long bytes = 8L * m_StdDevs.length;
+      for (int i = 0; i < m_Matrix.length; i++) {
+        bytes += 16 + 4L * m_Matrix[i].length;
+      }
+      return bytes;
+    }
+  }
+
+  /** The cached matrices, keyed by hash, in order of use. */
+  protected static LinkedHashMap<String, Entry> m_Cache =
+    new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  /** The most bytes the cache may hold in memory. */
+  protected static long m_Budget = 0;
+
+  /** The directory matrices are written to, null if none. */
+  protected static File m_Directory = null;
+
+  /** The bytes currently held. */
+  protected static long m_NumBytes = 0;
+
+  /** The number of lookups that were found in memory or on disk. */
+  protected static long m_NumHits = 0;
+
+  /** The number of lookups that weren't found. */
+  protected static long m_NumMisses = 0;
+
+  /**
+   * Returns whether matrices are cached at all.
+   *
+   * @return true if there is a budget or a directory
+   */
+  public static synchronized boolean isEnabled() {
+    return (m_Budget > 0) || (m_Directory != null);
+  }
+
+  /**
+   * Computes the key that the matrix for the given data and settings is
+   * cached under.
+   *
+   * @param data the training data
+   * @param settings anything else that the matrix depends on
+   * @return the key
+   * @throws Exception if the data can't be hashed
+   */
+  public static String getKey(Instances data, String settings)
+    throws Exception {
+
+    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    digest.update(new Instances(data, 0).toString().getBytes("UTF-8"));
+    digest.update((data.classIndex() + "\n" + settings + "\n").getBytes("UTF-8"));
+    byte[] buffer = new byte[8 * data.numAttributes()];
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance inst = data.instance(i);
+      for (int j = 0; j < data.numAttributes(); j++) {
+        long bits = Double.doubleToLongBits(inst.value(j));
+        for (int k = 0; k < 8; k++) {
+          buffer[8 * j + k] = (byte) (bits >>> (8 * k));
+        }
+      }
+      digest.update(buffer);
+    }
+    return String.format("%040x", new BigInteger(1, digest.digest()));
+  }
+
+  /**
+   * Looks up the matrix with the given key, in memory first and then on
+   * disk.
+   *
+   * @param key the key of the matrix
+   * @return the matrix, or null if it isn't cached
+   */
+  public static Entry get(String key) {
+
+    File file;
+    synchronized (CorrelationMatrixCache.class) {
+      Entry entry = m_Cache.get(key);
+      if (entry != null) {
+        m_NumHits++;
+        return entry;
+      }
+      file = getFile(key);
+    }
+
+    // Read outside the lock, since matrices can be big
+    Entry entry = (file == null) ? null : read(file);
+    synchronized (CorrelationMatrixCache.class) {
+      if (entry == null) {
+        m_NumMisses++;
+      } else {
+        m_NumHits++;
+        add(key, entry);
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Adds a matrix to the cache, writing it to disk if there is a
+   * directory.
+   *
+   * @param key the key of the matrix
+   * @param entry the matrix
+   */
+  public static void put(String key, Entry entry) {
+
+    File file;
+    synchronized (CorrelationMatrixCache.class) {
+      add(key, entry);
+      file = getFile(key);
+    }
+    if ((file != null) && !file.exists()) {
+      write(file, entry);
+    }
+  }
+
+  /**
+   * Sets the most bytes the cache may hold in memory. Matrices that are
+   * already cached are dropped if they don't fit anymore.
+   *
+   * @param budget the budget in bytes (0 switches the memory cache off)
+   */
+  public static synchronized void setBudget(long budget) {
+    m_Budget = Math.max(0, budget);
+    trim();
+  }
+
+  /**
+   * Returns the most bytes the cache may hold in memory.
+   *
+   * @return the budget in bytes
+   */
+  public static synchronized long getBudget() {
+    return m_Budget;
+  }
+
+  /**
+   * Sets the directory that matrices are written to and read from.
+   *
+   * @param dir the directory, null to keep matrices in memory only
+   */
+  public static synchronized void setDirectory(File dir) {
+    m_Directory = dir;
+  }
+
+  /**
+   * Returns the directory that matrices are written to and read from.
+   *
+   * @return the directory, null if there is none
+   */
+  public static synchronized File getDirectory() {
+    return m_Directory;
+  }
+
+  /**
+   * Returns the bytes currently held in memory by the cache.
+   *
+   * @return the size in bytes
+   */
+  public static synchronized long getNumBytes() {
+    return m_NumBytes;
+  }
+
+  /**
+   * Drops everything that is held in memory.
+   */
+  public static synchronized void clear() {
+    m_Cache.clear();
+    m_NumBytes = 0;
+  }
+
+  /**
+   * Returns a one line summary of the cache's size and use.
+   *
+   * @return the summary
+   */
+  public static synchronized String getStatistics() {
+    return "Correlation matrix cache: " + m_Cache.size() + " matrices, "
+      + (m_NumBytes >> 20) + "MB of " + (m_Budget >> 20) + "MB, "
+      + m_NumHits + " hits, " + m_NumMisses + " misses";
+  }
+
+  /**
+   * Adds a matrix to the memory cache if it fits the budget.
+   *
+   * @param key the key of the matrix
+   * @param entry the matrix
+   */
+  protected static void add(String key, Entry entry) {
+
+    long bytes = entry.numBytes();
+    if ((bytes <= m_Budget) && !m_Cache.containsKey(key)) {
+      m_Cache.put(key, entry);
+      m_NumBytes += bytes;
+      trim();
+    }
+  }
+
+  /**
+   * Drops the least recently used matrices until the cache fits its
+   * budget.
+   */
+  protected static void trim() {
+
+    Iterator<Entry> iter = m_Cache.values().iterator();
+    while (m_NumBytes > m_Budget && iter.hasNext()) {
+      m_NumBytes -= iter.next().numBytes();
+      iter.remove();
+    }
+  }
+
+  /**
+   * Returns the file that the matrix with the given key lives in.
+   *
+   * @param key the key of the matrix
+   * @return the file, null if there is no directory
+   */
+  protected static File getFile(String key) {
+    return (m_Directory == null) ? null : new File(m_Directory, key + FILE_EXTENSION);
+  }
+
+  /**
+   * Reads a matrix from disk.
+   *
+   * @param file the file to read
+   * @return the matrix, or null if the file doesn't exist or can't be read
+   */
+  protected static Entry read(File file) {
+
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file), 1 << 16));
+      try {
+        if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+          return null;
+        }
+        int numAttribs = in.readInt();
+        float[][] matrix = new float[numAttribs][];
+        for (int i = 0; i < numAttribs; i++) {
+          matrix[i] = new float[i + 1];
+          for (int j = 0; j <= i; j++) {
+            matrix[i][j] = in.readFloat();
+          }
+        }
+        double[] stdDevs = new double[numAttribs];
+        for (int i = 0; i < numAttribs; i++) {
+          stdDevs[i] = in.readDouble();
+        }
+        return new Entry(matrix, stdDevs);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      // just compute it again
+      return null;
+    }
+  }
+
+  /**
+   * Writes a matrix to disk. The matrix goes to a temporary file first,
+   * so that nobody reads it before it is complete.
+   *
+   * @param file the file to write
+   * @param entry the matrix
+   */
+  protected static void write(File file, Entry entry) {
+
+    File tmp = null;
+    try {
+      file.getParentFile().mkdirs();
+      tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmp), 1 << 16));
+      try {
+        float[][] matrix = entry.getMatrix();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(matrix.length);
+        for (int i = 0; i < matrix.length; i++) {
+          for (int j = 0; j <= i; j++) {
+            out.writeFloat(matrix[i][j]);
+          }
+        }
+        for (int i = 0; i < matrix.length; i++) {
+          out.writeDouble(entry.getStdDevs()[i]);
+        }
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(file)) {
+        tmp.delete();
+      }
+    } catch (IOException e) {
+      // the matrix just won't be shared
+      System.err.println("Failed to write correlation matrix to " + file
+        + ": " + e.getMessage());
+      if (tmp != null) {
+        tmp.delete();
+      }
+    }
+  }
+}
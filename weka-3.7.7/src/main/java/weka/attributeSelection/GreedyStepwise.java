@@ -659,6 +659,14 @@ public class GreedyStepwise
       }
       done = true;
       addone = false;
+
+      // a wrapper can evaluate all the candidates side by side
+      double[] merits = null;
+      int numCandidates = 0;
+      if ((ASEvaluator instanceof WrapperSubsetEval)
+	  && (((WrapperSubsetEval)ASEvaluator).getNumExecutionSlots() > 1)) {
+	merits = evaluateCandidates((WrapperSubsetEval)ASEvaluator, temp_group);
+      }
       for (i=0;i<m_numAttribs;i++) {
 	if (m_backward) {
 	  z = ((i != m_classIndex) && (temp_group.get(i)));
@@ -672,7 +680,11 @@ public class GreedyStepwise
 	  } else {
 	    temp_group.set(i);
 	  }
-	  temp_merit = ASEvaluator.evaluateSubset(temp_group);
+	  if (merits != null) {
+	    temp_merit = merits[numCandidates++];
+	  } else {
+	    temp_merit = ASEvaluator.evaluateSubset(temp_group);
+	  }
 	  if (m_backward) {
 	    z = (temp_merit >= temp_best);
 	  } else {
@@ -719,6 +731,28 @@ public class GreedyStepwise
     return attributeList(m_best_group);
   }
 
+  /**
+   * Evaluates all the subsets that are one step away from the given group
+   * in one go, in the order that the search looks at them.
+   *
+   * @param evaluator the wrapper to evaluate the subsets with
+   * @param group the current group
+   * @return the merits of the subsets
+   * @throws Exception if a subset could not be evaluated
+   */
+  protected double[] evaluateCandidates(WrapperSubsetEval evaluator, 
+					BitSet group) throws Exception {
+    Vector<BitSet> candidates = new Vector<BitSet>();
+    for (int i = 0; i < m_numAttribs; i++) {
+      if ((i != m_classIndex) && (group.get(i) == m_backward)) {
+	BitSet candidate = (BitSet)group.clone();
+	candidate.flip(i);
+	candidates.addElement(candidate);
+      }
+    }
+    return evaluator.evaluateSubsets(candidates.toArray(new BitSet[candidates.size()]));
+  }
+
   /**
    * Produces a ranked list of attributes. Search must have been performed
    * prior to calling this function. Search is called by this function to
@@ -37,6 +37,7 @@ import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
 import weka.core.SparseInstance;
 import weka.core.Utils;
+import weka.core.matrix.TruncatedEigenDecomposition;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.Center;
 import weka.filters.unsupervised.attribute.NominalToBinary;
@@ -71,6 +72,16 @@ import weka.filters.unsupervised.attribute.Standardize;
  *  Maximum number of attributes to include in 
  *  transformed attribute names. (-1 = include all)</pre>
  * 
+ * <pre> -truncate &lt;num&gt;
+ *  Compute only the leading components, with a randomized
+ *  truncated decomposition, when there are more than this
+ *  many attributes after preprocessing.
+ *  (-1 = never, default: 2000)</pre>
+ * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots for the truncated decomposition.
+ *  (default 1 - i.e. no parallelism)</pre>
+ * 
  <!-- options-end -->
  *
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
@@ -155,6 +166,13 @@ public class PrincipalComponents
   /** maximum number of attributes in the transformed attribute name */
   private int m_maxAttrsInName = 5;
 
+  /** the number of attributes above which only the leading components
+      are computed (-1 for never) */
+  private int m_truncationThreshold = 2000;
+
+  /** the number of threads for the truncated decomposition */
+  private int m_numExecutionSlots = 1;
+
   /** holds the transposed eigenvectors for converting back to the
       original space */
   private double [][] m_eTranspose;
@@ -180,7 +198,7 @@ public class PrincipalComponents
    * @return an enumeration of all the available options.
    **/
   public Enumeration listOptions () {
-    Vector newVector = new Vector(3);
+    Vector newVector = new Vector(6);
     
     newVector.addElement(new Option("\tCenter (rather than standardize) the" +
     		"\n\tdata and compute PCA using the covariance (rather" +
@@ -200,6 +218,16 @@ public class PrincipalComponents
     newVector.addElement(new Option("\tMaximum number of attributes to include in "
                                     + "\n\ttransformed attribute names. (-1 = include all)"
                                     , "A", 1, "-A"));
+
+    newVector.addElement(new Option("\tCompute only the leading components, with a randomized"
+                                    + "\n\ttruncated decomposition, when there are more than this"
+                                    + "\n\tmany attributes after preprocessing."
+                                    + "\n\t(-1 = never, default: 2000)"
+                                    , "truncate", 1, "-truncate <num>"));
+
+    newVector.addElement(new Option("\tNumber of execution slots for the truncated decomposition."
+                                    + "\n\t(default 1 - i.e. no parallelism)"
+                                    , "num-slots", 1, "-num-slots <num>"));
     return  newVector.elements();
   }
 
@@ -227,6 +255,16 @@ public class PrincipalComponents
    *  Maximum number of attributes to include in 
    *  transformed attribute names. (-1 = include all)</pre>
    * 
+   * <pre> -truncate &lt;num&gt;
+   *  Compute only the leading components, with a randomized
+   *  truncated decomposition, when there are more than this
+   *  many attributes after preprocessing.
+   *  (-1 = never, default: 2000)</pre>
+   * 
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of execution slots for the truncated decomposition.
+   *  (default 1 - i.e. no parallelism)</pre>
+   * 
    <!-- options-end -->
    *
    * @param options the list of options as an array of strings
@@ -247,6 +285,14 @@ public class PrincipalComponents
     if (optionString.length() != 0) {
       setMaximumAttributeNames(Integer.parseInt(optionString));
     }
+    optionString = Utils.getOption("truncate", options);
+    if (optionString.length() != 0) {
+      setTruncationThreshold(Integer.parseInt(optionString));
+    }
+    optionString = Utils.getOption("num-slots", options);
+    if (optionString.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(optionString));
+    }
 
     setTransformBackToOriginal(Utils.getFlag('O', options));
     setCenterData(Utils.getFlag('C', options));
@@ -259,6 +305,8 @@ public class PrincipalComponents
     m_coverVariance = 0.95;
     m_sumOfEigenValues = 0.0;
     m_transBackToOriginal = false;
+    m_truncationThreshold = 2000;
+    m_numExecutionSlots = 1;
   }
 
   /**
@@ -382,6 +430,64 @@ public class PrincipalComponents
     return m_transBackToOriginal;
   }
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String truncationThresholdTipText() {
+    return "The number of attributes (after preprocessing) above which only "
+      + "the leading components are computed, with a randomized truncated "
+      + "decomposition that never forms the full covariance matrix "
+      + "(-1 = never).";
+  }
+
+  /**
+   * Sets the number of attributes above which only the leading components
+   * are computed.
+   * @param t the threshold (-1 for never)
+   */
+  public void setTruncationThreshold(int t) {
+    m_truncationThreshold = t;
+  }
+
+  /**
+   * Gets the number of attributes above which only the leading components
+   * are computed.
+   * @return the threshold (-1 for never)
+   */
+  public int getTruncationThreshold() {
+    return m_truncationThreshold;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for the truncated "
+      + "decomposition.";
+  }
+
+  /**
+   * Sets the number of threads for the truncated decomposition.
+   * @param n the number of threads
+   */
+  public void setNumExecutionSlots(int n) {
+    if (n > 0) {
+      m_numExecutionSlots = n;
+    }
+  }
+
+  /**
+   * Gets the number of threads for the truncated decomposition.
+   * @return the number of threads
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+
   /**
    * Gets the current settings of PrincipalComponents
    *
@@ -389,7 +495,7 @@ public class PrincipalComponents
    */
   public String[] getOptions () {
 
-    String[] options = new String[6];
+    String[] options = new String[10];
     int current = 0;
     
     if (getCenterData()) {
@@ -402,6 +508,12 @@ public class PrincipalComponents
     options[current++] = "-A";
     options[current++] = ""+getMaximumAttributeNames();
 
+    options[current++] = "-truncate";
+    options[current++] = ""+getTruncationThreshold();
+
+    options[current++] = "-num-slots";
+    options[current++] = ""+getNumExecutionSlots();
+
     if (getTransformBackToOriginal()) {
       options[current++] = "-O";
     }
@@ -513,32 +625,37 @@ public class PrincipalComponents
     m_numInstances = m_trainInstances.numInstances();
     m_numAttribs = m_trainInstances.numAttributes();
 
-    //fillCorrelation();
-    fillCovariance();
+    if (m_truncationThreshold >= 0 && m_numAttribs > m_truncationThreshold) {
+      buildTruncated();
+    } else {
+      //fillCorrelation();
+      fillCovariance();
 
-    double [] d = new double[m_numAttribs]; 
-    double [][] v = new double[m_numAttribs][m_numAttribs];
+      double [] d = new double[m_numAttribs]; 
+      double [][] v = new double[m_numAttribs][m_numAttribs];
 
-    Matrix corr = new Matrix(m_correlation);
-    corr.eigenvalueDecomposition(v, d);
-    m_eigenvectors = (double [][])v.clone();
-    m_eigenvalues = (double [])d.clone();
-    
-    /*for (int i = 0; i < m_numAttribs; i++) {
-      for (int j = 0; j < m_numAttribs; j++) {
-        System.err.println(v[i][j] + " ");
-      }
-      System.err.println(d[i]);
-    } */
+      Matrix corr = new Matrix(m_correlation);
+      corr.eigenvalueDecomposition(v, d);
+      m_eigenvectors = (double [][])v.clone();
+      m_eigenvalues = (double [])d.clone();
 
-    // any eigenvalues less than 0 are not worth anything --- change to 0
-    for (int i = 0; i < m_eigenvalues.length; i++) {
-      if (m_eigenvalues[i] < 0) {
-        m_eigenvalues[i] = 0.0;
+      /*for (int i = 0; i < m_numAttribs; i++) {
+        for (int j = 0; j < m_numAttribs; j++) {
+          System.err.println(v[i][j] + " ");
+        }
+        System.err.println(d[i]);
+      } */
+
+      // any eigenvalues less than 0 are not worth anything --- change to 0
+      for (int i = 0; i < m_eigenvalues.length; i++) {
+        if (m_eigenvalues[i] < 0) {
+          m_eigenvalues[i] = 0.0;
+        }
       }
+      m_sumOfEigenValues = Utils.sum(m_eigenvalues);
     }
     m_sortedEigens = Utils.sort(m_eigenvalues);
-    m_sumOfEigenValues = Utils.sum(m_eigenvalues);
+    int numEigens = m_eigenvalues.length;
 
     m_transformedFormat = setOutputFormat();
     if (m_transBackToOriginal) {
@@ -553,9 +670,9 @@ public class PrincipalComponents
         new double [m_eigenvectors.length][numVectors + 1];
       
       // try converting back to the original space
-      for (int i = m_numAttribs - 1; i > (m_numAttribs - numVectors - 1); i--) {
+      for (int i = numEigens - 1; i > (numEigens - numVectors - 1); i--) {
         for (int j = 0; j < m_numAttribs; j++) {
-          orderedVectors[j][m_numAttribs - i] = 
+          orderedVectors[j][numEigens - i] = 
             m_eigenvectors[j][m_sortedEigens[i]];
         }
       }
@@ -638,7 +755,8 @@ public class PrincipalComponents
 
     // return 1-cumulative variance explained for this transformed att
     double cumulative = 0.0;
-    for (int i = m_numAttribs - 1; i >= m_numAttribs - att - 1; i--) {
+    int numEigens = m_eigenvalues.length;
+    for (int i = numEigens - 1; i >= numEigens - att - 1; i--) {
       cumulative += m_eigenvalues[m_sortedEigens[i]];
     }
 
@@ -690,6 +808,49 @@ public class PrincipalComponents
     }
   }
 
+  /**
+   * Computes just the leading eigenvectors, straight from the standardized
+   * (or centered) data, without forming the correlation (or covariance)
+   * matrix. The sum of the eigenvalues is the trace of the matrix, so the
+   * proportion of variance covered means the same as for the full
+   * decomposition.
+   * @throws Exception if the decomposition fails
+   */
+  private void buildTruncated() throws Exception {
+    m_means = new double[m_numAttribs];
+    m_stdDevs = new double[m_numAttribs];
+    for (int i = 0; i < m_numAttribs; i++) {
+      m_means[i] = m_trainInstances.meanOrMode(i);
+      m_stdDevs[i] = Math.sqrt(m_trainInstances.variance(i));
+    }
+
+    if (!m_center) {
+      m_standardizeFilter = new Standardize();
+      m_standardizeFilter.setInputFormat(m_trainInstances);
+      m_trainInstances = Filter.useFilter(m_trainInstances, m_standardizeFilter);
+    } else {
+      m_centerFilter = new Center();
+      m_centerFilter.setInputFormat(m_trainInstances);
+      m_trainInstances = Filter.useFilter(m_trainInstances, m_centerFilter);
+    }
+    m_correlation = null;
+
+    double [][] columns = new double[m_numAttribs][m_numInstances];
+    for (int i = 0; i < m_numInstances; i++) {
+      Instance inst = m_trainInstances.instance(i);
+      for (int j = 0; j < m_numAttribs; j++) {
+        columns[j][i] = inst.value(j);
+      }
+    }
+
+    TruncatedEigenDecomposition eig = 
+      new TruncatedEigenDecomposition(columns, m_coverVariance, -1,
+                                      m_numExecutionSlots, 1);
+    m_eigenvectors = eig.getEigenvectors();
+    m_eigenvalues = eig.getEigenvalues();
+    m_sumOfEigenValues = eig.getTrace();
+  }
+
   /**
    * Fill the correlation matrix
    */
@@ -742,10 +903,16 @@ public class PrincipalComponents
     }
     //tomorrow
     String corrCov = (m_center) ? "Covariance " : "Correlation ";
-    result.append(corrCov + "matrix\n"+matrixToString(m_correlation)
-                  +"\n\n");
+    if (m_correlation != null) {
+      result.append(corrCov + "matrix\n"+matrixToString(m_correlation)
+                    +"\n\n");
+    } else {
+      result.append(corrCov + "matrix not computed (truncated decomposition)"
+                    +"\n\n");
+    }
+    int numEigens = m_eigenvalues.length;
     result.append("eigenvalue\tproportion\tcumulative\n");
-    for (int i = m_numAttribs - 1; i > (m_numAttribs - numVectors - 1); i--) {
+    for (int i = numEigens - 1; i > (numEigens - numVectors - 1); i--) {
       cumulative+=m_eigenvalues[m_sortedEigens[i]];
       result.append(Utils.doubleToString(m_eigenvalues[m_sortedEigens[i]],9,5)
                     +"\t"+Utils.
@@ -754,7 +921,7 @@ public class PrincipalComponents
                                      9,5)
                     +"\t"+Utils.doubleToString((cumulative / 
                                                 m_sumOfEigenValues),9,5)
-                    +"\t"+output.attribute(m_numAttribs - i - 1).name()+"\n");
+                    +"\t"+output.attribute(numEigens - i - 1).name()+"\n");
     }
 
     result.append("\nEigenvectors\n");
@@ -764,7 +931,7 @@ public class PrincipalComponents
     result.append("\n");
     for (int j = 0; j < m_numAttribs; j++) {
 
-      for (int i = m_numAttribs - 1; i > (m_numAttribs - numVectors - 1); i--) {
+      for (int i = numEigens - 1; i > (numEigens - numVectors - 1); i--) {
         result.append(Utils.
                       doubleToString(m_eigenvectors[j][m_sortedEigens[i]],7,4)
                       +"\t");
@@ -912,13 +1079,14 @@ public class PrincipalComponents
     }
 
     double cumulative = 0;
-    for (int i = m_numAttribs - 1; i >= 0; i--) {
+    int numEigens = m_eigenvalues.length;
+    for (int i = numEigens - 1; i >= 0; i--) {
       double tempval = 0.0;
       for (int j = 0; j < m_numAttribs; j++) {
         tempval += (m_eigenvectors[j][m_sortedEigens[i]] * 
                     tempInst.value(j));
        }
-      newVals[m_numAttribs - i - 1] = tempval;
+      newVals[numEigens - i - 1] = tempval;
       cumulative+=m_eigenvalues[m_sortedEigens[i]];
       if ((cumulative / m_sumOfEigenValues) >= m_coverVariance) {
         break;
@@ -984,7 +1152,7 @@ public class PrincipalComponents
 
     double cumulative = 0.0;
     FastVector attributes = new FastVector();
-     for (int i = m_numAttribs - 1; i >= 0; i--) {
+     for (int i = m_eigenvalues.length - 1; i >= 0; i--) {
        StringBuffer attName = new StringBuffer();
        // build array of coefficients
        double[] coeff_mags = new double[m_numAttribs];
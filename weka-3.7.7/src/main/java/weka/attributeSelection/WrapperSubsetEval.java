@@ -21,10 +21,17 @@
 
 package weka.attributeSelection;
 
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
@@ -103,6 +110,10 @@ import weka.filters.unsupervised.attribute.Remove;
  *  Performance evaluation measure to use for selecting attributes.
  *  (Default = accuracy for discrete class and rmse for numeric class)</pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of threads to use for evaluating subsets.
+ *  (default = 1)</pre>
+ * 
  * <pre> 
  * Options specific to scheme weka.classifiers.rules.ZeroR:
  * </pre>
@@ -133,8 +144,6 @@ public class WrapperSubsetEval
   private int m_numAttribs;
   /** number of instances in the training data */
   private int m_numInstances;
-  /** holds an evaluation object */
-  private Evaluation m_Evaluation;
   /** holds the base classifier object */
   private Classifier m_BaseClassifier;
   /** number of folds to use for cross validation */
@@ -168,6 +177,9 @@ public class WrapperSubsetEval
   /** The evaluation measure to use */
   protected int m_evaluationMeasure = EVAL_DEFAULT;
 
+  /** The number of threads to evaluate subsets with */
+  protected int m_numExecutionSlots = 1;
+
   /**
    * Returns a string describing this attribute evaluator
    * @return a description of the evaluator suitable for
@@ -249,6 +261,11 @@ public class WrapperSubsetEval
         "\t(Default = accuracy for discrete class and rmse for numeric class)",
         "E", 1, "-E <acc | rmse | mae | f-meas | auc | auprc>"));
 
+    newVector.addElement(new Option(
+        "\tNumber of threads to use for evaluating subsets.\n"
+        + "\t(default = 1)",
+        "num-slots", 1, "-num-slots <num>"));
+
     if ((m_BaseClassifier != null) && 
 	(m_BaseClassifier instanceof OptionHandler)) {
       newVector.addElement(new Option("", "", 0, "\nOptions specific to scheme " 
@@ -295,6 +312,10 @@ public class WrapperSubsetEval
    *  Performance evaluation measure to use for selecting attributes.
    *  (Default = accuracy for discrete class and rmse for numeric class)</pre>
    * 
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of threads to use for evaluating subsets.
+   *  (default = 1)</pre>
+   * 
    * <pre> 
    * Options specific to scheme weka.classifiers.rules.ZeroR:
    * </pre>
@@ -360,6 +381,40 @@ public class WrapperSubsetEval
         throw new IllegalArgumentException("Invalid evaluation measure");
       }
     }
+
+    optionString = Utils.getOption("num-slots", options);
+    if (optionString.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(optionString));
+    }
+  }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of threads to use for evaluating subsets. Several "
+      + "subsets handed over at once are evaluated side by side, a single "
+      + "subset has its cross-validation folds built side by side.";
+  }
+
+  /**
+   * Sets the number of threads to use for evaluating subsets.
+   *
+   * @param numSlots the number of threads
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_numExecutionSlots = numSlots;
+  }
+
+  /**
+   * Gets the number of threads to use for evaluating subsets.
+   *
+   * @return the number of threads
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
   }
   
   /**
@@ -518,7 +573,7 @@ public class WrapperSubsetEval
       classifierOptions = ((OptionHandler)m_BaseClassifier).getOptions();
     }
 
-    String[] options = new String[11 + classifierOptions.length];
+    String[] options = new String[13 + classifierOptions.length];
     int current = 0;
 
     if (getClassifier() != null) {
@@ -555,6 +610,9 @@ public class WrapperSubsetEval
       options[current++] = "auprc";
       break;
     }
+
+    options[current++] = "-num-slots";
+    options[current++] = "" + getNumExecutionSlots();
     
     options[current++] = "--";
     System.arraycopy(classifierOptions, 0, options, current, 
@@ -571,11 +629,11 @@ public class WrapperSubsetEval
 
   protected void resetOptions () {
     m_trainInstances = null;
-    m_Evaluation = null;
     m_BaseClassifier = new ZeroR();
     m_folds = 5;
     m_seed = 1;
     m_threshold = 0.01;
+    m_numExecutionSlots = 1;
   }
 
   /**
@@ -643,6 +701,74 @@ public class WrapperSubsetEval
    */
   public double evaluateSubset (BitSet subset)
     throws Exception {
+    return evaluateSubset(subset, m_numExecutionSlots);
+  }
+
+  /**
+   * Evaluates several subsets at once, side by side if there is more
+   * than one execution slot. Subsets are evaluated independently of each
+   * other, so the merits are the same as when evaluating the subsets one
+   * after the other.
+   *
+   * @param subsets the subsets to be evaluated
+   * @return the merits, in the same order as the subsets
+   * @throws Exception if a subset could not be evaluated
+   */
+  public double[] evaluateSubsets (BitSet[] subsets)
+    throws Exception {
+    double[] merits = new double[subsets.length];
+
+    if (m_numExecutionSlots <= 1 || subsets.length <= 1) {
+      for (int i = 0; i < subsets.length; i++) {
+        merits[i] = evaluateSubset(subsets[i]);
+      }
+      return merits;
+    }
+
+    // any slots that are left over go to the cross-validations
+    final int foldSlots = Math.max(1, m_numExecutionSlots / subsets.length);
+    ExecutorService pool = 
+      Executors.newFixedThreadPool(Math.min(m_numExecutionSlots, subsets.length));
+    try {
+      List<Future<Double>> results = new ArrayList<Future<Double>>();
+      for (int i = 0; i < subsets.length; i++) {
+        final BitSet subset = (BitSet)subsets[i].clone();
+        results.add(pool.submit(new Callable<Double>() {
+          public Double call() throws Exception {
+            return evaluateSubset(subset, foldSlots);
+          }
+        }));
+      }
+      for (int i = 0; i < subsets.length; i++) {
+        try {
+          merits[i] = results.get(i).get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Exception) {
+            throw (Exception)e.getCause();
+          }
+          throw new Exception(e.getCause());
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    return merits;
+  }
+
+  /**
+   * Evaluates a subset of attributes, building the cross-validation folds
+   * with the given number of threads.
+   *
+   * @param subset a bitset representing the attribute subset to be 
+   * evaluated 
+   * @param numThreads the number of threads for the cross-validation
+   * @return the error rate
+   * @throws Exception if the subset could not be evaluated
+   */
+  protected double evaluateSubset (BitSet subset, int numThreads)
+    throws Exception {
+    Evaluation evaluation;
     double evalMetric = 0;
     double[] repError = new double[5];
     int numAttributes = 0;
@@ -676,30 +802,31 @@ public class WrapperSubsetEval
 
     // max of 5 repetitions of cross validation
     for (i = 0; i < 5; i++) {
-      m_Evaluation = new Evaluation(trainCopy);
-      m_Evaluation.crossValidateModel(m_BaseClassifier, trainCopy, m_folds, Rnd);
+      evaluation = new Evaluation(trainCopy);
+      evaluation.setNumThreads(numThreads);
+      evaluation.crossValidateModel(m_BaseClassifier, trainCopy, m_folds, Rnd);
       
       switch (m_evaluationMeasure) {
       case EVAL_DEFAULT:
-        repError[i] = m_Evaluation.errorRate();
+        repError[i] = evaluation.errorRate();
         break;
       case EVAL_ACCURACY:
-        repError[i] = m_Evaluation.errorRate();
+        repError[i] = evaluation.errorRate();
         break;
       case EVAL_RMSE:
-        repError[i] = m_Evaluation.rootMeanSquaredError();
+        repError[i] = evaluation.rootMeanSquaredError();
         break;
       case EVAL_MAE:
-        repError[i] = m_Evaluation.meanAbsoluteError();
+        repError[i] = evaluation.meanAbsoluteError();
         break;
       case EVAL_FMEASURE:
-        repError[i] = m_Evaluation.weightedFMeasure();
+        repError[i] = evaluation.weightedFMeasure();
         break;
       case EVAL_AUC:
-        repError[i] = m_Evaluation.weightedAreaUnderROC();
+        repError[i] = evaluation.weightedAreaUnderROC();
         break;
       case EVAL_AUPRC:
-        repError[i] = m_Evaluation.weightedAreaUnderPRC();
+        repError[i] = evaluation.weightedAreaUnderPRC();
         break;
       }
 
@@ -715,7 +842,6 @@ public class WrapperSubsetEval
     }
 
     evalMetric /= (double)i;
-    m_Evaluation = null;
     
     switch (m_evaluationMeasure) {
     case EVAL_DEFAULT:
@@ -55,6 +55,9 @@ public abstract class AbstractClassifier
   /** Whether the classifier is run in debug mode. */
   protected boolean m_Debug = false;
 
+  /** The preferred number of instances to predict at once (for BatchPredictors) */
+  protected String m_BatchSize = "100";
+
   /**
    * Classifies the given test instance. The instance has to belong to a
    * dataset when it's being classified. Note that a classifier MUST
@@ -261,6 +264,37 @@ public abstract class AbstractClassifier
       "the console.";
   }
 
+  /**
+   * Set the preferred batch size for batch prediction. Only used by
+   * classifiers that implement BatchPredictor.
+   *
+   * @param size the batch size to use
+   */
+  public void setBatchSize(String size) {
+
+    m_BatchSize = size;
+  }
+
+  /**
+   * Get the preferred batch size for batch prediction.
+   *
+   * @return the batch size to use
+   */
+  public String getBatchSize() {
+
+    return m_BatchSize;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String batchSizeTipText() {
+    return "The preferred number of instances to process at once if " +
+      "batch prediction is being performed.";
+  }
+
   /**
    * Returns the Capabilities of this classifier. Maximally permissive
    * capabilities are allowed by default. Derived classifiers should
@@ -0,0 +1,60 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    CrossValidationHandler.java
+ *    Copyright (C) 2012 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.classifiers;
+
+import weka.core.Instances;
+
+/**
+ * Interface to classifiers that can build the models for all folds of a
+ * cross-validation at once, e.g., because their models are made up of
+ * counts that can be collected per fold in a single pass over the data.
+ * The model for a fold is then what is left after taking the counts of the
+ * held out instances away from the counts of all of them.
+ *
+ * @version $Revision: 8034 $
+ */
+public interface CrossValidationHandler {
+
+  /**
+   * Returns whether the classifier, with its current settings, can build
+   * the models for all folds at once from data with the given format.
+   *
+   * @param data the header of the data
+   * @return true if buildFoldClassifiers() can be used
+   */
+  boolean canBuildFoldClassifiers(Instances data);
+
+  /**
+   * Builds one model per fold, where the model for a fold is trained on
+   * all the instances that aren't held out in it. The models are copies of
+   * this classifier, and should give about the same predictions as copies
+   * that were built on the training part of each fold.
+   *
+   * @param data the data that is split into folds
+   * @param folds the fold that each instance is held out in
+   * @param numFolds the number of folds
+   * @return the models, one per fold
+   * @throws Exception if the models can't be built
+   */
+  Classifier[] buildFoldClassifiers(Instances data, int[] folds, int numFolds)
+    throws Exception;
+}
@@ -38,8 +38,15 @@ import java.io.Reader;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.Date;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -369,6 +376,9 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
   /** whether to discard predictions (and save memory). */
   protected boolean m_DiscardPredictions;
 
+  /** the number of threads used to build the models of a cross-validation. */
+  protected int m_NumThreads = 1;
+
   /**
    * Initializes all the counters for the evaluation. Use
    * <code>useNoPriors()</code> if the dataset is the test set and you can't
@@ -461,6 +471,27 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     return m_DiscardPredictions;
   }
 
+  /**
+   * Sets the number of threads that crossValidateModel() uses to build the
+   * models for the folds. The results are the same as with a single thread.
+   * 
+   * @param value the number of threads (1 builds one fold after the other)
+   * @see #crossValidateModel(Classifier, Instances, int, Random, Object...)
+   */
+  public void setNumThreads(int value) {
+    m_NumThreads = value;
+  }
+
+  /**
+   * Returns the number of threads that crossValidateModel() uses to build
+   * the models for the folds.
+   * 
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
   /**
    * Returns the area under ROC for those predictions that have been collected
    * in the evaluateClassifier(Classifier, Instances) method. Returns
@@ -610,13 +641,20 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     }
 
     // Do the folds
-    for (int i = 0; i < numFolds; i++) {
-      Instances train = data.trainCV(numFolds, i, random);
-      setPriors(train);
-      Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
-      copiedClassifier.buildClassifier(train);
-      Instances test = data.testCV(numFolds, i);
-      evaluateModel(copiedClassifier, test, forPredictionsPrinting);
+    if ((m_NumThreads > 1) && (numFolds > 1)) {
+      crossValidateFolds(classifier, data, numFolds, random,
+          forPredictionsPrinting);
+    } else {
+      for (int i = 0; i < numFolds; i++) {
+        if(Thread.currentThread().isInterrupted())
+          break;
+        Instances train = data.trainCV(numFolds, i, random);
+        setPriors(train);
+        Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
+        copiedClassifier.buildClassifier(train);
+        Instances test = data.testCV(numFolds, i);
+        evaluateModel(copiedClassifier, test, forPredictionsPrinting);
+      }
     }
     m_NumFolds = numFolds;
 
@@ -624,6 +662,139 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
       classificationOutput.printFooter();
   }
 
+  /**
+   * Does the folds of a cross-validation with several threads. The models
+   * are built, and where possible the test folds predicted, in parallel;
+   * the predictions are then evaluated one fold after the other, in the
+   * same order as with a single thread, so that the statistics come out
+   * exactly the same.
+   * 
+   * @param classifier the classifier with any options set.
+   * @param data the randomized (and stratified) data
+   * @param numFolds the number of folds for the cross-validation
+   * @param random random number generator for randomization
+   * @param forPredictionsPrinting varargs parameter that, if supplied, is
+   *          expected to hold a
+   *          weka.classifiers.evaluation.output.prediction.AbstractOutput
+   *          object
+   * @throws Exception if a classifier could not be generated successfully
+   */
+  protected void crossValidateFolds(final Classifier classifier,
+      Instances data, int numFolds, Random random,
+      Object... forPredictionsPrinting) throws Exception {
+
+    // the training sets use the random number generator up in fold order,
+    // just like they do when the folds are done one after the other
+    final Instances[] train = new Instances[numFolds];
+    final Instances[] test = new Instances[numFolds];
+    for (int i = 0; i < numFolds; i++) {
+      train[i] = data.trainCV(numFolds, i, random);
+      test[i] = data.testCV(numFolds, i);
+    }
+
+    // printing predictions and interval/density estimates need the model,
+    // so those folds are evaluated with it afterwards
+    final boolean predict = (forPredictionsPrinting.length == 0)
+        && !(classifier instanceof IntervalEstimator)
+        && !(classifier instanceof ConditionalDensityEstimator)
+        && !(classifier instanceof weka.classifiers.misc.InputMappedClassifier);
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+        m_NumThreads, numFolds));
+    try {
+      List<Future<Object[]>> folds = new ArrayList<Future<Object[]>>();
+      for (int i = 0; i < numFolds; i++) {
+        final int fold = i;
+        folds.add(pool.submit(new Callable<Object[]>() {
+          public Object[] call() throws Exception {
+            Classifier copiedClassifier = AbstractClassifier
+                .makeCopy(classifier);
+            copiedClassifier.buildClassifier(train[fold]);
+            double[][] dists = null;
+            if (predict) {
+              dists = distributionsForInstances(copiedClassifier, test[fold]);
+            }
+            return new Object[] { copiedClassifier, dists };
+          }
+        }));
+      }
+
+      for (int i = 0; i < numFolds; i++) {
+        if (Thread.currentThread().isInterrupted())
+          break;
+        Object[] result;
+        try {
+          result = folds.get(i).get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Exception) {
+            throw (Exception) e.getCause();
+          }
+          throw new Exception(e.getCause());
+        }
+        setPriors(train[i]);
+        if (result[1] == null) {
+          evaluateModel((Classifier) result[0], test[i], forPredictionsPrinting);
+          continue;
+        }
+        double[][] dists = (double[][]) result[1];
+        for (int j = 0; j < dists.length; j++) {
+          Instance inst = test[i].instance(j);
+          double pred = evaluationForSingleInstance(dists[j], inst, true);
+
+          // same bookkeeping as evaluationForSingleInstance(Classifier, ...)
+          if (!m_ClassIsNominal && !inst.classIsMissing()
+              && !Utils.isMissingValue(pred)) {
+            m_CoverageStatisticsAvailable = false;
+            m_ComplexityStatisticsAvailable = false;
+          }
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Predicts a test fold the way evaluateModel() does, without recording
+   * anything.
+   * 
+   * @param classifier the trained classifier
+   * @param data the test fold
+   * @return the predicted distributions
+   * @throws Exception if the instances could not be predicted
+   */
+  protected static double[][] distributionsForInstances(Classifier classifier,
+      Instances data) throws Exception {
+
+    double[][] dists = new double[data.numInstances()][];
+    if (classifier instanceof BatchPredictor) {
+      int batchSize = data.numInstances();
+      try {
+        batchSize = Integer.parseInt(((BatchPredictor) classifier).getBatchSize());
+      } catch (NumberFormatException ex) {
+      }
+      batchSize = Math.max(1, batchSize);
+
+      for (int start = 0; start < data.numInstances(); start += batchSize) {
+        int size = Math.min(batchSize, data.numInstances() - start);
+        double[][] preds = ((BatchPredictor) classifier)
+            .distributionsForInstances(new Instances(data, start, size));
+        System.arraycopy(preds, 0, dists, start, size);
+      }
+    } else {
+      for (int i = 0; i < data.numInstances(); i++) {
+        Instance classMissing = (Instance) data.instance(i).copy();
+        classMissing.setDataset(data);
+        classMissing.setClassMissing();
+        dists[i] = classifier.distributionForInstance(classMissing);
+      }
+    }
+    return dists;
+  }
+
   /**
    * Performs a (stratified if class is nominal) cross-validation for a
    * classifier on a set of instances.
@@ -1641,17 +1812,40 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
       classificationOutput = (AbstractOutput) forPredictionsPrinting[0];
     }
 
-    if (classifier instanceof BatchPredictor) {
-      double[][] preds = ((BatchPredictor) classifier)
-          .distributionsForInstances(data);
-      for (int i = 0; i < data.numInstances(); i++) {
-        double[] p = preds[i];
-
-        predictions[i] = evaluationForSingleInstance(p, data.instance(i), true);
+    // interval and density estimates are only collected one instance at a time
+    if (classifier instanceof BatchPredictor
+        && !(classifier instanceof IntervalEstimator)
+        && !(classifier instanceof ConditionalDensityEstimator)) {
+      // predict a batch at a time, so that an interrupt still gets noticed
+      // part way through a large test set
+      int batchSize = data.numInstances();
+      try {
+        batchSize = Integer.parseInt(((BatchPredictor) classifier).getBatchSize());
+      } catch (NumberFormatException ex) {
+      }
+      batchSize = Math.max(1, batchSize);
+
+      for (int start = 0; start < data.numInstances(); start += batchSize) {
+        int size = Math.min(batchSize, data.numInstances() - start);
+        double[][] preds = ((BatchPredictor) classifier)
+            .distributionsForInstances(new Instances(data, start, size));
+        for (int j = 0; j < size; j++) {
+          int i = start + j;
+          double[] p = preds[j];
+
+          predictions[i] = evaluationForSingleInstance(p, data.instance(i), true);
+
+          // same bookkeeping as evaluationForSingleInstance(Classifier, ...)
+          if (!m_ClassIsNominal && !data.instance(i).classIsMissing()
+              && !Utils.isMissingValue(predictions[i])) {
+            m_CoverageStatisticsAvailable = false;
+            m_ComplexityStatisticsAvailable = false;
+          }
 
-        if (classificationOutput != null)
-          classificationOutput.printClassification(p, data.instance(i), i);
-        if(Thread.interrupted())
+          if (classificationOutput != null)
+            classificationOutput.printClassification(p, data.instance(i), i);
+        }
+        if(Thread.currentThread().isInterrupted())
           break;
       }
     } else {
@@ -1663,7 +1857,7 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
         if (classificationOutput != null)
           classificationOutput.printClassification(classifier,
               data.instance(i), i);
-        if(Thread.interrupted())
+        if(Thread.currentThread().isInterrupted())
           break;
       }
     }
@@ -194,6 +194,9 @@ public abstract class ParallelIteratedFilteredClassifierEnhancer extends
           wait();
         }
       } catch (InterruptedException ex) {
+        // stop whatever is still building and let the caller know
+        m_executorPool.shutdownNow();
+        Thread.currentThread().interrupt();
       }
     } else {
       notifyAll();
@@ -209,9 +212,13 @@ public abstract class ParallelIteratedFilteredClassifierEnhancer extends
   protected synchronized void buildClassifiers() throws Exception {
 
     for (int i = 0; i < m_Classifiers.length; i++) {
+      if (Thread.currentThread().isInterrupted()) {
+        if (m_executorPool != null) {
+          m_executorPool.shutdownNow();
+        }
+        throw new InterruptedException("Building the ensemble was interrupted");
+      }
       if (m_numExecutionSlots > 1) {
-	// Manuel: if this is a FilteredClassifier, all good.
-        final FilteredClassifier currentClassifier = m_Classifiers[i];
         final int iteration = i;
         if (m_Debug) {
           System.out.print("Training classifier (" + (i +1) + ")");
@@ -219,7 +226,7 @@ public abstract class ParallelIteratedFilteredClassifierEnhancer extends
         Runnable newTask = new Runnable() {
           public void run() {
             try {
-              currentClassifier.buildClassifier(getTrainingSet(iteration));
+              buildIteration(iteration);
               completedClassifier(iteration, true);
             } catch (Exception ex) {
               ex.printStackTrace();
@@ -231,12 +238,15 @@ public abstract class ParallelIteratedFilteredClassifierEnhancer extends
         // launch this task
         m_executorPool.execute(newTask);
       } else {
-        m_Classifiers[i].buildClassifier(getTrainingSet(i));
+        buildIteration(i);
       }
     }
 
     if (m_numExecutionSlots > 1 && m_completed + m_failed < m_Classifiers.length) {
       block(true);
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException("Building the ensemble was interrupted");
+      }
     }
   }
 
@@ -274,6 +284,18 @@ public abstract class ParallelIteratedFilteredClassifierEnhancer extends
     }
   }
 
+  /**
+   * Builds the classifier for a particular iteration. By default, it is
+   * trained on the set returned by getTrainingSet().
+   *
+   * @param iteration the number of the iteration
+   * @throws Exception if something goes wrong.
+   */
+  protected void buildIteration(int iteration) throws Exception {
+
+    m_Classifiers[iteration].buildClassifier(getTrainingSet(iteration));
+  }
+
   /**
    * Gets a training set for a particular iteration. Implementations need
    * to be careful with thread safety and should probably be synchronized
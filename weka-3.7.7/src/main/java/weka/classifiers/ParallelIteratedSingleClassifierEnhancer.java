@@ -193,6 +193,9 @@ public abstract class ParallelIteratedSingleClassifierEnhancer extends
           wait();
         }
       } catch (InterruptedException ex) {
+        // stop whatever is still building and let the caller know
+        m_executorPool.shutdownNow();
+        Thread.currentThread().interrupt();
       }
     } else {
       notifyAll();
@@ -208,6 +211,12 @@ public abstract class ParallelIteratedSingleClassifierEnhancer extends
   protected synchronized void buildClassifiers() throws Exception {
 
     for (int i = 0; i < m_Classifiers.length; i++) {
+      if (Thread.currentThread().isInterrupted()) {
+        if (m_executorPool != null) {
+          m_executorPool.shutdownNow();
+        }
+        throw new InterruptedException("Building the ensemble was interrupted");
+      }
       if (m_numExecutionSlots > 1) {
 	// Manuel: if this is a FilteredClassifier, all good.
         final Classifier currentClassifier = m_Classifiers[i];
@@ -236,6 +245,9 @@ public abstract class ParallelIteratedSingleClassifierEnhancer extends
 
     if (m_numExecutionSlots > 1 && m_completed + m_failed < m_Classifiers.length) {
       block(true);
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException("Building the ensemble was interrupted");
+      }
     }
   }
 
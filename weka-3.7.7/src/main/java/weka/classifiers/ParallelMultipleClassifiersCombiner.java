@@ -196,6 +196,9 @@ public abstract class ParallelMultipleClassifiersCombiner extends
           wait();
         }
       } catch (InterruptedException ex) {
+        // stop whatever is still building and let the caller know
+        m_executorPool.shutdownNow();
+        Thread.currentThread().interrupt();
       }
     } else {
       notifyAll();
@@ -211,6 +214,12 @@ public abstract class ParallelMultipleClassifiersCombiner extends
   protected synchronized void buildClassifiers(final Instances data) throws Exception {
 
     for (int i = 0; i < m_Classifiers.length; i++) {
+      if (Thread.currentThread().isInterrupted()) {
+        if (m_executorPool != null) {
+          m_executorPool.shutdownNow();
+        }
+        throw new InterruptedException("Building the ensemble was interrupted");
+      }
       if (m_numExecutionSlots > 1) {
         final Classifier currentClassifier = m_Classifiers[i];
         final int iteration = i;
@@ -241,6 +250,9 @@ public abstract class ParallelMultipleClassifiersCombiner extends
 
     if (m_numExecutionSlots > 1 && m_completed + m_failed < m_Classifiers.length) {
       block(true);
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException("Building the ensemble was interrupted");
+      }
     }
   }
 
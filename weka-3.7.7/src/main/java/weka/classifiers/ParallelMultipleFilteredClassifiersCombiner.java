@@ -61,6 +61,16 @@ public abstract class ParallelMultipleFilteredClassifiersCombiner extends
    */
   protected int m_failed;
 
+  /**
+   * The exception of the first classifier (in the order of the ensemble)
+   * that couldn't be built in parallel, which is passed on once all the
+   * classifiers are done
+   */
+  protected transient Exception m_failure;
+
+  /** The index of the classifier that m_failure belongs to */
+  protected int m_failureIndex;
+
   /**
    * Returns an enumeration describing the available options.
    *
@@ -176,6 +186,8 @@ public abstract class ParallelMultipleFilteredClassifiersCombiner extends
     }
     m_completed = 0;
     m_failed = 0;
+    m_failure = null;
+    m_failureIndex = -1;
   }
 
   /**
@@ -197,6 +209,9 @@ public abstract class ParallelMultipleFilteredClassifiersCombiner extends
           wait();
         }
       } catch (InterruptedException ex) {
+        // stop whatever is still building and let the caller know
+        m_executorPool.shutdownNow();
+        Thread.currentThread().interrupt();
       }
     } else {
       notifyAll();
@@ -212,6 +227,12 @@ public abstract class ParallelMultipleFilteredClassifiersCombiner extends
   protected synchronized void buildClassifiers(final Instances data) throws Exception {
 
     for (int i = 0; i < m_Classifiers.length; i++) {
+      if (Thread.currentThread().isInterrupted()) {
+        if (m_executorPool != null) {
+          m_executorPool.shutdownNow();
+        }
+        throw new InterruptedException("Building the ensemble was interrupted");
+      }
       if (m_numExecutionSlots > 1) {
         final FilteredClassifier currentClassifier = m_Classifiers[i];
         final int iteration = i;
@@ -227,7 +248,10 @@ public abstract class ParallelMultipleFilteredClassifiersCombiner extends
               }
               completedClassifier(iteration, true);
             } catch (Exception ex) {
-              ex.printStackTrace();
+              if (m_Debug) {
+                ex.printStackTrace();
+              }
+              failedClassifier(iteration, ex);
               completedClassifier(iteration, false);
             }
           }
@@ -242,6 +266,27 @@ public abstract class ParallelMultipleFilteredClassifiersCombiner extends
 
     if (m_numExecutionSlots > 1 && m_completed + m_failed < m_Classifiers.length) {
       block(true);
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException("Building the ensemble was interrupted");
+      }
+    }
+    if (m_failure != null) {
+      // fail the same way as building the classifiers one after the other
+      throw m_failure;
+    }
+  }
+
+  /**
+   * Remembers the exception of a classifier that couldn't be built, unless
+   * one that comes before it in the ensemble failed too.
+   *
+   * @param iteration the index of the classifier
+   * @param ex the exception
+   */
+  protected synchronized void failedClassifier(int iteration, Exception ex) {
+    if (m_failure == null || iteration < m_failureIndex) {
+      m_failure = ex;
+      m_failureIndex = iteration;
     }
   }
 
@@ -25,7 +25,10 @@ import java.util.Enumeration;
 import java.util.Vector;
 
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.CrossValidationHandler;
 import weka.core.Attribute;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Instance;
@@ -93,7 +96,8 @@ import weka.estimators.NormalEstimator;
  */
 public class NaiveBayes extends AbstractClassifier 
 implements OptionHandler, WeightedInstancesHandler, 
-           TechnicalInformationHandler {
+           TechnicalInformationHandler, BatchPredictor,
+           CrossValidationHandler {
 
   /** for serialization */
   static final long serialVersionUID = 5995231201785697655L;
@@ -230,12 +234,75 @@ implements OptionHandler, WeightedInstancesHandler,
     }
 
     // Reserve space for the distributions
-    m_Distributions = new Estimator[m_Instances.numAttributes() - 1]
-      [m_Instances.numClasses()];
+    double[] precisions = getNumericPrecisions(m_Instances);
+    m_Distributions = newDistributions(m_Instances, precisions, true);
     m_ClassDistribution = new DiscreteEstimator(m_Instances.numClasses(), 
                                                 true);
-    int attIndex = 0;
-    Enumeration enu = m_Instances.enumerateAttributes();
+
+    // Compute counts
+    Enumeration enumInsts = m_Instances.enumerateInstances();
+    while (enumInsts.hasMoreElements()) {
+      Instance instance = 
+	(Instance) enumInsts.nextElement();
+      updateClassifier(instance);
+    }
+
+    // Save space
+    m_Instances = new Instances(m_Instances, 0);
+  }
+
+
+  /**
+   * Updates the classifier with the given instance.
+   *
+   * @param instance the new training instance to include in the model 
+   * @exception Exception if the instance could not be incorporated in
+   * the model.
+   */
+  public void updateClassifier(Instance instance) throws Exception {
+
+    addCounts(m_Instances, m_Distributions, m_ClassDistribution, instance);
+  }
+
+  /**
+   * Adds an instance to a set of estimators.
+   *
+   * @param header the format of the data
+   * @param distributions the attribute estimators
+   * @param classDistribution the class estimator
+   * @param instance the instance to add
+   */
+  protected void addCounts(Instances header, Estimator[][] distributions,
+			   Estimator classDistribution, Instance instance) {
+
+    if (!instance.classIsMissing()) {
+      Enumeration enumAtts = header.enumerateAttributes();
+      int attIndex = 0;
+      while (enumAtts.hasMoreElements()) {
+	Attribute attribute = (Attribute) enumAtts.nextElement();
+	if (!instance.isMissing(attribute)) {
+	  distributions[attIndex][(int)instance.classValue()].
+            addValue(instance.value(attribute), instance.weight());
+	}
+	attIndex++;
+      }
+      classDistribution.addValue(instance.classValue(),
+                                 instance.weight());
+    }
+  }
+
+  /**
+   * Determines the estimator precision of each numeric attribute from
+   * the differences between adjacent values. The data is sorted on each
+   * numeric attribute in turn.
+   *
+   * @param instances the training data, without missing class values
+   * @return the precisions, indexed by attribute
+   */
+  protected double[] getNumericPrecisions(Instances instances) {
+
+    double[] precisions = new double[instances.numAttributes()];
+    Enumeration enu = instances.enumerateAttributes();
     while (enu.hasMoreElements()) {
       Attribute attribute = (Attribute) enu.nextElement();
 
@@ -243,14 +310,14 @@ implements OptionHandler, WeightedInstancesHandler,
       // numeric precision from differences between adjacent values
       double numPrecision = DEFAULT_NUM_PRECISION;
       if (attribute.type() == Attribute.NUMERIC) {
-	m_Instances.sort(attribute);
-	if ((m_Instances.numInstances() > 0)
-	    && !m_Instances.instance(0).isMissing(attribute)) {
-	  double lastVal = m_Instances.instance(0).value(attribute);
+	instances.sort(attribute);
+	if ((instances.numInstances() > 0)
+	    && !instances.instance(0).isMissing(attribute)) {
+	  double lastVal = instances.instance(0).value(attribute);
 	  double currentVal, deltaSum = 0;
 	  int distinct = 0;
-	  for (int i = 1; i < m_Instances.numInstances(); i++) {
-	    Instance currentInst = m_Instances.instance(i);
+	  for (int i = 1; i < instances.numInstances(); i++) {
+	    Instance currentInst = instances.instance(i);
 	    if (currentInst.isMissing(attribute)) {
 	      break;
 	    }
@@ -266,22 +333,46 @@ implements OptionHandler, WeightedInstancesHandler,
 	  }
 	}
       }
+      precisions[attribute.index()] = numPrecision;
+    }
+    return precisions;
+  }
 
+  /**
+   * Creates the empty estimators for all attributes and classes.
+   *
+   * @param header the format of the data
+   * @param precisions the precisions of the numeric attributes
+   * @param laplace whether the discrete estimators start with counts of 1
+   * @return the estimators, indexed by attribute (without the class) and
+   * class
+   * @throws Exception if an attribute has an unsupported type
+   */
+  protected Estimator[][] newDistributions(Instances header,
+					   double[] precisions,
+					   boolean laplace) throws Exception {
 
-      for (int j = 0; j < m_Instances.numClasses(); j++) {
+    Estimator[][] distributions = new Estimator[header.numAttributes() - 1]
+      [header.numClasses()];
+    int attIndex = 0;
+    Enumeration enu = header.enumerateAttributes();
+    while (enu.hasMoreElements()) {
+      Attribute attribute = (Attribute) enu.nextElement();
+      double numPrecision = precisions[attribute.index()];
+      for (int j = 0; j < header.numClasses(); j++) {
 	switch (attribute.type()) {
 	case Attribute.NUMERIC: 
 	  if (m_UseKernelEstimator) {
-	    m_Distributions[attIndex][j] = 
+	    distributions[attIndex][j] = 
 	      new KernelEstimator(numPrecision);
 	  } else {
-	    m_Distributions[attIndex][j] = 
+	    distributions[attIndex][j] = 
 	      new NormalEstimator(numPrecision);
 	  }
 	  break;
 	case Attribute.NOMINAL:
-	  m_Distributions[attIndex][j] = 
-	    new DiscreteEstimator(attribute.numValues(), true);
+	  distributions[attIndex][j] = 
+	    new DiscreteEstimator(attribute.numValues(), laplace);
 	  break;
 	default:
 	  throw new Exception("Attribute type unknown to NaiveBayes");
@@ -289,42 +380,105 @@ implements OptionHandler, WeightedInstancesHandler,
       }
       attIndex++;
     }
+    return distributions;
+  }
 
-    // Compute counts
-    Enumeration enumInsts = m_Instances.enumerateInstances();
-    while (enumInsts.hasMoreElements()) {
-      Instance instance = 
-	(Instance) enumInsts.nextElement();
-      updateClassifier(instance);
-    }
+  /**
+   * Returns whether the models for all folds of a cross-validation can be
+   * built at once. This needs estimators whose counts can be taken apart
+   * again, i.e., neither kernel estimators nor discretization.
+   *
+   * @param data the header of the data
+   * @return true if buildFoldClassifiers() can be used
+   */
+  public boolean canBuildFoldClassifiers(Instances data) {
 
-    // Save space
-    m_Instances = new Instances(m_Instances, 0);
+    return !m_UseKernelEstimator && !m_UseDiscretization;
   }
 
-
   /**
-   * Updates the classifier with the given instance.
+   * Builds the models for all folds of a cross-validation in a single pass
+   * over the data. The counts for all the data and for each fold are
+   * collected side by side, and the model for a fold starts out with the
+   * former minus the latter. The precision of each numeric attribute is
+   * determined once from all the data, rather than from the training part
+   * of each fold, so the normal estimators can differ slightly from those
+   * of a model that is built on the training part alone.
    *
-   * @param instance the new training instance to include in the model 
-   * @exception Exception if the instance could not be incorporated in
-   * the model.
+   * @param data the data that is split into folds
+   * @param folds the fold that each instance is held out in
+   * @param numFolds the number of folds
+   * @return the models, one per fold
+   * @throws Exception if the models can't be built
    */
-  public void updateClassifier(Instance instance) throws Exception {
+  public Classifier[] buildFoldClassifiers(Instances data, int[] folds,
+					   int numFolds) throws Exception {
 
-    if (!instance.classIsMissing()) {
-      Enumeration enumAtts = m_Instances.enumerateAttributes();
-      int attIndex = 0;
-      while (enumAtts.hasMoreElements()) {
-	Attribute attribute = (Attribute) enumAtts.nextElement();
-	if (!instance.isMissing(attribute)) {
-	  m_Distributions[attIndex][(int)instance.classValue()].
-            addValue(instance.value(attribute), instance.weight());
+    if (!canBuildFoldClassifiers(data)) {
+      throw new Exception("Models for all folds can't be built at once with "
+			  + "kernel estimators or discretization!");
+    }
+
+    // can classifier handle the data?
+    getCapabilities().testWithFail(data);
+
+    // the precisions are determined without instances with missing class
+    Instances instances = new Instances(data);
+    instances.deleteWithMissingClass();
+    double[] precisions = getNumericPrecisions(instances);
+
+    // Compute counts for all the data and each fold
+    Estimator[][] total = newDistributions(data, precisions, false);
+    Estimator totalClass = new DiscreteEstimator(data.numClasses(), false);
+    Estimator[][][] heldOut = new Estimator[numFolds][][];
+    Estimator[] heldOutClass = new Estimator[numFolds];
+    for (int k = 0; k < numFolds; k++) {
+      heldOut[k] = newDistributions(data, precisions, false);
+      heldOutClass[k] = new DiscreteEstimator(data.numClasses(), false);
+    }
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance instance = data.instance(i);
+      addCounts(data, total, totalClass, instance);
+      addCounts(data, heldOut[folds[i]], heldOutClass[folds[i]], instance);
+    }
+
+    Classifier[] models = new Classifier[numFolds];
+    for (int k = 0; k < numFolds; k++) {
+      NaiveBayes model = (NaiveBayes) AbstractClassifier.makeCopy(this);
+      model.m_NumClasses = data.numClasses();
+      model.m_Instances = new Instances(data, 0);
+      model.m_Disc = null;
+      model.m_Distributions = newDistributions(data, precisions, true);
+      model.m_ClassDistribution = new DiscreteEstimator(data.numClasses(), 
+							true);
+      for (int a = 0; a < total.length; a++) {
+	for (int j = 0; j < total[a].length; j++) {
+	  addDifference(model.m_Distributions[a][j], total[a][j], 
+			heldOut[k][a][j]);
 	}
-	attIndex++;
       }
-      m_ClassDistribution.addValue(instance.classValue(),
-                                   instance.weight());
+      addDifference(model.m_ClassDistribution, totalClass, heldOutClass[k]);
+      models[k] = model;
+    }
+    return models;
+  }
+
+  /**
+   * Adds the counts of one estimator minus those of another to a third.
+   *
+   * @param to the estimator to add to
+   * @param all the estimator to add
+   * @param part the estimator to take away
+   */
+  protected static void addDifference(Estimator to, Estimator all, 
+				      Estimator part) {
+
+    if (to instanceof DiscreteEstimator) {
+      ((DiscreteEstimator) to).add((DiscreteEstimator) all);
+      ((DiscreteEstimator) to).subtract((DiscreteEstimator) part);
+    } else {
+      ((NormalEstimator) to).add((NormalEstimator) all);
+      ((NormalEstimator) to).subtract((NormalEstimator) part);
     }
   }
 
@@ -382,6 +536,86 @@ implements OptionHandler, WeightedInstancesHandler,
     return probs;
   }
 
+  /**
+   * Calculates the class membership probabilities for a batch of test 
+   * instances. Works through the attributes one at a time for the whole 
+   * batch, but does the same arithmetic (in the same order) for each 
+   * instance as distributionForInstance().
+   *
+   * @param insts the instances to be classified
+   * @return predicted class probability distributions
+   * @exception Exception if there is a problem generating the predictions
+   */
+  public double [][] distributionsForInstances(Instances insts) 
+    throws Exception {
+
+    Instance [] instances = new Instance[insts.numInstances()];
+    for (int i = 0; i < instances.length; i++) {
+      Instance instance = insts.instance(i);
+      if (m_UseDiscretization) {
+	m_Disc.input(instance);
+	instance = m_Disc.output();
+      }
+      instances[i] = instance;
+    }
+    double [][] probs = new double[instances.length][m_NumClasses];
+    if (instances.length == 0) {
+      return probs;
+    }
+    double [] priors = new double[m_NumClasses];
+    for (int j = 0; j < m_NumClasses; j++) {
+      priors[j] = m_ClassDistribution.getProbability(j);
+    }
+    for (int i = 0; i < instances.length; i++) {
+      System.arraycopy(priors, 0, probs[i], 0, m_NumClasses);
+    }
+
+    Enumeration enumAtts = instances[0].enumerateAttributes();
+    int attIndex = 0;
+    while (enumAtts.hasMoreElements()) {
+      Attribute attribute = (Attribute) enumAtts.nextElement();
+      int index = attribute.index();
+      Estimator [] estimators = m_Distributions[attIndex];
+      double weight = m_Instances.attribute(attIndex).weight();
+      for (int i = 0; i < instances.length; i++) {
+	if (instances[i].isMissing(index)) {
+	  continue;
+	}
+	double value = instances[i].value(index);
+	double [] instProbs = probs[i];
+	double temp, max = 0;
+	for (int j = 0; j < m_NumClasses; j++) {
+	  temp = estimators[j].getProbability(value);
+	  // pow(x, 1) is x, and is by far the most common case
+	  if (weight != 1) {
+	    temp = Math.pow(temp, weight);
+	  }
+	  temp = Math.max(1e-75, temp);
+	  instProbs[j] *= temp;
+	  if (instProbs[j] > max) {
+	    max = instProbs[j];
+	  }
+	  if (Double.isNaN(instProbs[j])) {
+	    throw new Exception("NaN returned from estimator for attribute "
+                                + attribute.name() + ":\n"
+                                + estimators[j].toString());
+	  }
+	}
+	if ((max > 0) && (max < 1e-75)) { // Danger of probability underflow
+	  for (int j = 0; j < m_NumClasses; j++) {
+	    instProbs[j] *= 1e75;
+	  }
+	}
+      }
+      attIndex++;
+    }
+
+    for (int i = 0; i < instances.length; i++) {
+      Utils.normalize(probs[i]);
+    }
+    return probs;
+  }
+
   /**
    * Returns an enumeration describing the available options.
    *
@@ -21,6 +21,8 @@
 package weka.classifiers.bayes;
 
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.CrossValidationHandler;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Instance;
@@ -75,7 +77,8 @@ import weka.core.WeightedInstancesHandler;
  */
 public class NaiveBayesMultinomial 
   extends AbstractClassifier 
-  implements WeightedInstancesHandler,TechnicalInformationHandler {
+  implements WeightedInstancesHandler,TechnicalInformationHandler,
+	     CrossValidationHandler {
   
   /** for serialization */
   static final long serialVersionUID = 5932177440181257085L;
@@ -217,6 +220,21 @@ public class NaiveBayesMultinomial
 	    } 
       }
 	
+    computeProbabilities(docsPerClass, wordsPerClass, instances.sumOfWeights());
+  }
+
+  /**
+   * Turns the word counts in probOfWordGivenClass (which start out at 1)
+   * into log probabilities, and works out the class probabilities.
+   *
+   * @param docsPerClass the weight of the training documents per class
+   * @param wordsPerClass the weighted number of words per class
+   * @param sumOfWeights the weight of all training documents
+   */
+  protected void computeProbabilities(double[] docsPerClass, 
+				      double[] wordsPerClass,
+				      double sumOfWeights)
+  {
     /*
       normalising probOfWordGivenClass values
       and saving each value as the log of each value
@@ -230,11 +248,133 @@ public class NaiveBayesMultinomial
       NOTE: Laplace estimator introduced in case a class does not get mentioned in the set of 
       training instances
     */
-    final double numDocs = instances.sumOfWeights() + m_numClasses;
+    final double numDocs = sumOfWeights + m_numClasses;
     m_probOfClass = new double[m_numClasses];
     for(int h=0; h<m_numClasses; h++)
       m_probOfClass[h] = (double)(docsPerClass[h] + 1)/numDocs; 
   }
+
+  /**
+   * Sets up the model from the counts of the training data, the same way
+   * buildClassifier() does once it has counted them.
+   *
+   * @param wordCounts the weighted number of occurrences of each word
+   * per class
+   * @param wordsPerClass the weighted number of words per class
+   * @param docsPerClass the weight of the training documents per class
+   */
+  protected void setCounts(double[][] wordCounts, double[] wordsPerClass,
+			   double[] docsPerClass)
+  {
+    double sumOfWeights = 0;
+    m_probOfWordGivenClass = new double[m_numClasses][m_numAttributes];
+    for(int c = 0; c<m_numClasses; c++)
+      {
+	for(int att = 0; att<m_numAttributes; att++)
+	  m_probOfWordGivenClass[c][att] = 1 + wordCounts[c][att];
+	sumOfWeights += docsPerClass[c];
+      }
+    computeProbabilities(docsPerClass, wordsPerClass, sumOfWeights);
+  }
+
+  /**
+   * Adds the words of a training document to a set of counts.
+   *
+   * @param instance the document
+   * @param wordCounts the weighted number of occurrences of each word
+   * per class
+   * @param wordsPerClass the weighted number of words per class
+   * @param docsPerClass the weight of the documents per class
+   * @throws Exception if a word occurs a negative number of times
+   */
+  private void addCounts(Instance instance, double[][] wordCounts,
+			 double[] wordsPerClass, double[] docsPerClass) 
+    throws Exception
+  {
+    int classIndex = (int)instance.classValue();
+    docsPerClass[classIndex] += instance.weight();
+    for(int a = 0; a<instance.numValues(); a++)
+      if(instance.index(a) != instance.classIndex() && !instance.isMissing(a))
+	{
+	  double numOccurences = instance.valueSparse(a) * instance.weight();
+	  if(numOccurences < 0)
+	    throw new Exception("Numeric attribute values must all be greater or equal to zero.");
+	  wordsPerClass[classIndex] += numOccurences;
+	  wordCounts[classIndex][instance.index(a)] += numOccurences;
+	}
+  }
+
+  /**
+   * Returns whether the models for all folds of a cross-validation can be
+   * built at once, which is always the case since the model is made up of
+   * counts.
+   *
+   * @param data the header of the data
+   * @return true
+   */
+  public boolean canBuildFoldClassifiers(Instances data) 
+  {
+    return true;
+  }
+
+  /**
+   * Builds the models for all folds of a cross-validation in a single pass
+   * over the data. The word and document counts for all the data and for
+   * each fold are collected side by side, and the model for a fold is made
+   * from the former minus the latter. With whole word counts and instance
+   * weights, the models are the same as those built on the training part
+   * of each fold.
+   *
+   * @param data the data that is split into folds
+   * @param folds the fold that each instance is held out in
+   * @param numFolds the number of folds
+   * @return the models, one per fold
+   * @throws Exception if the models can't be built
+   */
+  public Classifier[] buildFoldClassifiers(Instances data, int[] folds, 
+					   int numFolds) throws Exception 
+  {
+    // can classifier handle the data?
+    getCapabilities().testWithFail(data);
+
+    int numClasses = data.numClasses();
+    int numAttributes = data.numAttributes();
+
+    // the last set of counts is for all the data
+    double[][][] wordCounts = new double[numFolds + 1][numClasses][numAttributes];
+    double[][] wordsPerClass = new double[numFolds + 1][numClasses];
+    double[][] docsPerClass = new double[numFolds + 1][numClasses];
+    for(int i = 0; i < data.numInstances(); i++)
+      {
+	Instance instance = data.instance(i);
+	if(instance.classIsMissing())
+	  continue;
+	addCounts(instance, wordCounts[folds[i]], wordsPerClass[folds[i]], docsPerClass[folds[i]]);
+	addCounts(instance, wordCounts[numFolds], wordsPerClass[numFolds], docsPerClass[numFolds]);
+      }
+
+    Classifier[] models = new Classifier[numFolds];
+    for(int k = 0; k < numFolds; k++)
+      {
+	double[][] foldWordCounts = new double[numClasses][numAttributes];
+	double[] foldWordsPerClass = new double[numClasses];
+	double[] foldDocsPerClass = new double[numClasses];
+	for(int c = 0; c < numClasses; c++)
+	  {
+	    for(int att = 0; att < numAttributes; att++)
+	      foldWordCounts[c][att] = wordCounts[numFolds][c][att] - wordCounts[k][c][att];
+	    foldWordsPerClass[c] = wordsPerClass[numFolds][c] - wordsPerClass[k][c];
+	    foldDocsPerClass[c] = docsPerClass[numFolds][c] - docsPerClass[k][c];
+	  }
+	NaiveBayesMultinomial model = (NaiveBayesMultinomial) AbstractClassifier.makeCopy(this);
+	model.m_headerInfo = new Instances(data, 0);
+	model.m_numClasses = numClasses;
+	model.m_numAttributes = numAttributes;
+	model.setCounts(foldWordCounts, foldWordsPerClass, foldDocsPerClass);
+	models[k] = model;
+      }
+    return models;
+  }
     
   /**
    * Calculates the class membership probabilities for the given test 
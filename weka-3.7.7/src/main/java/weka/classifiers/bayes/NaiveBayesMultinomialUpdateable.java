@@ -130,6 +130,31 @@ public class NaiveBayesMultinomialUpdateable
       updateClassifier(instances.instance(i));
   }
 
+  /**
+   * Sets up the model from the counts of the training data, the same way
+   * buildClassifier() does once it has counted them.
+   *
+   * @param wordCounts 	the weighted number of occurrences of each word
+   * 			per class
+   * @param wordsPerClass 	the weighted number of words per class
+   * @param docsPerClass 	the weight of the training documents per class
+   */
+  protected void setCounts(double[][] wordCounts, double[] wordsPerClass,
+			   double[] docsPerClass) {
+    m_probOfWordGivenClass = new double[m_numClasses][m_numAttributes];
+    m_wordsPerClass = new double[m_numClasses];
+    m_probOfClass = new double[m_numClasses];
+
+    double laplace = 1;
+    for (int c = 0; c < m_numClasses; c++) {
+      m_probOfClass[c]   = laplace + docsPerClass[c];
+      m_wordsPerClass[c] = laplace * m_numAttributes + wordsPerClass[c];
+      for(int att = 0; att<m_numAttributes; att++) {
+	m_probOfWordGivenClass[c][att] = laplace + wordCounts[c][att];
+      }
+    }
+  }
+
   /**
    * Updates the classifier with the given instance.
    *
@@ -23,6 +23,7 @@ package weka.classifiers.functions;
 
 import weka.classifiers.Classifier;
 import weka.classifiers.AbstractClassifier;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -117,7 +118,8 @@ import java.util.Vector;
  * @version $Revision: 8079 $
  */
 public class Logistic extends AbstractClassifier 
-  implements OptionHandler, WeightedInstancesHandler, TechnicalInformationHandler {
+  implements OptionHandler, WeightedInstancesHandler, TechnicalInformationHandler,
+             BatchPredictor {
   
   /** for serialization */
   static final long serialVersionUID = 3932117032546553727L;
@@ -809,6 +811,83 @@ public class Logistic extends AbstractClassifier
     return distribution;
   }
 
+  /**
+   * Computes the distributions for a batch of instances. The filtered 
+   * predictor values go into one row major matrix, which is then scored 
+   * against the coefficients a class at a time.
+   *
+   * @param insts the instances to be classified
+   * @return the distributions
+   * @throws Exception if the distributions can't be computed successfully
+   */
+  public double [][] distributionsForInstances(Instances insts) 
+    throws Exception {
+
+    int numRows = insts.numInstances();
+    int numCols = m_NumPredictors + 1;
+    double [] data = new double [numRows * numCols];
+    for (int i = 0; i < numRows; i++) {
+      Instance instance = insts.instance(i);
+      m_ReplaceMissingValues.input(instance);
+      instance = m_ReplaceMissingValues.output();
+      m_AttFilter.input(instance);
+      instance = m_AttFilter.output();
+      m_NominalToBinary.input(instance);
+      instance = m_NominalToBinary.output();
+
+      int j = i * numCols;
+      data[j++] = 1;
+      for (int k = 0; k <= m_NumPredictors; k++) {
+	if (k != m_ClassIndex) {
+	  data[j++] = instance.value(k);
+	}
+      }
+    }
+    return evaluateProbabilities(data, numRows);
+  }
+
+  /**
+   * Compute the posterior distributions for a row major matrix of 
+   * instances. Gives the same results as evaluateProbability() on each row.
+   * @param data the testing instances, one row of numPredictors + 1 each
+   * @param numRows the number of instances
+   * @return the posterior probability distributions
+   */
+  private double[][] evaluateProbabilities(double[] data, int numRows){
+    int numCols = m_NumPredictors + 1;
+    double[][] prob = new double[numRows][m_NumClasses],
+      v = new double[numRows][m_NumClasses];
+
+    // Log-posterior before normalizing, with the coefficients for a 
+    // class laid out next to each other
+    double[] par = new double[numCols];
+    for(int j = 0; j < m_NumClasses-1; j++){
+      for(int k = 0; k < numCols; k++){
+	par[k] = m_Par[k][j];
+      }
+      for(int i = 0; i < numRows; i++){
+	double sum = 0;
+	int offset = i * numCols;
+	for(int k = 0; k < numCols; k++){
+	  sum += par[k] * data[offset + k];
+	}
+	v[i][j] = sum;
+      }
+    }
+
+    // Do so to avoid scaling problems
+    for(int i = 0; i < numRows; i++){
+      for(int m=0; m < m_NumClasses; m++){
+	double sum = 0;
+	for(int n=0; n < m_NumClasses-1; n++)
+	  sum += Math.exp(v[i][n] - v[i][m]);
+	prob[i][m] = 1 / (sum + Math.exp(-v[i][m]));
+      }
+    }
+
+    return prob;
+  }
+
   /**
    * Compute the posterior distribution using optimized parameter values
    * and the testing instance.
@@ -32,8 +32,11 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.IdentityHashMap;
 import java.util.Random;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -51,9 +54,11 @@ import javax.swing.JTextField;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.functions.neural.LinearUnit;
+import weka.classifiers.functions.neural.MiniBatchTrainer;
 import weka.classifiers.functions.neural.NeuralConnection;
 import weka.classifiers.functions.neural.NeuralNode;
 import weka.classifiers.functions.neural.SigmoidUnit;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.FastVector;
@@ -140,6 +145,14 @@ import weka.filters.unsupervised.attribute.NominalToBinary;
  *  Learning rate decay will occur.
  *  (Set this to cause the learning rate to decay).</pre>
  * 
+ * <pre> -mini-batch-size &lt;size&gt;
+ *  The number of instances to update the weights for at once.
+ *  (Default = 0, i.e. after every instance).</pre>
+ * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots for computing mini-batch gradients.
+ *  (default 1 - i.e. no parallelism)</pre>
+ * 
  <!-- options-end -->
  *
  * @author Malcolm Ware (mfw4@cs.waikato.ac.nz)
@@ -147,7 +160,8 @@ import weka.filters.unsupervised.attribute.NominalToBinary;
  */
 public class MultilayerPerceptron 
   extends AbstractClassifier 
-  implements OptionHandler, WeightedInstancesHandler, Randomizable {
+  implements OptionHandler, WeightedInstancesHandler, Randomizable,
+             BatchPredictor {
   
   /** for serialization */
   private static final long serialVersionUID = -5990607817048210779L;
@@ -1030,6 +1044,13 @@ public class MultilayerPerceptron
    * This is a linear unit.
    */
   private LinearUnit m_linearUnit;
+
+  /** The number of instances in a mini-batch, 0 to update the weights
+   * after every instance. */
+  private int m_miniBatchSize;
+
+  /** The number of threads that work out the gradients of a mini-batch. */
+  private int m_numExecutionSlots;
   
   /**
    * The constructor.
@@ -1077,6 +1098,8 @@ public class MultilayerPerceptron
     m_momentum = .2;
     m_reset = true;
     m_decay = false;
+    m_miniBatchSize = 0;
+    m_numExecutionSlots = 1;
   }
 
   /**
@@ -1386,6 +1409,42 @@ public class MultilayerPerceptron
   public int getTrainingTime() {
     return m_numEpochs;
   }
+
+  /**
+   * Set the number of instances in a mini-batch. If this is 0 the
+   * weights are updated after every instance.
+   * @param size The number of instances in a mini-batch.
+   */
+  public void setMiniBatchSize(int size) {
+    if (size >= 0) {
+      m_miniBatchSize = size;
+    }
+  }
+
+  /**
+   * @return The number of instances in a mini-batch.
+   */
+  public int getMiniBatchSize() {
+    return m_miniBatchSize;
+  }
+
+  /**
+   * Set the number of threads to compute the gradients of a mini-batch
+   * with.
+   * @param n The number of execution slots.
+   */
+  public void setNumExecutionSlots(int n) {
+    if (n > 0) {
+      m_numExecutionSlots = n;
+    }
+  }
+
+  /**
+   * @return The number of execution slots.
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
   
   /**
    * Call this function to place a node into the network list.
@@ -1937,6 +1996,18 @@ public class MultilayerPerceptron
     }
     m_stopped = false;
      
+    //the mini-batch engine only knows about plain layered networks
+    if (m_miniBatchSize > 0 && !m_gui
+	&& !(m_numeric && m_normalizeClass 
+	     && m_attributeRanges[m_instances.classIndex()] == 0)) {
+      NeuralNode[][] layers = getLayers();
+      if (layers != null) {
+	trainMiniBatches(i, layers, valSet, numInVal, totalWeight, 
+			 totalValWeight);
+	m_instances = new Instances(m_instances, 0);
+	return;
+      }
+    }
 
     for (int noa = 1; noa < m_numEpochs + 1; noa++) {
       right = 0;
@@ -2080,6 +2151,207 @@ public class MultilayerPerceptron
     m_instances = new Instances(m_instances, 0);  
   }
 
+  /**
+   * Finds the layers of the network, if every node in a layer takes its
+   * inputs from all the units of the previous layer (in the same order)
+   * and gives its output to nothing but the next layer.
+   * @return The nodes of each layer, the output nodes last, or null if the
+   * network isn't built like that.
+   */
+  private NeuralNode[][] getLayers() {
+    List<NeuralNode[]> layers = new ArrayList<NeuralNode[]>();
+    NeuralConnection[] units = new NeuralConnection[m_numClasses];
+    for (int noa = 0; noa < m_numClasses; noa++) {
+      if (m_outputs[noa].getNumInputs() != 1) {
+	return null;
+      }
+      units[noa] = m_outputs[noa].getInputs()[0];
+    }
+    int numOutputs = 1;
+    while (layers.size() < m_neuralNodes.length) {
+      NeuralNode[] layer = new NeuralNode[units.length];
+      Class<?> method = (layers.isEmpty() && m_numeric) 
+	? LinearUnit.class : SigmoidUnit.class;
+      NeuralConnection[] inputs = null;
+      int numInputs = 0;
+      for (int noa = 0; noa < units.length; noa++) {
+	if (!(units[noa] instanceof NeuralNode)) {
+	  return null;
+	}
+	layer[noa] = (NeuralNode)units[noa];
+	if (layer[noa].getMethod().getClass() != method 
+	    || layer[noa].getNumOutputs() != numOutputs) {
+	  return null;
+	}
+	if (noa == 0) {
+	  inputs = layer[noa].getInputs();
+	  numInputs = layer[noa].getNumInputs();
+	}
+	else if (layer[noa].getNumInputs() != numInputs) {
+	  return null;
+	}
+	for (int nob = 0; nob < numInputs; nob++) {
+	  if (layer[noa].getInputs()[nob] != inputs[nob]) {
+	    return null;
+	  }
+	}
+      }
+      if (numInputs == 0) {
+	return null;
+      }
+      layers.add(0, layer);
+      
+      boolean atInputs = (numInputs == m_numAttributes);
+      for (int noa = 0; atInputs && noa < numInputs; noa++) {
+	atInputs = (inputs[noa] == m_inputs[noa]);
+      }
+      if (atInputs) {
+	return layers.toArray(new NeuralNode[layers.size()][]);
+      }
+      units = new NeuralConnection[numInputs];
+      System.arraycopy(inputs, 0, units, 0, numInputs);
+      numOutputs = layer.length;
+    }
+    return null;
+  }
+
+  /**
+   * Works out the values that the input ends of the network see for 
+   * each instance, and the values the output nodes should produce.
+   * @param data The instances, already normalized.
+   * @param inputs Receives the input values of each instance.
+   * @param targets Receives the target values of each instance.
+   * @param weights Receives the weight of each instance.
+   */
+  private void getRows(Instances data, double[][] inputs, double[][] targets,
+		       double[] weights) {
+    int classIndex = data.classIndex();
+    for (int noa = 0; noa < data.numInstances(); noa++) {
+      Instance inst = data.instance(noa);
+      inputs[noa] = new double[m_numAttributes];
+      for (int nob = 0; nob < m_numAttributes; nob++) {
+	int link = m_inputs[nob].getLink();
+	inputs[noa][nob] = inst.isMissing(link) ? 0 : inst.value(link);
+      }
+      targets[noa] = new double[m_numClasses];
+      if (m_numeric) {
+	targets[noa][0] = inst.classValue();
+	if (m_normalizeClass) {
+	  targets[noa][0] = (targets[noa][0] - m_attributeBases[classIndex]) /
+	    m_attributeRanges[classIndex];
+	}
+      }
+      else {
+	targets[noa][(int)inst.classValue()] = 1;
+      }
+      weights[noa] = inst.weight();
+    }
+  }
+
+  /**
+   * Trains the network with mini-batches instead of one instance at a 
+   * time. The epochs, learning rate decay, validation set and resetting
+   * work the same way as for the normal training, and the weights end up
+   * in the nodes of the network in the end.
+   * @param i The instances buildClassifier() was called with.
+   * @param layers The layers of the network.
+   * @param valSet The validation set, null if there is none.
+   * @param numInVal The number of instances at the start of the training
+   * data that are used for validation.
+   * @param totalWeight The weight of the training instances.
+   * @param totalValWeight The weight of the validation instances.
+   * @throws Exception if the network can't be trained.
+   */
+  private void trainMiniBatches(Instances i, NeuralNode[][] layers, 
+				Instances valSet, int numInVal, 
+				double totalWeight, double totalValWeight)
+    throws Exception {
+
+    int numRows = m_instances.numInstances();
+    double[][] inputs = new double[numRows][];
+    double[][] targets = new double[numRows][];
+    double[] weights = new double[numRows];
+    getRows(m_instances, inputs, targets, weights);
+    int numValRows = (m_valSize != 0) ? valSet.numInstances() : 0;
+    double[][] valInputs = new double[numValRows][];
+    double[][] valTargets = new double[numValRows][];
+    double[] valWeights = new double[numValRows];
+    if (m_valSize != 0) {
+      getRows(valSet, valInputs, valTargets, valWeights);
+    }
+
+    MiniBatchTrainer trainer = 
+      new MiniBatchTrainer(layers, m_numAttributes, m_numeric);
+    trainer.setNumThreads(m_numExecutionSlots);
+    double right = 0;
+    double driftOff = 0;
+    double lastRight = Double.POSITIVE_INFINITY;
+    double bestError = Double.POSITIVE_INFINITY;
+    double tempRate;
+    double origRate = m_learningRate; //only used for when reset
+    try {
+      for (int noa = 1; noa < m_numEpochs + 1; noa++) {
+	tempRate = m_learningRate;
+	if (m_decay) {
+	  tempRate /= noa;
+	}
+	right = trainer.trainEpoch(inputs, targets, weights, numInVal, 
+				   numRows, m_miniBatchSize, tempRate, 
+				   m_momentum) / m_numClasses;
+	right /= totalWeight;
+	if (Double.isInfinite(right) || Double.isNaN(right)) {
+	  if (!m_reset) {
+	    m_instances = null;
+	    throw new Exception("Network cannot train. Try restarting with a" +
+				" smaller learning rate.");
+	  }
+	  else {
+	    //reset the network if possible
+	    if (m_learningRate <= Utils.SMALL)
+	      throw new IllegalStateException(
+		  "Learning rate got too small (" + m_learningRate 
+		  + " <= " + Utils.SMALL + ")!");
+	    trainer.shutdown();
+	    m_learningRate /= 2;
+	    buildClassifier(i);
+	    m_learningRate = origRate;
+	    return;
+	  }
+	}
+
+	////////////////////////do validation testing if applicable
+	if (m_valSize != 0) {
+	  right = trainer.error(valInputs, valTargets, valWeights, 0, 
+				numValRows) / m_numClasses;
+	  if (right < lastRight) {
+	    if (right < bestError) {
+	      bestError = right;
+	      trainer.saveWeights();
+	      driftOff = 0;
+	    }
+	  }
+	  else {
+	    driftOff++;
+	  }
+	  lastRight = right;
+	  if (driftOff > m_driftThreshold || noa + 1 >= m_numEpochs) {
+	    trainer.restoreWeights();
+	    m_accepted = true;
+	  }
+	  right /= totalValWeight;
+	}
+	m_epoch = noa;
+	m_error = right;
+	if (m_accepted || Thread.currentThread().isInterrupted()) {
+	  break;
+	}
+      }
+    } finally {
+      trainer.shutdown();
+    }
+    trainer.writeWeights();
+  }
+
   /**
    * Call this function to predict the class of an instance once a 
    * classification model has been built with the buildClassifier call.
@@ -2142,6 +2414,189 @@ public class MultilayerPerceptron
     }
     return theArray;
   }
+
+  /**
+   * Calculates the class membership probabilities for a batch of 
+   * instances. Rather than pushing each instance through the network of 
+   * connections, the units are put in an order where each one comes after 
+   * all of its inputs, and then each unit is worked out for the whole 
+   * batch in turn. The arithmetic is the same as in 
+   * distributionForInstance(), but the given instances are left alone.
+   *
+   * @param insts the instances to be classified
+   * @return the class probability distributions
+   * @throws Exception if the distributions can't be computed
+   */
+  public double[][] distributionsForInstances(Instances insts) 
+    throws Exception {
+
+    int numRows = insts.numInstances();
+    double[][] dists = new double[numRows][];
+    if (m_useDefaultModel) {
+      for (int i = 0; i < numRows; i++) {
+	dists[i] = m_ZeroR.distributionForInstance(insts.instance(i));
+      }
+      return dists;
+    }
+
+    // order the units so that every unit comes after its inputs
+    List<NeuralConnection> units = new ArrayList<NeuralConnection>();
+    IdentityHashMap<NeuralConnection, Integer> positions = 
+      new IdentityHashMap<NeuralConnection, Integer>();
+    boolean supported = true;
+    for (int noa = 0; noa < m_numClasses; noa++) {
+      supported &= orderUnits(m_outputs[noa], units, positions);
+    }
+    if (!supported) {
+      // don't know how to do these units, so go one instance at a time
+      for (int i = 0; i < numRows; i++) {
+	dists[i] = distributionForInstance((Instance) insts.instance(i).copy());
+      }
+      return dists;
+    }
+
+    // the values the input ends would see
+    double[][] rows = new double[numRows][];
+    for (int i = 0; i < numRows; i++) {
+      Instance current = insts.instance(i);
+      if (m_useNomToBin) {
+	m_nominalToBinaryFilter.input(current);
+	current = m_nominalToBinaryFilter.output();
+      }
+      double[] row = current.toDoubleArray();
+      if (m_normalizeAttributes) {
+	for (int noa = 0; noa < m_instances.numAttributes(); noa++) {
+	  if (noa != m_instances.classIndex()) {
+	    if (m_attributeRanges[noa] != 0) {
+	      row[noa] = (row[noa] - m_attributeBases[noa]) / 
+		m_attributeRanges[noa];
+	    }
+	    else {
+	      row[noa] = row[noa] - m_attributeBases[noa];
+	    }
+	  }
+	}
+      }
+      rows[i] = row;
+    }
+
+    double[][] values = new double[units.size()][numRows];
+    for (int nou = 0; nou < units.size(); nou++) {
+      NeuralConnection unit = units.get(nou);
+      double[] unitValues = values[nou];
+      NeuralConnection[] inputs = unit.getInputs();
+      if (unit instanceof NeuralNode) {
+	double[] weights = ((NeuralNode) unit).getWeights();
+	boolean sigmoid = ((NeuralNode) unit).getMethod() instanceof SigmoidUnit;
+	for (int i = 0; i < numRows; i++) {
+	  unitValues[i] = weights[0];
+	}
+	for (int noa = 0; noa < unit.getNumInputs(); noa++) {
+	  double[] inputValues = values[positions.get(inputs[noa])];
+	  double weight = weights[noa + 1];
+	  for (int i = 0; i < numRows; i++) {
+	    unitValues[i] += inputValues[i] * weight;
+	  }
+	}
+	if (sigmoid) {
+	  for (int i = 0; i < numRows; i++) {
+	    double value = unitValues[i];
+	    if (value < -45) {
+	      value = 0;
+	    }
+	    else if (value > 45) {
+	      value = 1;
+	    }
+	    else {
+	      value = 1 / (1 + Math.exp(-value));
+	    }
+	    unitValues[i] = value;
+	  }
+	}
+      }
+      else if (((NeuralEnd) unit).m_input) {
+	int link = ((NeuralEnd) unit).m_link;
+	for (int i = 0; i < numRows; i++) {
+	  double value = rows[i][link];
+	  unitValues[i] = Utils.isMissingValue(value) ? 0 : value;
+	}
+      }
+      else {
+	for (int noa = 0; noa < unit.getNumInputs(); noa++) {
+	  double[] inputValues = values[positions.get(inputs[noa])];
+	  for (int i = 0; i < numRows; i++) {
+	    unitValues[i] += inputValues[i];
+	  }
+	}
+	if (m_numeric && m_normalizeClass) {
+	  for (int i = 0; i < numRows; i++) {
+	    unitValues[i] = unitValues[i] * 
+	      m_attributeRanges[m_instances.classIndex()] + 
+	      m_attributeBases[m_instances.classIndex()];
+	  }
+	}
+      }
+    }
+
+    for (int i = 0; i < numRows; i++) {
+      double[] theArray = new double[m_numClasses];
+      for (int noa = 0; noa < m_numClasses; noa++) {
+	theArray[noa] = values[positions.get(m_outputs[noa])][i];
+      }
+      if (m_instances.classAttribute().isNumeric()) {
+	dists[i] = theArray;
+	continue;
+      }
+
+      //now normalize the array
+      double count = 0;
+      for (int noa = 0; noa < m_numClasses; noa++) {
+	count += theArray[noa];
+      }
+      if (count <= 0) {
+	dists[i] = m_ZeroR.distributionForInstance(insts.instance(i));
+	continue;
+      }
+      for (int noa = 0; noa < m_numClasses; noa++) {
+	theArray[noa] /= count;
+      }
+      dists[i] = theArray;
+    }
+    return dists;
+  }
+
+  /**
+   * Adds a unit to the list after everything that it takes input from.
+   *
+   * @param unit the unit to add
+   * @param units the list of units so far
+   * @param positions where each unit already in the list is
+   * @return false if there is a unit the batch code can't work out
+   */
+  private boolean orderUnits(NeuralConnection unit, List<NeuralConnection> units,
+			     IdentityHashMap<NeuralConnection, Integer> positions) {
+    
+    if (positions.containsKey(unit)) {
+      return true;
+    }
+    if (unit instanceof NeuralNode) {
+      Class<?> method = ((NeuralNode) unit).getMethod().getClass();
+      if (method != SigmoidUnit.class && method != LinearUnit.class) {
+	return false;
+      }
+    }
+    else if (!(unit instanceof NeuralEnd)) {
+      return false;
+    }
+    boolean supported = true;
+    NeuralConnection[] inputs = unit.getInputs();
+    for (int noa = 0; noa < unit.getNumInputs(); noa++) {
+      supported &= orderUnits(inputs[noa], units, positions);
+    }
+    positions.put(unit, units.size());
+    units.add(unit);
+    return supported;
+  }
   
 
 
@@ -2152,7 +2607,7 @@ public class MultilayerPerceptron
    */
   public Enumeration listOptions() {
     
-    Vector newVector = new Vector(14);
+    Vector newVector = new Vector(16);
 
     newVector.addElement(new Option(
 	      "\tLearning Rate for the backpropagation algorithm.\n"
@@ -2215,6 +2670,14 @@ public class MultilayerPerceptron
               "\tLearning rate decay will occur.\n"
 	      +"\t(Set this to cause the learning rate to decay).",
 	      "D", 0,"-D"));
+    newVector.addElement(new Option(
+	      "\tThe number of instances to update the weights for at once.\n"
+	      +"\t(Default = 0, i.e. after every instance).",
+	      "mini-batch-size", 1, "-mini-batch-size <size>"));
+    newVector.addElement(new Option(
+	      "\tNumber of execution slots for computing mini-batch gradients.\n"
+	      +"\t(default 1 - i.e. no parallelism)",
+	      "num-slots", 1, "-num-slots <num>"));
     
     
     return newVector.elements();
@@ -2287,6 +2750,14 @@ public class MultilayerPerceptron
    *  Learning rate decay will occur.
    *  (Set this to cause the learning rate to decay).</pre>
    * 
+   * <pre> -mini-batch-size &lt;size&gt;
+   *  The number of instances to update the weights for at once.
+   *  (Default = 0, i.e. after every instance).</pre>
+   * 
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of execution slots for computing mini-batch gradients.
+   *  (default 1 - i.e. no parallelism)</pre>
+   * 
    <!-- options-end -->
    *
    * @param options the list of options as an array of strings
@@ -2373,6 +2844,18 @@ public class MultilayerPerceptron
     } else {
       setDecay(false);
     }
+    String batchSizeString = Utils.getOption("mini-batch-size", options);
+    if (batchSizeString.length() != 0) {
+      setMiniBatchSize(Integer.parseInt(batchSizeString));
+    } else {
+      setMiniBatchSize(0);
+    }
+    String slotsString = Utils.getOption("num-slots", options);
+    if (slotsString.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(slotsString));
+    } else {
+      setNumExecutionSlots(1);
+    }
     
     Utils.checkForRemainingOptions(options);
   }
@@ -2384,7 +2867,7 @@ public class MultilayerPerceptron
    */
   public String [] getOptions() {
 
-    String [] options = new String [21];
+    String [] options = new String [25];
     int current = 0;
     options[current++] = "-L"; options[current++] = "" + getLearningRate(); 
     options[current++] = "-M"; options[current++] = "" + getMomentum();
@@ -2414,6 +2897,10 @@ public class MultilayerPerceptron
     if (getDecay()) {
       options[current++] = "-D";
     }
+    options[current++] = "-mini-batch-size";
+    options[current++] = "" + getMiniBatchSize();
+    options[current++] = "-num-slots";
+    options[current++] = "" + getNumExecutionSlots();
 
     
     while (current < options.length) {
@@ -2683,6 +3170,26 @@ public class MultilayerPerceptron
       " starting learning rate.";
   }
   
+  /**
+   * @return a string to describe the mini-batch size option.
+   */
+  public String miniBatchSizeTipText() {
+    return "The number of instances to update the weights for at once." +
+      " If this is 0 the weights are updated after every instance." +
+      " Otherwise the gradients are averaged over each batch, and the" +
+      " batch is split up between the execution slots. The result does" +
+      " not depend on the number of slots. This is not used if the gui" +
+      " is set.";
+  }
+
+  /**
+   * @return a string to describe the number of execution slots option.
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of threads to use for computing the gradients of" +
+      " a mini-batch.";
+  }
+  
   /**
    * Returns the revision string.
    * 
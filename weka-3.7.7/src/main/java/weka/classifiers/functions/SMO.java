@@ -22,15 +22,25 @@
 package weka.classifiers.functions;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.functions.supportVector.CachedKernel;
 import weka.classifiers.functions.supportVector.Kernel;
 import weka.classifiers.functions.supportVector.PolyKernel;
 import weka.classifiers.functions.supportVector.SMOset;
 import weka.core.Attribute;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.DenseInstance;
@@ -41,6 +51,7 @@ import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
 import weka.core.SelectedTag;
+import weka.core.SparseInstance;
 import weka.core.Tag;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
@@ -147,6 +158,11 @@ import weka.filters.unsupervised.attribute.Standardize;
  * <pre> -M
  *  Fit logistic models to SVM outputs. </pre>
  * 
+ * <pre> -shrinking
+ *  Skip instances at a bound that have been optimal in the last
+ *  pass over all instances, checking them again before stopping.
+ *  (default: off)</pre>
+ * 
  * <pre> -V &lt;double&gt;
  *  The number of folds for the internal
  *  cross-validation. (default -1, use training data)</pre>
@@ -154,6 +170,10 @@ import weka.filters.unsupervised.attribute.Standardize;
  * <pre> -W &lt;double&gt;
  *  The random number seed. (default 1)</pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots for building the pairwise classifiers.
+ *  (default 1 - i.e. no parallelism)</pre>
+ * 
  * <pre> -K &lt;classname and parameters&gt;
  *  The Kernel to use.
  *  (default: weka.classifiers.functions.supportVector.PolyKernel)</pre>
@@ -175,6 +195,12 @@ import weka.filters.unsupervised.attribute.Standardize;
  *  -1 to turn it off.
  *  (default: 250007)</pre>
  * 
+ * <pre> -row-cache-mb &lt;num&gt;
+ *  The memory for caching whole kernel rows in MB, 0 to cache
+ *  single entries and -1 for the default set for the JVM.
+ *  Only used if the cache size is greater than 0.
+ *  (default: -1)</pre>
+ * 
  * <pre> -E &lt;num&gt;
  *  The Exponent to use.
  *  (default: 1.0)</pre>
@@ -192,7 +218,8 @@ import weka.filters.unsupervised.attribute.Standardize;
  */
 public class SMO 
   extends AbstractClassifier 
-  implements WeightedInstancesHandler, TechnicalInformationHandler {
+  implements WeightedInstancesHandler, TechnicalInformationHandler, 
+             BatchPredictor {
 
   /** for serialization */
   static final long serialVersionUID = -6585883636378691736L;
@@ -323,6 +350,9 @@ public class SMO
     /** The set of support vectors */
     protected SMOset m_supportVectors; // {i: 0 < m_alpha[i]}
 
+    /** Instances skipped when examining all, if shrinking */
+    protected boolean[] m_shrunk;
+
     /** Stores logistic regression model for probability estimate */
     protected Logistic m_logistic = null;
 
@@ -530,14 +560,25 @@ public class SMO
       
       // Loop to find all the support vectors
       int numChanged = 0;
+      int numShrunk = 0;
       boolean examineAll = true;
+      m_shrunk = m_shrinking ? new boolean[m_alpha.length] : null;
       while ((numChanged > 0) || examineAll) {
 	numChanged = 0;
+	numShrunk = 0;
 	if (examineAll) {
 	  for (int i = 0; i < m_alpha.length; i++) {
-	    if (examineExample(i)) {
+	    if ((m_shrunk != null) && m_shrunk[i] && !m_I0.contains(i)) {
+	      numShrunk++;
+	      continue;
+	    }
+	    boolean changed = examineExample(i);
+	    if (changed) {
 	      numChanged++;
 	    }
+	    if (m_shrunk != null) {
+	      m_shrunk[i] = !changed && canShrink(i);
+	    }
 	  }
 	} else {
 	  
@@ -567,6 +608,12 @@ public class SMO
 	
 	if (examineAll) {
 	  examineAll = false;
+
+	  // Check the skipped instances as well before stopping
+	  if ((numChanged == 0) && (numShrunk > 0)) {
+	    Arrays.fill(m_shrunk, false);
+	    examineAll = true;
+	  }
 	} else if (numChanged == 0) {
 	  examineAll = true;
 	}
@@ -581,6 +628,7 @@ public class SMO
       m_kernel.clean(); 
       
       m_errors = null;
+      m_shrunk = null;
       m_I0 = m_I1 = m_I2 = m_I3 = m_I4 = null;
       
       // If machine is linear, delete training data
@@ -630,6 +678,42 @@ public class SMO
 
     }
     
+    /**
+     * Computes the outputs of a linear machine for a batch of dense 
+     * instances, giving the same results as SVMOutput() would for each 
+     * of them.
+     *
+     * @param data the instances, as a row major matrix of attribute values
+     * @param numRows the number of instances
+     * @param numCols the number of attributes
+     * @return the outputs of the SVM for the given instances
+     */
+    protected double[] SVMOutputs(double[] data, int numRows, int numCols) {
+
+      double[] results = new double[numRows];
+      for (int row = 0; row < numRows; row++) {
+	double result = 0;
+	int offset = row * numCols;
+	if (m_sparseWeights == null) {
+	  for (int p = 0; p < numCols; p++) {
+	    if (p != m_classIndex) {
+	      result += m_weights[p] * data[offset + p];
+	    }
+	  }
+	} else {
+	  int n2 = m_sparseWeights.length;
+	  for (int p2 = 0; p2 < n2; p2++) {
+	    int ind2 = m_sparseIndices[p2];
+	    if (ind2 != m_classIndex) {
+	      result += data[offset + ind2] * m_sparseWeights[p2];
+	    }
+	  }
+	}
+	results[row] = result - m_b;
+      }
+      return results;
+    }
+
     /**
      * Computes SVM output for given instance.
      *
@@ -784,6 +868,25 @@ public class SMO
       return text.toString();
     }
 
+    /**
+     * Checks whether an instance at a bound that has just been found
+     * optimal is clear of the thresholds, so that it is unlikely to 
+     * become a candidate again soon.
+     *
+     * @param i index of the instance
+     * @return true if the instance can be skipped for now
+     */
+    protected boolean canShrink(int i) {
+
+      if (m_I0.contains(i)) {
+	return false;
+      }
+      if (m_I1.contains(i) || m_I2.contains(i)) {
+	return m_errors[i] > m_bLow;
+      }
+      return m_errors[i] < m_bUp;
+    }
+
     /**
      * Examines instance.
      *
@@ -1187,12 +1290,18 @@ public class SMO
   /** Whether logistic models are to be fit */
   protected boolean m_fitLogisticModels = false;
 
+  /** Whether instances that seem settled at a bound are skipped */
+  protected boolean m_shrinking = false;
+
   /** The number of folds for the internal cross-validation */
   protected int m_numFolds = -1;
 
   /** The random number seed  */
   protected int m_randomSeed = 1;
 
+  /** The number of threads to build the pairwise classifiers with */
+  protected int m_numExecutionSlots = 1;
+
   /** the kernel to use */
   protected Kernel m_kernel = new PolyKernel();
   
@@ -1336,6 +1445,10 @@ public class SMO
     // Build the binary classifiers
     Random rand = new Random(m_randomSeed);
     m_classifiers = new BinarySMO[insts.numClasses()][insts.numClasses()];
+    if ((m_numExecutionSlots > 1) && (insts.numClasses() > 2)) {
+      buildClassifiersInParallel(insts, subsets, rand);
+      return;
+    }
     for (int i = 0; i < insts.numClasses(); i++) {
       for (int j = i + 1; j < insts.numClasses(); j++) {
 	m_classifiers[i][j] = new BinarySMO();
@@ -1356,6 +1469,76 @@ public class SMO
     }
   }
 
+  /**
+   * Builds the pairwise classifiers on several threads. The data for
+   * every pair is put together and shuffled in the same order as when the
+   * classifiers are built one after the other, so the models don't depend
+   * on the number of threads. The kernels' row caches share the budget of
+   * a single one.
+   *
+   * @param insts the training data
+   * @param subsets the training data split up by class
+   * @param rand the random number generator for shuffling
+   * @throws Exception if a classifier can't be built successfully
+   */
+  protected void buildClassifiersInParallel(Instances insts, 
+					    Instances[] subsets, Random rand) 
+    throws Exception {
+
+    int numSlots = Math.min(m_numExecutionSlots, 
+			    insts.numClasses() * (insts.numClasses() - 1) / 2);
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < insts.numClasses(); i++) {
+      for (int j = i + 1; j < insts.numClasses(); j++) {
+	m_classifiers[i][j] = new BinarySMO();
+	Kernel kernel = Kernel.makeCopy(getKernel());
+	if (kernel instanceof CachedKernel) {
+	  ((CachedKernel) kernel).setRowCacheShares(numSlots);
+	}
+	m_classifiers[i][j].setKernel(kernel);
+	final Instances data = new Instances(insts, insts.numInstances());
+	for (int k = 0; k < subsets[i].numInstances(); k++) {
+	  data.add(subsets[i].instance(k));
+	}
+	for (int k = 0; k < subsets[j].numInstances(); k++) {
+	  data.add(subsets[j].instance(k));
+	}
+	data.compactify();
+	data.randomize(rand);
+	final BinarySMO classifier = m_classifiers[i][j];
+	final int cl1 = i;
+	final int cl2 = j;
+	tasks.add(new Callable<Void>() {
+	  public Void call() throws Exception {
+	    classifier.buildClassifier(data, cl1, cl2, m_fitLogisticModels,
+				       m_numFolds, m_randomSeed);
+	    return null;
+	  }
+	});
+      }
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(numSlots);
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (Callable<Void> task : tasks) {
+	results.add(pool.submit(task));
+      }
+      for (Future<Void> result : results) {
+	try {
+	  result.get();
+	} catch (ExecutionException e) {
+	  if (e.getCause() instanceof Exception) {
+	    throw (Exception) e.getCause();
+	  }
+	  throw new Exception(e.getCause());
+	}
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
   /**
    * Estimates class probabilities for given instance.
    * 
@@ -1364,6 +1547,99 @@ public class SMO
    */
   public double[] distributionForInstance(Instance inst) throws Exception {
 
+    inst = filterInstance(inst);
+
+    double[][] outputs = new double[inst.numClasses()][inst.numClasses()];
+    for (int i = 0; i < inst.numClasses(); i++) {
+      for (int j = i + 1; j < inst.numClasses(); j++) {
+	if (usesMachine(i, j, inst.numClasses())) {
+	  outputs[i][j] = m_classifiers[i][j].SVMOutput(-1, inst);
+	}
+      }
+    }
+    return distributionForOutputs(outputs, inst.numClasses());
+  }
+
+  /**
+   * Estimates class probabilities for a batch of instances. If the 
+   * machines are linear and the filtered instances are dense, they are 
+   * put into one matrix so that each machine can be applied to all of them 
+   * at once. Otherwise the instances are done one at a time.
+   * 
+   * @param insts the instances to compute the probabilities for
+   * @return the class probabilities, one array per instance
+   * @throws Exception in case of an error
+   */
+  public double[][] distributionsForInstances(Instances insts) 
+    throws Exception {
+
+    int numRows = insts.numInstances();
+    Instance[] filtered = new Instance[numRows];
+    boolean dense = true;
+    for (int i = 0; i < numRows; i++) {
+      filtered[i] = filterInstance(insts.instance(i));
+      if (filtered[i] instanceof SparseInstance) {
+	dense = false;
+      }
+    }
+
+    double[][] dists = new double[numRows][];
+    if (!m_KernelIsLinear || !dense || numRows == 0) {
+      for (int i = 0; i < numRows; i++) {
+	double[][] outputs = new double[insts.numClasses()][insts.numClasses()];
+	for (int j = 0; j < insts.numClasses(); j++) {
+	  for (int k = j + 1; k < insts.numClasses(); k++) {
+	    if (usesMachine(j, k, insts.numClasses())) {
+	      outputs[j][k] = m_classifiers[j][k].SVMOutput(-1, filtered[i]);
+	    }
+	  }
+	}
+	dists[i] = distributionForOutputs(outputs, insts.numClasses());
+      }
+      return dists;
+    }
+
+    int numCols = filtered[0].numAttributes();
+    double[] data = new double[numRows * numCols];
+    for (int i = 0; i < numRows; i++) {
+      for (int p = 0; p < numCols; p++) {
+	data[i * numCols + p] = filtered[i].value(p);
+      }
+    }
+    double[][][] machineOutputs = 
+      new double[insts.numClasses()][insts.numClasses()][];
+    for (int j = 0; j < insts.numClasses(); j++) {
+      for (int k = j + 1; k < insts.numClasses(); k++) {
+	if (usesMachine(j, k, insts.numClasses())) {
+	  machineOutputs[j][k] = 
+	    m_classifiers[j][k].SVMOutputs(data, numRows, numCols);
+	}
+      }
+    }
+    for (int i = 0; i < numRows; i++) {
+      double[][] outputs = new double[insts.numClasses()][insts.numClasses()];
+      for (int j = 0; j < insts.numClasses(); j++) {
+	for (int k = j + 1; k < insts.numClasses(); k++) {
+	  if (machineOutputs[j][k] != null) {
+	    outputs[j][k] = machineOutputs[j][k][i];
+	  }
+	}
+      }
+      dists[i] = distributionForOutputs(outputs, insts.numClasses());
+    }
+    return dists;
+  }
+
+  /**
+   * Passes an instance through the filters that were applied to the 
+   * training data.
+   * 
+   * @param inst the instance to filter
+   * @return the filtered instance
+   * @throws Exception in case of an error
+   */
+  protected Instance filterInstance(Instance inst) throws Exception {
+
     // Filter instance
     if (!m_checksTurnedOff) {
       m_Missing.input(inst);
@@ -1382,14 +1658,41 @@ public class SMO
       m_Filter.batchFinished();
       inst = m_Filter.output();
     }
-    
+    return inst;
+  }
+
+  /**
+   * Whether the output of the machine for classes i and j is needed to 
+   * work out the class probabilities.
+   */
+  private boolean usesMachine(int i, int j, int numClasses) {
+
+    if (m_fitLogisticModels && (numClasses == 2)) {
+      return true;
+    }
+    return (m_classifiers[i][j].m_alpha != null) || 
+      (m_classifiers[i][j].m_sparseWeights != null);
+  }
+
+  /**
+   * Turns the outputs of the pairwise machines for an instance into
+   * class probabilities.
+   * 
+   * @param outputs the outputs, indexed by the pair of classes
+   * @param numClasses the number of classes
+   * @return the class probabilities
+   * @throws Exception in case of an error
+   */
+  protected double[] distributionForOutputs(double[][] outputs, 
+					    int numClasses) throws Exception {
+
     if (!m_fitLogisticModels) {
-      double[] result = new double[inst.numClasses()];
-      for (int i = 0; i < inst.numClasses(); i++) {
-	for (int j = i + 1; j < inst.numClasses(); j++) {
+      double[] result = new double[numClasses];
+      for (int i = 0; i < numClasses; i++) {
+	for (int j = i + 1; j < numClasses; j++) {
 	  if ((m_classifiers[i][j].m_alpha != null) || 
 	      (m_classifiers[i][j].m_sparseWeights != null)) {
-	    double output = m_classifiers[i][j].SVMOutput(-1, inst);
+	    double output = outputs[i][j];
 	    if (output > 0) {
 	      result[j] += 1;
 	    } else {
@@ -1404,21 +1707,21 @@ public class SMO
 
       // We only need to do pairwise coupling if there are more
       // then two classes.
-      if (inst.numClasses() == 2) {
+      if (numClasses == 2) {
 	double[] newInst = new double[2];
-	newInst[0] = m_classifiers[0][1].SVMOutput(-1, inst);
+	newInst[0] = outputs[0][1];
 	newInst[1] = Utils.missingValue();
 	return m_classifiers[0][1].m_logistic.
 	  distributionForInstance(new DenseInstance(1, newInst));
       }
-      double[][] r = new double[inst.numClasses()][inst.numClasses()];
-      double[][] n = new double[inst.numClasses()][inst.numClasses()];
-      for (int i = 0; i < inst.numClasses(); i++) {
-	for (int j = i + 1; j < inst.numClasses(); j++) {
+      double[][] r = new double[numClasses][numClasses];
+      double[][] n = new double[numClasses][numClasses];
+      for (int i = 0; i < numClasses; i++) {
+	for (int j = i + 1; j < numClasses; j++) {
 	  if ((m_classifiers[i][j].m_alpha != null) || 
 	      (m_classifiers[i][j].m_sparseWeights != null)) {
 	    double[] newInst = new double[2];
-	    newInst[0] = m_classifiers[i][j].SVMOutput(-1, inst);
+	    newInst[0] = outputs[i][j];
 	    newInst[1] = Utils.missingValue();
 	    r[i][j] = m_classifiers[i][j].m_logistic.
 	      distributionForInstance(new DenseInstance(1, newInst))[0];
@@ -1615,6 +1918,12 @@ public class SMO
 	"\tFit logistic models to SVM outputs. ",
 	"M", 0, "-M"));
     
+    result.addElement(new Option(
+	"\tSkip instances at a bound that have been optimal in the last\n" +
+	"\tpass over all instances, checking them again before stopping.\n" +
+	"\t(default: off)",
+	"shrinking", 0, "-shrinking"));
+    
     result.addElement(new Option(
 	"\tThe number of folds for the internal\n" +
 	"\tcross-validation. " +
@@ -1626,6 +1935,11 @@ public class SMO
 	"(default 1)",
 	"W", 1, "-W <double>"));
     
+    result.addElement(new Option(
+	"\tNumber of execution slots for building the pairwise classifiers.\n" +
+	"\t(default 1 - i.e. no parallelism)",
+	"num-slots", 1, "-num-slots <num>"));
+    
     result.addElement(new Option(
 	"\tThe Kernel to use.\n"
 	+ "\t(default: weka.classifiers.functions.supportVector.PolyKernel)",
@@ -1677,6 +1991,11 @@ public class SMO
    * <pre> -M
    *  Fit logistic models to SVM outputs. </pre>
    * 
+   * <pre> -shrinking
+   *  Skip instances at a bound that have been optimal in the last
+   *  pass over all instances, checking them again before stopping.
+   *  (default: off)</pre>
+   * 
    * <pre> -V &lt;double&gt;
    *  The number of folds for the internal
    *  cross-validation. (default -1, use training data)</pre>
@@ -1684,6 +2003,10 @@ public class SMO
    * <pre> -W &lt;double&gt;
    *  The random number seed. (default 1)</pre>
    * 
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of execution slots for building the pairwise classifiers.
+   *  (default 1 - i.e. no parallelism)</pre>
+   * 
    * <pre> -K &lt;classname and parameters&gt;
    *  The Kernel to use.
    *  (default: weka.classifiers.functions.supportVector.PolyKernel)</pre>
@@ -1705,6 +2028,12 @@ public class SMO
    *  -1 to turn it off.
    *  (default: 250007)</pre>
    * 
+   * <pre> -row-cache-mb &lt;num&gt;
+   *  The memory for caching whole kernel rows in MB, 0 to cache
+   *  single entries and -1 for the default set for the JVM.
+   *  Only used if the cache size is greater than 0.
+   *  (default: -1)</pre>
+   * 
    * <pre> -E &lt;num&gt;
    *  The Exponent to use.
    *  (default: 1.0)</pre>
@@ -1750,6 +2079,8 @@ public class SMO
     
     setBuildLogisticModels(Utils.getFlag('M', options));
     
+    setShrinking(Utils.getFlag("shrinking", options));
+    
     tmpStr = Utils.getOption('V', options);
     if (tmpStr.length() != 0)
       setNumFolds(Integer.parseInt(tmpStr));
@@ -1762,6 +2093,12 @@ public class SMO
     else
       setRandomSeed(1);
 
+    tmpStr = Utils.getOption("num-slots", options);
+    if (tmpStr.length() != 0)
+      setNumExecutionSlots(Integer.parseInt(tmpStr));
+    else
+      setNumExecutionSlots(1);
+
     tmpStr     = Utils.getOption('K', options);
     tmpOptions = Utils.splitOptions(tmpStr);
     if (tmpOptions.length != 0) {
@@ -1806,12 +2143,18 @@ public class SMO
     if (getBuildLogisticModels())
       result.add("-M");
     
+    if (getShrinking())
+      result.add("-shrinking");
+    
     result.add("-V");
     result.add("" + getNumFolds());
     
     result.add("-W");
     result.add("" + getRandomSeed());
 
+    result.add("-num-slots");
+    result.add("" + getNumExecutionSlots());
+
     result.add("-K");
     result.add("" + getKernel().getClass().getName() + " " + Utils.joinOptions(getKernel().getOptions()));
     
@@ -2024,6 +2367,71 @@ public class SMO
     m_fitLogisticModels = newbuildLogisticModels;
   }
      
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String shrinkingTipText() {
+    return "Whether to skip instances at a bound that have been optimal in the "
+      + "last pass over all instances. They are checked again before the "
+      + "optimization stops, so the solution meets the same tolerance, but it "
+      + "may differ slightly from the one found without shrinking.";
+  }
+
+  /**
+   * Get the value of shrinking.
+   *
+   * @return Value of shrinking.
+   */
+  public boolean getShrinking() {
+    
+    return m_shrinking;
+  }
+  
+  /**
+   * Set the value of shrinking.
+   *
+   * @param value Value to assign to shrinking.
+   */
+  public void setShrinking(boolean value) {
+    
+    m_shrinking = value;
+  }
+     
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for building the "
+      + "pairwise classifiers.";
+  }
+
+  /**
+   * Get the number of execution slots (threads) to use for building the
+   * pairwise classifiers.
+   *
+   * @return the number of slots to use
+   */
+  public int getNumExecutionSlots() {
+    
+    return m_numExecutionSlots;
+  }
+  
+  /**
+   * Set the number of execution slots (threads) to use for building the
+   * pairwise classifiers.
+   *
+   * @param value the number of slots to use
+   */
+  public void setNumExecutionSlots(int value) {
+    
+    if (value > 0)
+      m_numExecutionSlots = value;
+  }
+     
   /**
    * Returns the tip text for this property
    * @return tip text for this property suitable for
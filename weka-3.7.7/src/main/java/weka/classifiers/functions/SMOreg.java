@@ -115,6 +115,11 @@ import weka.filters.unsupervised.attribute.Standardize;
  *  Use variant 1 of the algorithm when true, otherwise use variant 2.
  *  (default true)</pre>
  * 
+ * <pre> -shrinking
+ *  Skip instances at a bound that have been optimal in the last
+ *  pass over all instances, checking them again before stopping.
+ *  (default: off)</pre>
+ * 
  * <pre> -P &lt;double&gt;
  *  The epsilon for round-off error.
  *  (default 1.0e-12)</pre>
@@ -144,6 +149,12 @@ import weka.filters.unsupervised.attribute.Standardize;
  *  -1 to turn it off.
  *  (default: 250007)</pre>
  * 
+ * <pre> -row-cache-mb &lt;num&gt;
+ *  The memory for caching whole kernel rows in MB, 0 to cache
+ *  single entries and -1 for the default set for the JVM.
+ *  Only used if the cache size is greater than 0.
+ *  (default: -1)</pre>
+ * 
  * <pre> -E &lt;num&gt;
  *  The Exponent to use.
  *  (default: 1.0)</pre>
@@ -338,6 +349,11 @@ public class SMOreg
    *  Use variant 1 of the algorithm when true, otherwise use variant 2.
    *  (default true)</pre>
    * 
+   * <pre> -shrinking
+   *  Skip instances at a bound that have been optimal in the last
+   *  pass over all instances, checking them again before stopping.
+   *  (default: off)</pre>
+   * 
    * <pre> -P &lt;double&gt;
    *  The epsilon for round-off error.
    *  (default 1.0e-12)</pre>
@@ -367,6 +383,12 @@ public class SMOreg
    *  -1 to turn it off.
    *  (default: 250007)</pre>
    * 
+   * <pre> -row-cache-mb &lt;num&gt;
+   *  The memory for caching whole kernel rows in MB, 0 to cache
+   *  single entries and -1 for the default set for the JVM.
+   *  Only used if the cache size is greater than 0.
+   *  (default: -1)</pre>
+   * 
    * <pre> -E &lt;num&gt;
    *  The Exponent to use.
    *  (default: 1.0)</pre>
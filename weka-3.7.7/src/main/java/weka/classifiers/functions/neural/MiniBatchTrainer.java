@@ -0,0 +1,470 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    MiniBatchTrainer.java
+ *    Copyright (C) 2012 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.classifiers.functions.neural;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+
+/**
+ * Trains a fully connected, layered network of NeuralNodes with mini-batch
+ * backpropagation. The weights of each layer are copied into one flat
+ * array, laid out node after node the same way as a NeuralNode's own
+ * weights (the threshold first, then one weight per input), so that the
+ * forward and backward passes are plain loops over arrays. <p/>
+ *
+ * Each batch is cut into chunks of a fixed size whose gradients are worked
+ * out independently, possibly by several threads, and then added up in
+ * chunk order. The result is therefore the same no matter how many
+ * threads are used. The weights only end up in the nodes again once
+ * writeWeights() is called.
+ *
+ * @version $Revision: 8034 $
+ */
+public class MiniBatchTrainer
+  implements RevisionHandler {
+
+  /** The number of rows in a chunk that is worked on by one thread. */
+  protected static final int CHUNK_SIZE = 32;
+
+  /** The nodes of each layer, the output nodes last. */
+  protected NeuralNode[][] m_nodes;
+
+  /** The number of units in each layer, starting with the inputs. */
+  protected int[] m_sizes;
+
+  /** Whether the output nodes are linear rather than sigmoid units. */
+  protected boolean m_linearOutputs;
+
+  /** The weights of each layer. */
+  protected double[][] m_weights;
+
+  /** The last change made to each weight, for the momentum. */
+  protected double[][] m_changeInWeights;
+
+  /** The weights saved by saveWeights(). */
+  protected double[][] m_bestWeights;
+
+  /** The gradients of each chunk in the current batch. */
+  protected double[][][] m_gradients;
+
+  /** The number of threads to use. */
+  protected int m_numThreads = 1;
+
+  /** The thread pool, created when it is first needed. */
+  protected ExecutorService m_pool;
+
+  /**
+   * Sets up the trainer for the given layers of nodes. Every node in a
+   * layer has to take its inputs from all the units of the previous layer,
+   * in order, and the first layer from all the inputs.
+   *
+   * @param nodes the layers of nodes, the output nodes last
+   * @param numInputs the number of inputs to the network
+   * @param linearOutputs true if the output nodes are linear units
+   */
+  public MiniBatchTrainer(NeuralNode[][] nodes, int numInputs,
+			  boolean linearOutputs) {
+
+    m_nodes = nodes;
+    m_linearOutputs = linearOutputs;
+    m_sizes = new int[nodes.length + 1];
+    m_sizes[0] = numInputs;
+    m_weights = new double[nodes.length][];
+    m_changeInWeights = new double[nodes.length][];
+    m_bestWeights = new double[nodes.length][];
+    for (int l = 0; l < nodes.length; l++) {
+      int stride = m_sizes[l] + 1;
+      m_sizes[l + 1] = nodes[l].length;
+      m_weights[l] = new double[nodes[l].length * stride];
+      m_changeInWeights[l] = new double[nodes[l].length * stride];
+      for (int j = 0; j < nodes[l].length; j++) {
+	System.arraycopy(nodes[l][j].getWeights(), 0, m_weights[l],
+			 j * stride, stride);
+	System.arraycopy(nodes[l][j].getChangeInWeights(), 0,
+			 m_changeInWeights[l], j * stride, stride);
+      }
+      m_bestWeights[l] = m_weights[l].clone();
+    }
+  }
+
+  /**
+   * Sets the number of threads to work out the gradients with.
+   *
+   * @param numThreads the number of threads
+   */
+  public void setNumThreads(int numThreads) {
+    m_numThreads = Math.max(1, numThreads);
+  }
+
+  /**
+   * Returns the number of threads to work out the gradients with.
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
+  /**
+   * Goes through the given rows once, updating the weights after every
+   * batch. The learning rate is applied to the average gradient of the
+   * batch, where the gradient of a row is weighted by the row's weight.
+   *
+   * @param inputs the input values of each row
+   * @param targets the target output values of each row
+   * @param rowWeights the weight of each row
+   * @param start the first row to train on
+   * @param end one past the last row to train on
+   * @param batchSize the number of rows in a batch
+   * @param learningRate the learning rate
+   * @param momentum the momentum
+   * @return the weighted sum of the squared errors, before each batch's update
+   * @throws Exception if the gradients can't be worked out
+   */
+  public double trainEpoch(final double[][] inputs, final double[][] targets,
+			   final double[] rowWeights, int start, int end,
+			   int batchSize, double learningRate, double momentum)
+    throws Exception {
+
+    batchSize = Math.max(1, batchSize);
+    int numChunks = (Math.min(batchSize, end - start) + CHUNK_SIZE - 1)
+      / CHUNK_SIZE;
+    if (m_gradients == null || m_gradients.length < numChunks) {
+      m_gradients = new double[numChunks][m_weights.length][];
+      for (int c = 0; c < numChunks; c++) {
+	for (int l = 0; l < m_weights.length; l++) {
+	  m_gradients[c][l] = new double[m_weights[l].length];
+	}
+      }
+    }
+
+    double error = 0;
+    for (int batchStart = start; batchStart < end; batchStart += batchSize) {
+      int batchEnd = Math.min(end, batchStart + batchSize);
+      List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+      for (int chunkStart = batchStart; chunkStart < batchEnd;
+	   chunkStart += CHUNK_SIZE) {
+	final int from = chunkStart;
+	final int to = Math.min(batchEnd, chunkStart + CHUNK_SIZE);
+	final double[][] gradient = m_gradients[tasks.size()];
+	tasks.add(new Callable<Double>() {
+	    public Double call() {
+	      return backpropagate(inputs, targets, rowWeights, from, to,
+				   gradient);
+	    }
+	  });
+      }
+      List<Double> errors = run(tasks);
+
+      // add the gradients up in chunk order and update the weights
+      double scale = learningRate / (batchEnd - batchStart);
+      for (int l = 0; l < m_weights.length; l++) {
+	double[] weights = m_weights[l];
+	double[] changes = m_changeInWeights[l];
+	double[] sum = m_gradients[0][l];
+	for (int c = 1; c < tasks.size(); c++) {
+	  double[] gradient = m_gradients[c][l];
+	  for (int w = 0; w < sum.length; w++) {
+	    sum[w] += gradient[w];
+	  }
+	}
+	for (int w = 0; w < weights.length; w++) {
+	  double change = scale * sum[w] + momentum * changes[w];
+	  weights[w] += change;
+	  changes[w] = change;
+	}
+      }
+      for (int c = 0; c < errors.size(); c++) {
+	error += errors.get(c).doubleValue();
+      }
+    }
+    return error;
+  }
+
+  /**
+   * Works out the weighted sum of the squared errors over the given rows,
+   * without changing the weights.
+   *
+   * @param inputs the input values of each row
+   * @param targets the target output values of each row
+   * @param rowWeights the weight of each row
+   * @param start the first row
+   * @param end one past the last row
+   * @return the weighted sum of the squared errors
+   * @throws Exception if the errors can't be worked out
+   */
+  public double error(final double[][] inputs, final double[][] targets,
+		      final double[] rowWeights, int start, int end)
+    throws Exception {
+
+    List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+    for (int chunkStart = start; chunkStart < end; chunkStart += CHUNK_SIZE) {
+      final int from = chunkStart;
+      final int to = Math.min(end, chunkStart + CHUNK_SIZE);
+      tasks.add(new Callable<Double>() {
+	  public Double call() {
+	    double[][] values = newValues();
+	    double error = 0;
+	    for (int i = from; i < to; i++) {
+	      forward(inputs[i], values);
+	      error += squaredError(targets[i], values[values.length - 1])
+		* rowWeights[i];
+	    }
+	    return error;
+	  }
+	});
+    }
+    double error = 0;
+    for (Double e : run(tasks)) {
+      error += e.doubleValue();
+    }
+    return error;
+  }
+
+  /**
+   * Keeps a copy of the current weights.
+   */
+  public void saveWeights() {
+    for (int l = 0; l < m_weights.length; l++) {
+      System.arraycopy(m_weights[l], 0, m_bestWeights[l], 0,
+		       m_weights[l].length);
+    }
+  }
+
+  /**
+   * Goes back to the weights kept by saveWeights().
+   */
+  public void restoreWeights() {
+    for (int l = 0; l < m_weights.length; l++) {
+      System.arraycopy(m_bestWeights[l], 0, m_weights[l], 0,
+		       m_weights[l].length);
+    }
+  }
+
+  /**
+   * Copies the weights back into the nodes of the network.
+   */
+  public void writeWeights() {
+    for (int l = 0; l < m_nodes.length; l++) {
+      int stride = m_sizes[l] + 1;
+      for (int j = 0; j < m_nodes[l].length; j++) {
+	System.arraycopy(m_weights[l], j * stride,
+			 m_nodes[l][j].getWeights(), 0, stride);
+	System.arraycopy(m_changeInWeights[l], j * stride,
+			 m_nodes[l][j].getChangeInWeights(), 0, stride);
+      }
+    }
+  }
+
+  /**
+   * Stops the threads, if any were started.
+   */
+  public void shutdown() {
+    if (m_pool != null) {
+      m_pool.shutdownNow();
+      m_pool = null;
+    }
+  }
+
+  /**
+   * Runs the given tasks, on the thread pool if there is more than one and
+   * more than one thread may be used.
+   *
+   * @param tasks the tasks to run
+   * @return the results, in the order of the tasks
+   * @throws Exception if a task fails
+   */
+  protected List<Double> run(List<Callable<Double>> tasks) throws Exception {
+
+    List<Double> results = new ArrayList<Double>(tasks.size());
+    if (m_numThreads <= 1 || tasks.size() <= 1) {
+      for (Callable<Double> task : tasks) {
+	results.add(task.call());
+      }
+      return results;
+    }
+    if (m_pool == null) {
+      m_pool = Executors.newFixedThreadPool(m_numThreads);
+    }
+    try {
+      for (Future<Double> f : m_pool.invokeAll(tasks)) {
+	results.add(f.get());
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+	throw (Exception) cause;
+      }
+      throw e;
+    }
+    return results;
+  }
+
+  /**
+   * Allocates the output values of each layer for one row.
+   *
+   * @return the arrays, the inputs are filled in by forward()
+   */
+  protected double[][] newValues() {
+    double[][] values = new double[m_sizes.length][];
+    for (int l = 1; l < m_sizes.length; l++) {
+      values[l] = new double[m_sizes[l]];
+    }
+    return values;
+  }
+
+  /**
+   * Works out the output value of every node for one row.
+   *
+   * @param input the input values
+   * @param values receives the output values of each layer
+   */
+  protected void forward(double[] input, double[][] values) {
+
+    values[0] = input;
+    int last = m_weights.length - 1;
+    for (int l = 0; l <= last; l++) {
+      double[] weights = m_weights[l];
+      double[] in = values[l];
+      double[] out = values[l + 1];
+      int numIn = m_sizes[l];
+      boolean sigmoid = (l < last) || !m_linearOutputs;
+      for (int j = 0, w = 0; j < out.length; j++) {
+	double value = weights[w++];
+	for (int k = 0; k < numIn; k++) {
+	  value += in[k] * weights[w++];
+	}
+	if (sigmoid) {
+	  // same overflow guard as the SigmoidUnit
+	  if (value < -45) {
+	    value = 0;
+	  }
+	  else if (value > 45) {
+	    value = 1;
+	  }
+	  else {
+	    value = 1 / (1 + Math.exp(-value));
+	  }
+	}
+	out[j] = value;
+      }
+    }
+  }
+
+  /**
+   * Returns the squared error of the outputs.
+   *
+   * @param target the target output values
+   * @param output the output values
+   * @return the sum of the squared differences
+   */
+  protected static double squaredError(double[] target, double[] output) {
+    double error = 0;
+    for (int j = 0; j < output.length; j++) {
+      double diff = target[j] - output[j];
+      error += diff * diff;
+    }
+    return error;
+  }
+
+  /**
+   * Works out the weighted gradient over a range of rows.
+   *
+   * @param inputs the input values of each row
+   * @param targets the target output values of each row
+   * @param rowWeights the weight of each row
+   * @param from the first row
+   * @param to one past the last row
+   * @param gradient receives the gradient of each layer
+   * @return the weighted sum of the squared errors
+   */
+  protected double backpropagate(double[][] inputs, double[][] targets,
+				 double[] rowWeights, int from, int to,
+				 double[][] gradient) {
+
+    for (int l = 0; l < gradient.length; l++) {
+      Arrays.fill(gradient[l], 0);
+    }
+    double[][] values = newValues();
+    double[][] errors = newValues();
+    int last = m_weights.length - 1;
+    double error = 0;
+    for (int i = from; i < to; i++) {
+      forward(inputs[i], values);
+      double rowWeight = rowWeights[i];
+
+      double[] output = values[last + 1];
+      double[] outError = errors[last + 1];
+      for (int j = 0; j < output.length; j++) {
+	double diff = targets[i][j] - output[j];
+	error += diff * diff * rowWeight;
+	outError[j] = m_linearOutputs
+	  ? diff : diff * output[j] * (1 - output[j]);
+      }
+
+      for (int l = last; l >= 0; l--) {
+	double[] weights = m_weights[l];
+	double[] grad = gradient[l];
+	double[] in = values[l];
+	double[] err = errors[l + 1];
+	double[] inError = errors[l];
+	int numIn = m_sizes[l];
+	if (l > 0) {
+	  Arrays.fill(inError, 0);
+	}
+	for (int j = 0, w = 0; j < err.length; j++) {
+	  double e = err[j] * rowWeight;
+	  grad[w++] += e;
+	  for (int k = 0; k < numIn; k++, w++) {
+	    grad[w] += e * in[k];
+	    if (l > 0) {
+	      inError[k] += err[j] * weights[w];
+	    }
+	  }
+	}
+	if (l > 0) {
+	  for (int k = 0; k < numIn; k++) {
+	    inError[k] *= in[k] * (1 - in[k]);
+	  }
+	}
+      }
+    }
+    return error;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 8034 $");
+  }
+}
@@ -31,7 +31,9 @@ import weka.core.Utils;
 /**
  * Base class for RBFKernel and PolyKernel that implements a simple LRU.
  * (least-recently-used) cache if the cache size is set to a value > 0.
- * Otherwise it uses a full cache.
+ * Otherwise it uses a full cache. If a row cache budget is given (or a
+ * default budget has been set for the JVM), the LRU cache keeps whole 
+ * kernel rows within that many bytes instead of single entries.
  * 
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @author Shane Legg (shane@intelligenesis.net) (sparse vector code)
@@ -69,6 +71,19 @@ public abstract class CachedKernel
   /** number of cache slots in an entry */
   protected int m_cacheSlots = 4;
 
+  /** The memory for the row cache in MB, -1 to use the default budget */
+  protected int m_rowCacheMB = -1;
+
+  /** The number of kernels in use at the same time that share the budget */
+  protected int m_rowCacheShares = 1;
+
+  /** The rows of the kernel matrix, if the row cache is used */
+  protected KernelRowCache m_rows;
+
+  /** The row cache budget shared by all kernels that don't specify one */
+  protected static KernelRowCache.Pool m_defaultRowCachePool =
+    new KernelRowCache.Pool(0);
+
   /**
    * default constructor - does nothing.
    */
@@ -113,6 +128,13 @@ public abstract class CachedKernel
 	+ "\t(default: 250007)",
 	"C", 1, "-C <num>"));
 
+    result.addElement(new Option(
+	"\tThe memory for caching whole kernel rows in MB, 0 to cache\n"
+	+ "\tsingle entries and -1 for the default set for the JVM.\n"
+	+ "\tOnly used if the cache size is greater than 0.\n"
+	+ "\t(default: -1)",
+	"row-cache-mb", 1, "-row-cache-mb <num>"));
+
     return result.elements();
   }
 
@@ -131,6 +153,12 @@ public abstract class CachedKernel
     else
       setCacheSize(250007);
     
+    tmpStr = Utils.getOption("row-cache-mb", options);
+    if (tmpStr.length() != 0)
+      setRowCacheMB(Integer.parseInt(tmpStr));
+    else
+      setRowCacheMB(-1);
+    
     super.setOptions(options);
   }
 
@@ -152,6 +180,9 @@ public abstract class CachedKernel
     result.add("-C");
     result.add("" + getCacheSize());
 
+    result.add("-row-cache-mb");
+    result.add("" + getRowCacheMB());
+
     return (String[]) result.toArray(new String[result.size()]);	  
   }
 
@@ -204,6 +235,11 @@ public abstract class CachedKernel
 	return result;
       }
 
+      // Use row cache
+      if (m_rows != null) {
+	return evalCachedRow(id1, id2, inst1);
+      }
+
       // Use LRU cache
       if (id1 > id2) {
 	key = (id1 + ((long) id2 * m_numInsts));
@@ -252,6 +288,66 @@ public abstract class CachedKernel
     return result;
   }
 
+  /**
+   * Looks up a kernel value in the cached rows of either instance,
+   * computing it (and caching the row of the first one) if neither has
+   * it yet. The value is always computed with the smaller index first, as
+   * both orders may differ in the last bit, so that what is cached doesn't
+   * depend on which rows were evicted before, e.g., because other kernels
+   * drew on the same pool.
+   * 
+   * @param id1		the index of the first instance
+   * @param id2		the index of the second instance
+   * @param inst1	the first instance
+   * @return		the kernel value
+   * @throws Exception	if the kernel can't be evaluated
+   */
+  protected double evalCachedRow(int id1, int id2, Instance inst1)
+    throws Exception {
+
+    double[] row1 = m_rows.get(id1);
+    if (row1 != null) {
+      double result = row1[id2];
+      if (!Double.isNaN(result)) {
+	m_cacheHits++;
+	return result;
+      }
+    }
+    double[] row2 = m_rows.peek(id2);
+    if (row2 != null) {
+      double result = row2[id1];
+      if (!Double.isNaN(result)) {
+	m_cacheHits++;
+	if (row1 != null) {
+	  row1[id2] = result;
+	}
+	return result;
+      }
+    }
+    
+    double result;
+    if (id1 <= id2) {
+      result = evaluate(id1, id2, inst1);
+    }
+    else {
+      result = evaluate(id2, id1, m_data.instance(id2));
+    }
+    m_kernelEvals++;
+
+    if (row1 == null) {
+      row1 = m_rows.allocate(id1);
+      // the new row may have taken the array of the other one
+      row2 = m_rows.peek(id2);
+    }
+    if (row1 != null) {
+      row1[id2] = result;
+    }
+    if (row2 != null) {
+      row2[id1] = result;
+    }
+    return result;
+  }
+
   /**
    * Returns the number of time Eval has been called.
    * 
@@ -277,6 +373,19 @@ public abstract class CachedKernel
     m_storage = null;
     m_keys = null;
     m_kernelMatrix = null;
+    if (m_rows != null) {
+      m_rows.release();
+    }
+    m_rows = null;
+  }
+
+  /**
+   * Returns the row cache, if it is used.
+   * 
+   * @return		the row cache, null if entries are cached singly
+   */
+  public KernelRowCache getRowCache() {
+    return m_rows;
   }
 
   /**
@@ -349,6 +458,113 @@ public abstract class CachedKernel
     return "The size of the cache (a prime number), 0 for full cache and -1 to turn it off.";
   }
 
+  /**
+   * Sets the memory for the row cache.
+   * 
+   * @param value	the memory in MB, 0 to cache single entries and -1
+   * 			for the default set for the JVM
+   */
+  public void setRowCacheMB(int value) {
+    if (value >= -1) {
+      m_rowCacheMB = value;
+      clean();
+    }
+    else {
+      System.out.println(
+	  "Row cache memory cannot be smaller than -1 (provided: " + value + ")!");
+    }
+  }
+
+  /**
+   * Gets the memory for the row cache.
+   * 
+   * @return 		the memory in MB
+   */
+  public int getRowCacheMB() {
+    return m_rowCacheMB;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String rowCacheMBTipText() {
+    return "The memory for caching whole kernel rows in MB, 0 to cache single "
+      + "entries and -1 for the default set for the JVM. Only used if the "
+      + "cache size is greater than 0.";
+  }
+
+  /**
+   * Sets the row cache budget for kernels that don't specify one. The
+   * budget is shared by all of these kernels in the JVM, i.e., kernels
+   * that are used at the same time draw their rows from the same pool.
+   * 
+   * @param bytes	the budget in bytes, 0 to cache single entries
+   */
+  public static void setDefaultRowCacheBytes(long bytes) {
+    m_defaultRowCachePool.setCapacity(bytes);
+  }
+
+  /**
+   * Gets the row cache budget for kernels that don't specify one.
+   * 
+   * @return		the budget in bytes
+   */
+  public static long getDefaultRowCacheBytes() {
+    return m_defaultRowCachePool.getCapacity();
+  }
+
+  /**
+   * Sets the number of kernels that are used at the same time and have to
+   * share the row cache budget, e.g., when a classifier trains several
+   * models on different threads.
+   * 
+   * @param value	the number of kernels
+   */
+  public void setRowCacheShares(int value) {
+    if (value > 0) {
+      m_rowCacheShares = value;
+    }
+  }
+
+  /**
+   * Gets the number of kernels that share the row cache budget.
+   * 
+   * @return		the number of kernels
+   */
+  public int getRowCacheShares() {
+    return m_rowCacheShares;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String rowCacheSharesTipText() {
+    return "The number of kernels that are used at the same time and share "
+      + "the row cache memory.";
+  }
+
+  /**
+   * Returns the row cache budget that applies to this kernel.
+   * 
+   * @return		the budget in bytes, 0 if there is none
+   */
+  protected long getRowCacheBytes() {
+    long bytes;
+    if (m_rowCacheMB == -1) {
+      bytes = getDefaultRowCacheBytes();
+    }
+    else {
+      bytes = ((long) m_rowCacheMB) << 20;
+    }
+    return bytes / m_rowCacheShares;
+  }
+
   /**
    * initializes variables etc.
    * 
@@ -361,7 +577,20 @@ public abstract class CachedKernel
     m_cacheHits   = 0;
     m_numInsts    = m_data.numInstances();
 
-    if (getCacheSize() > 0) {
+    if (m_rows != null) {
+      m_rows.release();
+    }
+    m_rows        = null;
+
+    if ((getCacheSize() > 0) && (getRowCacheBytes() > 0)) {
+      m_rows = new KernelRowCache(m_numInsts, getRowCacheBytes(),
+	  (m_rowCacheMB == -1) ? m_defaultRowCachePool : null);
+      if (!m_rows.isUsable()) {
+	m_rows = null;
+      }
+    }
+
+    if ((getCacheSize() > 0) && (m_rows == null)) {
       // Use LRU cache
       m_storage = new double[m_cacheSize * m_cacheSlots];
       m_keys    = new long[m_cacheSize * m_cacheSlots];
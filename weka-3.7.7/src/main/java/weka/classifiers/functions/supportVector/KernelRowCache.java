@@ -0,0 +1,450 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * KernelRowCache.java
+ * Copyright (C) 2012 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.classifiers.functions.supportVector;
+
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+
+/**
+ * Keeps whole rows of a kernel matrix, one row per training instance,
+ * within a budget of bytes. When a new row doesn't fit anymore, the least
+ * recently used rows are dropped. The entries of a row are only computed
+ * when they are first asked for, until then they are NaN. <p/>
+ *
+ * The rows are kept in an array indexed by instance, and the order of use
+ * in a doubly linked list through that array, so that neither looking up
+ * nor moving a row to the front needs any objects. <p/>
+ *
+ * Caches can draw their rows from a shared pool, so that all kernels used
+ * at the same time in one JVM stay within one budget, e.g., when several
+ * folds or ensemble members are trained in parallel. A cache that can't
+ * get another row from the pool reuses its own least recently used row.
+ *
+ * @version $Revision: 8034 $
+ */
+public class KernelRowCache
+  implements Serializable, RevisionHandler {
+
+  /** for serialization */
+  private static final long serialVersionUID = -3460385573461924372L;
+
+  /** The cached rows, null for rows that aren't cached. */
+  protected double[][] m_rows;
+
+  /** The next more recently used row, -1 for the most recent one. */
+  protected int[] m_previous;
+
+  /** The next less recently used row, -1 for the least recent one. */
+  protected int[] m_next;
+
+  /** The most recently used row, -1 if there are none. */
+  protected int m_first = -1;
+
+  /** The least recently used row, -1 if there are none. */
+  protected int m_last = -1;
+
+  /** The most rows that can be kept at once. */
+  protected int m_maxRows;
+
+  /** The number of rows kept. */
+  protected int m_numRows;
+
+  /** Counts the number of times a cached row was found. */
+  protected long m_hits;
+
+  /** Counts the number of rows that had to be allocated. */
+  protected long m_misses;
+
+  /** Counts the number of rows that were dropped. */
+  protected long m_evictions;
+
+  /** The bytes a single row takes up. */
+  protected long m_rowBytes;
+
+  /** The pool the rows are drawn from, null if there is none. */
+  protected transient Pool m_pool;
+
+  /** The bytes this cache holds in the pool. */
+  protected transient Lease m_lease;
+
+  /**
+   * A budget of bytes that several row caches share. The rows of a cache
+   * that is dropped without being released go back to the pool once the
+   * garbage collector has reclaimed the cache, e.g., after its thread was
+   * stopped.
+   */
+  public static class Pool {
+
+    /** The most bytes the rows of all caches may take up. */
+    protected long m_capacity;
+
+    /** The bytes currently held by caches. */
+    protected long m_used;
+
+    /** The leases that are held, so that they are enqueued once cleared. */
+    protected Set<Lease> m_leases = new HashSet<Lease>();
+
+    /** Receives the leases of caches that were garbage collected. */
+    protected ReferenceQueue<KernelRowCache> m_collected =
+      new ReferenceQueue<KernelRowCache>();
+
+    /**
+     * Initializes the pool.
+     *
+     * @param capacity the most bytes the rows may take up
+     */
+    public Pool(long capacity) {
+      m_capacity = Math.max(0, capacity);
+    }
+
+    /**
+     * Sets the most bytes the rows may take up. Rows already held are
+     * kept, but no new ones are handed out while the pool is over it.
+     *
+     * @param capacity the capacity in bytes
+     */
+    public synchronized void setCapacity(long capacity) {
+      m_capacity = Math.max(0, capacity);
+    }
+
+    /**
+     * Returns the most bytes the rows may take up.
+     *
+     * @return the capacity in bytes
+     */
+    public synchronized long getCapacity() {
+      return m_capacity;
+    }
+
+    /**
+     * Returns the bytes currently held by caches.
+     *
+     * @return the bytes in use
+     */
+    public synchronized long getUsed() {
+      expunge();
+      return m_used;
+    }
+
+    /**
+     * Registers a cache with the pool.
+     *
+     * @param cache the cache
+     * @return the lease that keeps track of the bytes the cache holds
+     */
+    protected synchronized Lease open(KernelRowCache cache) {
+      expunge();
+      Lease lease = new Lease(cache, m_collected);
+      m_leases.add(lease);
+      return lease;
+    }
+
+    /**
+     * Hands out bytes for another row, if they are left.
+     *
+     * @param lease the lease of the cache
+     * @param bytes the bytes of the row
+     * @return true if the bytes were handed out
+     */
+    protected synchronized boolean reserve(Lease lease, long bytes) {
+      expunge();
+      if (m_used + bytes > m_capacity) {
+	return false;
+      }
+      m_used += bytes;
+      lease.m_bytes += bytes;
+      return true;
+    }
+
+    /**
+     * Takes back all bytes of a cache.
+     *
+     * @param lease the lease of the cache
+     */
+    protected synchronized void close(Lease lease) {
+      if (m_leases.remove(lease)) {
+	m_used -= lease.m_bytes;
+	lease.m_bytes = 0;
+      }
+    }
+
+    /**
+     * Takes back the bytes of caches that were garbage collected.
+     */
+    protected void expunge() {
+      Object lease;
+      while ((lease = m_collected.poll()) != null) {
+	close((Lease) lease);
+      }
+    }
+  }
+
+  /**
+   * The bytes a cache holds in a pool, which outlive the cache itself.
+   */
+  protected static class Lease
+    extends WeakReference<KernelRowCache> {
+
+    /** The bytes held. */
+    protected long m_bytes;
+
+    /**
+     * Initializes the lease.
+     *
+     * @param cache the cache that holds the bytes
+     * @param queue the queue to enqueue the lease on once the cache is gone
+     */
+    protected Lease(KernelRowCache cache,
+	ReferenceQueue<KernelRowCache> queue) {
+      super(cache, queue);
+    }
+  }
+
+  /**
+   * Initializes the cache for a square kernel matrix.
+   *
+   * @param numInstances the number of training instances
+   * @param budget the most bytes the rows may take up
+   */
+  public KernelRowCache(int numInstances, long budget) {
+    this(numInstances, budget, null);
+  }
+
+  /**
+   * Initializes the cache for a square kernel matrix, drawing its rows
+   * from a pool.
+   *
+   * @param numInstances the number of training instances
+   * @param budget the most bytes the rows of this cache may take up
+   * @param pool the pool shared with other caches, null for none
+   */
+  public KernelRowCache(int numInstances, long budget, Pool pool) {
+    m_rows = new double[numInstances][];
+    m_previous = new int[numInstances];
+    m_next = new int[numInstances];
+    m_rowBytes = 16 + 8L * numInstances;
+    if (pool != null) {
+      budget = Math.min(budget, pool.getCapacity());
+    }
+    m_maxRows = (int) Math.min(numInstances, budget / m_rowBytes);
+    if ((pool != null) && (m_maxRows > 0)) {
+      m_pool = pool;
+      m_lease = pool.open(this);
+    }
+  }
+
+  /**
+   * Returns whether at least one row fits into the budget.
+   *
+   * @return true if rows can be cached
+   */
+  public boolean isUsable() {
+    return m_maxRows > 0;
+  }
+
+  /**
+   * Returns a row if it is cached, and marks it as the most recently
+   * used one.
+   *
+   * @param index the index of the row
+   * @return the row, or null if it isn't cached
+   */
+  public double[] get(int index) {
+
+    double[] row = m_rows[index];
+    if (row != null) {
+      m_hits++;
+      if (m_first != index) {
+	unlink(index);
+	linkFirst(index);
+      }
+    }
+    return row;
+  }
+
+  /**
+   * Returns a row without touching the order of use, e.g., for filling
+   * in a symmetric entry.
+   *
+   * @param index the index of the row
+   * @return the row, or null if it isn't cached
+   */
+  public double[] peek(int index) {
+    return m_rows[index];
+  }
+
+  /**
+   * Adds an empty row (all NaN), dropping the least recently used rows
+   * if necessary, i.e., if this cache is full or the pool has no bytes
+   * left.
+   *
+   * @param index the index of the row, which mustn't be cached yet
+   * @return the new row, or null if no row fits into the budget
+   */
+  public double[] allocate(int index) {
+
+    if (m_maxRows == 0) {
+      return null;
+    }
+    boolean fits = (m_numRows < m_maxRows)
+      && ((m_pool == null) || m_pool.reserve(m_lease, m_rowBytes));
+    if (!fits && (m_numRows == 0)) {
+      return null;
+    }
+    m_misses++;
+    double[] row = null;
+    if (!fits) {
+      // reuse the array of the least recently used row
+      int last = m_last;
+      row = m_rows[last];
+      unlink(last);
+      m_rows[last] = null;
+      m_numRows--;
+      m_evictions++;
+    }
+    else {
+      row = new double[m_rows.length];
+    }
+    Arrays.fill(row, Double.NaN);
+    m_rows[index] = row;
+    linkFirst(index);
+    m_numRows++;
+    return row;
+  }
+
+  /**
+   * Drops all rows and gives their bytes back to the pool. The cache
+   * can't be used anymore afterwards.
+   */
+  public void release() {
+
+    m_maxRows = 0;
+    m_numRows = 0;
+    m_first = -1;
+    m_last = -1;
+    Arrays.fill(m_rows, null);
+    if (m_pool != null) {
+      m_pool.close(m_lease);
+      m_pool = null;
+      m_lease = null;
+    }
+  }
+
+  /**
+   * Returns the number of rows currently cached.
+   *
+   * @return the number of rows
+   */
+  public int numRows() {
+    return m_numRows;
+  }
+
+  /**
+   * Returns the most rows that can be cached at once.
+   *
+   * @return the number of rows
+   */
+  public int maxRows() {
+    return m_maxRows;
+  }
+
+  /**
+   * Returns the number of times a cached row was found.
+   *
+   * @return the number of hits
+   */
+  public long numHits() {
+    return m_hits;
+  }
+
+  /**
+   * Returns the number of rows that had to be allocated.
+   *
+   * @return the number of misses
+   */
+  public long numMisses() {
+    return m_misses;
+  }
+
+  /**
+   * Returns the number of rows that were dropped to make space.
+   *
+   * @return the number of evictions
+   */
+  public long numEvictions() {
+    return m_evictions;
+  }
+
+  /**
+   * Takes a row out of the order of use.
+   *
+   * @param index the row
+   */
+  protected void unlink(int index) {
+
+    int previous = m_previous[index];
+    int next = m_next[index];
+    if (previous == -1) {
+      m_first = next;
+    } else {
+      m_next[previous] = next;
+    }
+    if (next == -1) {
+      m_last = previous;
+    } else {
+      m_previous[next] = previous;
+    }
+  }
+
+  /**
+   * Puts a row at the front of the order of use.
+   *
+   * @param index the row
+   */
+  protected void linkFirst(int index) {
+
+    m_previous[index] = -1;
+    m_next[index] = m_first;
+    if (m_first != -1) {
+      m_previous[m_first] = index;
+    }
+    m_first = index;
+    if (m_last == -1) {
+      m_last = index;
+    }
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 8034 $");
+  }
+}
@@ -54,6 +54,12 @@ import weka.core.Utils;
  *  -1 to turn it off.
  *  (default: 250007)</pre>
  * 
+ * <pre> -row-cache-mb &lt;num&gt;
+ *  The memory for caching whole kernel rows in MB, 0 to cache
+ *  single entries and -1 for the default set for the JVM.
+ *  Only used if the cache size is greater than 0.
+ *  (default: -1)</pre>
+ * 
  * <pre> -E &lt;num&gt;
  *  The Exponent to use.
  *  (default: 1.0)</pre>
@@ -177,6 +183,12 @@ public class PolyKernel
    *  -1 to turn it off.
    *  (default: 250007)</pre>
    * 
+   * <pre> -row-cache-mb &lt;num&gt;
+   *  The memory for caching whole kernel rows in MB, 0 to cache
+   *  single entries and -1 for the default set for the JVM.
+   *  Only used if the cache size is greater than 0.
+   *  (default: -1)</pre>
+   * 
    * <pre> -E &lt;num&gt;
    *  The Exponent to use.
    *  (default: 1.0)</pre>
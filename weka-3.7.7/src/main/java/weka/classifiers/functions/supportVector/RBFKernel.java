@@ -55,6 +55,12 @@ import weka.core.Utils;
  *  -1 to turn it off.
  *  (default: 250007)</pre>
  * 
+ * <pre> -row-cache-mb &lt;num&gt;
+ *  The memory for caching whole kernel rows in MB, 0 to cache
+ *  single entries and -1 for the default set for the JVM.
+ *  Only used if the cache size is greater than 0.
+ *  (default: -1)</pre>
+ * 
  * <pre> -G &lt;num&gt;
  *  The Gamma parameter.
  *  (default: 0.01)</pre>
@@ -158,6 +164,12 @@ public class RBFKernel
    *  -1 to turn it off.
    *  (default: 250007)</pre>
    * 
+   * <pre> -row-cache-mb &lt;num&gt;
+   *  The memory for caching whole kernel rows in MB, 0 to cache
+   *  single entries and -1 for the default set for the JVM.
+   *  Only used if the cache size is greater than 0.
+   *  (default: -1)</pre>
+   * 
    * <pre> -G &lt;num&gt;
    *  The Gamma parameter.
    *  (default: 0.01)</pre>
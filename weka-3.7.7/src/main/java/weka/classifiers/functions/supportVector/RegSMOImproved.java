@@ -21,6 +21,7 @@
 
 package weka.classifiers.functions.supportVector;
 
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Vector;
 
@@ -80,6 +81,11 @@ import weka.core.Utils;
  *  Use variant 1 of the algorithm when true, otherwise use variant 2.
  *  (default true)</pre>
  * 
+ * <pre> -shrinking
+ *  Skip instances at a bound that have been optimal in the last
+ *  pass over all instances, checking them again before stopping.
+ *  (default: off)</pre>
+ * 
  * <pre> -P &lt;double&gt;
  *  The epsilon for round-off error.
  *  (default 1.0e-12)</pre>
@@ -128,6 +134,12 @@ public class RegSMOImproved
   
   /** set true to use variant 1 of the paper, otherwise use variant 2 */
   boolean m_bUseVariant1 = true;
+
+  /** set true to skip instances that seem settled at a bound */
+  protected boolean m_bShrinking = false;
+
+  /** instances skipped when examining all, if shrinking */
+  protected boolean [] m_shrunk;
   
   /**
    * Returns a string describing the object
@@ -191,6 +203,12 @@ public class RegSMOImproved
 	+ "\t(default true)", 
 	"V", 0, "-V"));
     
+    result.addElement(new Option(
+	"\tSkip instances at a bound that have been optimal in the last\n"
+	+ "\tpass over all instances, checking them again before stopping.\n"
+	+ "\t(default: off)", 
+	"shrinking", 0, "-shrinking"));
+    
     Enumeration enm = super.listOptions();
     while (enm.hasMoreElements()) {
       result.addElement(enm.nextElement());
@@ -213,6 +231,11 @@ public class RegSMOImproved
    *  Use variant 1 of the algorithm when true, otherwise use variant 2.
    *  (default true)</pre>
    * 
+   * <pre> -shrinking
+   *  Skip instances at a bound that have been optimal in the last
+   *  pass over all instances, checking them again before stopping.
+   *  (default: off)</pre>
+   * 
    * <pre> -P &lt;double&gt;
    *  The epsilon for round-off error.
    *  (default 1.0e-12)</pre>
@@ -242,6 +265,8 @@ public class RegSMOImproved
     
     setUseVariant1(Utils.getFlag('V', options));
     
+    setShrinking(Utils.getFlag("shrinking", options));
+    
     super.setOptions(options);
   }
   
@@ -266,6 +291,9 @@ public class RegSMOImproved
     
     if (m_bUseVariant1)
       result.add("-V");
+    
+    if (m_bShrinking)
+      result.add("-shrinking");
 
     return (String[]) result.toArray(new String[result.size()]);	  
   }
@@ -326,6 +354,35 @@ public class RegSMOImproved
     m_bUseVariant1 = b;
   }
   
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return 		a description suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String shrinkingTipText() {
+    return "set true to skip instances at a bound that have been optimal in the last "
+      + "pass over all instances. They are checked again before stopping.";
+  }
+  
+  /**
+   * Whether shrinking is used
+   * 
+   * @return		true if shrinking is used
+   */
+  public boolean getShrinking() {
+    return m_bShrinking;
+  }
+  
+  /**
+   * Sets whether to use shrinking
+   * 
+   * @param b		if true then shrinking is used
+   */
+  public void setShrinking(boolean b) {
+    m_bShrinking = b;
+  }
+  
   /** 
    * takeStep method from Shevade et al.s paper.
    * parameters correspond to pseudocode from paper.
@@ -774,6 +831,57 @@ public class RegSMOImproved
     return takeStep(i1, i2, m_alpha[i2], m_alphaStar[i2], F2);
   }
   
+  /** 
+   * Checks whether an instance that has just been found optimal is clear
+   * of the boundaries, so that it is unlikely to become a candidate again
+   * soon. Instances in I.0 are never skipped.
+   * 
+   * @param i 		index of the instance
+   * @return		true if the instance can be skipped for now
+   */
+  protected boolean canShrink(int i) {
+    double F = m_error[i];
+    switch (m_iSet[i]) {
+    case I1:
+      return (F + m_epsilon > m_bLow) && (F - m_epsilon < m_bUp);
+    case I2:
+      return F + m_epsilon < m_bUp;
+    case I3:
+      return F - m_epsilon > m_bLow;
+    default:
+      return false;
+    }
+  }
+  
+  /** 
+   * Examines all instances, apart from the ones that have been shrunk.
+   * 
+   * @return		the number of instances that made progress, or -1 if
+   * 			none did but some were skipped
+   * @throws Exception	if something goes wrong
+   */
+  protected int examineAll() throws Exception {
+    int nNumChanged = 0;
+    int nNumShrunk = 0;
+    for (int i = 0; i < m_nInstances; i++) {
+      if ((m_shrunk != null) && m_shrunk[i] && !m_I0.contains(i)) {
+	nNumShrunk++;
+	continue;
+      }
+      int nChanged = examineExample(i);
+      nNumChanged += nChanged;
+      if (m_shrunk != null) {
+	m_shrunk[i] = (nChanged == 0) && canShrink(i);
+      }
+    }
+    if ((nNumChanged == 0) && (nNumShrunk > 0)) {
+      // check the skipped instances as well before stopping
+      Arrays.fill(m_shrunk, false);
+      return -1;
+    }
+    return nNumChanged;
+  }
+  
   /** 
    * initialize various variables before starting the actual optimizer 
    * 
@@ -804,6 +912,7 @@ public class RegSMOImproved
     for (int i = 0; i < m_nInstances; i++) {
       m_error[i] = m_target[i];
     }
+    m_shrunk = m_bShrinking ? new boolean [m_nInstances] : null;
   }
   
   /** 
@@ -832,9 +941,7 @@ public class RegSMOImproved
       //          exit the loop after setting numChanged = 0 
       //        endif 
       if (bExamineAll) {
-	for (int i = 0; i < m_nInstances; i++) {
-	  nNumChanged += examineExample(i);
-	}
+	nNumChanged = examineAll();
       } else {
 	for (int i = m_I0.getNext(-1); i != -1; i = m_I0.getNext(i)) {
 	  
@@ -852,7 +959,8 @@ public class RegSMOImproved
       //  endwhile 
       //endprocedure
       if (bExamineAll) {
-	bExamineAll = false;
+	// go over all instances again if the shrunk ones have to be checked
+	bExamineAll = (nNumChanged < 0);
       } else if (nNumChanged == 0) {
 	bExamineAll = true;
       }
@@ -896,9 +1004,7 @@ public class RegSMOImproved
       //      numChanged = 0; 
       //    endif 
       if (bExamineAll) {
-	for (int i = 0; i < m_nInstances; i++) {
-	  nNumChanged += examineExample(i);
-	}
+	nNumChanged = examineAll();
       } else {
 	boolean bInnerLoopSuccess = true;
 	do {
@@ -920,7 +1026,8 @@ public class RegSMOImproved
       //endprocedure
       //
       if (bExamineAll) {
-	bExamineAll = false;
+	// go over all instances again if the shrunk ones have to be checked
+	bExamineAll = (nNumChanged < 0);
       } else if (nNumChanged == 0) {
 	bExamineAll = true;
       }
@@ -939,6 +1046,7 @@ public class RegSMOImproved
     m_b = -(m_bLow + m_bUp) / 2.0;
     m_target = null;
     m_error = null;
+    m_shrunk = null;
     super.wrapUp();
   }
   
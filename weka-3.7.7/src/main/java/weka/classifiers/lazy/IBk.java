@@ -29,10 +29,12 @@ import weka.classifiers.UpdateableClassifier;
 import weka.classifiers.rules.ZeroR;
 import weka.core.AdditionalMeasureProducer;
 import weka.core.Attribute;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.NormalizableDistance;
 import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
@@ -114,7 +116,8 @@ import weka.core.neighboursearch.NearestNeighbourSearch;
 public class IBk 
   extends AbstractClassifier 
   implements OptionHandler, UpdateableClassifier, WeightedInstancesHandler,
-             TechnicalInformationHandler, AdditionalMeasureProducer {
+             TechnicalInformationHandler, AdditionalMeasureProducer,
+             BatchPredictor {
 
   /** for serialization. */
   static final long serialVersionUID = -3080186098777067172L;
@@ -587,6 +590,75 @@ public class IBk
     return distribution;
   }
 
+  /**
+   * Calculates the class membership probabilities for a batch of test 
+   * instances. Each instance can widen the ranges that the neighbour 
+   * search normalizes with, which changes the distances for it and every 
+   * instance after it. If the search can look for several targets in one
+   * pass over the training data, runs of instances that leave the ranges 
+   * alone are therefore looked up together; otherwise the instances are 
+   * looked up one at a time.
+   *
+   * @param insts the instances to be classified
+   * @return predicted class probability distributions
+   * @throws Exception if an error occurred during the prediction
+   */
+  public double [][] distributionsForInstances(Instances insts) throws Exception {
+
+    double [][] dists = new double [insts.numInstances()][];
+    if ((dists.length == 0) || (m_Train.numInstances() == 0) 
+	|| !searchesInBatches()) {
+      for (int i = 0; i < dists.length; i++) {
+	dists[i] = distributionForInstance(insts.instance(i));
+      }
+      return dists;
+    }
+
+    // the first one also trims the window and selects k if need be
+    dists[0] = distributionForInstance(insts.instance(0));
+
+    NormalizableDistance distance = 
+      (NormalizableDistance) m_NNSearch.getDistanceFunction();
+    int start = 1;
+    for (int i = 1; i <= dists.length; i++) {
+      if ((i < dists.length) 
+	  && distance.inRanges(insts.instance(i), distance.getRanges())) {
+	m_NNSearch.addInstanceInfo(insts.instance(i));
+	continue;
+      }
+
+      // everything since start sees the ranges as they are now
+      Instance[] targets = new Instance[i - start];
+      for (int j = 0; j < targets.length; j++) {
+	targets[j] = insts.instance(start + j);
+      }
+      double[][] distances = new double[targets.length][];
+      Instances[] neighbours = ((LinearNNSearch) m_NNSearch)
+	.kNearestNeighbours(targets, m_kNN, distances);
+      for (int j = 0; j < targets.length; j++) {
+	dists[start + j] = makeDistribution(neighbours[j], distances[j]);
+      }
+
+      if (i < dists.length) {
+	m_NNSearch.addInstanceInfo(insts.instance(i));
+	start = i;
+      }
+    }
+    return dists;
+  }
+
+  /**
+   * Returns whether the neighbour search can look for the neighbours of 
+   * several targets in one go.
+   *
+   * @return true if the search is a LinearNNSearch with a normalizable
+   * distance function
+   */
+  protected boolean searchesInBatches() {
+    return (m_NNSearch instanceof LinearNNSearch)
+      && (m_NNSearch.getDistanceFunction() instanceof NormalizableDistance);
+  }
+
   /**
    * Returns an enumeration describing the available options.
    *
@@ -925,14 +997,36 @@ public class IBk
       Instance instance;
       Instances neighbours;
       double[] origDistances, convertedDistances;
+      boolean batches = searchesInBatches();
+      Instance[] targets = new Instance[0];
+      Instances[] targetNeighbours = null;
+      double[][] targetDistances = null;
+      int targetStart = 0;
       for(int i = 0; i < m_Train.numInstances(); i++) {
 	if (m_Debug && (i % 50 == 0)) {
 	  System.err.print("Cross validating "
 			   + i + "/" + m_Train.numInstances() + "\r");
 	}
 	instance = m_Train.instance(i);
-	neighbours = m_NNSearch.kNearestNeighbours(instance, m_kNN);
-        origDistances = m_NNSearch.getDistances();
+	if (batches) {
+	  // look up a chunk of instances at a time
+	  if (i == targetStart + targets.length) {
+	    targetStart = i;
+	    targets = new Instance[Math.min(m_Train.numInstances() - i, 
+		64 * ((LinearNNSearch) m_NNSearch).getNumExecutionSlots())];
+	    for (int j = 0; j < targets.length; j++) {
+	      targets[j] = m_Train.instance(i + j);
+	    }
+	    targetDistances = new double[targets.length][];
+	    targetNeighbours = ((LinearNNSearch) m_NNSearch)
+	      .kNearestNeighbours(targets, m_kNN, targetDistances);
+	  }
+	  neighbours = targetNeighbours[i - targetStart];
+	  origDistances = targetDistances[i - targetStart];
+	} else {
+	  neighbours = m_NNSearch.kNearestNeighbours(instance, m_kNN);
+	  origDistances = m_NNSearch.getDistances();
+	}
         
 	for(int j = m_kNNUpper - 1; j >= 0; j--) {
 	  // Update the performance stats
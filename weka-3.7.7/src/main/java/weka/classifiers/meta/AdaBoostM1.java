@@ -496,6 +496,8 @@ public class AdaBoostM1
     // Do boostrap iterations
     for (m_NumIterationsPerformed = 0; m_NumIterationsPerformed < m_Classifiers.length; 
 	 m_NumIterationsPerformed++) {
+      if(Thread.currentThread().isInterrupted())
+        break;
       if (m_Debug) {
 	System.err.println("Training classifier " + (m_NumIterationsPerformed + 1));
       }
@@ -607,6 +609,8 @@ public class AdaBoostM1
     // Do boostrap iterations
     for (m_NumIterationsPerformed = 0; m_NumIterationsPerformed < m_Classifiers.length; 
 	 m_NumIterationsPerformed++) {
+      if(Thread.currentThread().isInterrupted())
+        break;
       if (m_Debug) {
 	System.err.println("Training classifier " + (m_NumIterationsPerformed + 1));
       }
@@ -26,7 +26,10 @@ import java.util.Random;
 import java.util.Vector;
 
 import weka.classifiers.RandomizableParallelIteratedFilteredClassifierEnhancer;
+import weka.classifiers.trees.PresortedData;
+import weka.classifiers.trees.PresortedDataCache;
 import weka.core.AdditionalMeasureProducer;
+import weka.core.BatchPredictor;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
@@ -126,7 +129,7 @@ import weka.core.WeightedInstancesHandler;
 public class Bagging
   extends RandomizableParallelIteratedFilteredClassifierEnhancer 
   implements WeightedInstancesHandler, AdditionalMeasureProducer,
-             TechnicalInformationHandler {
+             TechnicalInformationHandler, BatchPredictor {
 
   /** for serialization */
   private static final long serialVersionUID = 1152207284926620045L;
@@ -437,13 +440,38 @@ public class Bagging
 					     Random random, 
 					     boolean[] sampled) {
 
+    int[] counts = resampleCounts(data, random, sampled);
+    Instances newData = new Instances(data, data.numInstances());
+    for (int l = 0; l < counts.length; l++) {
+      for (int c = 0; c < counts[l]; c++) {
+	newData.add(data.instance(l));
+	newData.lastInstance().setWeight(1);
+      }
+    }
+    return newData;
+  }
+
+  /**
+   * Draws a sample in the same way as resampleWithWeights(), but only
+   * returns how many times each instance was drawn.
+   *
+   * @param data the data to be sampled from
+   * @param random a random number generator
+   * @param sampled indicating which instance has been sampled
+   * @return the number of times each instance was drawn
+   * @throws IllegalArgumentException if the weights array is of the wrong
+   * length or contains negative weights.
+   */
+  protected int[] resampleCounts(Instances data, Random random, 
+				 boolean[] sampled) {
+
     double[] weights = new double[data.numInstances()];
     for (int i = 0; i < weights.length; i++) {
       weights[i] = data.instance(i).weight();
     }
-    Instances newData = new Instances(data, data.numInstances());
+    int[] counts = new int[data.numInstances()];
     if (data.numInstances() == 0) {
-      return newData;
+      return counts;
     }
     double[] probabilities = new double[data.numInstances()];
     double sumProbs = 0, sumOfWeights = Utils.sum(weights);
@@ -464,19 +492,21 @@ public class Bagging
       sumProbs += weights[l];
       while ((k < data.numInstances()) &&
 	     (probabilities[k] <= sumProbs)) { 
-	newData.add(data.instance(l));
+	counts[l]++;
 	sampled[l] = true;
-	newData.instance(k).setWeight(1);
 	k++;
       }
       l++;
     }
-    return newData;
+    return counts;
   }
   
   protected Random m_random;
   protected boolean[][] m_inBag;
   protected Instances m_data;
+
+  /** The presorted training data, if the bags can be built from it. */
+  protected transient PresortedData m_presorted;
   
   /**
    * Returns a training set for a particular iteration.
@@ -505,6 +535,40 @@ public class Bagging
     
     return bagData;
   }
+
+  /**
+   * Returns how many times each training instance appears in the training
+   * set for a particular iteration, without making the set itself.
+   *
+   * @param iteration the number of the iteration
+   * @return the number of times each instance is in the bag
+   */
+  protected synchronized int[] getBagCounts(int iteration) {
+    Random r = new Random(m_Seed + iteration);
+    boolean[] sampled = new boolean[m_data.numInstances()];
+    int[] counts = resampleCounts(m_data, r, sampled);
+    if (m_CalcOutOfBag) {
+      m_inBag[iteration] = sampled;
+    }
+    return counts;
+  }
+
+  /**
+   * Builds the classifier for a particular iteration, straight from the
+   * presorted training data if possible.
+   *
+   * @param iteration the number of the iteration
+   * @throws Exception if something goes wrong
+   */
+  protected void buildIteration(int iteration) throws Exception {
+
+    if (m_presorted != null) {
+      m_Classifiers[iteration].buildClassifier(m_presorted, 
+					       getBagCounts(iteration));
+    } else {
+      super.buildIteration(iteration);
+    }
+  }
   
   /**
    * Bagging method.
@@ -538,11 +602,19 @@ public class Bagging
     
     for (int j = 0; j < m_Classifiers.length; j++) {      
       if (m_Classifier instanceof Randomizable) {
-	((Randomizable) m_Classifiers[j]).setSeed(m_random.nextInt());
+	((Randomizable) m_Classifiers[j].getClassifier()).setSeed(m_random.nextInt());
       }
     }
     
+    // Sort the data once for all bags if the base classifier can use that
+    m_presorted = null;
+    if ((bagSize >= m_data.numInstances()) && (m_Classifiers.length > 0)
+	&& m_Classifiers[0].canBuildFromPresortedData(m_data)) {
+      m_presorted = PresortedDataCache.get(m_data);
+    }
+    
     buildClassifiers();
+    m_presorted = null;
     
     // calc OOB error?
     if (getCalcOutOfBag()) {
@@ -647,6 +719,50 @@ public class Bagging
     }
   }
 
+  /**
+   * Calculates the class membership probabilities for a batch of test
+   * instances. Goes through the members one at a time, so that each of
+   * them gets to predict the whole batch at once, but adds things up in
+   * the same order as distributionForInstance().
+   *
+   * @param insts the instances to be classified
+   * @return predicted class probability distributions
+   * @throws Exception if distributions can't be computed successfully 
+   */
+  public double[][] distributionsForInstances(Instances insts) throws Exception {
+
+    double [][] sums = new double [insts.numInstances()][insts.numClasses()];
+    boolean numeric = insts.classAttribute().isNumeric();
+
+    for (int i = 0; i < m_NumIterations; i++) {
+      if (numeric) {
+	for (int k = 0; k < sums.length; k++)
+	  sums[k][0] += m_Classifiers[i].classifyInstance(insts.instance(k));
+      } else {
+	double[][] newProbs;
+	if (m_Classifiers[i] instanceof BatchPredictor) {
+	  newProbs = ((BatchPredictor)m_Classifiers[i]).distributionsForInstances(insts);
+	} else {
+	  newProbs = new double[sums.length][];
+	  for (int k = 0; k < sums.length; k++)
+	    newProbs[k] = m_Classifiers[i].distributionForInstance(insts.instance(k));
+	}
+	for (int k = 0; k < sums.length; k++) {
+	  for (int j = 0; j < newProbs[k].length; j++)
+	    sums[k][j] += newProbs[k][j];
+	}
+      }
+    }
+    for (int k = 0; k < sums.length; k++) {
+      if (numeric) {
+	sums[k][0] /= (double)m_NumIterations;
+      } else if (!Utils.eq(Utils.sum(sums[k]), 0)) {
+	Utils.normalize(sums[k]);
+      }
+    }
+    return sums;
+  }
+
   /**
    * Returns description of the bagged classifier.
    *
@@ -27,6 +27,9 @@ import java.util.Vector;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.SingleClassifierEnhancer;
+import weka.classifiers.trees.PresortedData;
+import weka.classifiers.trees.PresortedDataHandler;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Drawable;
@@ -36,7 +39,9 @@ import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
 import weka.core.Utils;
+import weka.filters.AllFilter;
 import weka.filters.Filter;
+import weka.filters.FilterCache;
 
 /**
  <!-- globalinfo-start -->
@@ -105,7 +110,7 @@ import weka.filters.Filter;
  */
 public class FilteredClassifier 
   extends SingleClassifierEnhancer 
-  implements Drawable {
+  implements Drawable, BatchPredictor {
 
   /** for serialization */
   private static final long serialVersionUID = -7114868260359395521L;
@@ -393,8 +398,24 @@ public class FilteredClassifier
     util.Timer t = util.Timer.getTimer("FilteredClassifier::" + fname);
     t.start();
     */
-    m_Filter.setInputFormat(data);  // filter capabilities are checked here
-    data = Filter.useFilter(data, m_Filter);
+    // a filter that was fitted to the same data before can be reused
+    String cacheKey = null;
+    FilterCache.Entry cached = null;
+    if (FilterCache.isEnabled() && FilterCache.isWorthCaching(m_Filter)) {
+      cacheKey = FilterCache.getKey(data, getFilterSpec());
+      cached = FilterCache.get(cacheKey);
+    }
+    if (cached != null) {
+      m_Filter = cached.getFilter();
+      data = cached.getData();
+    } else {
+      m_Filter.setInputFormat(data);  // filter capabilities are checked here
+      data = Filter.useFilter(data, m_Filter);
+      if (cacheKey != null) {
+        FilterCache.put(cacheKey, new FilterCache.Entry(
+          Filter.makeCopy(m_Filter), new Instances(data)));
+      }
+    }
     //t.stop();
 
     // can classifier handle the data?
@@ -404,6 +425,40 @@ public class FilteredClassifier
     m_Classifier.buildClassifier(data);
   }
 
+  /**
+   * Returns whether the classifier can be built from presorted data with
+   * the given format. This requires an AllFilter, since presorted data
+   * can't be filtered, and a base classifier that is a PresortedDataHandler.
+   *
+   * @param data the header of the training data
+   * @return true if the classifier can be built from presorted data
+   */
+  protected boolean canBuildFromPresortedData(Instances data) {
+
+    return (m_Filter instanceof AllFilter) 
+      && (m_Classifier instanceof PresortedDataHandler)
+      && ((PresortedDataHandler) m_Classifier).canBuildFromPresortedData(data);
+  }
+
+  /**
+   * Builds the classifier from presorted data, given how many times each
+   * training instance is used.
+   *
+   * @param data the presorted training data
+   * @param counts how many times each training instance is used
+   * @throws Exception if the classifier can't be built from presorted data
+   */
+  protected void buildClassifier(PresortedData data, int[] counts) 
+    throws Exception {
+
+    if (!canBuildFromPresortedData(data.getHeader())) {
+      throw new Exception("Classifier can't be built from presorted data!");
+    }
+    m_Filter.setInputFormat(data.getHeader());
+    m_FilteredInstances = m_Filter.getOutputFormat().stringFreeStructure();
+    ((PresortedDataHandler) m_Classifier).buildClassifier(data, counts);
+  }
+
   /**
    * Classifies a given instance after filtering.
    *
@@ -415,6 +470,84 @@ public class FilteredClassifier
   public double [] distributionForInstance(Instance instance)
     throws Exception {
 
+    Instance newInstance = filterInstance(instance);
+    if (newInstance == null) {
+      return unclassified(instance);
+    }
+    return m_Classifier.distributionForInstance(newInstance);
+  }
+
+  /**
+   * Classifies a batch of instances after filtering. The instances are 
+   * filtered one at a time (as in distributionForInstance()), then handed 
+   * over to the base classifier in one go if it is a BatchPredictor. 
+   * Subclasses that override distributionForInstance() get that called 
+   * for each instance instead, unless they override this as well.
+   *
+   * @param insts the instances to be classified
+   * @return the class distributions for the given instances
+   * @throws Exception if instances could not be classified
+   * successfully
+   */
+  public double [][] distributionsForInstances(Instances insts)
+    throws Exception {
+
+    double[][] dists = new double[insts.numInstances()][];
+    if (getClass().getMethod("distributionForInstance", Instance.class)
+        .getDeclaringClass() != FilteredClassifier.class) {
+      // subclasses that predict in their own way go one instance at a time
+      for (int i = 0; i < dists.length; i++) {
+        dists[i] = distributionForInstance(insts.instance(i));
+      }
+      return dists;
+    }
+
+    int[] positions = new int[insts.numInstances()];
+    Instances filtered = null;
+    for (int i = 0; i < insts.numInstances(); i++) {
+      Instance newInstance = filterInstance(insts.instance(i));
+      if (newInstance == null) {
+        dists[i] = unclassified(insts.instance(i));
+        positions[i] = -1;
+        continue;
+      }
+      if (filtered == null) {
+        filtered = new Instances(newInstance.dataset(), insts.numInstances());
+      }
+      positions[i] = filtered.numInstances();
+      filtered.add(newInstance);
+    }
+    if (filtered == null) {
+      return dists;
+    }
+
+    double[][] filteredDists;
+    if (m_Classifier instanceof BatchPredictor) {
+      filteredDists = ((BatchPredictor) m_Classifier)
+        .distributionsForInstances(filtered);
+    } else {
+      filteredDists = new double[filtered.numInstances()][];
+      for (int i = 0; i < filteredDists.length; i++) {
+        filteredDists[i] = m_Classifier.distributionForInstance(filtered.instance(i));
+      }
+    }
+    for (int i = 0; i < dists.length; i++) {
+      if (positions[i] >= 0) {
+        dists[i] = filteredDists[positions[i]];
+      }
+    }
+    return dists;
+  }
+
+  /**
+   * Passes an instance through the filter.
+   *
+   * @param instance the instance to filter
+   * @return the filtered instance, or null if the filter has consumed it
+   * @throws Exception if the instance could not be filtered
+   */
+  protected Instance filterInstance(Instance instance) throws Exception {
+
     /*
       System.err.println("FilteredClassifier:: " 
                          + m_Filter.getClass().getName()
@@ -437,16 +570,8 @@ public class FilteredClassifier
         // filter has consumed the instance (e.g. RemoveWithValues
         // may do this). We will indicate no prediction for this
         // instance
-        double[] unclassified = null;
-        if (instance.classAttribute().isNumeric()) {
-          unclassified = new double[1];
-          unclassified[0] = Utils.missingValue();
-        } else {
-          // all zeros
-          unclassified = new double[instance.classAttribute().numValues()];
-        }
         m_Filter.batchFinished();
-        return unclassified;
+        return null;
       }
     }
     m_Filter.batchFinished();
@@ -457,7 +582,26 @@ public class FilteredClassifier
                        + m_Filter.getClass().getName()
                        + " out: " + newInstance);
     */
-    return m_Classifier.distributionForInstance(newInstance);
+    return newInstance;
+  }
+
+  /**
+   * The prediction given for an instance that the filter has removed.
+   *
+   * @param instance the removed instance
+   * @return missing for a numeric class, otherwise all zeros
+   */
+  protected double [] unclassified(Instance instance) {
+
+    double[] unclassified = null;
+    if (instance.classAttribute().isNumeric()) {
+      unclassified = new double[1];
+      unclassified[0] = Utils.missingValue();
+    } else {
+      // all zeros
+      unclassified = new double[instance.classAttribute().numValues()];
+    }
+    return unclassified;
   }
 
   /**
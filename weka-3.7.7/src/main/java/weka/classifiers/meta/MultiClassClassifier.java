@@ -22,9 +22,16 @@
 package weka.classifiers.meta;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
@@ -68,6 +75,10 @@ import weka.filters.unsupervised.instance.RemoveWithValues;
  * <pre> -P
  *  Use pairwise coupling (only has an effect for 1-against1)</pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots for building the binary classifiers.
+ *  (default 1 - i.e. no parallelism)</pre>
+ * 
  * <pre> -S &lt;num&gt;
  *  Random number seed.
  *  (default 1)</pre>
@@ -137,6 +148,9 @@ public class MultiClassClassifier
   /** The multiclass method to use */
   protected int m_Method = METHOD_1_AGAINST_ALL;
 
+  /** The number of threads to build the binary classifiers with */
+  protected int m_numExecutionSlots = 1;
+
   /** 1-against-all */
   public static final int METHOD_1_AGAINST_ALL    = 0;
   /** random correction code */
@@ -423,8 +437,6 @@ public class MultiClassClassifier
    */
   public void buildClassifier(Instances insts) throws Exception {
 
-    Instances newInsts;
-
     // can classifier handle the data?
     getCapabilities().testWithFail(insts);
     
@@ -469,26 +481,20 @@ public class MultiClassClassifier
       m_SumOfWeights = new double[numClassifiers];
 
       // generate the classifiers
+      final Instances data = insts;
+      final boolean buildEmpty = zeroTrainingInstances;
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
       for (int i=0; i<numClassifiers; i++) {
-	RemoveWithValues classFilter = new RemoveWithValues();
-	classFilter.setAttributeIndex("" + (insts.classIndex() + 1));
-	classFilter.setModifyHeader(true);
-	classFilter.setInvertSelection(true);
-	classFilter.setNominalIndicesArr((int[])pairs.elementAt(i));
-	Instances tempInstances = new Instances(insts, 0);
-	tempInstances.setClassIndex(-1);
-	classFilter.setInputFormat(tempInstances);
-	newInsts = Filter.useFilter(insts, classFilter);
-	if (newInsts.numInstances() > 0 || zeroTrainingInstances) {
-	  newInsts.setClassIndex(insts.classIndex());
-	  m_Classifiers[i].buildClassifier(newInsts);
-	  m_ClassFilters[i] = classFilter;
-          m_SumOfWeights[i] = newInsts.sumOfWeights();
-	} else {
-	  m_Classifiers[i] = null;
-	  m_ClassFilters[i] = null;
-	}
+	final int index = i;
+	final int[] pair = (int[])pairs.elementAt(i);
+	tasks.add(new Callable<Void>() {
+	  public Void call() throws Exception {
+	    buildPairClassifier(index, pair, data, buildEmpty);
+	    return null;
+	  }
+	});
       }
+      buildClassifiers(tasks);
 
       // construct a two-class header version of the dataset
       m_TwoClassDataset = new Instances(insts, 0);
@@ -522,20 +528,119 @@ public class MultiClassClassifier
       numClassifiers = code.size();
       m_Classifiers = FilteredClassifier.makeCopies(this, numClassifiers);
       m_ClassFilters = new MakeIndicator[numClassifiers];
+      final Instances data = insts;
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
       for (int i = 0; i < m_Classifiers.length; i++) {
-	m_ClassFilters[i] = new MakeIndicator();
-	MakeIndicator classFilter = (MakeIndicator) m_ClassFilters[i];
-	classFilter.setAttributeIndex("" + (insts.classIndex() + 1));
-	classFilter.setValueIndices(code.getIndices(i));
-	classFilter.setNumeric(false);
-	classFilter.setInputFormat(insts);
-	newInsts = Filter.useFilter(insts, m_ClassFilters[i]);
-	m_Classifiers[i].buildClassifier(newInsts);
+	final int index = i;
+	final String valueIndices = code.getIndices(i);
+	tasks.add(new Callable<Void>() {
+	  public Void call() throws Exception {
+	    buildCodeClassifier(index, valueIndices, data);
+	    return null;
+	  }
+	});
       }
+      buildClassifiers(tasks);
     }
     m_ClassAttribute = insts.classAttribute();
   }
 
+  /**
+   * Builds the classifier for one pair of classes of the 1-against-1
+   * method.
+   *
+   * @param index the index of the classifier
+   * @param pair the indices of the two classes
+   * @param insts the training data
+   * @param buildEmpty whether to build the classifier even if there are
+   * no instances of either class
+   * @throws Exception if the classifier can't be built successfully
+   */
+  protected void buildPairClassifier(int index, int[] pair, Instances insts,
+				     boolean buildEmpty) throws Exception {
+
+    RemoveWithValues classFilter = new RemoveWithValues();
+    classFilter.setAttributeIndex("" + (insts.classIndex() + 1));
+    classFilter.setModifyHeader(true);
+    classFilter.setInvertSelection(true);
+    classFilter.setNominalIndicesArr(pair);
+    Instances tempInstances = new Instances(insts, 0);
+    tempInstances.setClassIndex(-1);
+    classFilter.setInputFormat(tempInstances);
+    Instances newInsts = Filter.useFilter(insts, classFilter);
+    if (newInsts.numInstances() > 0 || buildEmpty) {
+      newInsts.setClassIndex(insts.classIndex());
+      m_Classifiers[index].buildClassifier(newInsts);
+      m_ClassFilters[index] = classFilter;
+      m_SumOfWeights[index] = newInsts.sumOfWeights();
+    } else {
+      m_Classifiers[index] = null;
+      m_ClassFilters[index] = null;
+    }
+  }
+
+  /**
+   * Builds the classifier for one bit of the output code of the other
+   * methods.
+   *
+   * @param index the index of the classifier
+   * @param valueIndices the class values that the bit is set for
+   * @param insts the training data
+   * @throws Exception if the classifier can't be built successfully
+   */
+  protected void buildCodeClassifier(int index, String valueIndices,
+				     Instances insts) throws Exception {
+
+    MakeIndicator classFilter = new MakeIndicator();
+    classFilter.setAttributeIndex("" + (insts.classIndex() + 1));
+    classFilter.setValueIndices(valueIndices);
+    classFilter.setNumeric(false);
+    classFilter.setInputFormat(insts);
+    m_ClassFilters[index] = classFilter;
+    Instances newInsts = Filter.useFilter(insts, classFilter);
+    m_Classifiers[index].buildClassifier(newInsts);
+  }
+
+  /**
+   * Runs the tasks that build the binary classifiers, on up to as many
+   * threads as there are execution slots. Every task filters the data
+   * for and trains its own copy of the base classifier, so the models
+   * are the same as when they are built one after the other.
+   *
+   * @param tasks the tasks, one per classifier
+   * @throws Exception if a classifier can't be built successfully
+   */
+  protected void buildClassifiers(List<Callable<Void>> tasks) throws Exception {
+
+    if (m_numExecutionSlots <= 1 || tasks.size() <= 1) {
+      for (Callable<Void> task : tasks) {
+	task.call();
+      }
+      return;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+	m_numExecutionSlots, tasks.size()));
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (Callable<Void> task : tasks) {
+	results.add(pool.submit(task));
+      }
+      for (Future<Void> result : results) {
+	try {
+	  result.get();
+	} catch (ExecutionException e) {
+	  if (e.getCause() instanceof Exception) {
+	    throw (Exception) e.getCause();
+	  }
+	  throw new Exception(e.getCause());
+	}
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
   /**
    * Returns the individual predictions of the base classifiers
    * for an instance. Used by StackedMultiClassClassifier.
@@ -697,6 +802,10 @@ public class MultiClassClassifier
     vec.addElement(new Option(
         "\tUse pairwise coupling (only has an effect for 1-against1)",
         "P", 0, "-P"));
+    vec.addElement(new Option(
+        "\tNumber of execution slots for building the binary classifiers.\n"
+        +"\t(default 1 - i.e. no parallelism)",
+        "num-slots", 1, "-num-slots <num>"));
 
     Enumeration enu = super.listOptions();
     while (enu.hasMoreElements()) {
@@ -722,6 +831,10 @@ public class MultiClassClassifier
    * <pre> -P
    *  Use pairwise coupling (only has an effect for 1-against1)</pre>
    * 
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of execution slots for building the binary classifiers.
+   *  (default 1 - i.e. no parallelism)</pre>
+   * 
    * <pre> -S &lt;num&gt;
    *  Random number seed.
    *  (default 1)</pre>
@@ -771,6 +884,13 @@ public class MultiClassClassifier
 
     setUsePairwiseCoupling(Utils.getFlag('P', options));
 
+    String slotsString = Utils.getOption("num-slots", options);
+    if (slotsString.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(slotsString));
+    } else {
+      setNumExecutionSlots(1);
+    }
+
     super.setOptions(options);
   }
 
@@ -782,7 +902,7 @@ public class MultiClassClassifier
   public String [] getOptions() {
 
     String [] superOptions = super.getOptions();
-    String [] options = new String [superOptions.length + 5];
+    String [] options = new String [superOptions.length + 7];
 
     int current = 0;
 
@@ -797,6 +917,9 @@ public class MultiClassClassifier
     options[current++] = "-R";
     options[current++] = "" + m_RandomWidthFactor;
 
+    options[current++] = "-num-slots";
+    options[current++] = "" + getNumExecutionSlots();
+
     System.arraycopy(superOptions, 0, options, current, 
 		     superOptions.length);
 
@@ -912,6 +1035,37 @@ public class MultiClassClassifier
     return "Use pairwise coupling (only has an effect for 1-against-1).";
   }
 
+  /**
+   * Sets the number of execution slots (threads) to use for building the
+   * binary classifiers.
+   *
+   * @param numSlots the number of slots to use
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    if (numSlots > 0) {
+      m_numExecutionSlots = numSlots;
+    }
+  }
+
+  /**
+   * Gets the number of execution slots (threads) to use for building the
+   * binary classifiers.
+   *
+   * @return the number of slots to use
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+
+  /**
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for building the "
+      + "binary classifiers.";
+  }
+
   /**
    * Implements pairwise coupling.
    *
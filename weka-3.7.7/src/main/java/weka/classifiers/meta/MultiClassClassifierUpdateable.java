@@ -50,6 +50,10 @@ import weka.filters.unsupervised.instance.RemoveWithValues;
  * <pre> -P
  *  Use pairwise coupling (only has an effect for 1-against1)</pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots for building the binary classifiers.
+ *  (default 1 - i.e. no parallelism)</pre>
+ * 
  * <pre> -S &lt;num&gt;
  *  Random number seed.
  *  (default 1)</pre>
@@ -23,8 +23,12 @@ package weka.classifiers.meta;
 
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
@@ -85,6 +89,10 @@ import weka.core.Utils;
  *  Random number seed.
  *  (default 1)</pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots.
+ *  (default 1 - i.e. no parallelism)</pre>
+ * 
  * <pre> -B &lt;classifier specification&gt;
  *  Full class name of classifier to include, followed
  *  by scheme options. May be specified multiple times.
@@ -400,29 +408,112 @@ public class Stacking
 
     Instances metaData = metaFormat(newData);
     m_MetaFormat = new Instances(metaData, 0);
-    for (int j = 0; j < m_NumFolds; j++) {
-      Instances train = newData.trainCV(m_NumFolds, j, random);
+    if (m_numExecutionSlots > 1) {
+      generateMetaLevelInParallel(newData, random, metaData);
+    } else {
+      for (int j = 0; j < m_NumFolds; j++) {
+        Instances train = newData.trainCV(m_NumFolds, j, random);
       
-      // start the executor pool (if necessary)
-      // has to be done after each set of classifiers as the
-      // executor pool gets shut down in order to prevent the
-      // program executing as a server (and not returning to
-      // the command prompt when run from the command line
-      super.buildClassifier(train);
+        // reset the counts of built classifiers (there is no executor
+        // pool with a single execution slot)
+        super.buildClassifier(train);
       
-      // construct the actual classifiers
-      buildClassifiers(train);
+        // construct the actual classifiers
+        buildClassifiers(train);
       
-      // Classify test instances and add to meta data
-      Instances test = newData.testCV(m_NumFolds, j);
-      for (int i = 0; i < test.numInstances(); i++) {
-	metaData.add(metaInstance(test.instance(i)));
+        // Classify test instances and add to meta data
+        Instances test = newData.testCV(m_NumFolds, j);
+        for (int i = 0; i < test.numInstances(); i++) {
+	  metaData.add(metaInstance(test.instance(i)));
+        }
       }
     }
 
     m_MetaClassifier.buildClassifier(metaData);    
   }
 
+  /**
+   * Generates the meta data with the base classifiers of all folds trained
+   * at the same time, one task per fold and base classifier. Each task
+   * trains its own copy of a base classifier, and the training folds are
+   * all drawn before any training starts, so the random number generator
+   * is used just as in the serial build and the meta data comes out the
+   * same.
+   * 
+   * @param newData the data to work on
+   * @param random the random number generator to use for cross-validation
+   * @param metaData the meta data to add the level-1 instances to
+   * @throws Exception if generation fails
+   */
+  protected void generateMetaLevelInParallel(Instances newData, Random random,
+    Instances metaData) throws Exception {
+
+    final Instances[] train = new Instances[m_NumFolds];
+    final Instances[] test = new Instances[m_NumFolds];
+    for (int j = 0; j < m_NumFolds; j++) {
+      train[j] = newData.trainCV(m_NumFolds, j, random);
+      test[j] = newData.testCV(m_NumFolds, j);
+    }
+
+    // outputs[j][k][i] is what base classifier k says about the i-th test
+    // instance of fold j
+    final double[][][][] outputs =
+      new double[m_NumFolds][m_Classifiers.length][][];
+    startExecutorPool();
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int j = 0; j < m_NumFolds; j++) {
+	for (int k = 0; k < m_Classifiers.length; k++) {
+	  final int fold = j;
+	  final int member = k;
+	  final Classifier classifier =
+	    AbstractClassifier.makeCopy(getClassifier(k));
+	  results.add(m_executorPool.submit(new Callable<Void>() {
+	    public Void call() throws Exception {
+	      classifier.buildClassifier(train[fold]);
+	      double[][] output = new double[test[fold].numInstances()][];
+	      for (int i = 0; i < output.length; i++) {
+		output[i] = baseOutput(classifier, test[fold].instance(i));
+	      }
+	      outputs[fold][member] = output;
+	      return null;
+	    }
+	  }));
+	}
+      }
+      for (Future<Void> result : results) {
+	try {
+	  result.get();
+	} catch (ExecutionException e) {
+	  Throwable cause = e.getCause();
+	  if (cause instanceof Exception) {
+	    throw (Exception) cause;
+	  }
+	  throw new Exception(cause);
+	}
+      }
+    } finally {
+      m_executorPool.shutdownNow();
+    }
+
+    // Add the test instances in the same order as the serial build
+    for (int j = 0; j < m_NumFolds; j++) {
+      for (int i = 0; i < test[j].numInstances(); i++) {
+	double[] values = new double[m_MetaFormat.numAttributes()];
+	int n = 0;
+	for (int k = 0; k < m_Classifiers.length; k++) {
+	  double[] output = outputs[j][k][i];
+	  System.arraycopy(output, 0, values, n, output.length);
+	  n += output.length;
+	}
+	values[n] = test[j].instance(i).classValue();
+	Instance metaInstance = new DenseInstance(1, values);
+	metaInstance.setDataset(m_MetaFormat);
+	metaData.add(metaInstance);
+      }
+    }
+  }
+
   /**
    * Returns class probabilities.
    *
@@ -506,14 +597,9 @@ public class Stacking
     Instance metaInstance;
     int i = 0;
     for (int k = 0; k < m_Classifiers.length; k++) {
-      Classifier classifier = getClassifier(k);
-      if (m_BaseFormat.classAttribute().isNumeric()) {
-	values[i++] = classifier.classifyInstance(instance);
-      } else {
-	double[] dist = classifier.distributionForInstance(instance);
-	for (int j = 0; j < dist.length; j++) {
-	  values[i++] = dist[j];
-	}
+      double[] output = baseOutput(getClassifier(k), instance);
+      for (int j = 0; j < output.length; j++) {
+	values[i++] = output[j];
       }
     }
     values[i] = instance.classValue();
@@ -521,6 +607,24 @@ public class Stacking
     metaInstance.setDataset(m_MetaFormat);
     return metaInstance;
   }
+
+  /**
+   * Gets what a base classifier contributes to a level-1 instance: the
+   * prediction for a numeric class, the class distribution otherwise.
+   * 
+   * @param classifier the base classifier
+   * @param instance the level-0 instance
+   * @return the values for the level-1 instance
+   * @throws Exception if the instance can't be classified
+   */
+  protected double[] baseOutput(Classifier classifier, Instance instance)
+    throws Exception {
+
+    if (m_BaseFormat.classAttribute().isNumeric()) {
+      return new double[] {classifier.classifyInstance(instance)};
+    }
+    return classifier.distributionForInstance(instance);
+  }
   
   /**
    * Returns the revision string.
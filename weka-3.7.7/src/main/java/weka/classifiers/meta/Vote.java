@@ -32,7 +32,7 @@ import java.util.List;
 import java.util.Random;
 import java.util.Vector;
 
-import weka.classifiers.RandomizableMultipleFilteredClassifiersCombiner;
+import weka.classifiers.RandomizableParallelMultipleFilteredClassifiersCombiner;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Environment;
@@ -69,6 +69,10 @@ import weka.core.Utils;
  *  Random number seed.
  *  (default 1)</pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots.
+ *  (default 1 - i.e. no parallelism)</pre>
+ * 
  * <pre> -B &lt;classifier specification&gt;
  *  Full class name of classifier to include, followed
  *  by scheme options. May be specified multiple times.
@@ -120,7 +124,7 @@ import weka.core.Utils;
  * @version $Revision: 8034 $
  */
 public class Vote
-  extends RandomizableMultipleFilteredClassifiersCombiner
+  extends RandomizableParallelMultipleFilteredClassifiersCombiner
   implements TechnicalInformationHandler, EnvironmentHandler {
     
   /** for serialization */
@@ -391,10 +395,11 @@ public class Vote
     
     // can classifier handle the data?
     getCapabilities().testWithFail(data);
-    
-    for (int i = 0; i < m_Classifiers.length; i++) {
-      getClassifier(i).buildClassifier(newData);
-    }
+
+    // start the executor pool (if necessary), the members all share the
+    // same training data, which none of them changes
+    super.buildClassifier(newData);
+    buildClassifiers(newData);
   }
   
   /**
@@ -33,6 +33,7 @@ import weka.classifiers.trees.j48.ClassifierTree;
 import weka.classifiers.trees.j48.ModelSelection;
 import weka.classifiers.trees.j48.PruneableClassifierTree;
 import weka.core.AdditionalMeasureProducer;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Drawable;
 import weka.core.Instance;
@@ -123,7 +124,7 @@ public class J48
   extends AbstractClassifier 
   implements OptionHandler, Drawable, Matchable, Sourcable, 
              WeightedInstancesHandler, Summarizable, AdditionalMeasureProducer, 
-             TechnicalInformationHandler {
+             TechnicalInformationHandler, BatchPredictor {
 
   /** for serialization */
   static final long serialVersionUID = -217733168393644444L;
@@ -278,6 +279,24 @@ public class J48
     return m_root.distributionForInstance(instance, m_useLaplace);
   }
 
+  /**
+   * Returns class probabilities for a batch of instances.
+   *
+   * @param insts the instances to calculate the class probabilities for
+   * @return the class probabilities, one array per instance
+   * @throws Exception if distribution can't be computed successfully
+   */
+  public double [][] distributionsForInstances(Instances insts) 
+       throws Exception {
+
+    double [][] dists = new double [insts.numInstances()][];
+    for (int i = 0; i < dists.length; i++) {
+      dists[i] = m_root.distributionForInstance(insts.instance(i), 
+						m_useLaplace);
+    }
+    return dists;
+  }
+
   /**
    *  Returns the type of graph this classifier
    *  represents.
@@ -0,0 +1,530 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    PresortedData.java
+ *    Copyright (C) 2012 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.classifiers.trees;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.SparseInstance;
+
+/**
+ * Shared core for growing decision trees. The values of a training set are
+ * copied into primitive columns and every numeric attribute is sorted
+ * exactly once. Nodes of a tree are represented by subsets, which hold the
+ * instances that reach the node (with their weights) and, for each numeric
+ * attribute, the order of those instances by value. Splitting a subset
+ * partitions these orders stably, so no node ever has to sort or copy
+ * instances again.<p/>
+ *
+ * Nothing is changed once the data has been sorted, so the same object can
+ * be used by many trees at once (e.g. the members of an ensemble), and can
+ * be kept around for later models built on the same data (see
+ * PresortedDataCache).
+ *
+ * @version $Revision: 8034 $
+ */
+public class PresortedData implements RevisionHandler {
+
+  /** The header of the training data. */
+  protected Instances m_Header;
+
+  /** The attribute values, indexed by attribute and then instance. */
+  protected double[][] m_Values;
+
+  /** The weights of the instances. */
+  protected double[] m_Weights;
+
+  /** For each numeric attribute, the instances sorted by value (missing values last). */
+  protected int[][] m_Order;
+
+  /** For each attribute with missing values, which instances are missing it. */
+  protected boolean[][] m_Missing;
+
+  /** Which instances are sparse, or null if none of them are. */
+  protected boolean[] m_Sparse;
+
+  /**
+   * Copies the values of the given data and sorts its numeric attributes.
+   *
+   * @param data the training data
+   */
+  public PresortedData(Instances data) {
+
+    m_Header = new Instances(data, 0);
+    int numInstances = data.numInstances();
+    m_Values = new double[data.numAttributes()][numInstances];
+    m_Weights = new double[numInstances];
+    for (int i = 0; i < numInstances; i++) {
+      Instance inst = data.instance(i);
+      for (int j = 0; j < data.numAttributes(); j++) {
+        m_Values[j][i] = inst.value(j);
+      }
+      m_Weights[i] = inst.weight();
+      if (inst instanceof SparseInstance) {
+        if (m_Sparse == null) {
+          m_Sparse = new boolean[numInstances];
+        }
+        m_Sparse[i] = true;
+      }
+    }
+    m_Order = new int[data.numAttributes()][];
+    m_Missing = new boolean[data.numAttributes()][];
+    for (int j = 0; j < data.numAttributes(); j++) {
+      if (j != data.classIndex() && data.attribute(j).isNumeric()) {
+        m_Order[j] = sort(m_Values[j]);
+      }
+      for (int i = 0; i < numInstances; i++) {
+        if (Double.isNaN(m_Values[j][i])) {
+          if (m_Missing[j] == null) {
+            m_Missing[j] = new boolean[numInstances];
+          }
+          m_Missing[j][i] = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the header of the training data.
+   *
+   * @return the header
+   */
+  public Instances getHeader() {
+    return m_Header;
+  }
+
+  /**
+   * Returns the number of training instances.
+   *
+   * @return the number of instances
+   */
+  public int numInstances() {
+    return m_Weights.length;
+  }
+
+  /**
+   * Returns the values of an attribute, indexed by instance.
+   *
+   * @param att the attribute index
+   * @return the values (must not be changed)
+   */
+  public double[] values(int att) {
+    return m_Values[att];
+  }
+
+  /**
+   * Makes a copy of a training instance from the stored values, with a
+   * weight of one. The copy is sparse if the instance was.
+   *
+   * @param id the index of the instance
+   * @return the instance
+   */
+  public Instance instance(int id) {
+
+    double[] values = new double[m_Values.length];
+    for (int j = 0; j < values.length; j++) {
+      values[j] = m_Values[j][id];
+    }
+    Instance inst = new DenseInstance(1, values);
+    if (m_Sparse != null && m_Sparse[id]) {
+      inst = new SparseInstance(inst);
+    }
+    inst.setDataset(m_Header);
+    return inst;
+  }
+
+  /**
+   * Returns the weights of the training instances.
+   *
+   * @return the weights (must not be changed)
+   */
+  public double[] weights() {
+    return m_Weights;
+  }
+
+  /**
+   * Returns which instances are missing a value for an attribute.
+   *
+   * @param att the attribute index
+   * @return the mask (must not be changed), or null if no values are
+   * missing
+   */
+  public boolean[] missing(int att) {
+    return m_Missing[att];
+  }
+
+  /**
+   * Returns the instances sorted by the values of a numeric attribute,
+   * with missing values at the end.
+   *
+   * @param att the attribute index
+   * @return the sorted instance indices (must not be changed), or null
+   * if the attribute is not numeric
+   */
+  public int[] order(int att) {
+    return m_Order[att];
+  }
+
+  /**
+   * Returns the subset holding all the training instances with their own
+   * weights (including those with a weight of zero).
+   *
+   * @return the subset
+   */
+  public Subset root() {
+
+    int[] ids = new int[m_Weights.length];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = i;
+    }
+    double[] weights = m_Weights.clone();
+    int[][] sorted = new int[m_Order.length][];
+    for (int j = 0; j < m_Order.length; j++) {
+      if (m_Order[j] != null) {
+        sorted[j] = m_Order[j].clone();
+      }
+    }
+    return new Subset(ids, weights, sorted);
+  }
+
+  /**
+   * Returns the subset holding the training instances with a positive
+   * weight in the given array (e.g. the counts of a bootstrap sample).
+   *
+   * @param weights the weight of each training instance
+   * @return the subset
+   */
+  public Subset subset(double[] weights) {
+
+    int[] pos = new int[weights.length];
+    int num = 0;
+    for (int i = 0; i < weights.length; i++) {
+      pos[i] = (weights[i] > 0) ? num++ : -1;
+    }
+    int[] ids = new int[num];
+    double[] subsetWeights = new double[num];
+    for (int i = 0; i < weights.length; i++) {
+      if (pos[i] >= 0) {
+        ids[pos[i]] = i;
+        subsetWeights[pos[i]] = weights[i];
+      }
+    }
+    int[][] sorted = new int[m_Order.length][];
+    for (int j = 0; j < m_Order.length; j++) {
+      if (m_Order[j] != null) {
+        sorted[j] = new int[num];
+        int count = 0;
+        for (int i = 0; i < m_Order[j].length; i++) {
+          if (pos[m_Order[j][i]] >= 0) {
+            sorted[j][count++] = pos[m_Order[j][i]];
+          }
+        }
+      }
+    }
+    return new Subset(ids, subsetWeights, sorted);
+  }
+
+  /**
+   * Checks whether the given data holds the same values and weights as the
+   * data this was made from.
+   *
+   * @param data the data to check
+   * @return true if the data is the same
+   */
+  public boolean matches(Instances data) {
+
+    if (data.numInstances() != m_Weights.length
+      || data.numAttributes() != m_Values.length
+      || data.classIndex() != m_Header.classIndex()
+      || !data.equalHeaders(m_Header)) {
+      return false;
+    }
+    for (int i = 0; i < m_Weights.length; i++) {
+      Instance inst = data.instance(i);
+      if (Double.doubleToLongBits(inst.weight())
+        != Double.doubleToLongBits(m_Weights[i])) {
+        return false;
+      }
+      for (int j = 0; j < m_Values.length; j++) {
+        if (Double.doubleToLongBits(inst.value(j))
+          != Double.doubleToLongBits(m_Values[j][i])) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns roughly how many bytes this takes up, not counting the header.
+   *
+   * @return the size in bytes
+   */
+  public long numBytes() {
+
+    long n = m_Weights.length;
+    long bytes = 8 * n * (m_Values.length + 1);
+    for (int j = 0; j < m_Values.length; j++) {
+      if (m_Order[j] != null) {
+        bytes += 4 * n;
+      }
+      if (m_Missing[j] != null) {
+        bytes += n;
+      }
+    }
+    if (m_Sparse != null) {
+      bytes += n;
+    }
+    return bytes;
+  }
+
+  /**
+   * Sorts the given values stably into ascending order, with missing values
+   * at the end.
+   *
+   * @param values the values to sort
+   * @return the indices of the values in sorted order
+   */
+  public static int[] sort(double[] values) {
+
+    int[] index = new int[values.length];
+    int numKnown = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (!Double.isNaN(values[i])) {
+        index[numKnown++] = i;
+      }
+    }
+    int numMissing = numKnown;
+    for (int i = 0; i < values.length; i++) {
+      if (Double.isNaN(values[i])) {
+        index[numMissing++] = i;
+      }
+    }
+    mergeSort(values, index, new int[numKnown], 0, numKnown);
+    return index;
+  }
+
+  /**
+   * Sorts a range of indices by the values they point to.
+   */
+  private static void mergeSort(double[] values, int[] index, int[] help,
+                                int from, int to) {
+
+    if (to - from < 2) {
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    mergeSort(values, index, help, from, middle);
+    mergeSort(values, index, help, middle, to);
+    if (values[index[middle - 1]] <= values[index[middle]]) {
+      return;
+    }
+    System.arraycopy(index, from, help, from, to - from);
+    int i = from, j = middle, k = from;
+    while (i < middle && j < to) {
+      index[k++] = (values[help[j]] < values[help[i]]) ? help[j++] : help[i++];
+    }
+    while (i < middle) {
+      index[k++] = help[i++];
+    }
+    while (j < to) {
+      index[k++] = help[j++];
+    }
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 8034 $");
+  }
+
+  /**
+   * The instances that reach a node of a tree. Instances are referred to by
+   * their position in the subset, which is also the order in which they
+   * appear in the training data.
+   */
+  public class Subset {
+
+    /** The index of each instance in the training data. */
+    protected int[] m_Ids;
+
+    /** The weight of each instance in this subset. */
+    protected double[] m_Weights;
+
+    /** For each numeric attribute, the positions sorted by value. */
+    protected int[][] m_Sorted;
+
+    /**
+     * Creates a subset.
+     */
+    protected Subset(int[] ids, double[] weights, int[][] sorted) {
+      m_Ids = ids;
+      m_Weights = weights;
+      m_Sorted = sorted;
+    }
+
+    /**
+     * Returns the data the subset was drawn from.
+     *
+     * @return the presorted data
+     */
+    public PresortedData getData() {
+      return PresortedData.this;
+    }
+
+    /**
+     * Returns the number of instances in the subset.
+     *
+     * @return the number of instances
+     */
+    public int size() {
+      return m_Ids.length;
+    }
+
+    /**
+     * Returns the index in the training data of each position.
+     *
+     * @return the indices (must not be changed)
+     */
+    public int[] ids() {
+      return m_Ids;
+    }
+
+    /**
+     * Returns the weight of each position.
+     *
+     * @return the weights (must not be changed)
+     */
+    public double[] weights() {
+      return m_Weights;
+    }
+
+    /**
+     * Returns the positions sorted by the values of a numeric attribute,
+     * with missing values at the end.
+     *
+     * @param att the attribute index
+     * @return the sorted positions (must not be changed), or null if the
+     * attribute is not numeric
+     */
+    public int[] sorted(int att) {
+      return m_Sorted[att];
+    }
+
+    /**
+     * Returns the total weight of the subset.
+     *
+     * @return the total weight
+     */
+    public double totalWeight() {
+
+      double sum = 0;
+      for (int i = 0; i < m_Weights.length; i++) {
+        sum += m_Weights[i];
+      }
+      return sum;
+    }
+
+    /**
+     * Returns the weight of each class in the subset (nominal class only).
+     *
+     * @return the class counts
+     */
+    public double[] classCounts() {
+
+      double[] counts = new double[m_Header.numClasses()];
+      double[] classValues = m_Values[m_Header.classIndex()];
+      for (int i = 0; i < m_Ids.length; i++) {
+        counts[(int) classValues[m_Ids[i]]] += m_Weights[i];
+      }
+      return counts;
+    }
+
+    /**
+     * Splits the subset. Each position goes to the branch given for it, or
+     * if that is negative it is split up among all branches whose proportion
+     * is greater than the given minimum, with its weight multiplied by that
+     * proportion. Positions keep their relative order in every branch.
+     *
+     * @param branches the branch of each position
+     * @param props the proportions for each position with a negative branch
+     * @param numBranches the number of branches
+     * @param minProp the proportion a branch must exceed to get a share of
+     * an instance
+     * @return the subsets for the branches
+     */
+    public Subset[] split(int[] branches, double[][] props, int numBranches,
+                          double minProp) {
+
+      // Work out the positions in each branch
+      int[][] newPos = new int[numBranches][m_Ids.length];
+      int[] num = new int[numBranches];
+      for (int i = 0; i < m_Ids.length; i++) {
+        for (int k = 0; k < numBranches; k++) {
+          newPos[k][i] = -1;
+        }
+        if (branches[i] >= 0) {
+          newPos[branches[i]][i] = num[branches[i]]++;
+        } else {
+          for (int k = 0; k < numBranches; k++) {
+            if (props[i][k] > minProp) {
+              newPos[k][i] = num[k]++;
+            }
+          }
+        }
+      }
+
+      Subset[] subsets = new Subset[numBranches];
+      for (int k = 0; k < numBranches; k++) {
+        int[] ids = new int[num[k]];
+        double[] weights = new double[num[k]];
+        int[] pos = newPos[k];
+        for (int i = 0; i < m_Ids.length; i++) {
+          if (pos[i] >= 0) {
+            ids[pos[i]] = m_Ids[i];
+            weights[pos[i]] = (branches[i] >= 0) ? m_Weights[i]
+              : props[i][k] * m_Weights[i];
+          }
+        }
+        int[][] sorted = new int[m_Sorted.length][];
+        for (int j = 0; j < m_Sorted.length; j++) {
+          if (m_Sorted[j] != null) {
+            sorted[j] = new int[num[k]];
+            int count = 0;
+            for (int i = 0; i < m_Sorted[j].length; i++) {
+              if (pos[m_Sorted[j][i]] >= 0) {
+                sorted[j][count++] = pos[m_Sorted[j][i]];
+              }
+            }
+          }
+        }
+        subsets[k] = new Subset(ids, weights, sorted);
+      }
+      return subsets;
+    }
+  }
+}
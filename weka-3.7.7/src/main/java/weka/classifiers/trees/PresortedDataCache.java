@@ -0,0 +1,189 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    PresortedDataCache.java
+ *    Copyright (C) 2012 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.classifiers.trees;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Keeps the presorted versions of recently used training sets, so that
+ * models that are built on the same data one after the other (e.g. when
+ * trying out different settings on the same fold) only have to sort it
+ * once. Data is looked up by its contents rather than by object, since
+ * most classifiers work on their own copy of the training set. The cache
+ * holds on to at most a given number of bytes, dropping the least recently
+ * used data first; by default this is zero, i.e., nothing is cached.
+ *
+ * @version $Revision: 8034 $
+ */
+public class PresortedDataCache {
+
+  /** The cached data, keyed by a hash of its contents, in order of use. */
+  protected static LinkedHashMap<Long, List<PresortedData>> m_Cache = 
+    new LinkedHashMap<Long, List<PresortedData>>(16, 0.75f, true);
+
+  /** The most bytes the cache may hold. */
+  protected static long m_Budget = 0;
+
+  /** The bytes currently held. */
+  protected static long m_NumBytes = 0;
+
+  /** The number of lookups that were found in the cache. */
+  protected static long m_NumHits = 0;
+
+  /** The number of lookups that had to sort the data. */
+  protected static long m_NumMisses = 0;
+
+  /**
+   * Returns the presorted version of the given data, sorting it and adding
+   * it to the cache if it isn't there already.
+   *
+   * @param data the training data
+   * @return the presorted data
+   */
+  public static PresortedData get(Instances data) {
+
+    long key = hash(data);
+    synchronized (PresortedDataCache.class) {
+      List<PresortedData> entries = m_Cache.get(key);
+      if (entries != null) {
+        for (PresortedData entry : entries) {
+          if (entry.matches(data)) {
+            m_NumHits++;
+            return entry;
+          }
+        }
+      }
+      m_NumMisses++;
+    }
+
+    // Sort outside the lock, so that other data can be looked up meanwhile
+    PresortedData presorted = new PresortedData(data);
+    synchronized (PresortedDataCache.class) {
+      long bytes = presorted.numBytes();
+      if (bytes <= m_Budget) {
+        List<PresortedData> entries = m_Cache.get(key);
+        if (entries == null) {
+          entries = new ArrayList<PresortedData>(1);
+          m_Cache.put(key, entries);
+        }
+        entries.add(presorted);
+        m_NumBytes += bytes;
+        trim();
+      }
+    }
+    return presorted;
+  }
+
+  /**
+   * Sets the most bytes the cache may hold. Data that is already cached is
+   * dropped if it doesn't fit anymore.
+   *
+   * @param budget the budget in bytes (0 switches the cache off)
+   */
+  public static synchronized void setBudget(long budget) {
+    m_Budget = Math.max(0, budget);
+    trim();
+  }
+
+  /**
+   * Returns the most bytes the cache may hold.
+   *
+   * @return the budget in bytes
+   */
+  public static synchronized long getBudget() {
+    return m_Budget;
+  }
+
+  /**
+   * Returns the bytes currently held by the cache.
+   *
+   * @return the size in bytes
+   */
+  public static synchronized long getNumBytes() {
+    return m_NumBytes;
+  }
+
+  /**
+   * Drops everything in the cache.
+   */
+  public static synchronized void clear() {
+    m_Cache.clear();
+    m_NumBytes = 0;
+  }
+
+  /**
+   * Returns a one line summary of the cache's size and use.
+   *
+   * @return the summary
+   */
+  public static synchronized String getStatistics() {
+
+    int numEntries = 0;
+    for (List<PresortedData> entries : m_Cache.values()) {
+      numEntries += entries.size();
+    }
+    return "Presorted data cache: " + numEntries + " data sets, "
+      + (m_NumBytes >> 20) + "MB of " + (m_Budget >> 20) + "MB, "
+      + m_NumHits + " hits, " + m_NumMisses + " misses";
+  }
+
+  /**
+   * Drops the least recently used data until the cache fits its budget.
+   */
+  protected static void trim() {
+
+    Iterator<List<PresortedData>> iter = m_Cache.values().iterator();
+    while (m_NumBytes > m_Budget && iter.hasNext()) {
+      for (PresortedData entry : iter.next()) {
+        m_NumBytes -= entry.numBytes();
+      }
+      iter.remove();
+    }
+  }
+
+  /**
+   * Hashes the values and weights of the given data.
+   *
+   * @param data the data
+   * @return the hash
+   */
+  protected static long hash(Instances data) {
+
+    long hash = data.numInstances() * 31L + data.numAttributes();
+    hash = hash * 31 + data.classIndex();
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance inst = data.instance(i);
+      hash = hash * 31 + Double.doubleToLongBits(inst.weight());
+      for (int j = 0; j < data.numAttributes(); j++) {
+        hash = hash * 31 + Double.doubleToLongBits(inst.value(j));
+      }
+    }
+    return hash;
+  }
+}
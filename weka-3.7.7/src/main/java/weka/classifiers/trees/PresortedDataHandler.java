@@ -0,0 +1,57 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    PresortedDataHandler.java
+ *    Copyright (C) 2012 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.classifiers.trees;
+
+import weka.core.Instances;
+
+/**
+ * Interface to classifiers that can be built straight from presorted data,
+ * given how many times each training instance is to be used. This lets
+ * ensembles hand each member its bootstrap sample as a vector of counts over
+ * data that has been sorted once, rather than as a resampled set of
+ * instances.
+ *
+ * @version $Revision: 8034 $
+ */
+public interface PresortedDataHandler {
+
+  /**
+   * Returns whether the classifier, with its current settings, can be built
+   * from presorted data with the given format.
+   *
+   * @param data the header of the training data
+   * @return true if buildClassifier(PresortedData, int[]) can be used
+   */
+  boolean canBuildFromPresortedData(Instances data);
+
+  /**
+   * Builds the classifier from presorted data. The result must be the same
+   * as building it from a set of instances in which each training instance
+   * appears as many times as its count, in the original order, and each
+   * time with a weight of one (i.e., a bootstrap sample).
+   *
+   * @param data the presorted training data
+   * @param counts how many times each training instance is used
+   * @throws Exception if the classifier can't be built
+   */
+  void buildClassifier(PresortedData data, int[] counts) throws Exception;
+}
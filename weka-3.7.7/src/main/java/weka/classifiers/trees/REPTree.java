@@ -490,8 +490,7 @@ public class REPTree
     /**
      * Recursively generates a tree.
      * 
-     * @param sortedIndices the sorted indices of the instances
-     * @param weights the weights of the instances
+     * @param subset the instances that reach this node
      * @param data the data to work with
      * @param totalWeight
      * @param classProbs the class probabilities
@@ -502,13 +501,17 @@ public class REPTree
      * @param maxDepth the maximum allowed depth of the tree
      * @throws Exception if generation fails
      */
-    protected void buildTree(int[][][] sortedIndices, double[][][] weights,
+    protected void buildTree(PresortedData.Subset subset,
 			     Instances data, double totalWeight, 
 			     double[] classProbs, Instances header,
 			     double minNum, double minVariance,
 			     int depth, int maxDepth) 
       throws Exception {
       
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException("Tree building was interrupted");
+      }
+
       // Store structure of dataset, set minimum number of instances
       // and make space for potential info from pruning data
       m_Info = header;
@@ -523,29 +526,30 @@ public class REPTree
       if (data.classIndex() == 0) {
 	helpIndex = 1;
       }
-      if (sortedIndices[0][helpIndex].length == 0) {
+      if (subset.size() == 0) {
 	if (data.classAttribute().isNumeric()) {
 	  m_Distribution = new double[2];
 	} else {
 	  m_Distribution = new double[data.numClasses()];
 	}
 	m_ClassProbs = null;
-        sortedIndices[0] = null;
-        weights[0] = null;
 	return;
       }
+      int[] ids = subset.ids();
+      double[] weights = subset.weights();
       
       double priorVar = 0;
       if (data.classAttribute().isNumeric()) {
 
 	// Compute prior variance
 	double totalSum = 0, totalSumSquared = 0, totalSumOfWeights = 0; 
-	for (int i = 0; i < sortedIndices[0][helpIndex].length; i++) {
-	  Instance inst = data.instance(sortedIndices[0][helpIndex][i]);
-	  totalSum += inst.classValue() * weights[0][helpIndex][i];
+	int[] order = attributeOrder(subset, helpIndex);
+	for (int i = 0; i < order.length; i++) {
+	  Instance inst = data.instance(ids[order[i]]);
+	  totalSum += inst.classValue() * weights[order[i]];
 	  totalSumSquared += 
-	    inst.classValue() * inst.classValue() * weights[0][helpIndex][i];
-	  totalSumOfWeights += weights[0][helpIndex][i];
+	    inst.classValue() * inst.classValue() * weights[order[i]];
+	  totalSumOfWeights += weights[order[i]];
 	}
 	priorVar = singleVariance(totalSum, totalSumSquared, 
 				  totalSumOfWeights);
@@ -587,8 +591,6 @@ public class REPTree
 	  m_Distribution[0] = priorVar;
 	  m_Distribution[1] = totalWeight;
 	}
-        sortedIndices[0] = null;
-        weights[0] = null;
 	return;
       }
 
@@ -604,8 +606,8 @@ public class REPTree
 	// Nominal case
 	for (int i = 0; i < data.numAttributes(); i++) {
 	  if (i != data.classIndex()) {
-	    splits[i] = distribution(props, dists, i, sortedIndices[0][i], 
-				     weights[0][i], totalSubsetWeights, data);
+	    splits[i] = distribution(props, dists, i, attributeOrder(subset, i),
+				     subset, totalSubsetWeights, data);
 	    vals[i] = gain(dists[i], priorVal(dists[i]));
 	  }
 	}
@@ -615,8 +617,8 @@ public class REPTree
 	for (int i = 0; i < data.numAttributes(); i++) {
 	  if (i != data.classIndex()) {
 	    splits[i] = 
-	      numericDistribution(props, dists, i, sortedIndices[0][i], 
-				  weights[0][i], totalSubsetWeights, data, 
+	      numericDistribution(props, dists, i, attributeOrder(subset, i),
+				  subset, totalSubsetWeights, data, 
 				  vals);
 	  }
 	}
@@ -655,36 +657,32 @@ public class REPTree
         splits = null;
 
 	// Split data
-	int[][][][] subsetIndices = 
-	  new int[numAttVals][1][data.numAttributes()][0];
-	double[][][][] subsetWeights = 
-	  new double[numAttVals][1][data.numAttributes()][0];
-	splitData(subsetIndices, subsetWeights, m_Attribute, m_SplitPoint, 
-		  sortedIndices[0], weights[0], data);
+	PresortedData.Subset[] subsets = 
+	  splitData(m_Attribute, m_SplitPoint, subset, data);
 
         // Release memory
-        sortedIndices[0] = null;
-        weights[0] = null;
+        subset = null;
+        ids = null;
+        weights = null;
 
         // Build successors
 	m_Successors = new Tree[numAttVals];
 	for (int i = 0; i < numAttVals; i++) {
 	  m_Successors[i] = new Tree();
 	  m_Successors[i].
-	    buildTree(subsetIndices[i], subsetWeights[i], 
+	    buildTree(subsets[i], 
 		      data, attTotalSubsetWeights[i],
 		      attSubsetDists[i], header, minNum, 
 		      minVariance, depth + 1, maxDepth);
 
           // Release as much memory as we can
+          subsets[i] = null;
           attSubsetDists[i] = null;
 	}
       } else {
       
 	// Make leaf
 	m_Attribute = -1;
-        sortedIndices[0] = null;
-        weights[0] = null;
       }
 
       // Normalize class counts
@@ -737,99 +735,68 @@ public class REPTree
     /**
      * Splits instances into subsets.
      * 
-     * @param subsetIndices the sorted indices in the subset
-     * @param subsetWeights the weights of the subset
      * @param att the attribute index
      * @param splitPoint the split point for numeric attributes
-     * @param sortedIndices the sorted indices of the whole set
-     * @param weights the weights of the whole set
+     * @param subset the instances that reach this node
      * @param data the data to work with
+     * @return the subsets for the successors
      * @throws Exception if something goes wrong
      */
-    protected void splitData(int[][][][] subsetIndices, 
-			     double[][][][] subsetWeights,
-			     int att, double splitPoint, 
-			     int[][] sortedIndices, double[][] weights, 
-			     Instances data) throws Exception {
+    protected PresortedData.Subset[] splitData(int att, double splitPoint, 
+					       PresortedData.Subset subset,
+					       Instances data) throws Exception {
     
-      int j;
-      int[] num;
-   
-      // For each attribute
-      for (int i = 0; i < data.numAttributes(); i++) {
-	if (i != data.classIndex()) {
-	  if (data.attribute(att).isNominal()) {
-
-	    // For nominal attributes
-	    num = new int[data.attribute(att).numValues()];
-	    for (int k = 0; k < num.length; k++) {
-	      subsetIndices[k][0][i] = new int[sortedIndices[i].length];
-	      subsetWeights[k][0][i] = new double[sortedIndices[i].length];
-	    }
-	    for (j = 0; j < sortedIndices[i].length; j++) {
-	      Instance inst = data.instance(sortedIndices[i][j]);
-	      if (inst.isMissing(att)) {
-
-		// Split instance up
-		for (int k = 0; k < num.length; k++) {
-		  if (m_Prop[k] > 0) {
-		    subsetIndices[k][0][i][num[k]] = sortedIndices[i][j];
-		    subsetWeights[k][0][i][num[k]] = 
-		      m_Prop[k] * weights[i][j];
-		    num[k]++;
-		  }
-		}
-	      } else {
-		int subset = (int)inst.value(att);
-		subsetIndices[subset][0][i][num[subset]] = 
-		  sortedIndices[i][j];
-		subsetWeights[subset][0][i][num[subset]] = weights[i][j];
-		num[subset]++;
-	      }
-	    }
-	  } else {
+      int[] ids = subset.ids();
+      double[] values = subset.getData().values(att);
+      boolean nominal = data.attribute(att).isNominal();
+      int[] branches = new int[ids.length];
+      double[][] props = new double[ids.length][];
+      for (int i = 0; i < ids.length; i++) {
+	if (Utils.isMissingValue(values[ids[i]])) {
 
-	    // For numeric attributes
-	    num = new int[2];
-	    for (int k = 0; k < 2; k++) {
-	      subsetIndices[k][0][i] = new int[sortedIndices[i].length];
-	      subsetWeights[k][0][i] = new double[weights[i].length];
-	    }
-	    for (j = 0; j < sortedIndices[i].length; j++) {
-	      Instance inst = data.instance(sortedIndices[i][j]);
-	      if (inst.isMissing(att)) {
-
-		// Split instance up
-		for (int k = 0; k < num.length; k++) {
-		  if (m_Prop[k] > 0) {
-		    subsetIndices[k][0][i][num[k]] = sortedIndices[i][j];
-		    subsetWeights[k][0][i][num[k]] = 
-		      m_Prop[k] * weights[i][j];
-		    num[k]++;
-		  }
-		}
-	      } else {
-		int subset = (inst.value(att) < splitPoint) ? 0 : 1;
-		subsetIndices[subset][0][i][num[subset]] = 
-		  sortedIndices[i][j];
-		subsetWeights[subset][0][i][num[subset]] = weights[i][j];
-		num[subset]++;
-	      } 
-	    }
-	  }
-	
-	  // Trim arrays
-	  for (int k = 0; k < num.length; k++) {
-	    int[] copy = new int[num[k]];
-	    System.arraycopy(subsetIndices[k][0][i], 0, copy, 0, num[k]);
-	    subsetIndices[k][0][i] = copy;
-	    double[] copyWeights = new double[num[k]];
-	    System.arraycopy(subsetWeights[k][0][i], 0,
-			     copyWeights, 0, num[k]);
-	    subsetWeights[k][0][i] = copyWeights;
-	  }
+	  // Split instance up
+	  branches[i] = -1;
+	  props[i] = m_Prop;
+	} else if (nominal) {
+	  branches[i] = (int)values[ids[i]];
+	} else {
+	  branches[i] = (values[ids[i]] < splitPoint) ? 0 : 1;
+	}
+      }
+      return subset.split(branches, props, m_Prop.length, 0);
+    }
+
+    /**
+     * Returns the positions of the instances in a subset in the order in
+     * which they are looked at for an attribute: sorted for numeric 
+     * attributes, and in the order of the data for nominal ones, with
+     * missing values at the end in both cases.
+     * 
+     * @param subset the instances that reach this node
+     * @param att the attribute index
+     * @return the positions
+     */
+    protected int[] attributeOrder(PresortedData.Subset subset, int att) {
+
+      int[] sorted = subset.sorted(att);
+      if (sorted != null) {
+	return sorted;
+      }
+      int[] ids = subset.ids();
+      double[] values = subset.getData().values(att);
+      int[] order = new int[ids.length];
+      int count = 0;
+      for (int i = 0; i < ids.length; i++) {
+	if (!Utils.isMissingValue(values[ids[i]])) {
+	  order[count++] = i;
+	}
+      }
+      for (int i = 0; i < ids.length; i++) {
+	if (Utils.isMissingValue(values[ids[i]])) {
+	  order[count++] = i;
 	}
       }
+      return order;
     }
 
     /**
@@ -838,8 +805,9 @@ public class REPTree
      * @param props
      * @param dists
      * @param att the attribute index
-     * @param sortedIndices the sorted indices of the instances
-     * @param weights the weights of the instances
+     * @param order the positions of the instances in the order they are
+     * looked at for the attribute
+     * @param subset the instances that reach this node
      * @param subsetWeights the weights of the subset
      * @param data the data to work with
      * @return the split point
@@ -847,12 +815,14 @@ public class REPTree
      */
     protected double distribution(double[][] props,
 				  double[][][] dists, int att, 
-				  int[] sortedIndices,
-				  double[] weights, 
+				  int[] order,
+				  PresortedData.Subset subset, 
 				  double[][] subsetWeights, 
 				  Instances data) 
       throws Exception {
 
+      int[] ids = subset.ids();
+      double[] weights = subset.weights();
       double splitPoint = Double.NaN;
       Attribute attribute = data.attribute(att);
       double[][] dist = null;
@@ -862,12 +832,12 @@ public class REPTree
 
 	// For nominal attributes
 	dist = new double[attribute.numValues()][data.numClasses()];
-	for (i = 0; i < sortedIndices.length; i++) {
-	  Instance inst = data.instance(sortedIndices[i]);
+	for (i = 0; i < order.length; i++) {
+	  Instance inst = data.instance(ids[order[i]]);
 	  if (inst.isMissing(att)) {
 	    break;
 	  }
-	  dist[(int)inst.value(att)][(int)inst.classValue()] += weights[i];
+	  dist[(int)inst.value(att)][(int)inst.classValue()] += weights[order[i]];
 	}
       } else {
 
@@ -876,21 +846,21 @@ public class REPTree
 	dist = new double[2][data.numClasses()];
 
 	// Move all instances into second subset
-	for (int j = 0; j < sortedIndices.length; j++) {
-	  Instance inst = data.instance(sortedIndices[j]);
+	for (int j = 0; j < order.length; j++) {
+	  Instance inst = data.instance(ids[order[j]]);
 	  if (inst.isMissing(att)) {
 	    break;
 	  }
-	  currDist[1][(int)inst.classValue()] += weights[j];
+	  currDist[1][(int)inst.classValue()] += weights[order[j]];
 	}
 	double priorVal = priorVal(currDist);
 	System.arraycopy(currDist[1], 0, dist[1], 0, dist[1].length);
 
 	// Try all possible split points
-	double currSplit = data.instance(sortedIndices[0]).value(att);
+	double currSplit = data.instance(ids[order[0]]).value(att);
 	double currVal, bestVal = -Double.MAX_VALUE;
-	for (i = 0; i < sortedIndices.length; i++) {
-	  Instance inst = data.instance(sortedIndices[i]);
+	for (i = 0; i < order.length; i++) {
+	  Instance inst = data.instance(ids[order[i]]);
 	  if (inst.isMissing(att)) {
 	    break;
 	  }
@@ -906,8 +876,8 @@ public class REPTree
 	    } 
 	  } 
 	  currSplit = inst.value(att);
-	  currDist[0][(int)inst.classValue()] += weights[i];
-	  currDist[1][(int)inst.classValue()] -= weights[i];
+	  currDist[0][(int)inst.classValue()] += weights[order[i]];
+	  currDist[1][(int)inst.classValue()] -= weights[order[i]];
 	}
       }
 
@@ -925,10 +895,10 @@ public class REPTree
       }
     
       // Distribute counts
-      while (i < sortedIndices.length) {
-	Instance inst = data.instance(sortedIndices[i]);
+      while (i < order.length) {
+	Instance inst = data.instance(ids[order[i]]);
 	for (int j = 0; j < dist.length; j++) {
-	  dist[j][(int)inst.classValue()] += props[att][j] * weights[i];
+	  dist[j][(int)inst.classValue()] += props[att][j] * weights[order[i]];
 	}
 	i++;
       }
@@ -950,8 +920,9 @@ public class REPTree
      * @param props
      * @param dists
      * @param att the attribute index
-     * @param sortedIndices the sorted indices of the instances
-     * @param weights the weights of the instances
+     * @param order the positions of the instances in the order they are
+     * looked at for the attribute
+     * @param subset the instances that reach this node
      * @param subsetWeights the weights of the subset
      * @param data the data to work with
      * @param vals
@@ -960,13 +931,15 @@ public class REPTree
      */
     protected double numericDistribution(double[][] props, 
 					 double[][][] dists, int att, 
-					 int[] sortedIndices,
-					 double[] weights, 
+					 int[] order,
+					 PresortedData.Subset subset, 
 					 double[][] subsetWeights, 
 					 Instances data,
 					 double[] vals) 
       throws Exception {
 
+      int[] ids = subset.ids();
+      double[] weights = subset.weights();
       double splitPoint = Double.NaN;
       Attribute attribute = data.attribute(att);
       double[][] dist = null;
@@ -984,16 +957,16 @@ public class REPTree
         sumSquared = new double[attribute.numValues()];
 	sumOfWeights = new double[attribute.numValues()];
 	int attVal;
-	for (i = 0; i < sortedIndices.length; i++) {
-	  Instance inst = data.instance(sortedIndices[i]);
+	for (i = 0; i < order.length; i++) {
+	  Instance inst = data.instance(ids[order[i]]);
 	  if (inst.isMissing(att)) {
 	    break;
 	  }
 	  attVal = (int)inst.value(att);
-	  sums[attVal] += inst.classValue() * weights[i];
+	  sums[attVal] += inst.classValue() * weights[order[i]];
 	  sumSquared[attVal] += 
-	    inst.classValue() * inst.classValue() * weights[i];
-	  sumOfWeights[attVal] += weights[i];
+	    inst.classValue() * inst.classValue() * weights[order[i]];
+	  sumOfWeights[attVal] += weights[order[i]];
 	}
 	totalSum = Utils.sum(sums);
 	totalSumSquared = Utils.sum(sumSquared);
@@ -1009,15 +982,15 @@ public class REPTree
 	double[] currSumOfWeights = new double[2];
 
 	// Move all instances into second subset
-	for (int j = 0; j < sortedIndices.length; j++) {
-	  Instance inst = data.instance(sortedIndices[j]);
+	for (int j = 0; j < order.length; j++) {
+	  Instance inst = data.instance(ids[order[j]]);
 	  if (inst.isMissing(att)) {
 	    break;
 	  }
-	  currSums[1] += inst.classValue() * weights[j];
+	  currSums[1] += inst.classValue() * weights[order[j]];
 	  currSumSquared[1] += 
-	    inst.classValue() * inst.classValue() * weights[j];
-	  currSumOfWeights[1] += weights[j];
+	    inst.classValue() * inst.classValue() * weights[order[j]];
+	  currSumOfWeights[1] += weights[order[j]];
 	  
 	}
 	totalSum = currSums[1];
@@ -1029,10 +1002,10 @@ public class REPTree
 	sumOfWeights[1] = currSumOfWeights[1];
 
 	// Try all possible split points
-	double currSplit = data.instance(sortedIndices[0]).value(att);
+	double currSplit = data.instance(ids[order[0]]).value(att);
 	double currVal, bestVal = Double.MAX_VALUE;
-	for (i = 0; i < sortedIndices.length; i++) {
-	  Instance inst = data.instance(sortedIndices[i]);
+	for (i = 0; i < order.length; i++) {
+	  Instance inst = data.instance(ids[order[i]]);
 	  if (inst.isMissing(att)) {
 	    break;
 	  }
@@ -1051,16 +1024,16 @@ public class REPTree
 
 	  currSplit = inst.value(att);
 
-	  double classVal = inst.classValue() * weights[i];
+	  double classVal = inst.classValue() * weights[order[i]];
 	  double classValSquared = inst.classValue() * classVal;
 
 	  currSums[0] += classVal;
 	  currSumSquared[0] += classValSquared;
-	  currSumOfWeights[0] += weights[i];
+	  currSumOfWeights[0] += weights[order[i]];
 
 	  currSums[1] -= classVal;
 	  currSumSquared[1] -= classValSquared;
-	  currSumOfWeights[1] -= weights[i];
+	  currSumOfWeights[1] -= weights[order[i]];
 	}
       }
 
@@ -1079,18 +1052,18 @@ public class REPTree
     
 	
       // Distribute counts for missing values
-      while (i < sortedIndices.length) {
-	Instance inst = data.instance(sortedIndices[i]);
+      while (i < order.length) {
+	Instance inst = data.instance(ids[order[i]]);
 	for (int j = 0; j < sums.length; j++) {
-	  sums[j] += props[att][j] * inst.classValue() * weights[i];
+	  sums[j] += props[att][j] * inst.classValue() * weights[order[i]];
 	  sumSquared[j] += props[att][j] * inst.classValue() * 
-	    inst.classValue() * weights[i];
-	  sumOfWeights[j] += props[att][j] * weights[i];
+	    inst.classValue() * weights[order[i]];
+	  sumOfWeights[j] += props[att][j] * weights[order[i]];
 	}
-	totalSum += inst.classValue() * weights[i];
+	totalSum += inst.classValue() * weights[order[i]];
 	totalSumSquared += 
-	  inst.classValue() * inst.classValue() * weights[i]; 
-	totalSumOfWeights += weights[i];
+	  inst.classValue() * inst.classValue() * weights[order[i]]; 
+	totalSumOfWeights += weights[order[i]];
 	i++;
       }
 
@@ -1862,49 +1835,8 @@ public class REPTree
       train = data;
     }
 
-    // Create array of sorted indices and weights
-    int[][][] sortedIndices = new int[1][train.numAttributes()][0];
-    double[][][] weights = new double[1][train.numAttributes()][0];
-    double[] vals = new double[train.numInstances()];
-    for (int j = 0; j < train.numAttributes(); j++) {
-      if (j != train.classIndex()) {
-	weights[0][j] = new double[train.numInstances()];
-	if (train.attribute(j).isNominal()) {
-
-	  // Handling nominal attributes. Putting indices of
-	  // instances with missing values at the end.
-	  sortedIndices[0][j] = new int[train.numInstances()];
-	  int count = 0;
-	  for (int i = 0; i < train.numInstances(); i++) {
-	    Instance inst = train.instance(i);
-	    if (!inst.isMissing(j)) {
-	      sortedIndices[0][j][count] = i;
-	      weights[0][j][count] = inst.weight();
-	      count++;
-	    }
-	  }
-	  for (int i = 0; i < train.numInstances(); i++) {
-	    Instance inst = train.instance(i);
-	    if (inst.isMissing(j)) {
-	      sortedIndices[0][j][count] = i;
-	      weights[0][j][count] = inst.weight();
-	      count++;
-	    }
-	  }
-	} else {
-
-	  // Sorted indices are computed for numeric attributes
-	  for (int i = 0; i < train.numInstances(); i++) {
-	    Instance inst = train.instance(i);
-	    vals[i] = inst.value(j);
-	  }
-	  sortedIndices[0][j] = Utils.sort(vals);
-	  for (int i = 0; i < train.numInstances(); i++) {
-	    weights[0][j][i] = train.instance(sortedIndices[0][j][i]).weight();
-	  }
-	}
-      }
-    }
+    // Sort the numeric attributes once for the whole tree
+    PresortedData.Subset subset = new PresortedData(train).root();
 
     // Compute initial class counts
     double[] classProbs = new double[train.numClasses()];
@@ -1929,7 +1861,7 @@ public class REPTree
     }
 
     // Build tree
-    m_Tree.buildTree(sortedIndices, weights, train, totalWeight, classProbs,
+    m_Tree.buildTree(subset, train, totalWeight, classProbs,
 		     new Instances(train, 0), m_MinNum, m_MinVarianceProp * 
 		     trainVariance, 0, m_MaxDepth);
     
@@ -27,6 +27,7 @@ import java.util.Vector;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.meta.Bagging;
 import weka.core.AdditionalMeasureProducer;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -103,7 +104,8 @@ import weka.core.WeightedInstancesHandler;
 public class RandomForest 
   extends AbstractClassifier 
   implements OptionHandler, Randomizable, WeightedInstancesHandler, 
-             AdditionalMeasureProducer, TechnicalInformationHandler {
+             AdditionalMeasureProducer, TechnicalInformationHandler,
+             BatchPredictor {
 
   /** for serialization */
   static final long serialVersionUID = 4216839470751428698L;
@@ -600,6 +602,18 @@ public class RandomForest
     return m_bagger.distributionForInstance(instance);
   }
 
+  /**
+   * Returns the class probability distributions for a batch of instances.
+   *
+   * @param insts the instances to be classified
+   * @return the distributions the forest generates for the instances
+   * @throws Exception if computation fails
+   */
+  public double[][] distributionsForInstances(Instances insts) throws Exception {
+
+    return m_bagger.distributionsForInstances(insts);
+  }
+
   /**
    * Outputs a description of this classifier.
    *
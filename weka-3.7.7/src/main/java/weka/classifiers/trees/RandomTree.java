@@ -28,6 +28,7 @@ import java.util.Vector;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.core.Attribute;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.ContingencyTables;
@@ -82,7 +83,8 @@ import weka.core.WeightedInstancesHandler;
  * @version $Revision: 8034 $
  */
 public class RandomTree extends AbstractClassifier implements OptionHandler,
-WeightedInstancesHandler, Randomizable, Drawable {
+WeightedInstancesHandler, Randomizable, Drawable, BatchPredictor,
+PresortedDataHandler {
 
   /** for serialization */
   static final long serialVersionUID = 8934314652175299374L;
@@ -574,7 +576,7 @@ WeightedInstancesHandler, Randomizable, Drawable {
     }
 
     // Build tree 
-    buildTree(train, classProbs, new Instances(data, 0), m_MinNum, m_Debug, attIndicesWindow, 
+    buildTree(PresortedDataCache.get(train).root(), classProbs, new Instances(data, 0), m_MinNum, m_Debug, attIndicesWindow, 
               rand, 0, getAllowUnclassifiedInstances());
       
     // Backfit if required
@@ -583,6 +585,80 @@ WeightedInstancesHandler, Randomizable, Drawable {
     }
   }
 
+  /**
+   * Returns whether the tree can be built from presorted data, which is
+   * the case unless backfitting is used.
+   * 
+   * @param data
+   *            the header of the training data
+   * @return true if the tree can be built from presorted data
+   */
+  public boolean canBuildFromPresortedData(Instances data) {
+
+    return (m_NumFolds <= 0) && (data.numAttributes() > 1);
+  }
+
+  /**
+   * Builds the tree from presorted data, given how many times each 
+   * training instance is used (e.g. in a bootstrap sample). Gives the
+   * same tree as buildClassifier() on a set of instances that holds 
+   * each training instance that many times.
+   * 
+   * @param data
+   *            the presorted training data
+   * @param counts
+   *            how many times each training instance is used
+   * @throws Exception
+   *             if something goes wrong
+   */
+  public void buildClassifier(PresortedData data, int[] counts) throws Exception {
+
+    Instances header = data.getHeader();
+
+    // Make sure K value is in range
+    if (m_KValue > header.numAttributes() - 1)
+      m_KValue = header.numAttributes() - 1;
+    if (m_KValue < 1)
+      m_KValue = (int) Utils.log2(header.numAttributes()) + 1;
+    m_ZeroR = null;
+
+    // Leave out instances with missing class and compute initial class counts
+    double[] weights = new double[counts.length];
+    double[] classValues = data.values(header.classIndex());
+    double[] classProbs = new double[header.numClasses()];
+    int numInstances = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if (!Utils.isMissingValue(classValues[i])) {
+        weights[i] = counts[i];
+        classProbs[(int) classValues[i]] += counts[i];
+        numInstances += counts[i];
+      }
+    }
+
+    // Seed the random number generator the same way as
+    // Instances.getRandomNumberGenerator() does
+    Random rand = new Random(m_randomSeed);
+    int pos = rand.nextInt(numInstances);
+    int id = 0;
+    while (pos >= weights[id]) {
+      pos -= weights[id++];
+    }
+    rand.setSeed(data.instance(id).toStringNoWeight().hashCode() + (long) m_randomSeed);
+
+    // Create the attribute indices window
+    int[] attIndicesWindow = new int[header.numAttributes() - 1];
+    int j = 0;
+    for (int i = 0; i < attIndicesWindow.length; i++) {
+      if (j == header.classIndex())
+        j++; // do not include the class
+      attIndicesWindow[i] = j++;
+    }
+
+    // Build tree 
+    buildTree(data.subset(weights), classProbs, new Instances(header, 0), m_MinNum, m_Debug, attIndicesWindow, 
+              rand, 0, getAllowUnclassifiedInstances());
+  }
+
   /**
    * Backfits the given data into the tree.
    */
@@ -599,6 +675,127 @@ WeightedInstancesHandler, Randomizable, Drawable {
     backfitData(data, classProbs);
   }
 
+  /**
+   * Computes class distributions for a batch of instances using the 
+   * decision tree. Rather than going down the tree once per instance, the
+   * batch is split up among the successors of each node, so that every 
+   * node is visited once for all the instances that reach it. Instances
+   * that are missing a node's split attribute go down every branch of 
+   * that node one at a time, just like distributionForInstance() does it.
+   * 
+   * @param insts
+   *            the instances to compute the distributions for
+   * @return the computed class distributions
+   * @throws Exception
+   *             if computation fails
+   */
+  public double[][] distributionsForInstances(Instances insts) throws Exception {
+
+    double[][] dists = new double[insts.numInstances()][];
+    if (m_ZeroR != null) {
+      for (int i = 0; i < dists.length; i++) {
+        dists[i] = m_ZeroR.distributionForInstance(insts.instance(i));
+      }
+      return dists;
+    }
+
+    int[] indices = new int[dists.length];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = i;
+    }
+    distributionsForInstances(insts, indices, indices.length, dists);
+    return dists;
+  }
+
+  /**
+   * Computes the class distributions of the instances of a batch that 
+   * reach this node.
+   * 
+   * @param insts
+   *            the whole batch
+   * @param indices
+   *            the indices of the instances that reach this node
+   * @param count
+   *            the number of indices that are used
+   * @param dists
+   *            receives the distributions, at the same indices as the 
+   *            instances, null for those that end up in an empty node
+   * @throws Exception
+   *             if computation fails
+   */
+  protected void distributionsForInstances(Instances insts, int[] indices, 
+      int count, double[][] dists) throws Exception {
+
+    if (m_Attribute > -1) {
+
+      // Node is not a leaf: work out which branch each instance takes
+      boolean nominal = m_Info.attribute(m_Attribute).isNominal();
+      int[] branches = new int[count];
+      int[] sizes = new int[m_Successors.length];
+      for (int n = 0; n < count; n++) {
+        Instance instance = insts.instance(indices[n]);
+        if (instance.isMissing(m_Attribute)) {
+          branches[n] = -1;
+        } else if (nominal) {
+          branches[n] = (int) instance.value(m_Attribute);
+        } else {
+          branches[n] = (instance.value(m_Attribute) < m_SplitPoint) ? 0 : 1;
+        }
+        if (branches[n] >= 0) {
+          sizes[branches[n]]++;
+        }
+      }
+
+      int[][] successorIndices = new int[m_Successors.length][];
+      for (int i = 0; i < m_Successors.length; i++) {
+        successorIndices[i] = new int[sizes[i]];
+        sizes[i] = 0;
+      }
+      for (int n = 0; n < count; n++) {
+        if (branches[n] >= 0) {
+          successorIndices[branches[n]][sizes[branches[n]]++] = indices[n];
+        } else {
+          // Value is missing, so split the instance up
+          Instance instance = insts.instance(indices[n]);
+          double[] returnedDist = new double[m_Info.numClasses()];
+          for (int i = 0; i < m_Successors.length; i++) {
+            double[] help = m_Successors[i].distributionForInstance(instance);
+            if (help != null) {
+              for (int j = 0; j < help.length; j++) {
+                returnedDist[j] += m_Prop[i] * help[j];
+              }
+            }
+          }
+          dists[indices[n]] = returnedDist;
+        }
+      }
+      for (int i = 0; i < m_Successors.length; i++) {
+        if (sizes[i] > 0) {
+          m_Successors[i].distributionsForInstances(insts, 
+              successorIndices[i], sizes[i], dists);
+        }
+      }
+    }
+
+    // Node is a leaf, or successors were empty?
+    double[] normalizedDistribution = null;
+    for (int n = 0; n < count; n++) {
+      if ((m_Attribute > -1) && (dists[indices[n]] != null)) {
+        continue;
+      }
+      if (m_ClassDistribution == null) {
+        dists[indices[n]] = getAllowUnclassifiedInstances() 
+          ? new double[m_Info.numClasses()] : null;
+        continue;
+      }
+      if (normalizedDistribution == null) {
+        normalizedDistribution = (double[]) m_ClassDistribution.clone();
+        Utils.normalize(normalizedDistribution);
+      }
+      dists[indices[n]] = (double[]) normalizedDistribution.clone();
+    }
+  }
+
   /**
    * Computes class distribution of an instance using the decision tree.
    * 
@@ -967,7 +1164,7 @@ WeightedInstancesHandler, Randomizable, Drawable {
    * Recursively generates a tree.
    * 
    * @param data
-   *            the data to work with
+   *            the instances that reach this node
    * @param classProbs
    *            the class distribution
    * @param header
@@ -987,10 +1184,13 @@ WeightedInstancesHandler, Randomizable, Drawable {
    * @throws Exception
    *             if generation fails
    */
-  protected void buildTree(Instances data, double[] classProbs, Instances header,
+  protected void buildTree(PresortedData.Subset data, double[] classProbs, Instances header,
                            double minNum, boolean debug, int[] attIndicesWindow,
                            Random random, int depth, boolean allow) throws Exception {
 
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedException("Tree building was interrupted");
+    }
     // Store structure of dataset, set minimum number of instances
     m_Info = header;
     m_Debug = debug;
@@ -998,7 +1198,7 @@ WeightedInstancesHandler, Randomizable, Drawable {
     m_AllowUnclassifiedInstances = allow;
 
     // Make leaf if there are no training instances
-    if (data.numInstances() == 0) {
+    if (data.size() == 0) {
       m_Attribute = -1;
       m_ClassDistribution = null;
       m_Prop = null;
@@ -1021,10 +1221,10 @@ WeightedInstancesHandler, Randomizable, Drawable {
 
     // Compute class distributions and value of splitting
     // criterion for each attribute
-    double[] vals = new double[data.numAttributes()];
-    double[][][] dists = new double[data.numAttributes()][0][0];
-    double[][] props = new double[data.numAttributes()][0];
-    double[] splits = new double[data.numAttributes()];
+    double[] vals = new double[header.numAttributes()];
+    double[][][] dists = new double[header.numAttributes()][0][0];
+    double[][] props = new double[header.numAttributes()][0];
+    double[] splits = new double[header.numAttributes()];
     
     // Investigate K random attributes
     int attIndex = 0;
@@ -1058,7 +1258,7 @@ WeightedInstancesHandler, Randomizable, Drawable {
       // Build subtrees
       m_SplitPoint = splits[m_Attribute];
       m_Prop = props[m_Attribute];
-      Instances[] subsets = splitData(data);
+      PresortedData.Subset[] subsets = splitData(data);
       m_Successors = new RandomTree[distribution.length];
       for (int i = 0; i < distribution.length; i++) {
         m_Successors[i] = new RandomTree();
@@ -1172,6 +1372,39 @@ WeightedInstancesHandler, Randomizable, Drawable {
     return subsets;
   }
 
+  /**
+   * Splits the instances that reach this node based on the given split.
+   * 
+   * @param data
+   *            the instances that reach this node
+   * @return  the subsets for the successors
+   * @throws Exception
+   *             if something goes wrong
+   */
+  protected PresortedData.Subset[] splitData(PresortedData.Subset data) throws Exception {
+
+    int[] ids = data.ids();
+    double[] values = data.getData().values(m_Attribute);
+    boolean[] missing = data.getData().missing(m_Attribute);
+    boolean nominal = m_Info.attribute(m_Attribute).isNominal();
+    int[] branches = new int[ids.length];
+    double[][] props = new double[ids.length][];
+    for (int i = 0; i < ids.length; i++) {
+      double value = values[ids[i]];
+      if (missing != null && missing[ids[i]]) {
+
+        // Split instance up
+        branches[i] = -1;
+        props[i] = m_Prop;
+      } else if (nominal) {
+        branches[i] = (int) value;
+      } else {
+        branches[i] = (value < m_SplitPoint) ? 0 : 1;
+      }
+    }
+    return data.split(branches, props, m_Prop.length, 0);
+  }
+
   /**
    * Computes class distribution for an attribute.
    * 
@@ -1180,53 +1413,56 @@ WeightedInstancesHandler, Randomizable, Drawable {
    * @param att
    *            the attribute index
    * @param data
-   *            the data to work with
+   *            the instances that reach this node
    * @throws Exception
    *             if something goes wrong
    */
-  protected double distribution(double[][] props, double[][][] dists, int att, Instances data)
+  protected double distribution(double[][] props, double[][][] dists, int att, PresortedData.Subset data)
   throws Exception {
 
     double splitPoint = Double.NaN;
-    Attribute attribute = data.attribute(att);
+    Attribute attribute = m_Info.attribute(att);
     double[][] dist = null;
-    int indexOfFirstMissingValue = -1;
+    int[] ids = data.ids();
+    double[] weights = data.weights();
+    double[] values = data.getData().values(att);
+    double[] classValues = data.getData().values(m_Info.classIndex());
+    boolean[] missing = data.getData().missing(att);
+    int[] sorted = data.sorted(att);
+    int firstMissing = -1;
 
     if (attribute.isNominal()) {
 
       // For nominal attributes
-      dist = new double[attribute.numValues()][data.numClasses()];
-      for (int i = 0; i < data.numInstances(); i++) {
-        Instance inst = data.instance(i);
-        if (inst.isMissing(att)) {
+      dist = new double[attribute.numValues()][m_Info.numClasses()];
+      for (int i = 0; i < ids.length; i++) {
+        double value = values[ids[i]];
+        if (missing != null && missing[ids[i]]) {
 
           // Skip missing values at this stage
-          if (indexOfFirstMissingValue < 0) {
-            indexOfFirstMissingValue = i;
+          if (firstMissing < 0) {
+            firstMissing = i;
           }
           continue;
         }
-        dist[(int) inst.value(att)][(int) inst.classValue()] += inst.weight();
+        dist[(int) value][(int) classValues[ids[i]]] += weights[i];
       }
     } else {
 
       // For numeric attributes
-      double[][] currDist = new double[2][data.numClasses()];
-      dist = new double[2][data.numClasses()];
-
-      // Sort data
-      data.sort(att);
+      double[][] currDist = new double[2][m_Info.numClasses()];
+      dist = new double[2][m_Info.numClasses()];
 
       // Move all instances into second subset
-      for (int j = 0; j < data.numInstances(); j++) {
-        Instance inst = data.instance(j);
-        if (inst.isMissing(att)) {
+      for (int j = 0; j < sorted.length; j++) {
+        int pos = sorted[j];
+        if (missing != null && missing[ids[pos]]) {
 
           // Can stop as soon as we hit a missing value
-          indexOfFirstMissingValue = j;
+          firstMissing = j;
           break;
         }
-        currDist[1][(int) inst.classValue()] += inst.weight();
+        currDist[1][(int) classValues[ids[pos]]] += weights[pos];
       }
 
       // Value before splitting
@@ -1238,18 +1474,19 @@ WeightedInstancesHandler, Randomizable, Drawable {
       }
 
       // Try all possible split points
-      double currSplit = data.instance(0).value(att);
+      double currSplit = values[ids[sorted[0]]];
       double currVal, bestVal = -Double.MAX_VALUE;
-      for (int i = 0; i < data.numInstances(); i++) {
-        Instance inst = data.instance(i);
-        if (inst.isMissing(att)) {
+      for (int i = 0; i < sorted.length; i++) {
+        int pos = sorted[i];
+        double value = values[ids[pos]];
+        if (missing != null && missing[ids[pos]]) {
 
           // Can stop as soon as we hit a missing value
           break;
         }
 
         // Can we place a sensible split point here?
-        if (inst.value(att) > currSplit) {
+        if (value > currSplit) {
 
           // Compute gain for split point
           currVal = gain(currDist, priorVal);
@@ -1261,7 +1498,7 @@ WeightedInstancesHandler, Randomizable, Drawable {
             bestVal = currVal;
 
             // Save split point
-            splitPoint = (inst.value(att) + currSplit) / 2.0;
+            splitPoint = (value + currSplit) / 2.0;
 
             // Save distribution
             for (int j = 0; j < currDist.length; j++) {
@@ -1269,11 +1506,12 @@ WeightedInstancesHandler, Randomizable, Drawable {
             }
           }
         }
-        currSplit = inst.value(att);
+        currSplit = value;
 
         // Shift over the weight
-        currDist[0][(int) inst.classValue()] += inst.weight();
-        currDist[1][(int) inst.classValue()] -= inst.weight();
+        int classIndex = (int) classValues[ids[pos]];
+        currDist[0][classIndex] += weights[pos];
+        currDist[1][classIndex] -= weights[pos];
       }
     }
 
@@ -1291,24 +1529,26 @@ WeightedInstancesHandler, Randomizable, Drawable {
     }
 
     // Any instances with missing values ?
-    if (indexOfFirstMissingValue > -1) {
+    if (firstMissing > -1) {
 
       // Distribute weights for instances with missing values
-      for (int i = indexOfFirstMissingValue; i < data.numInstances(); i++) {
-        Instance inst = data.instance(i);
-        if (attribute.isNominal()) {
+      if (attribute.isNominal()) {
+        for (int i = firstMissing; i < ids.length; i++) {
 
           // Need to check if attribute value is missing
-          if (inst.isMissing(att)) {
+          if (missing[ids[i]]) {
             for (int j = 0; j < dist.length; j++) {
-              dist[j][(int) inst.classValue()] += props[att][j] * inst.weight();
+              dist[j][(int) classValues[ids[i]]] += props[att][j] * weights[i];
             }
           }
-        } else {
+        }
+      } else {
 
-          // Can be sure that value is missing, so no test required
+        // Can be sure that value is missing, so no test required
+        for (int i = firstMissing; i < sorted.length; i++) {
+          int pos = sorted[i];
           for (int j = 0; j < dist.length; j++) {
-            dist[j][(int) inst.classValue()] += props[att][j] * inst.weight();
+            dist[j][(int) classValues[ids[pos]]] += props[att][j] * weights[pos];
           }
         }
       }
@@ -23,6 +23,7 @@ package weka.classifiers.trees.j48;
 
 import java.util.Enumeration;
 
+import weka.classifiers.trees.PresortedData;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionUtils;
@@ -94,6 +95,22 @@ public class BinC45Split
   public void buildClassifier(Instances trainInstances)
        throws Exception {
 
+    buildClassifier(trainInstances, null);
+  }
+
+  /**
+   * Creates a C4.5-type split on the given data, taking the order of
+   * the instances for a numeric attribute from the given subset of
+   * presorted data instead of sorting them.
+   *
+   * @param trainInstances the data, in the order of the subset
+   * @param subset the subset, or null if the data is to be sorted
+   * @exception Exception if something goes wrong
+   */
+  public void buildClassifier(Instances trainInstances,
+			      PresortedData.Subset subset)
+       throws Exception {
+
     // Initialize the remaining instance variables.
     m_numSubsets = 0;
     m_splitPoint = Double.MAX_VALUE;
@@ -105,8 +122,8 @@ public class BinC45Split
     if (trainInstances.attribute(m_attIndex).isNominal()){
       handleEnumeratedAttribute(trainInstances);
     }else{
-      trainInstances.sort(trainInstances.attribute(m_attIndex));
-      handleNumericAttribute(trainInstances);
+      handleNumericAttribute(trainInstances, 
+			     sortedOrder(trainInstances, m_attIndex, subset));
     }
   }    
 
@@ -220,7 +237,7 @@ public class BinC45Split
    *
    * @exception Exception if something goes wrong
    */
-  private void handleNumericAttribute(Instances trainInstances)
+  private void handleNumericAttribute(Instances trainInstances, int[] order)
        throws Exception {
   
     int firstMiss;
@@ -238,14 +255,11 @@ public class BinC45Split
     m_distribution = new Distribution(2,trainInstances.numClasses());
     
     // Only Instances with known values are relevant.
-    Enumeration enu = trainInstances.enumerateInstances();
-    i = 0;
-    while (enu.hasMoreElements()) {
-      instance = (Instance) enu.nextElement();
+    for (i = 0; i < order.length; i++) {
+      instance = trainInstances.instance(order[i]);
       if (instance.isMissing(m_attIndex))
 	break;
       m_distribution.add(1,instance);
-      i++;
     }
     firstMiss = i;
 
@@ -268,12 +282,12 @@ public class BinC45Split
     defaultEnt = m_infoGainCrit.oldEnt(m_distribution);
     while (next < firstMiss){
 	  
-      if (trainInstances.instance(next-1).value(m_attIndex)+1e-5 < 
-	  trainInstances.instance(next).value(m_attIndex)){ 
+      if (trainInstances.instance(order[next-1]).value(m_attIndex)+1e-5 < 
+	  trainInstances.instance(order[next]).value(m_attIndex)){ 
 	
 	// Move class values for all Instances up to next 
 	// possible split point.
-	m_distribution.shiftRange(1,0,trainInstances,last,next);
+	m_distribution.shiftRange(1,0,trainInstances,order,last,next);
 	
 	// Check if enough Instances in each subset and compute
 	// values for criteria.
@@ -308,19 +322,19 @@ public class BinC45Split
     // best split.
     m_numSubsets = 2;
     m_splitPoint = 
-      (trainInstances.instance(splitIndex+1).value(m_attIndex)+
-       trainInstances.instance(splitIndex).value(m_attIndex))/2;
+      (trainInstances.instance(order[splitIndex+1]).value(m_attIndex)+
+       trainInstances.instance(order[splitIndex]).value(m_attIndex))/2;
 
     // In case we have a numerical precision problem we need to choose the
     // smaller value
-    if (m_splitPoint == trainInstances.instance(splitIndex + 1).value(m_attIndex)) {
-      m_splitPoint = trainInstances.instance(splitIndex).value(m_attIndex);
+    if (m_splitPoint == trainInstances.instance(order[splitIndex + 1]).value(m_attIndex)) {
+      m_splitPoint = trainInstances.instance(order[splitIndex]).value(m_attIndex);
     }
 
     // Restore distributioN for best split.
     m_distribution = new Distribution(2,trainInstances.numClasses());
-    m_distribution.addRange(0,trainInstances,0,splitIndex+1);
-    m_distribution.addRange(1,trainInstances,splitIndex+1,firstMiss);
+    m_distribution.addRange(0,trainInstances,order,0,splitIndex+1);
+    m_distribution.addRange(1,trainInstances,order,splitIndex+1,firstMiss);
 
     // Compute modified gain ratio for best split.
     m_gainRatio = m_gainRatioCrit.
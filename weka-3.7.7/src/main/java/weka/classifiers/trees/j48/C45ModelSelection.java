@@ -23,6 +23,7 @@ package weka.classifiers.trees.j48;
 
 import java.util.Enumeration;
 
+import weka.classifiers.trees.PresortedData;
 import weka.core.Attribute;
 import weka.core.Instances;
 import weka.core.RevisionUtils;
@@ -79,6 +80,17 @@ public class C45ModelSelection
    */
   public final ClassifierSplitModel selectModel(Instances data){
 
+    return selectModel(data, (PresortedData.Subset) null);
+  }
+
+  /**
+   * Selects C4.5-type split for the given dataset, taking the order of
+   * the instances for numeric attributes from the given subset of
+   * presorted data (or sorting them if it is null).
+   */
+  public final ClassifierSplitModel selectModel(Instances data,
+						PresortedData.Subset subset){
+
     double minResult;
     double currentResult;
     C45Split [] currentModel;
@@ -129,7 +141,7 @@ public class C45ModelSelection
 	  
 	  // Get models for current attribute.
 	  currentModel[i] = new C45Split(i,m_minNoObj,sumOfWeights,m_useMDLcorrection);
-	  currentModel[i].buildClassifier(data);
+	  currentModel[i].buildClassifier(data, subset);
 	  
 	  // Check if useful split for current attribute
 	  // exists and check for enumerated attributes with 
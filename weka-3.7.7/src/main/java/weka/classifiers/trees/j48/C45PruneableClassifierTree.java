@@ -21,6 +21,7 @@
 
 package weka.classifiers.trees.j48;
 
+import weka.classifiers.trees.PresortedData;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Instances;
@@ -123,7 +124,8 @@ public class C45PruneableClassifierTree
     data = new Instances(data);
     data.deleteWithMissingClass();
     
-   buildTree(data, m_subtreeRaising || !m_cleanup);
+   buildTree(data, new PresortedData(data).root(), 
+	     m_subtreeRaising || !m_cleanup);
    if (m_collapseTheTree) {
      collapse();
    }
@@ -240,6 +242,26 @@ public class C45PruneableClassifierTree
     return newTree;
   }
 
+  /**
+   * Returns a new tree, built using the given subset of presorted data.
+   *
+   * @param data the data for the tree, in the order of the subset
+   * @param subset the subset of presorted data
+   * @return the new tree
+   * @throws Exception if something goes wrong
+   */
+  protected ClassifierTree getNewTree(Instances data, 
+				      PresortedData.Subset subset) 
+       throws Exception {
+    
+    C45PruneableClassifierTree newTree = 
+      new C45PruneableClassifierTree(m_toSelectModel, m_pruneTheTree, m_CF,
+				     m_subtreeRaising, m_cleanup, m_collapseTheTree);
+    newTree.buildTree(data, subset, m_subtreeRaising || !m_cleanup);
+
+    return newTree;
+  }
+
   /**
    * Computes estimated errors for tree.
    * 
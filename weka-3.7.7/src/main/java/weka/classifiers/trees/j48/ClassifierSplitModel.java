@@ -23,6 +23,7 @@ package weka.classifiers.trees.j48;
 
 import java.io.Serializable;
 
+import weka.classifiers.trees.PresortedData;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionHandler;
@@ -271,6 +272,54 @@ public abstract class ClassifierSplitModel
     return instances;
   }
 
+  /**
+   * Splits the given subset of presorted data the same way as the
+   * instances it stands for, so that the positions in each of the
+   * resulting subsets match the instances returned by split().
+   *
+   * @param data the instances, in the order of the subset
+   * @param subset the subset to split
+   * @exception Exception if something goes wrong
+   */
+  public final PresortedData.Subset [] split(Instances data,
+					     PresortedData.Subset subset)
+       throws Exception {
+
+    int [] branches = new int [data.numInstances()];
+    double [][] props = new double [data.numInstances()][];
+    int i;
+
+    for (i = 0; i < data.numInstances(); i++) {
+      branches[i] = whichSubset(data.instance(i));
+      if (branches[i] < 0)
+	props[i] = weights(data.instance(i));
+    }
+    return subset.split(branches, props, m_numSubsets, Utils.SMALL);
+  }
+
+  /**
+   * Returns the positions of the given instances sorted by the values
+   * of a numeric attribute, with missing values last. The positions
+   * are taken from the subset if there is one; otherwise the instances
+   * are sorted in place.
+   *
+   * @param data the instances
+   * @param attIndex the index of the attribute
+   * @param subset the subset of presorted data for the instances, or null
+   * @return the positions in sorted order
+   */
+  protected static int [] sortedOrder(Instances data, int attIndex,
+				      PresortedData.Subset subset) {
+
+    if (subset != null)
+      return subset.sorted(attIndex);
+    data.sort(attIndex);
+    int [] order = new int [data.numInstances()];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    return order;
+  }
+
   /**
    * Returns weights if instance is assigned to more than one subset.
    * Returns null if instance is only assigned to one subset.
@@ -23,6 +23,7 @@ package weka.classifiers.trees.j48;
 
 import java.io.Serializable;
 
+import weka.classifiers.trees.PresortedData;
 import weka.core.Capabilities;
 import weka.core.CapabilitiesHandler;
 import weka.core.Drawable;
@@ -141,8 +142,30 @@ public class ClassifierTree
    * @throws Exception if something goes wrong
    */
   public void buildTree(Instances data, boolean keepData) throws Exception {
+
+    buildTree(data, (PresortedData.Subset) null, keepData);
+  }
+
+  /**
+   * Builds the tree structure, taking the order of the instances for
+   * numeric attributes from the given subset of presorted data.
+   *
+   * @param data the data for which the tree structure is to be
+   * generated, in the order of the subset
+   * @param subset the subset of presorted data, or null if the data is
+   * to be sorted at each node
+   * @param keepData is training data to be kept?
+   * @throws Exception if something goes wrong
+   */
+  public void buildTree(Instances data, PresortedData.Subset subset,
+			boolean keepData) throws Exception {
     
     Instances [] localInstances;
+    PresortedData.Subset [] localSubsets = null;
+
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedException("Tree building was interrupted");
+    }
 
     if (keepData) {
       m_train = data;
@@ -151,13 +174,26 @@ public class ClassifierTree
     m_isLeaf = false;
     m_isEmpty = false;
     m_sons = null;
-    m_localModel = m_toSelectModel.selectModel(data);
+    if (subset != null) {
+      m_localModel = m_toSelectModel.selectModel(data, subset);
+    } else {
+      m_localModel = m_toSelectModel.selectModel(data);
+    }
     if (m_localModel.numSubsets() > 1) {
+      if (subset != null) {
+	localSubsets = m_localModel.split(data, subset);
+	subset = null;
+      }
       localInstances = m_localModel.split(data);
       data = null;
       m_sons = new ClassifierTree [m_localModel.numSubsets()];
       for (int i = 0; i < m_sons.length; i++) {
-	m_sons[i] = getNewTree(localInstances[i]);
+	if (localSubsets != null) {
+	  m_sons[i] = getNewTree(localInstances[i], localSubsets[i]);
+	  localSubsets[i] = null;
+	} else {
+	  m_sons[i] = getNewTree(localInstances[i]);
+	}
 	localInstances[i] = null;
       }
     }else{
@@ -183,6 +219,9 @@ public class ClassifierTree
     Instances [] localTrain, localTest;
     int i;
     
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedException("Tree building was interrupted");
+    }
     if (keepData) {
       m_train = train;
     }
@@ -261,17 +300,8 @@ public class ClassifierTree
 						 boolean useLaplace) 
        throws Exception {
 
-    double [] doubles = new double[instance.numClasses()];
-
-    for (int i = 0; i < doubles.length; i++) {
-      if (!useLaplace) {
-	doubles[i] = getProbs(i, instance, 1);
-      } else {
-	doubles[i] = getProbsLaplace(i, instance, 1);
-      }
-    }
-
-    return doubles;
+    // one pass down the tree for all the classes, rather than one per class
+    return getAllProbs(instance, 1, useLaplace);
   }
 
   /**
@@ -499,6 +529,23 @@ public class ClassifierTree
     return newTree;
   }
 
+  /**
+   * Returns a newly created tree, built using the given subset of
+   * presorted data. Trees that don't make use of presorted data just
+   * build the new tree from the instances.
+   *
+   * @param data the training data, in the order of the subset
+   * @param subset the subset of presorted data
+   * @return the generated tree
+   * @throws Exception if something goes wrong
+   */
+  protected ClassifierTree getNewTree(Instances data, 
+				      PresortedData.Subset subset) 
+       throws Exception {
+
+    return getNewTree(data);
+  }
+
   /**
    * Returns a newly created tree.
    *
@@ -607,6 +654,66 @@ public class ClassifierTree
     text.append("]");
   }
 
+  /**
+   * Help method for computing the probabilities of all classes for a 
+   * given instance in a single traversal. Adds things up in the same 
+   * order as getProbs() and getProbsLaplace(), so gives the same result.
+   *
+   * @param instance the instance to compute the probabilities for
+   * @param weight the weight to use
+   * @param useLaplace whether to use laplace or not
+   * @return the probs
+   * @throws Exception if something goes wrong
+   */
+  private double [] getAllProbs(Instance instance, double weight,
+				boolean useLaplace) throws Exception {
+
+    double [] probs = new double[instance.numClasses()];
+
+    if (m_isLeaf) {
+      for (int j = 0; j < probs.length; j++) {
+	probs[j] = weight * classProb(j, instance, -1, useLaplace);
+      }
+    } else {
+      int treeIndex = localModel().whichSubset(instance);
+      if (treeIndex == -1) {
+	double[] weights = localModel().weights(instance);
+	for (int i = 0; i < m_sons.length; i++) {
+	  if (!son(i).m_isEmpty) {
+	    double[] sonProbs = son(i).getAllProbs(instance, 
+						   weights[i] * weight, 
+						   useLaplace);
+	    for (int j = 0; j < probs.length; j++) {
+	      probs[j] += sonProbs[j];
+	    }
+	  }
+	}
+      } else {
+	if (son(treeIndex).m_isEmpty) {
+	  for (int j = 0; j < probs.length; j++) {
+	    probs[j] = weight * classProb(j, instance, treeIndex, useLaplace);
+	  }
+	} else {
+	  return son(treeIndex).getAllProbs(instance, weight, useLaplace);
+	}
+      }
+    }
+    return probs;
+  }
+
+  /**
+   * Gets the (laplace) class probability from the local model.
+   */
+  private double classProb(int classIndex, Instance instance, int theSubset,
+			   boolean useLaplace) throws Exception {
+
+    if (useLaplace) {
+      return localModel().classProbLaplace(classIndex, instance, theSubset);
+    } else {
+      return localModel().classProb(classIndex, instance, theSubset);
+    }
+  }
+
   /**
    * Help method for computing class probabilities of 
    * a given instance.
@@ -23,6 +23,7 @@ package weka.classifiers.trees.j48;
 
 import java.io.Serializable;
 
+import weka.classifiers.trees.PresortedData;
 import weka.core.Instances;
 import weka.core.RevisionHandler;
 
@@ -45,6 +46,21 @@ public abstract class ModelSelection
    */
   public abstract ClassifierSplitModel selectModel(Instances data) throws Exception;
 
+  /**
+   * Selects a model for the given dataset, which is also given as a
+   * subset of presorted data. By default, the subset is ignored.
+   *
+   * @param data the dataset, in the order of the subset
+   * @param subset the subset of presorted data
+   * @exception Exception if model can't be selected
+   */
+  public ClassifierSplitModel selectModel(Instances data, 
+					  PresortedData.Subset subset)
+       throws Exception {
+
+    return selectModel(data);
+  }
+
   /**
    * Selects a model for the given train data using the given test data
    *
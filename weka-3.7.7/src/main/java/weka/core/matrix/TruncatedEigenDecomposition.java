@@ -0,0 +1,392 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    TruncatedEigenDecomposition.java
+ *    Copyright (C) 2012 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.core.matrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Leading eigenvalues and eigenvectors of the covariance matrix X'X/(n-1)
+ * of a centered (or standardized) data matrix X with n rows, computed by
+ * randomized subspace iteration (Halko, Martinsson &amp; Tropp, 2011)
+ * without ever forming the covariance matrix. Memory is O(n*d) for the
+ * data plus O(k*(n+d)) for k components, rather than O(d^2) for the full
+ * matrix, and time is O(k*n*d) rather than O(d^3). <p/>
+ *
+ * The number of components grows (by doubling) until their eigenvalues
+ * account for the requested proportion of the total variance, which is
+ * the trace of the covariance matrix and so is known exactly up front. <p/>
+ *
+ * The products with X are split over threads by rows or columns of the
+ * result, and every element of a product is always summed in the same
+ * order, so the outcome doesn't depend on the number of threads.
+ *
+ * @version $Revision: 8034 $
+ */
+public class TruncatedEigenDecomposition {
+
+  /** The number of extra random directions drawn beyond the components
+   * that are kept. */
+  protected static final int OVERSAMPLING = 10;
+
+  /** The number of power iterations. */
+  protected static final int NUM_POWER_ITERATIONS = 2;
+
+  /** The number of components to start with. */
+  protected static final int INITIAL_COMPONENTS = 16;
+
+  /** The data, one array of n values per attribute. */
+  protected double[][] m_Columns;
+
+  /** The number of rows of the data. */
+  protected int m_NumRows;
+
+  /** The pool the products are computed on, null if single-threaded. */
+  protected ExecutorService m_Pool;
+
+  /** The number of threads. */
+  protected int m_NumThreads;
+
+  /** The eigenvalues, in decreasing order. */
+  protected double[] m_Eigenvalues;
+
+  /** The eigenvectors, one column per eigenvalue. */
+  protected double[][] m_Eigenvectors;
+
+  /** The trace of the covariance matrix, i.e., the sum of all eigenvalues. */
+  protected double m_Trace;
+
+  /**
+   * Computes as many of the leading eigenvalues and eigenvectors as are
+   * needed to cover the given proportion of the variance.
+   *
+   * @param columns the centered data, one array of values per attribute
+   * @param coverVariance the proportion of the variance to cover
+   * @param maxComponents the most components to compute (-1 for no limit)
+   * @param numThreads the number of threads to use
+   * @param seed the seed for the random directions
+   * @throws Exception if the computation fails or is interrupted
+   */
+  public TruncatedEigenDecomposition(double[][] columns, double coverVariance,
+    int maxComponents, int numThreads, long seed) throws Exception {
+
+    m_Columns = columns;
+    m_NumRows = (columns.length == 0) ? 0 : columns[0].length;
+    m_NumThreads = Math.max(1, numThreads);
+
+    int numAttribs = columns.length;
+    m_Trace = 0;
+    for (int j = 0; j < numAttribs; j++) {
+      double sum = 0;
+      for (int i = 0; i < m_NumRows; i++) {
+        sum += columns[j][i] * columns[j][i];
+      }
+      m_Trace += sum / (m_NumRows - 1);
+    }
+
+    // the covariance matrix can't have a higher rank than this
+    int maxRank = Math.max(1, Math.min(numAttribs, m_NumRows - 1));
+    if (maxComponents > 0) {
+      maxRank = Math.min(maxRank, maxComponents);
+    }
+
+    if (m_NumThreads > 1) {
+      m_Pool = Executors.newFixedThreadPool(m_NumThreads);
+    }
+    try {
+      Random random = new Random(seed);
+      int numComponents = Math.min(maxRank, INITIAL_COMPONENTS);
+      while (true) {
+        decompose(numComponents, Math.min(numAttribs, numComponents
+          + OVERSAMPLING), random);
+        if (numComponents >= maxRank) {
+          break;
+        }
+        double covered = 0;
+        for (double value : m_Eigenvalues) {
+          covered += value;
+        }
+        if ((m_Trace <= 0) || (covered / m_Trace >= coverVariance)) {
+          break;
+        }
+        numComponents = Math.min(maxRank, 2 * numComponents);
+      }
+    } finally {
+      if (m_Pool != null) {
+        m_Pool.shutdownNow();
+        m_Pool = null;
+      }
+    }
+    m_Columns = null;
+  }
+
+  /**
+   * Returns the eigenvalues, in decreasing order.
+   *
+   * @return the eigenvalues
+   */
+  public double[] getEigenvalues() {
+    return m_Eigenvalues;
+  }
+
+  /**
+   * Returns the eigenvectors, where column i goes with eigenvalue i.
+   *
+   * @return the eigenvectors, one row per attribute
+   */
+  public double[][] getEigenvectors() {
+    return m_Eigenvectors;
+  }
+
+  /**
+   * Returns the trace of the covariance matrix, i.e., the sum of all its
+   * eigenvalues, including the ones that weren't computed.
+   *
+   * @return the trace
+   */
+  public double getTrace() {
+    return m_Trace;
+  }
+
+  /**
+   * Finds the leading eigenpairs in a random subspace.
+   *
+   * @param numComponents the number of eigenpairs to keep
+   * @param numDirections the dimension of the subspace
+   * @param random the source of the random directions
+   * @throws Exception if a product fails or is interrupted
+   */
+  protected void decompose(int numComponents, int numDirections,
+    Random random) throws Exception {
+
+    int numAttribs = m_Columns.length;
+
+    // a random subspace, pushed towards the leading eigenvectors
+    double[][] basis = new double[numDirections][numAttribs];
+    for (int c = 0; c < numDirections; c++) {
+      for (int j = 0; j < numAttribs; j++) {
+        basis[c][j] = random.nextGaussian();
+      }
+    }
+    orthonormalize(basis, random);
+    for (int it = 0; it < NUM_POWER_ITERATIONS; it++) {
+      basis = timesCovariance(basis);
+      orthonormalize(basis, random);
+    }
+
+    // the covariance matrix projected onto the subspace
+    double[][] product = timesCovariance(basis);
+    double[][] projected = new double[numDirections][numDirections];
+    for (int a = 0; a < numDirections; a++) {
+      for (int b = 0; b <= a; b++) {
+        double sum = 0;
+        for (int j = 0; j < numAttribs; j++) {
+          sum += basis[a][j] * product[b][j] + basis[b][j] * product[a][j];
+        }
+        projected[a][b] = projected[b][a] = sum / 2;
+      }
+    }
+
+    EigenvalueDecomposition eig = new Matrix(projected).eig();
+    double[] values = eig.getRealEigenvalues();
+    Matrix vectors = eig.getV();
+
+    // keep the largest ones, mapped back out of the subspace
+    int[] order = weka.core.Utils.sort(values);
+    m_Eigenvalues = new double[numComponents];
+    m_Eigenvectors = new double[numAttribs][numComponents];
+    for (int k = 0; k < numComponents; k++) {
+      int index = order[numDirections - 1 - k];
+      m_Eigenvalues[k] = Math.max(0, values[index]);
+      for (int c = 0; c < numDirections; c++) {
+        double weight = vectors.get(c, index);
+        for (int j = 0; j < numAttribs; j++) {
+          m_Eigenvectors[j][k] += weight * basis[c][j];
+        }
+      }
+    }
+  }
+
+  /**
+   * Makes the given vectors orthonormal with modified Gram-Schmidt, done
+   * twice for stability. Vectors that turn out to be dependent on the
+   * earlier ones are replaced with new random ones.
+   *
+   * @param vectors the vectors, changed in place
+   * @param random the source of replacements
+   */
+  protected void orthonormalize(double[][] vectors, Random random) {
+
+    for (int c = 0; c < vectors.length; c++) {
+      double[] v = vectors[c];
+      for (int attempt = 0; attempt < 3; attempt++) {
+        double before = norm(v);
+        for (int pass = 0; pass < 2; pass++) {
+          for (int p = 0; p < c; p++) {
+            double dot = 0;
+            for (int j = 0; j < v.length; j++) {
+              dot += v[j] * vectors[p][j];
+            }
+            for (int j = 0; j < v.length; j++) {
+              v[j] -= dot * vectors[p][j];
+            }
+          }
+        }
+        double after = norm(v);
+        if ((after > 0) && (after > 1e-10 * before)) {
+          for (int j = 0; j < v.length; j++) {
+            v[j] /= after;
+          }
+          break;
+        }
+        for (int j = 0; j < v.length; j++) {
+          v[j] = (attempt < 2) ? random.nextGaussian() : 0;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the Euclidean norm of a vector.
+   *
+   * @param v the vector
+   * @return the norm
+   */
+  protected static double norm(double[] v) {
+    double sum = 0;
+    for (double x : v) {
+      sum += x * x;
+    }
+    return Math.sqrt(sum);
+  }
+
+  /**
+   * Multiplies the covariance matrix with the given vectors, as
+   * X'(X v)/(n-1).
+   *
+   * @param vectors the vectors, one array per vector
+   * @return the products, one array per vector
+   * @throws Exception if a product fails or is interrupted
+   */
+  protected double[][] timesCovariance(final double[][] vectors)
+    throws Exception {
+
+    final int numAttribs = m_Columns.length;
+    final int numVectors = vectors.length;
+
+    // X v, split up by rows
+    final double[][] scores = new double[numVectors][m_NumRows];
+    runBlocks(m_NumRows, new Block() {
+      public void run(int from, int to) {
+        for (int j = 0; j < numAttribs; j++) {
+          double[] column = m_Columns[j];
+          for (int c = 0; c < numVectors; c++) {
+            double weight = vectors[c][j];
+            if (weight != 0) {
+              double[] score = scores[c];
+              for (int i = from; i < to; i++) {
+                score[i] += weight * column[i];
+              }
+            }
+          }
+        }
+      }
+    });
+
+    // X' (X v), split up by attributes
+    final double[][] result = new double[numVectors][numAttribs];
+    runBlocks(numAttribs, new Block() {
+      public void run(int from, int to) {
+        for (int j = from; j < to; j++) {
+          double[] column = m_Columns[j];
+          for (int c = 0; c < numVectors; c++) {
+            double[] score = scores[c];
+            double sum = 0;
+            for (int i = 0; i < m_NumRows; i++) {
+              sum += column[i] * score[i];
+            }
+            result[c][j] = sum / (m_NumRows - 1);
+          }
+        }
+      }
+    });
+
+    return result;
+  }
+
+  /**
+   * A range of work.
+   */
+  protected interface Block {
+
+    /**
+     * Does the work for the given range.
+     *
+     * @param from the first index
+     * @param to one past the last index
+     */
+    void run(int from, int to);
+  }
+
+  /**
+   * Splits the range [0, size) into one block per thread and runs them.
+   *
+   * @param size the size of the range
+   * @param block the work
+   * @throws Exception if a block fails or the thread is interrupted
+   */
+  protected void runBlocks(int size, final Block block) throws Exception {
+
+    if (m_Pool == null || size < 2 * m_NumThreads) {
+      block.run(0, size);
+      return;
+    }
+
+    List<Future<Object>> futures = new ArrayList<Future<Object>>();
+    for (int t = 0; t < m_NumThreads; t++) {
+      final int from = (int) ((long) size * t / m_NumThreads);
+      final int to = (int) ((long) size * (t + 1) / m_NumThreads);
+      futures.add(m_Pool.submit(new Callable<Object>() {
+        public Object call() {
+          block.run(from, to);
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<Object> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw new Exception(e.getCause());
+    }
+  }
+}
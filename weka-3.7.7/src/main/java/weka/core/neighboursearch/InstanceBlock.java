@@ -0,0 +1,394 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    InstanceBlock.java
+ *    Copyright (C) 2012 University of Waikato
+ */
+
+package weka.core.neighboursearch;
+
+import java.io.Serializable;
+
+import weka.core.Attribute;
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.NormalizableDistance;
+import weka.core.Range;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+/**
+ * Holds the values of a set of instances in one row-major block of
+ * doubles, normalized the way a EuclideanDistance or ManhattanDistance
+ * normalizes them. A brute force search can then compute distances
+ * straight from the block, instead of going through the Instance
+ * interface and normalizing both values of every attribute for every
+ * pair. The distances are exactly the ones the distance function
+ * computes. <p/>
+ *
+ * Only the nominal and numeric attributes that the distance function uses
+ * are kept, since nothing else adds to the distance. Sparse instances,
+ * and values that don't normalize to a finite number, can't be held; the
+ * block is then not usable and the distance function has to be used
+ * instead. Whenever the distance function's ranges change, the block has
+ * to be brought up to date with update().
+ *
+ * @version $Revision: 8034 $
+ */
+public class InstanceBlock
+  implements Serializable, RevisionHandler {
+
+  /** for serialization. */
+  private static final long serialVersionUID = -2393741316526981645L;
+
+  /** The number of attributes added up between checks against the cut-off. */
+  protected static final int CHECK_INTERVAL = 8;
+
+  /** The distance function whose distances are computed. */
+  protected NormalizableDistance m_Distance;
+
+  /** The instances held in the block. */
+  protected Instances m_Instances;
+
+  /** The number of instances held when the block was filled. */
+  protected int m_NumInstances;
+
+  /** The first instance held when the block was filled. */
+  protected Instance m_First;
+
+  /** The last instance held when the block was filled. */
+  protected Instance m_Last;
+
+  /** Whether absolute differences are added up rather than squared ones. */
+  protected boolean m_Manhattan;
+
+  /** Whether values are left as they are. */
+  protected boolean m_DontNormalize;
+
+  /** The indices of the attributes held. */
+  protected int[] m_Attributes;
+
+  /** Whether the attributes held are nominal. */
+  protected boolean[] m_Nominal;
+
+  /** The minimum of each attribute held, as last normalized with. */
+  protected double[] m_Min;
+
+  /** The maximum of each attribute held, as last normalized with. */
+  protected double[] m_Max;
+
+  /** The width of each attribute held, as last normalized with. */
+  protected double[] m_Width;
+
+  /** The values, one row per instance, missing values are NaN. */
+  protected double[] m_Values;
+
+  /** Whether all the values could be put into the block. */
+  protected boolean m_Usable;
+
+  /**
+   * Returns whether the distances of the given distance function can be
+   * computed from a block.
+   *
+   * @param df the distance function
+   * @return true if a block can be made for it
+   */
+  public static boolean isSupported(DistanceFunction df) {
+    return (df != null)
+      && ((df.getClass() == EuclideanDistance.class)
+	  || (df.getClass() == ManhattanDistance.class));
+  }
+
+  /**
+   * Puts the given instances into a block.
+   *
+   * @param df the distance function, which has to be supported
+   * @param insts the instances, which the distance function has to be
+   * set up with
+   * @throws Exception if the distance function's ranges can't be had
+   */
+  public InstanceBlock(NormalizableDistance df, Instances insts)
+    throws Exception {
+
+    m_Distance = df;
+    m_Instances = insts;
+    m_NumInstances = insts.numInstances();
+    if (m_NumInstances > 0) {
+      m_First = insts.instance(0);
+      m_Last = insts.instance(m_NumInstances - 1);
+    }
+    m_Manhattan = (df.getClass() == ManhattanDistance.class);
+    m_DontNormalize = df.getDontNormalize();
+
+    // the same attributes that the distance function looks at
+    Instances header = df.getInstances();
+    Range active = new Range(df.getAttributeIndices());
+    active.setInvert(df.getInvertSelection());
+    active.setUpper(header.numAttributes() - 1);
+    int numAttributes = 0;
+    int[] attributes = new int[header.numAttributes()];
+    for (int i = 0; i < header.numAttributes(); i++) {
+      // dates count as numeric, but the distance function ignores them
+      int type = header.attribute(i).type();
+      if ((i != header.classIndex()) && active.isInRange(i)
+	  && ((type == Attribute.NOMINAL) || (type == Attribute.NUMERIC))) {
+	attributes[numAttributes++] = i;
+      }
+    }
+    m_Attributes = new int[numAttributes];
+    System.arraycopy(attributes, 0, m_Attributes, 0, numAttributes);
+    m_Nominal = new boolean[numAttributes];
+    for (int j = 0; j < numAttributes; j++) {
+      m_Nominal[j] = header.attribute(m_Attributes[j]).isNominal();
+    }
+    m_Min = new double[numAttributes];
+    m_Max = new double[numAttributes];
+    m_Width = new double[numAttributes];
+
+    m_Usable = ((long) m_NumInstances * numAttributes <= Integer.MAX_VALUE);
+    for (int i = 0; m_Usable && (i < m_NumInstances); i++) {
+      m_Usable = !(insts.instance(i) instanceof SparseInstance);
+    }
+    if (m_Usable) {
+      m_Values = new double[m_NumInstances * numAttributes];
+      fill(df.getRanges());
+    }
+  }
+
+  /**
+   * Returns whether the block still holds the given instances, i.e., it
+   * was made from them and none have been added or removed since.
+   *
+   * @param df the distance function
+   * @param insts the instances
+   * @return true if the block can still be used for them
+   */
+  public boolean holds(DistanceFunction df, Instances insts) {
+    int numInstances = insts.numInstances();
+    return (df == m_Distance) && (insts == m_Instances)
+      && (numInstances == m_NumInstances)
+      && ((numInstances == 0)
+	  || ((insts.instance(0) == m_First)
+	      && (insts.instance(numInstances - 1) == m_Last)));
+  }
+
+  /**
+   * Brings the block up to date with the distance function's ranges,
+   * normalizing the values again if they have changed.
+   *
+   * @return true if the block can be used
+   * @throws Exception if the distance function's ranges can't be had
+   */
+  public boolean update() throws Exception {
+    if (!m_Usable) {
+      return false;
+    }
+
+    double[][] ranges = m_Distance.getRanges();
+    for (int j = 0; j < m_Attributes.length; j++) {
+      double[] range = ranges[m_Attributes[j]];
+      if (!m_Nominal[j]
+	  && (!same(range[NormalizableDistance.R_MIN], m_Min[j])
+	      || !same(range[NormalizableDistance.R_MAX], m_Max[j])
+	      || !same(range[NormalizableDistance.R_WIDTH], m_Width[j]))) {
+	fill(ranges);
+	break;
+      }
+    }
+    return m_Usable;
+  }
+
+  /**
+   * Normalizes a target instance the same way as the instances in the
+   * block. update() must have been called since the ranges last changed.
+   *
+   * @param inst the target instance
+   * @return the values, or null if the instance can't be put into the
+   * same form
+   */
+  public double[] encode(Instance inst) {
+    if (inst instanceof SparseInstance) {
+      return null;
+    }
+
+    double[] row = new double[m_Attributes.length];
+    for (int j = 0; j < m_Attributes.length; j++) {
+      row[j] = value(inst, j);
+      if (Double.isInfinite(row[j])
+	  || (Double.isNaN(row[j]) && !inst.isMissing(m_Attributes[j]))) {
+	return null;
+      }
+    }
+    return row;
+  }
+
+  /**
+   * Computes the distance between a target and an instance in the block,
+   * before any post-processing. Like the distance function, it gives up
+   * once the distance is bigger than the cut-off value; as every
+   * attribute adds a non-negative amount, it doesn't matter how often
+   * that is checked.
+   *
+   * @param target the target, as given by encode()
+   * @param index the index of the instance in the block
+   * @param cutOffValue the distance above which the exact distance doesn't
+   * matter
+   * @return the distance, or Double.POSITIVE_INFINITY if it is bigger
+   * than the cut-off value
+   */
+  public double distance(double[] target, int index, double cutOffValue) {
+    double distance = 0;
+    int numAttributes = m_Attributes.length;
+    int offset = index * numAttributes;
+
+    for (int j = 0; j < numAttributes; j++) {
+      double val1 = target[j];
+      double val2 = m_Values[offset + j];
+      double diff;
+
+      if (m_Nominal[j]) {
+	diff = (Double.isNaN(val1) || Double.isNaN(val2)
+		|| ((int) val1 != (int) val2)) ? 1 : 0;
+      } else if (Double.isNaN(val1) || Double.isNaN(val2)) {
+	diff = missingDifference(j, val1, val2);
+      } else {
+	diff = val1 - val2;
+      }
+
+      if (m_Manhattan) {
+	distance += Math.abs(diff);
+      } else {
+	distance += diff * diff;
+      }
+      if ((j % CHECK_INTERVAL == CHECK_INTERVAL - 1)
+	  && (distance > cutOffValue)) {
+	return Double.POSITIVE_INFINITY;
+      }
+    }
+
+    if (distance > cutOffValue) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return distance;
+  }
+
+  /**
+   * The difference between two numeric values, at least one of which is
+   * missing, just like NormalizableDistance.difference() works it out.
+   *
+   * @param j the index of the attribute in the block
+   * @param val1 the first value (normalized, unless normalization is off)
+   * @param val2 the second value (normalized, unless normalization is off)
+   * @return the difference
+   */
+  protected double missingDifference(int j, double val1, double val2) {
+    if (Double.isNaN(val1) && Double.isNaN(val2)) {
+      return (!m_DontNormalize) ? 1 : (m_Max[j] - m_Min[j]);
+    }
+
+    double diff = Double.isNaN(val2) ? val1 : val2;
+    if (!m_DontNormalize && diff < 0.5) {
+      diff = 1.0 - diff;
+    } else if (m_DontNormalize) {
+      if ((m_Max[j] - diff) > (diff - m_Min[j])) {
+	return m_Max[j] - diff;
+      } else {
+	return diff - m_Min[j];
+      }
+    }
+    return diff;
+  }
+
+  /**
+   * Normalizes all the values in the block with the given ranges.
+   *
+   * @param ranges the distance function's ranges
+   */
+  protected void fill(double[][] ranges) {
+    for (int j = 0; j < m_Attributes.length; j++) {
+      double[] range = ranges[m_Attributes[j]];
+      m_Min[j] = range[NormalizableDistance.R_MIN];
+      m_Max[j] = range[NormalizableDistance.R_MAX];
+      m_Width[j] = range[NormalizableDistance.R_WIDTH];
+    }
+
+    int numAttributes = m_Attributes.length;
+    for (int i = 0; m_Usable && (i < m_NumInstances); i++) {
+      Instance inst = m_Instances.instance(i);
+      int offset = i * numAttributes;
+      for (int j = 0; j < numAttributes; j++) {
+	double value = value(inst, j);
+	// a present value has to stay distinguishable from a missing one,
+	// and infinities could turn partial distances into NaN
+	if (Double.isInfinite(value)
+	    || (Double.isNaN(value) && !inst.isMissing(m_Attributes[j]))) {
+	  m_Usable = false;
+	  m_Values = null;
+	  break;
+	}
+	m_Values[offset + j] = value;
+      }
+    }
+  }
+
+  /**
+   * Returns the value of an attribute of an instance the way it is held
+   * in the block.
+   *
+   * @param inst the instance
+   * @param j the index of the attribute in the block
+   * @return the (normalized) value, NaN if it is missing
+   */
+  protected double value(Instance inst, int j) {
+    double x = inst.value(m_Attributes[j]);
+    if (Utils.isMissingValue(x)) {
+      return Utils.missingValue();
+    }
+    if (m_Nominal[j] || m_DontNormalize) {
+      return x;
+    }
+    // same as NormalizableDistance.norm()
+    if (Double.isNaN(m_Min[j]) || (m_Max[j] == m_Min[j])) {
+      return 0;
+    }
+    return (x - m_Min[j]) / m_Width[j];
+  }
+
+  /**
+   * Returns whether two range values are the same, down to the bit.
+   *
+   * @param a the one value
+   * @param b the other value
+   * @return true if they are the same
+   */
+  protected static boolean same(double a, double b) {
+    return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 8034 $");
+  }
+}
@@ -20,11 +20,19 @@
 
 package weka.core.neighboursearch;
 
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.NormalizableDistance;
 import weka.core.Option;
 import weka.core.RevisionUtils;
 import weka.core.Utils;
@@ -42,6 +50,10 @@ import weka.core.Utils;
  *  Skip identical instances (distances equal to zero).
  * </pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of threads to use for searching for several targets at once.
+ *  (default = 1)</pre>
+ * 
  <!-- options-end -->
  *
  * @author Ashraf M. Kibriya (amk14[at-the-rate]cs[dot]waikato[dot]ac[dot]nz)
@@ -61,6 +73,15 @@ public class LinearNNSearch
   /** Whether to skip instances from the neighbours that are identical to the query instance. */
   protected boolean m_SkipIdentical = false;
 
+  /** The number of threads to search for several targets at once with. */
+  protected int m_NumExecutionSlots = 1;
+
+  /** The number of targets that are looked up in one pass over the instances. */
+  protected static final int TILE_SIZE = 16;
+
+  /** The instances as a block of normalized values, null if not made yet. */
+  protected transient InstanceBlock m_Block;
+
   /**
    * Constructor. Needs setInstances(Instances) 
    * to be called before the class is usable.
@@ -104,6 +125,11 @@ public class LinearNNSearch
 	"\tSkip identical instances (distances equal to zero).\n",
 	"S", 1,"-S"));
     
+    result.add(new Option(
+	"\tNumber of threads to use for searching for several targets at once.\n"
+	+ "\t(default = 1)",
+	"num-slots", 1,"-num-slots <num>"));
+    
     return result.elements();
   }
   
@@ -117,6 +143,10 @@ public class LinearNNSearch
    *  Skip identical instances (distances equal to zero).
    * </pre>
    * 
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of threads to use for searching for several targets at once.
+   *  (default = 1)</pre>
+   * 
    <!-- options-end -->
    *
    * @param options 	the list of options as an array of strings
@@ -126,6 +156,12 @@ public class LinearNNSearch
     super.setOptions(options);
 
     setSkipIdentical(Utils.getFlag('S', options));
+
+    String tmpStr = Utils.getOption("num-slots", options);
+    if (tmpStr.length() != 0)
+      setNumExecutionSlots(Integer.parseInt(tmpStr));
+    else
+      setNumExecutionSlots(1);
   }
 
   /**
@@ -147,6 +183,9 @@ public class LinearNNSearch
     if (getSkipIdentical())
       result.add("-S");
 
+    result.add("-num-slots");
+    result.add("" + getNumExecutionSlots());
+
     return result.toArray(new String[result.size()]);
   }
 
@@ -179,6 +218,37 @@ public class LinearNNSearch
     return m_SkipIdentical;
   }
 
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of threads to use when searching for the neighbours "
+      + "of several targets at once";
+  }
+  
+  /**
+   * Sets the number of threads to use when searching for the neighbours
+   * of several targets at once.
+   * 
+   * @param numSlots 	the number of threads
+   */
+  public void setNumExecutionSlots(int numSlots) {
+    m_NumExecutionSlots = numSlots;
+  }
+  
+  /**
+   * Gets the number of threads to use when searching for the neighbours
+   * of several targets at once.
+   * 
+   * @return 		the number of threads
+   */
+  public int getNumExecutionSlots() {
+    return m_NumExecutionSlots;
+  }
+
   
   /** 
    * Returns the nearest instance in the current neighbourhood to the supplied
@@ -203,75 +273,324 @@ public class LinearNNSearch
    */
   public Instances kNearestNeighbours(Instance target, int kNN) throws Exception {
   
-    //debug
-    boolean print=false;
-
     if(m_Stats!=null)
       m_Stats.searchStart();
- 
-    MyHeap heap = new MyHeap(kNN);
-    double distance; int firstkNN=0;
+
+    double[][] distances = new double[1][];
+    Instances neighbours = kNearestNeighbours(target, blockTarget(target), 
+	kNN, distances, 0);
+    m_Distances = distances[0];
+    
+    if(m_Stats!=null)
+      m_Stats.searchFinish();
+    
+    return neighbours;    
+  }
+
+  /**
+   * Returns the k nearest instances in the current neighbourhood for each 
+   * of the supplied instances. The targets are looked up a few at a time 
+   * in a single pass over the neighbourhood, so that each instance is 
+   * compared with all of them while it is at hand, and several such passes
+   * run side by side if there is more than one execution slot. The 
+   * neighbourhood isn't updated with the targets, so the results are the 
+   * same as calling kNearestNeighbours() for one target after the other.
+   *  
+   * @param targets 	The instances to find the k nearest neighbours for.
+   * @param kNN		The number of nearest neighbours to find.
+   * @param distances	receives the distances of the neighbours of each 
+   * 			target, needs to be as long as targets
+   * @return		the k nearest neighbors of each target
+   * @throws Exception  if the neighbours could not be found.
+   */
+  public Instances[] kNearestNeighbours(final Instance[] targets, 
+      final int kNN, final double[][] distances) throws Exception {
+
+    final Instances[] neighbours = new Instances[targets.length];
+    if ((targets.length <= 1) || (m_Stats != null)
+	|| !(m_DistanceFunction instanceof NormalizableDistance)) {
+      for (int i = 0; i < targets.length; i++) {
+	neighbours[i] = kNearestNeighbours(targets[i], kNN);
+	distances[i] = m_Distances;
+      }
+      return neighbours;
+    }
+
+    // get everything that is set up lazily out of the way before the
+    // threads share it
+    ((NormalizableDistance) m_DistanceFunction).getRanges();
+    final InstanceBlock block = getBlock();
+
+    int numThreads = Math.min(m_NumExecutionSlots, targets.length);
+    if (numThreads <= 1) {
+      kNearestNeighbours(targets, block, 0, targets.length, kNN, 
+	  neighbours, distances);
+    } else {
+      ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+      try {
+	List<Future<Object>> results = new ArrayList<Future<Object>>();
+	for (int t = 0; t < numThreads; t++) {
+	  final int first = (int) ((long) targets.length * t / numThreads);
+	  final int last = (int) ((long) targets.length * (t + 1) / numThreads);
+	  results.add(pool.submit(new Callable<Object>() {
+	    public Object call() throws Exception {
+	      kNearestNeighbours(targets, block, first, last, kNN, 
+		  neighbours, distances);
+	      return null;
+	    }
+	  }));
+	}
+	for (Future<Object> result : results) {
+	  try {
+	    result.get();
+	  } catch (ExecutionException e) {
+	    if (e.getCause() instanceof Exception)
+	      throw (Exception) e.getCause();
+	    throw new Exception(e.getCause());
+	  }
+	}
+      } finally {
+	pool.shutdownNow();
+      }
+    }
+
+    m_Distances = distances[targets.length - 1];
+    return neighbours;
+  }
+
+  /**
+   * Looks for the k nearest neighbours of a range of targets, TILE_SIZE 
+   * targets per pass over the neighbourhood.
+   * 
+   * @param targets	all the targets
+   * @param block	the instances as a block, null to use the distance
+   * 			function
+   * @param first	the index of the first target to look up
+   * @param last	the index after the last target to look up
+   * @param kNN		the number of nearest neighbours to find
+   * @param neighbours	receives the neighbours of each target
+   * @param distances	receives the distances of the neighbours of each
+   * 			target
+   * @throws Exception	if the neighbours could not be found
+   */
+  protected void kNearestNeighbours(Instance[] targets, InstanceBlock block,
+      int first, int last, int kNN, Instances[] neighbours, 
+      double[][] distances) throws Exception {
+
+    int numInstances = m_Instances.numInstances();
+    Search[] searches = new Search[TILE_SIZE];
+    for (int start = first; start < last; start += TILE_SIZE) {
+      int size = Math.min(TILE_SIZE, last - start);
+      for (int j = 0; j < size; j++) {
+	Instance target = targets[start + j];
+	searches[j] = new Search(target, 
+	    (block != null) ? block.encode(target) : null, kNN);
+      }
+      for (int i = 0; i < numInstances; i++) {
+	for (int j = 0; j < size; j++) {
+	  searches[j].visit(i);
+	}
+      }
+      for (int j = 0; j < size; j++) {
+	neighbours[start + j] = searches[j].finish(distances, start + j);
+      }
+    }
+  }
+
+  /**
+   * Returns the instances as a block of normalized values, (re)making the 
+   * block or bringing it up to date with the ranges first if necessary.
+   * 
+   * @return		the block, or null if distances can't be computed 
+   * 			from one
+   * @throws Exception	if the block can't be made
+   */
+  protected InstanceBlock getBlock() throws Exception {
+    // performance stats count every coordinate, so they need the distance 
+    // function
+    if ((m_Stats != null) || (m_Instances == null) 
+	|| !InstanceBlock.isSupported(m_DistanceFunction))
+      return null;
+
+    if ((m_Block == null) || !m_Block.holds(m_DistanceFunction, m_Instances))
+      m_Block = new InstanceBlock((NormalizableDistance) m_DistanceFunction, 
+	  m_Instances);
+    return m_Block.update() ? m_Block : null;
+  }
+
+  /**
+   * Puts the target into the same form as the instances in the block.
+   * 
+   * @param target	the target instance
+   * @return		the target's values, or null if distances can't be
+   * 			computed from a block
+   * @throws Exception	if the block can't be made
+   */
+  protected double[] blockTarget(Instance target) throws Exception {
+    InstanceBlock block = getBlock();
+    return (block != null) ? block.encode(target) : null;
+  }
+
+  /**
+   * Does the actual search for the k nearest neighbours of a target.
+   * 
+   * @param target	the target instance
+   * @param row		the target's values for the block, null to use the 
+   * 			distance function
+   * @param kNN		the number of nearest neighbours to find
+   * @param distances	receives the distances of the neighbours
+   * @param index	where in distances to put them
+   * @return		the k nearest neighbours
+   * @throws Exception	if the neighbours could not be found
+   */
+  protected Instances kNearestNeighbours(Instance target, double[] row, 
+      int kNN, double[][] distances, int index) throws Exception {
+
+    Search search = new Search(target, row, kNN);
     for(int i=0; i<m_Instances.numInstances(); i++) {
-      if(target == m_Instances.instance(i)) //for hold-one-out cross-validation
-        continue;
+      search.visit(i);
+    }
+    return search.finish(distances, index);
+  }
+
+  /**
+   * The state of the search for the k nearest neighbours of one target,
+   * which is shown the instances in the neighbourhood one after the other.
+   */
+  protected class Search {
+
+    /** The target instance. */
+    protected Instance m_Target;
+
+    /** The target's values for the block, null to use the distance function. */
+    protected double[] m_Row;
+
+    /** The number of nearest neighbours to find. */
+    protected int m_kNN;
+
+    /** The nearest neighbours found so far. */
+    protected MyHeap m_Heap;
+
+    /** The number of instances that were put on the heap unconditionally. */
+    protected int m_FirstkNN = 0;
+
+    /**
+     * Starts the search.
+     * 
+     * @param target	the target instance
+     * @param row		the target's values for the block, null to use
+     * 			the distance function
+     * @param kNN		the number of nearest neighbours to find
+     */
+    protected Search(Instance target, double[] row, int kNN) {
+      m_Target = target;
+      m_Row = row;
+      m_kNN = kNN;
+      m_Heap = new MyHeap(kNN);
+    }
+
+    /**
+     * Looks at the next instance in the neighbourhood.
+     * 
+     * @param i		the index of the instance
+     * @throws Exception	if the heap can't take it
+     */
+    protected void visit(int i) throws Exception {
+
+      //debug
+      boolean print=false;
+
+      double distance;
+      if(m_Target == m_Instances.instance(i)) //for hold-one-out cross-validation
+        return;
       if(m_Stats!=null) 
         m_Stats.incrPointCount();
-      if(firstkNN<kNN) {
+      if(m_FirstkNN<m_kNN) {
         if(print)
-          System.out.println("K(a): "+(heap.size()+heap.noOfKthNearest()));
-        distance = m_DistanceFunction.distance(target, m_Instances.instance(i), Double.POSITIVE_INFINITY, m_Stats);
+          System.out.println("K(a): "+(m_Heap.size()+m_Heap.noOfKthNearest()));
+        distance = distance(m_Target, m_Row, i, Double.POSITIVE_INFINITY);
         if(distance == 0.0 && m_SkipIdentical)
           if(i<m_Instances.numInstances()-1)
-            continue;
+            return;
           else
-            heap.put(i, distance);
-        heap.put(i, distance);
-        firstkNN++;
+            m_Heap.put(i, distance);
+        m_Heap.put(i, distance);
+        m_FirstkNN++;
       }
       else {
-        MyHeapElement temp = heap.peek();
+        MyHeapElement temp = m_Heap.peek();
         if(print)
-          System.out.println("K(b): "+(heap.size()+heap.noOfKthNearest()));
-        distance = m_DistanceFunction.distance(target, m_Instances.instance(i), temp.distance, m_Stats);
+          System.out.println("K(b): "+(m_Heap.size()+m_Heap.noOfKthNearest()));
+        distance = distance(m_Target, m_Row, i, temp.distance);
         if(distance == 0.0 && m_SkipIdentical)
-          continue;
+          return;
         if(distance < temp.distance) {
-          heap.putBySubstitute(i, distance);
+          m_Heap.putBySubstitute(i, distance);
         }
         else if(distance == temp.distance) {
-          heap.putKthNearest(i, distance);
+          m_Heap.putKthNearest(i, distance);
         }
-
       }
     }
+
+    /**
+     * Ends the search once every instance has been looked at.
+     * 
+     * @param distances	receives the distances of the neighbours
+     * @param index	where in distances to put them
+     * @return		the k nearest neighbours
+     * @throws Exception	if the heap can't be emptied
+     */
+    protected Instances finish(double[][] distances, int index) 
+      throws Exception {
+
+      MyHeap heap = m_Heap;
+      Instances neighbours = new Instances(m_Instances, (heap.size()+heap.noOfKthNearest()));
+      double[] dists = new double[heap.size()+heap.noOfKthNearest()];
+      int [] indices = new int[heap.size()+heap.noOfKthNearest()];
+      int i=1; MyHeapElement h;
+      while(heap.noOfKthNearest()>0) {
+        h = heap.getKthNearest();
+        indices[indices.length-i] = h.index;
+        dists[indices.length-i] = h.distance;
+        i++;
+      }
+      while(heap.size()>0) {
+        h = heap.get();
+        indices[indices.length-i] = h.index;
+        dists[indices.length-i] = h.distance;
+        i++;
+      }
     
-    Instances neighbours = new Instances(m_Instances, (heap.size()+heap.noOfKthNearest()));
-    m_Distances = new double[heap.size()+heap.noOfKthNearest()];
-    int [] indices = new int[heap.size()+heap.noOfKthNearest()];
-    int i=1; MyHeapElement h;
-    while(heap.noOfKthNearest()>0) {
-      h = heap.getKthNearest();
-      indices[indices.length-i] = h.index;
-      m_Distances[indices.length-i] = h.distance;
-      i++;
-    }
-    while(heap.size()>0) {
-      h = heap.get();
-      indices[indices.length-i] = h.index;
-      m_Distances[indices.length-i] = h.distance;
-      i++;
-    }
+      m_DistanceFunction.postProcessDistances(dists);
     
-    m_DistanceFunction.postProcessDistances(m_Distances);
+      for(int k=0; k<indices.length; k++) {
+        neighbours.add(m_Instances.instance(indices[k]));
+      }
     
-    for(int k=0; k<indices.length; k++) {
-      neighbours.add(m_Instances.instance(indices[k]));
+      distances[index] = dists;
+      return neighbours;
     }
-    
-    if(m_Stats!=null)
-      m_Stats.searchFinish();
-    
-    return neighbours;    
+  }
+
+  /**
+   * Computes the distance between the target and an instance in the 
+   * neighbourhood.
+   * 
+   * @param target	the target instance
+   * @param row		the target's values for the block, null to use the 
+   * 			distance function
+   * @param i		the index of the instance
+   * @param cutOffValue	the distance above which the exact distance doesn't
+   * 			matter
+   * @return		the distance
+   */
+  protected double distance(Instance target, double[] row, int i, 
+      double cutOffValue) {
+    if (row != null)
+      return m_Block.distance(row, i, cutOffValue);
+    return m_DistanceFunction.distance(target, m_Instances.instance(i), 
+	cutOffValue, m_Stats);
   }
   
   /** 
@@ -309,6 +628,7 @@ public class LinearNNSearch
   public void setInstances(Instances insts) throws Exception {
     m_Instances = insts;
     m_DistanceFunction.setInstances(insts);
+    m_Block = null;
   }
   
   /** 
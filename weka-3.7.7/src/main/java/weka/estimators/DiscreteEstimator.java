@@ -89,6 +89,54 @@ public class DiscreteEstimator extends Estimator implements IncrementalEstimator
     m_SumOfCounts += weight;
   }
   
+  /**
+   * Adds the counts of another estimator over the same symbols to this
+   * one.
+   *
+   * @param other the estimator whose counts are added
+   * @throws IllegalArgumentException if the number of symbols differs
+   */
+  public void add(DiscreteEstimator other) {
+    
+    checkSymbols(other);
+    for (int i = 0; i < m_Counts.length; i++) {
+      m_Counts[i] += other.m_Counts[i];
+    }
+    m_SumOfCounts += other.m_SumOfCounts;
+  }
+  
+  /**
+   * Takes the counts of another estimator over the same symbols away from
+   * this one, e.g., to get the counts for part of the data from those for
+   * all of it and for the rest. The other estimator should have been
+   * created without a prior, so that this one keeps its own.
+   *
+   * @param other the estimator whose counts are taken away
+   * @throws IllegalArgumentException if the number of symbols differs
+   */
+  public void subtract(DiscreteEstimator other) {
+    
+    checkSymbols(other);
+    for (int i = 0; i < m_Counts.length; i++) {
+      m_Counts[i] -= other.m_Counts[i];
+    }
+    m_SumOfCounts -= other.m_SumOfCounts;
+  }
+  
+  /**
+   * Makes sure that another estimator has as many symbols as this one.
+   *
+   * @param other the other estimator
+   * @throws IllegalArgumentException if the number of symbols differs
+   */
+  private void checkSymbols(DiscreteEstimator other) {
+    
+    if (other.getNumSymbols() != getNumSymbols()) {
+      throw new IllegalArgumentException("Estimators have different numbers "
+	  + "of symbols: " + getNumSymbols() + " != " + other.getNumSymbols());
+    }
+  }
+  
   /**
    * Get a probability estimate for a value
    *
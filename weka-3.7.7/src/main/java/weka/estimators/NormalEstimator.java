@@ -105,6 +105,47 @@ public class NormalEstimator
     m_SumOfValues += data * weight;
     m_SumOfValuesSq += data * data * weight;
 
+    updateMeanAndStdDev();
+  }
+
+  /**
+   * Adds the values that another estimator with the same precision has
+   * seen to this one.
+   *
+   * @param other the estimator whose values are added
+   * @throws IllegalArgumentException if the precision differs
+   */
+  public void add(NormalEstimator other) {
+
+    checkPrecision(other);
+    m_SumOfWeights += other.m_SumOfWeights;
+    m_SumOfValues += other.m_SumOfValues;
+    m_SumOfValuesSq += other.m_SumOfValuesSq;
+    resetMeanAndStdDev();
+  }
+
+  /**
+   * Takes the values that another estimator with the same precision has
+   * seen away from this one, e.g., to get the estimate for part of the data
+   * from those for all of it and for the rest.
+   *
+   * @param other the estimator whose values are taken away
+   * @throws IllegalArgumentException if the precision differs
+   */
+  public void subtract(NormalEstimator other) {
+
+    checkPrecision(other);
+    m_SumOfWeights -= other.m_SumOfWeights;
+    m_SumOfValues -= other.m_SumOfValues;
+    m_SumOfValuesSq -= other.m_SumOfValuesSq;
+    resetMeanAndStdDev();
+  }
+
+  /**
+   * Updates the mean and standard deviation from the sums.
+   */
+  private void updateMeanAndStdDev() {
+
     if (m_SumOfWeights > 0) {
       m_Mean = m_SumOfValues / m_SumOfWeights;
       double stdDev = Math.sqrt(Math.abs(m_SumOfValuesSq 
@@ -120,6 +161,31 @@ public class NormalEstimator
     }
   }
 
+  /**
+   * Works out the mean and standard deviation from the sums alone, after
+   * they have been changed in one go.
+   */
+  private void resetMeanAndStdDev() {
+
+    m_Mean = 0;
+    m_StandardDev = m_Precision / (2 * 3);
+    updateMeanAndStdDev();
+  }
+
+  /**
+   * Makes sure that another estimator has the same precision as this one.
+   *
+   * @param other the other estimator
+   * @throws IllegalArgumentException if the precision differs
+   */
+  private void checkPrecision(NormalEstimator other) {
+
+    if (other.m_Precision != m_Precision) {
+      throw new IllegalArgumentException("Estimators have different "
+	  + "precisions: " + m_Precision + " != " + other.m_Precision);
+    }
+  }
+
   /**
    * Get a probability estimate for a value
    *
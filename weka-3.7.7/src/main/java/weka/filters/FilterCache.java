@@ -0,0 +1,559 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    FilterCache.java
+ *    Copyright (C) 2012 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package weka.filters;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Keeps filters that have been fitted to recently used training sets,
+ * together with the data they turned the training set into, so that
+ * classifiers that differ only in their own settings don't have to fit the
+ * same filter (e.g. PrincipalComponents) on the same data again. Entries
+ * are looked up by a SHA-1 hash of the data's header and values together
+ * with the filter's class and options. <p/>
+ *
+ * The cache holds on to at most a given number of bytes in memory,
+ * dropping the least recently used entries first. If a directory is set,
+ * entries that are dropped (or that don't fit at all) are written to a
+ * file there instead, and read back in when they are asked for again. By
+ * default the budget is zero and there is no directory, i.e., nothing is
+ * cached. <p/>
+ *
+ * The files in the directory can be held to a budget of their own, in
+ * which case the least recently used ones are deleted once a new one
+ * pushes them over it. Reading a file counts as using it, and the order of
+ * use is kept in the files' modification times, so several processes can
+ * share a directory. <p/>
+ *
+ * Entries are never handed out directly: a lookup returns a copy of the
+ * filter and of the data, since both get changed by whoever uses them.
+ *
+ * @version $Revision: 8034 $
+ */
+public class FilterCache {
+
+  /** The extension of entry files. */
+  protected static final String FILE_EXTENSION = ".filter";
+
+  /**
+   * A fitted filter, along with the data it produced from the training
+   * set. Neither is changed once it is cached.
+   */
+  public static class Entry implements Serializable {
+
+    /** for serialization */
+    private static final long serialVersionUID = 2946284916236318421L;
+
+    /** The fitted filter. */
+    protected Filter m_Filter;
+
+    /** The filtered training data. */
+    protected Instances m_Data;
+
+    /** Roughly how much memory the entry takes up. */
+    protected long m_NumBytes;
+
+    /**
+     * Initializes the entry.
+     *
+     * @param filter the fitted filter
+     * @param data the filtered training data
+     */
+    public Entry(Filter filter, Instances data) {
+      m_Filter = filter;
+      m_Data = data;
+      m_NumBytes = 1024;
+      for (int i = 0; i < data.numInstances(); i++) {
+        m_NumBytes += 48 + 8L * data.instance(i).numValues();
+      }
+    }
+
+    /**
+     * Returns a copy of the fitted filter.
+     *
+     * @return the filter
+     * @throws Exception if the filter can't be copied
+     */
+    public Filter getFilter() throws Exception {
+      return Filter.makeCopy(m_Filter);
+    }
+
+    /**
+     * Returns a copy of the filtered training data.
+     *
+     * @return the data
+     */
+    public Instances getData() {
+      return new Instances(m_Data);
+    }
+
+    /**
+     * Returns roughly how much memory the entry takes up.
+     *
+     * @return the size in bytes
+     */
+    public long numBytes() {
+      return m_NumBytes;
+    }
+  }
+
+  /** The cached entries, keyed by hash, in order of use. */
+  protected static LinkedHashMap<String, Entry> m_Cache =
+    new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  /** The most bytes the cache may hold in memory. */
+  protected static long m_Budget = 0;
+
+  /** The directory entries are spilled to, null if none. */
+  protected static File m_Directory = null;
+
+  /** The most bytes the entry files in the directory may take up. */
+  protected static long m_DiskBudget = Long.MAX_VALUE;
+
+  /** The bytes currently held. */
+  protected static long m_NumBytes = 0;
+
+  /** The number of lookups that were found in memory or on disk. */
+  protected static long m_NumHits = 0;
+
+  /** The number of lookups that weren't found. */
+  protected static long m_NumMisses = 0;
+
+  /**
+   * Returns whether fitted filters are cached at all.
+   *
+   * @return true if there is a budget or a directory
+   */
+  public static synchronized boolean isEnabled() {
+    return (m_Budget > 0) || (m_Directory != null);
+  }
+
+  /**
+   * Returns whether it's worth caching the given filter, i.e., whether it
+   * does anything at all.
+   *
+   * @param filter the filter
+   * @return false for an AllFilter, or a MultiFilter made up of them
+   */
+  public static boolean isWorthCaching(Filter filter) {
+
+    if (filter instanceof AllFilter) {
+      return false;
+    }
+    if (filter instanceof MultiFilter) {
+      for (Filter f : ((MultiFilter) filter).getFilters()) {
+        if (isWorthCaching(f)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Computes the key that the filter fitted to the given data is cached
+   * under.
+   *
+   * @param data the training data
+   * @param filterSpec the filter's class name and options
+   * @return the key
+   * @throws Exception if the data can't be hashed
+   */
+  public static String getKey(Instances data, String filterSpec)
+    throws Exception {
+
+    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    digest.update(new Instances(data, 0).toString().getBytes("UTF-8"));
+    digest.update((data.classIndex() + "\n" + filterSpec + "\n").getBytes("UTF-8"));
+    byte[] buffer = new byte[8 * (data.numAttributes() + 1)];
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance inst = data.instance(i);
+      for (int j = 0; j <= data.numAttributes(); j++) {
+        // the weight goes last, since some filters look at it
+        long bits = Double.doubleToLongBits((j < data.numAttributes())
+          ? inst.value(j) : inst.weight());
+        for (int k = 0; k < 8; k++) {
+          buffer[8 * j + k] = (byte) (bits >>> (8 * k));
+        }
+      }
+      digest.update(buffer);
+    }
+    return String.format("%040x", new BigInteger(1, digest.digest()));
+  }
+
+  /**
+   * Looks up the entry with the given key, in memory first and then on
+   * disk.
+   *
+   * @param key the key of the entry
+   * @return the entry, or null if it isn't cached
+   */
+  public static Entry get(String key) {
+
+    File file;
+    synchronized (FilterCache.class) {
+      Entry entry = m_Cache.get(key);
+      if (entry != null) {
+        m_NumHits++;
+        return entry;
+      }
+      file = getFile(key);
+    }
+
+    // Read outside the lock, since filtered data can be big
+    Entry entry = (file == null) ? null : read(file);
+    if (entry != null) {
+      file.setLastModified(System.currentTimeMillis());
+    }
+    synchronized (FilterCache.class) {
+      if (entry == null) {
+        m_NumMisses++;
+      } else {
+        m_NumHits++;
+        add(key, entry);
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Adds an entry to the cache. The entry mustn't be changed afterwards.
+   *
+   * @param key the key of the entry
+   * @param entry the entry
+   */
+  public static void put(String key, Entry entry) {
+
+    Map<String, Entry> spilled;
+    synchronized (FilterCache.class) {
+      spilled = add(key, entry);
+    }
+    spill(spilled);
+  }
+
+  /**
+   * Sets the most bytes the cache may hold in memory. Entries that are
+   * already cached are dropped (or spilled) if they don't fit anymore.
+   *
+   * @param budget the budget in bytes (0 switches the memory cache off)
+   */
+  public static void setBudget(long budget) {
+
+    Map<String, Entry> spilled;
+    synchronized (FilterCache.class) {
+      m_Budget = Math.max(0, budget);
+      spilled = trim();
+    }
+    spill(spilled);
+  }
+
+  /**
+   * Returns the most bytes the cache may hold in memory.
+   *
+   * @return the budget in bytes
+   */
+  public static synchronized long getBudget() {
+    return m_Budget;
+  }
+
+  /**
+   * Sets the directory that entries are spilled to and read from.
+   *
+   * @param dir the directory, null to keep entries in memory only
+   */
+  public static synchronized void setDirectory(File dir) {
+    m_Directory = dir;
+  }
+
+  /**
+   * Returns the directory that entries are spilled to and read from.
+   *
+   * @return the directory, null if there is none
+   */
+  public static synchronized File getDirectory() {
+    return m_Directory;
+  }
+
+  /**
+   * Sets the most bytes the entry files in the directory may take up. If
+   * they already take up more, the least recently used ones are deleted.
+   *
+   * @param budget the budget in bytes, Long.MAX_VALUE for no limit
+   */
+  public static void setDiskBudget(long budget) {
+
+    synchronized (FilterCache.class) {
+      m_DiskBudget = Math.max(0, budget);
+    }
+    prune();
+  }
+
+  /**
+   * Returns the most bytes the entry files in the directory may take up.
+   *
+   * @return the budget in bytes, Long.MAX_VALUE if there is no limit
+   */
+  public static synchronized long getDiskBudget() {
+    return m_DiskBudget;
+  }
+
+  /**
+   * Returns the bytes currently held in memory by the cache.
+   *
+   * @return the size in bytes
+   */
+  public static synchronized long getNumBytes() {
+    return m_NumBytes;
+  }
+
+  /**
+   * Drops everything that is held in memory, without spilling it.
+   */
+  public static synchronized void clear() {
+    m_Cache.clear();
+    m_NumBytes = 0;
+  }
+
+  /**
+   * Returns a one line summary of the cache's size and use.
+   *
+   * @return the summary
+   */
+  public static synchronized String getStatistics() {
+    return "Filter cache: " + m_Cache.size() + " filters, "
+      + (m_NumBytes >> 20) + "MB of " + (m_Budget >> 20) + "MB, "
+      + m_NumHits + " hits, " + m_NumMisses + " misses";
+  }
+
+  /**
+   * Adds an entry to the memory cache if it fits the budget.
+   *
+   * @param key the key of the entry
+   * @param entry the entry
+   * @return the entries that have to be spilled to make it fit
+   */
+  protected static Map<String, Entry> add(String key, Entry entry) {
+
+    if (m_Cache.containsKey(key)) {
+      return null;
+    }
+    if (entry.numBytes() > m_Budget) {
+      Map<String, Entry> spilled = new LinkedHashMap<String, Entry>();
+      spilled.put(key, entry);
+      return spilled;
+    }
+    m_Cache.put(key, entry);
+    m_NumBytes += entry.numBytes();
+    return trim();
+  }
+
+  /**
+   * Drops the least recently used entries until the cache fits its
+   * budget.
+   *
+   * @return the dropped entries
+   */
+  protected static Map<String, Entry> trim() {
+
+    Map<String, Entry> spilled = null;
+    Iterator<Map.Entry<String, Entry>> iter = m_Cache.entrySet().iterator();
+    while (m_NumBytes > m_Budget && iter.hasNext()) {
+      Map.Entry<String, Entry> eldest = iter.next();
+      if (spilled == null) {
+        spilled = new LinkedHashMap<String, Entry>();
+      }
+      spilled.put(eldest.getKey(), eldest.getValue());
+      m_NumBytes -= eldest.getValue().numBytes();
+      iter.remove();
+    }
+    return spilled;
+  }
+
+  /**
+   * Writes entries that were dropped from memory to disk, if there is a
+   * directory and they aren't there yet. Called outside the lock.
+   *
+   * @param spilled the entries, may be null
+   */
+  protected static void spill(Map<String, Entry> spilled) {
+
+    if (spilled == null) {
+      return;
+    }
+    boolean written = false;
+    for (Map.Entry<String, Entry> e : spilled.entrySet()) {
+      File file;
+      synchronized (FilterCache.class) {
+        file = getFile(e.getKey());
+      }
+      if (file == null) {
+        continue;
+      }
+      if (file.exists()) {
+        // it was in use until just now
+        file.setLastModified(System.currentTimeMillis());
+      } else {
+        write(file, e.getValue());
+        written = true;
+      }
+    }
+    if (written) {
+      prune();
+    }
+  }
+
+  /**
+   * Deletes the least recently used entry files until the directory fits
+   * its budget. Called outside the lock.
+   */
+  protected static void prune() {
+
+    File dir;
+    long budget;
+    synchronized (FilterCache.class) {
+      dir = m_Directory;
+      budget = m_DiskBudget;
+    }
+    if ((dir == null) || (budget == Long.MAX_VALUE)) {
+      return;
+    }
+    File[] files = dir.listFiles(new FileFilter() {
+      public boolean accept(File f) {
+        return f.isFile() && f.getName().endsWith(FILE_EXTENSION);
+      }
+    });
+    if (files == null) {
+      return;
+    }
+
+    // other processes may touch the files while we sort them
+    final long[] modified = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    long total = 0;
+    for (int i = 0; i < files.length; i++) {
+      modified[i] = files[i].lastModified();
+      order[i] = i;
+      total += files[i].length();
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return (modified[a] < modified[b]) ? -1
+          : ((modified[a] == modified[b]) ? 0 : 1);
+      }
+    });
+    for (int i = 0; (i < order.length) && (total > budget); i++) {
+      File file = files[order[i]];
+      long length = file.length();
+      if (file.delete()) {
+        total -= length;
+      }
+    }
+  }
+
+  /**
+   * Returns the file that the entry with the given key lives in.
+   *
+   * @param key the key of the entry
+   * @return the file, null if there is no directory
+   */
+  protected static File getFile(String key) {
+    return (m_Directory == null) ? null : new File(m_Directory, key + FILE_EXTENSION);
+  }
+
+  /**
+   * Reads an entry from disk.
+   *
+   * @param file the file to read
+   * @return the entry, or null if the file doesn't exist or can't be read
+   */
+  protected static Entry read(File file) {
+
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+        new FileInputStream(file), 1 << 16));
+      try {
+        return (Entry) in.readObject();
+      } finally {
+        in.close();
+      }
+    } catch (Exception e) {
+      // just fit it again
+      return null;
+    }
+  }
+
+  /**
+   * Writes an entry to disk. The entry goes to a temporary file first, so
+   * that nobody reads it before it is complete.
+   *
+   * @param file the file to write
+   * @param entry the entry
+   */
+  protected static void write(File file, Entry entry) {
+
+    File tmp = null;
+    try {
+      file.getParentFile().mkdirs();
+      tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmp), 1 << 16));
+      try {
+        out.writeObject(entry);
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(file)) {
+        tmp.delete();
+      }
+    } catch (IOException e) {
+      // the entry is just lost
+      System.err.println("Failed to write fitted filter to " + file
+        + ": " + e.getMessage());
+      if (tmp != null) {
+        tmp.delete();
+      }
+    }
+  }
+}
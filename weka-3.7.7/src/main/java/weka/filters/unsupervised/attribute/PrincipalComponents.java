@@ -37,6 +37,7 @@ import weka.core.SparseInstance;
 import weka.core.Utils;
 import weka.core.matrix.EigenvalueDecomposition;
 import weka.core.matrix.Matrix;
+import weka.core.matrix.TruncatedEigenDecomposition;
 import weka.filters.Filter;
 import weka.filters.UnsupervisedFilter;
 
@@ -70,6 +71,16 @@ import weka.filters.UnsupervisedFilter;
  *  Maximum number of PC attributes to retain.
  *  (-1 = include all, default: -1)</pre>
  * 
+ * <pre> -truncate &lt;num&gt;
+ *  Compute only the leading components, with a randomized
+ *  truncated decomposition, when there are more than this
+ *  many attributes after preprocessing.
+ *  (-1 = never, default: 2000)</pre>
+ * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots for the truncated decomposition.
+ *  (default 1 - i.e. no parallelism)</pre>
+ * 
  <!-- options-end -->
  *
  * @author Mark Hall (mhall@cs.waikato.ac.nz) -- attribute selection code
@@ -156,6 +167,13 @@ public class PrincipalComponents
   /** maximum number of attributes in the transformed data (-1 for all). */
   protected int m_MaxAttributes = -1;
 
+  /** the number of attributes above which only the leading components
+      are computed (-1 for never). */
+  protected int m_TruncationThreshold = 2000;
+
+  /** the number of threads for the truncated decomposition. */
+  protected int m_NumExecutionSlots = 1;
+
   /**
    * Returns a string describing this filter.
    *
@@ -203,6 +221,18 @@ public class PrincipalComponents
 	+ "\t(-1 = include all, default: -1)", 
 	"M", 1, "-M <num>"));
 
+    result.addElement(new Option(
+	"\tCompute only the leading components, with a randomized\n"
+	+ "\ttruncated decomposition, when there are more than this\n"
+	+ "\tmany attributes after preprocessing.\n"
+	+ "\t(-1 = never, default: 2000)",
+	"truncate", 1, "-truncate <num>"));
+
+    result.addElement(new Option(
+	"\tNumber of execution slots for the truncated decomposition.\n"
+	+ "\t(default 1 - i.e. no parallelism)",
+	"num-slots", 1, "-num-slots <num>"));
+
     return result.elements();
   }
 
@@ -231,6 +261,16 @@ public class PrincipalComponents
    *  Maximum number of PC attributes to retain.
    *  (-1 = include all, default: -1)</pre>
    * 
+   * <pre> -truncate &lt;num&gt;
+   *  Compute only the leading components, with a randomized
+   *  truncated decomposition, when there are more than this
+   *  many attributes after preprocessing.
+   *  (-1 = never, default: 2000)</pre>
+   * 
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of execution slots for the truncated decomposition.
+   *  (default 1 - i.e. no parallelism)</pre>
+   * 
    <!-- options-end -->
    *
    * @param options 	the list of options as an array of strings
@@ -257,6 +297,18 @@ public class PrincipalComponents
     else
       setMaximumAttributes(-1);
 
+    tmpStr = Utils.getOption("truncate", options);
+    if (tmpStr.length() != 0)
+      setTruncationThreshold(Integer.parseInt(tmpStr));
+    else
+      setTruncationThreshold(2000);
+
+    tmpStr = Utils.getOption("num-slots", options);
+    if (tmpStr.length() != 0)
+      setNumExecutionSlots(Integer.parseInt(tmpStr));
+    else
+      setNumExecutionSlots(1);
+
     setCenterData(Utils.getFlag('C', options));    
   }
 
@@ -279,6 +331,12 @@ public class PrincipalComponents
     result.add("-M");
     result.add("" + getMaximumAttributes());
 
+    result.add("-truncate");
+    result.add("" + getTruncationThreshold());
+
+    result.add("-num-slots");
+    result.add("" + getNumExecutionSlots());
+
     if (getCenterData())
       result.add("-C");
 
@@ -408,6 +466,69 @@ public class PrincipalComponents
     return m_MaxAttributes;
   }
 
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String truncationThresholdTipText() {
+    return "The number of attributes (after preprocessing) above which only "
+      + "the leading components are computed, with a randomized truncated "
+      + "decomposition that never forms the full covariance matrix "
+      + "(-1 = never).";
+  }
+
+  /**
+   * Sets the number of attributes above which only the leading components
+   * are computed.
+   * 
+   * @param value 	the threshold (-1 for never)
+   */
+  public void setTruncationThreshold(int value) {
+    m_TruncationThreshold = value;
+  }
+
+  /**
+   * Gets the number of attributes above which only the leading components
+   * are computed.
+   * 
+   * @return 		the threshold (-1 for never)
+   */
+  public int getTruncationThreshold() {
+    return m_TruncationThreshold;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for the truncated "
+      + "decomposition.";
+  }
+
+  /**
+   * Sets the number of threads for the truncated decomposition.
+   * 
+   * @param value 	the number of threads
+   */
+  public void setNumExecutionSlots(int value) {
+    if (value > 0)
+      m_NumExecutionSlots = value;
+  }
+
+  /**
+   * Gets the number of threads for the truncated decomposition.
+   * 
+   * @return 		the number of threads
+   */
+  public int getNumExecutionSlots() {
+    return m_NumExecutionSlots;
+  }
+
   /**
    * Returns the capabilities of this evaluator.
    *
@@ -462,7 +583,7 @@ public class PrincipalComponents
       return inputFormat;
 
     if (m_MaxAttributes > 0)
-      numAttsLowerBound = m_NumAttribs - m_MaxAttributes;
+      numAttsLowerBound = m_Eigenvalues.length - m_MaxAttributes;
     else
       numAttsLowerBound = 0;
     if (numAttsLowerBound < 0)
@@ -470,7 +591,7 @@ public class PrincipalComponents
     
     cumulative = 0.0;
     attributes = new FastVector();
-    for (i = m_NumAttribs - 1; i >= numAttsLowerBound; i--) {
+    for (i = m_Eigenvalues.length - 1; i >= numAttsLowerBound; i--) {
       attName = new StringBuffer();
       // build array of coefficients
       coeff_mags = new double[m_NumAttribs];
@@ -601,6 +722,47 @@ public class PrincipalComponents
     m_TrainInstances = Filter.useFilter(m_TrainInstances, m_standardizeFilter);
   }
 
+  /**
+   * Computes just the leading eigenvectors, straight from the standardized
+   * (or centered) data, without forming the correlation (or covariance)
+   * matrix. The sum of the eigenvalues is the trace of the matrix, so the
+   * proportion of variance covered means the same as for the full
+   * decomposition.
+   * 
+   * @throws Exception 	if the decomposition fails
+   */
+  protected void setupTruncated() throws Exception {
+    double[][]			columns;
+    TruncatedEigenDecomposition	eig;
+    Instance			inst;
+    int				i;
+    int				j;
+
+    if (!m_center) {
+      m_standardizeFilter = new Standardize();
+      m_standardizeFilter.setInputFormat(m_TrainInstances);
+      m_TrainInstances = Filter.useFilter(m_TrainInstances, m_standardizeFilter);
+    } else {
+      m_centerFilter = new Center();
+      m_centerFilter.setInputFormat(m_TrainInstances);
+      m_TrainInstances = Filter.useFilter(m_TrainInstances, m_centerFilter);
+    }
+    m_Correlation = null;
+
+    columns = new double[m_NumAttribs][m_NumInstances];
+    for (i = 0; i < m_NumInstances; i++) {
+      inst = m_TrainInstances.instance(i);
+      for (j = 0; j < m_NumAttribs; j++)
+	columns[j][i] = inst.value(j);
+    }
+
+    eig = new TruncatedEigenDecomposition(columns, m_CoverVariance, 
+	m_MaxAttributes, m_NumExecutionSlots, 1);
+    m_Eigenvectors     = eig.getEigenvectors();
+    m_Eigenvalues      = eig.getEigenvalues();
+    m_SumOfEigenValues = eig.getTrace();
+  }
+
   /**
    * Transform an instance in original (unormalized) format.
    * 
@@ -649,19 +811,19 @@ public class PrincipalComponents
       newVals[m_OutputNumAtts - 1] = instance.value(instance.classIndex());
 
     if (m_MaxAttributes > 0)
-      numAttsLowerBound = m_NumAttribs - m_MaxAttributes;
+      numAttsLowerBound = m_Eigenvalues.length - m_MaxAttributes;
     else
       numAttsLowerBound = 0;
     if (numAttsLowerBound < 0)
       numAttsLowerBound = 0;
     
     cumulative = 0;
-    for (i = m_NumAttribs - 1; i >= numAttsLowerBound; i--) {
+    for (i = m_Eigenvalues.length - 1; i >= numAttsLowerBound; i--) {
       tempval = 0.0;
       for (j = 0; j < m_NumAttribs; j++)
 	tempval += m_Eigenvectors[j][m_SortedEigens[i]] * tempInst.value(j);
 
-      newVals[m_NumAttribs - i - 1] = tempval;
+      newVals[m_Eigenvalues.length - i - 1] = tempval;
       cumulative += m_Eigenvalues[m_SortedEigens[i]];
       if ((cumulative / m_SumOfEigenValues) >= m_CoverVariance)
 	break;
@@ -739,28 +901,33 @@ public class PrincipalComponents
     m_NumInstances = m_TrainInstances.numInstances();
     m_NumAttribs   = m_TrainInstances.numAttributes();
 
-    //fillCorrelation();
-    fillCovariance();
-
-    // get eigen vectors/values
-    corr = new Matrix(m_Correlation);
-    eig  = corr.eig();
-    V    = eig.getV();
-    v    = new double[m_NumAttribs][m_NumAttribs];
-    for (i = 0; i < v.length; i++) {
-      for (j = 0; j < v[0].length; j++)
-        v[i][j] = V.get(i, j);
+    if ((m_TruncationThreshold >= 0) && (m_NumAttribs > m_TruncationThreshold)) {
+      setupTruncated();
     }
-    m_Eigenvectors = (double[][]) v.clone();
-    m_Eigenvalues  = (double[]) eig.getRealEigenvalues().clone();
+    else {
+      //fillCorrelation();
+      fillCovariance();
+
+      // get eigen vectors/values
+      corr = new Matrix(m_Correlation);
+      eig  = corr.eig();
+      V    = eig.getV();
+      v    = new double[m_NumAttribs][m_NumAttribs];
+      for (i = 0; i < v.length; i++) {
+	for (j = 0; j < v[0].length; j++)
+	  v[i][j] = V.get(i, j);
+      }
+      m_Eigenvectors = (double[][]) v.clone();
+      m_Eigenvalues  = (double[]) eig.getRealEigenvalues().clone();
 
-    // any eigenvalues less than 0 are not worth anything --- change to 0
-    for (i = 0; i < m_Eigenvalues.length; i++) {
-      if (m_Eigenvalues[i] < 0)
-	m_Eigenvalues[i] = 0.0;
+      // any eigenvalues less than 0 are not worth anything --- change to 0
+      for (i = 0; i < m_Eigenvalues.length; i++) {
+	if (m_Eigenvalues[i] < 0)
+	  m_Eigenvalues[i] = 0.0;
+      }
+      m_SumOfEigenValues = Utils.sum(m_Eigenvalues);
     }
-    m_SortedEigens     = Utils.sort(m_Eigenvalues);
-    m_SumOfEigenValues = Utils.sum(m_Eigenvalues);
+    m_SortedEigens = Utils.sort(m_Eigenvalues);
 
     m_TransformedFormat = determineOutputFormat(m_TrainInstances);
     setOutputFormat(m_TransformedFormat);
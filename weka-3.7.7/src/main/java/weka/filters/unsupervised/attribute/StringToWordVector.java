@@ -23,11 +23,19 @@ package weka.filters.unsupervised.attribute;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.core.Attribute;
 import weka.core.Capabilities;
@@ -41,6 +49,7 @@ import weka.core.Range;
 import weka.core.RevisionHandler;
 import weka.core.RevisionUtils;
 import weka.core.SelectedTag;
+import weka.core.SerializedObject;
 import weka.core.SparseInstance;
 import weka.core.Stopwords;
 import weka.core.Tag;
@@ -129,6 +138,15 @@ import weka.filters.UnsupervisedFilter;
  *  The tokenizing algorihtm (classname plus parameters) to use.
  *  (default: weka.core.tokenizers.WordTokenizer)</pre>
  * 
+ * <pre> -hash &lt;number of buckets&gt;
+ *  Hash words into this many buckets instead of building a dictionary.
+ *  -W, -M, -O and -prune-rate don't apply when hashing.
+ *  (default: 0 - i.e. build a dictionary)</pre>
+ * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots for tokenizing when hashing.
+ *  (default 1 - i.e. no parallelism)</pre>
+ * 
  <!-- options-end -->
  *
  * @author Len Trigg (len@reeltwo.com)
@@ -233,6 +251,19 @@ public class StringToWordVector
   /** the tokenizer algorithm to use. */
   private Tokenizer m_Tokenizer = new WordTokenizer();
 
+  /** the number of buckets words are hashed into instead of building a
+   * dictionary (0 to build a dictionary). */
+  private int m_NumBuckets = 0;
+
+  /** the number of threads used for tokenizing when hashing. */
+  private int m_NumExecutionSlots = 1;
+
+  /** the stopwords used when hashing, loaded when first needed. */
+  private transient Stopwords m_HashStopwords = null;
+
+  /** the number of documents that are tokenized together when hashing. */
+  private static final int HASH_CHUNK_SIZE = 1024;
+
   /**
    * Default constructor. Targets 1000 words in the output.
    */
@@ -331,6 +362,17 @@ public class StringToWordVector
 	+ "\t(default: " + WordTokenizer.class.getName() + ")",
 	"tokenizer", 1, "-tokenizer <spec>"));
 
+    result.addElement(new Option(
+	"\tHash words into this many buckets instead of building a dictionary.\n"
+	+ "\t-W, -M, -O and -prune-rate don't apply when hashing.\n"
+	+ "\t(default: 0 - i.e. build a dictionary)",
+	"hash", 1, "-hash <number of buckets>"));
+
+    result.addElement(new Option(
+	"\tNumber of execution slots for tokenizing when hashing.\n"
+	+ "\t(default 1 - i.e. no parallelism)",
+	"num-slots", 1, "-num-slots <num>"));
+
     return result.elements();
   }
 
@@ -408,6 +450,15 @@ public class StringToWordVector
          *  The tokenizing algorihtm (classname plus parameters) to use.
          *  (default: weka.core.tokenizers.WordTokenizer)</pre>
          * 
+         * <pre> -hash &lt;number of buckets&gt;
+         *  Hash words into this many buckets instead of building a dictionary.
+         *  -W, -M, -O and -prune-rate don't apply when hashing.
+         *  (default: 0 - i.e. build a dictionary)</pre>
+         * 
+         * <pre> -num-slots &lt;num&gt;
+         *  Number of execution slots for tokenizing when hashing.
+         *  (default 1 - i.e. no parallelism)</pre>
+         * 
          <!-- options-end -->
    *
    * @param options the list of options as an array of strings
@@ -503,6 +554,18 @@ public class StringToWordVector
 	((OptionHandler) tokenizer).setOptions(tokenizerSpec);
       setTokenizer(tokenizer);
     }
+
+    value = Utils.getOption("hash", options);
+    if (value.length() != 0)
+      setNumBuckets(Integer.parseInt(value));
+    else
+      setNumBuckets(0);
+
+    value = Utils.getOption("num-slots", options);
+    if (value.length() != 0)
+      setNumExecutionSlots(Integer.parseInt(value));
+    else
+      setNumExecutionSlots(1);
   }
 
   /**
@@ -577,6 +640,14 @@ public class StringToWordVector
 	  ((OptionHandler) getTokenizer()).getOptions());
     result.add(spec.trim());
 
+    if (getNumBuckets() > 0) {
+      result.add("-hash");
+      result.add(String.valueOf(getNumBuckets()));
+
+      result.add("-num-slots");
+      result.add(String.valueOf(getNumExecutionSlots()));
+    }
+
     return (String[]) result.toArray(new String[result.size()]);
   }
 
@@ -683,7 +754,12 @@ public class StringToWordVector
       resetQueue();
       m_NewBatch = false;
     }
-    if (isFirstBatchDone()) {
+    if (isFirstBatchDone() && (m_NumBuckets > 0)) {
+      HashedWords words = hashWords(instance, m_Tokenizer, m_Stemmer);
+      transformWords(words);
+      push(makeHashedInstance(instance, words, m_filterType != FILTER_NONE));
+      return true;
+    } else if (isFirstBatchDone()) {
       FastVector fv = new FastVector();
       int firstCopy = convertInstancewoDocNorm(instance, fv);
       Instance inst = (Instance)fv.elementAt(0);
@@ -715,7 +791,9 @@ public class StringToWordVector
     // We only need to do something in this method
     // if the first batch hasn't been processed. Otherwise
     // input() has already done all the work.
-    if (!isFirstBatchDone()) {
+    if (!isFirstBatchDone() && (m_NumBuckets > 0)) {
+      hashFirstBatch();
+    } else if (!isFirstBatchDone()) {
 
       // Determine the dictionary from the first batch (training data)
       determineDictionary();
@@ -1309,6 +1387,67 @@ public class StringToWordVector
     return "The tokenizing algorithm to use on the strings.";
   }
 
+  /**
+   * Sets the number of buckets words are hashed into.
+   * 
+   * @param value	the number of buckets, 0 to build a dictionary
+   */
+  public void setNumBuckets(int value) {
+    m_NumBuckets = Math.max(0, value);
+  }
+
+  /**
+   * Gets the number of buckets words are hashed into.
+   * 
+   * @return		the number of buckets, 0 if a dictionary is built
+   */
+  public int getNumBuckets() {
+    return m_NumBuckets;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numBucketsTipText() {
+    return "If greater than 0, words are hashed into this many buckets, one "
+      + "attribute each, instead of building a dictionary; the number of "
+      + "words to keep, the minimum term frequency and periodic pruning "
+      + "don't apply then.";
+  }
+
+  /**
+   * Sets the number of threads used for tokenizing when hashing.
+   * 
+   * @param value	the number of threads
+   */
+  public void setNumExecutionSlots(int value) {
+    if (value > 0)
+      m_NumExecutionSlots = value;
+  }
+
+  /**
+   * Gets the number of threads used for tokenizing when hashing.
+   * 
+   * @return		the number of threads
+   */
+  public int getNumExecutionSlots() {
+    return m_NumExecutionSlots;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots (threads) to use for tokenizing "
+      + "the documents when hashing.";
+  }
+
   /**
    * sorts an array.
    * 
@@ -1369,16 +1508,7 @@ public class StringToWordVector
    */
   private void determineDictionary() {
     // initialize stopwords
-    Stopwords stopwords = new Stopwords();
-    if (getUseStoplist()) {
-      try {
-	if (getStopwords().exists() && !getStopwords().isDirectory())
-	  stopwords.read(getStopwords());
-      }
-      catch (Exception e) {
-	e.printStackTrace();
-      }
-    }
+    Stopwords stopwords = loadStopwords();
 
     // Operate on a per-class basis if class attribute is set
     int classInd = getInputFormat().classIndex();
@@ -1565,6 +1695,25 @@ public class StringToWordVector
     setOutputFormat(outputFormat);
   }
 
+  /**
+   * Loads the stopwords, from the stopwords file if one is set.
+   * 
+   * @return the stopwords
+   */
+  private Stopwords loadStopwords() {
+    Stopwords stopwords = new Stopwords();
+    if (getUseStoplist()) {
+      try {
+	if (getStopwords().exists() && !getStopwords().isDirectory())
+	  stopwords.read(getStopwords());
+      }
+      catch (Exception e) {
+	e.printStackTrace();
+      }
+    }
+    return stopwords;
+  }
+
   /**
    * Converts the instance w/o normalization.
    * 
@@ -1578,51 +1727,7 @@ public class StringToWordVector
     TreeMap contained = new TreeMap();
 
     // Copy all non-converted attributes from input to output
-    int firstCopy = 0;
-    for (int i = 0; i < getInputFormat().numAttributes(); i++) {
-      if (!m_SelectedRange.isInRange(i)) { 
-	if (getInputFormat().attribute(i).type() != Attribute.STRING && 
-	    getInputFormat().attribute(i).type() != Attribute.RELATIONAL) {
-	  // Add simple nominal and numeric attributes directly
-	  if (instance.value(i) != 0.0) {
-	    contained.put(new Integer(firstCopy), 
-		new Double(instance.value(i)));
-	  } 
-	} else {
-	  if (instance.isMissing(i)) {
-	    contained.put(new Integer(firstCopy),
-		new Double(Utils.missingValue()));
-	  } else if (getInputFormat().attribute(i).type() == Attribute.STRING) {
-
-	    // If this is a string attribute, we have to first add
-	    // this value to the range of possible values, then add
-	    // its new internal index.
-	    if (outputFormatPeek().attribute(firstCopy).numValues() == 0) {
-	      // Note that the first string value in a
-	      // SparseInstance doesn't get printed.
-	      outputFormatPeek().attribute(firstCopy)
-	      .addStringValue("Hack to defeat SparseInstance bug");
-	    }
-	    int newIndex = outputFormatPeek().attribute(firstCopy)
-	    .addStringValue(instance.stringValue(i));
-	    contained.put(new Integer(firstCopy), 
-		new Double(newIndex));
-	  } else {
-	    // relational
-	    if (outputFormatPeek().attribute(firstCopy).numValues() == 0) {
-	      Instances relationalHeader = outputFormatPeek().attribute(firstCopy).relation();
-	      
-	      // hack to defeat sparse instances bug
-	      outputFormatPeek().attribute(firstCopy).addRelation(relationalHeader);
-	    }
-	    int newIndex = outputFormatPeek().attribute(firstCopy)
-	      .addRelation(instance.relationalValue(i));
-	    contained.put(new Integer(firstCopy), new Double(newIndex));
-	  }
-	}
-	firstCopy++;
-      }     
-    }
+    int firstCopy = copyUnconvertedAttributes(instance, contained);
 
     for (int j = 0; j < instance.numAttributes(); j++) { 
       //if ((getInputFormat().attribute(j).type() == Attribute.STRING) 
@@ -1700,6 +1805,379 @@ public class StringToWordVector
     return firstCopy;    
   }
 
+  /**
+   * Copies the attributes that aren't converted to words from the input
+   * to the output, as a map from output index to value.
+   * 
+   * @param instance the instance to copy from
+   * @param contained the map to add the values to
+   * @return the number of copied attributes, i.e., the index of the first
+   * word attribute
+   */
+  private int copyUnconvertedAttributes(Instance instance, TreeMap contained) {
+
+    int firstCopy = 0;
+    for (int i = 0; i < getInputFormat().numAttributes(); i++) {
+      if (!m_SelectedRange.isInRange(i)) { 
+	if (getInputFormat().attribute(i).type() != Attribute.STRING && 
+	    getInputFormat().attribute(i).type() != Attribute.RELATIONAL) {
+	  // Add simple nominal and numeric attributes directly
+	  if (instance.value(i) != 0.0) {
+	    contained.put(new Integer(firstCopy), 
+		new Double(instance.value(i)));
+	  } 
+	} else {
+	  if (instance.isMissing(i)) {
+	    contained.put(new Integer(firstCopy),
+		new Double(Utils.missingValue()));
+	  } else if (getInputFormat().attribute(i).type() == Attribute.STRING) {
+
+	    // If this is a string attribute, we have to first add
+	    // this value to the range of possible values, then add
+	    // its new internal index.
+	    if (outputFormatPeek().attribute(firstCopy).numValues() == 0) {
+	      // Note that the first string value in a
+	      // SparseInstance doesn't get printed.
+	      outputFormatPeek().attribute(firstCopy)
+	      .addStringValue("Hack to defeat SparseInstance bug");
+	    }
+	    int newIndex = outputFormatPeek().attribute(firstCopy)
+	    .addStringValue(instance.stringValue(i));
+	    contained.put(new Integer(firstCopy), 
+		new Double(newIndex));
+	  } else {
+	    // relational
+	    if (outputFormatPeek().attribute(firstCopy).numValues() == 0) {
+	      Instances relationalHeader = outputFormatPeek().attribute(firstCopy).relation();
+	      
+	      // hack to defeat sparse instances bug
+	      outputFormatPeek().attribute(firstCopy).addRelation(relationalHeader);
+	    }
+	    int newIndex = outputFormatPeek().attribute(firstCopy)
+	      .addRelation(instance.relationalValue(i));
+	    contained.put(new Integer(firstCopy), new Double(newIndex));
+	  }
+	}
+	firstCopy++;
+      }     
+    }
+
+    return firstCopy;
+  }
+
+  /**
+   * The words of a document when hashing: the buckets they fell into, in
+   * increasing order, and the count (or weight) of each bucket.
+   */
+  private static class HashedWords {
+
+    /** the buckets. */
+    int[] m_Buckets;
+
+    /** the values of the buckets. */
+    double[] m_Values;
+
+    /** the Euclidean length of the values. */
+    double m_Length;
+  }
+
+  /**
+   * Returns the bucket a word is hashed into. The hash code of a string is
+   * the same on every JVM, so the buckets are too.
+   * 
+   * @param word the word
+   * @return the bucket
+   */
+  private int bucketOf(String word) {
+    int h = word.hashCode();
+
+    // spread the bits, since hash codes of similar words are close
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+
+    return (h & 0x7fffffff) % m_NumBuckets;
+  }
+
+  /**
+   * Tokenizes the selected attributes of an instance and hashes the words
+   * into buckets, in the same way the dictionary is built.
+   * 
+   * @param instance the instance
+   * @param tokenizer the tokenizer to use
+   * @param stemmer the stemmer to use
+   * @return the counts of the buckets
+   */
+  private HashedWords hashWords(Instance instance, Tokenizer tokenizer, 
+      Stemmer stemmer) {
+
+    int[] buckets = new int[64];
+    int numWords = 0;
+    for (int j = 0; j < instance.numAttributes(); j++) { 
+      if (m_SelectedRange.isInRange(j) && (instance.isMissing(j) == false)) {
+	tokenizer.tokenize(instance.stringValue(j));
+	while (tokenizer.hasMoreElements()) {
+	  String word = (String) tokenizer.nextElement();
+	  if (m_lowerCaseTokens)
+	    word = word.toLowerCase();
+	  word = stemmer.stem(word);
+	  if (m_useStoplist && getHashStopwords().is(word))
+	    continue;
+	  if (numWords == buckets.length)
+	    buckets = Arrays.copyOf(buckets, 2 * numWords);
+	  buckets[numWords++] = bucketOf(word);
+	}
+      }
+    }
+
+    // count the words in each bucket
+    Arrays.sort(buckets, 0, numWords);
+    int numBuckets = 0;
+    for (int i = 0; i < numWords; i++) {
+      if ((i == 0) || (buckets[i] != buckets[i - 1]))
+	numBuckets++;
+    }
+    HashedWords words = new HashedWords();
+    words.m_Buckets = new int[numBuckets];
+    words.m_Values = new double[numBuckets];
+    int pos = -1;
+    for (int i = 0; i < numWords; i++) {
+      if ((i == 0) || (buckets[i] != buckets[i - 1])) {
+	pos++;
+	words.m_Buckets[pos] = buckets[i];
+	words.m_Values[pos] = 1;
+      } else if (m_OutputCounts) {
+	words.m_Values[pos]++;
+      }
+    }
+
+    return words;
+  }
+
+  /**
+   * Returns the stopwords to use when hashing, loading them if necessary
+   * (the first batch loads them up front, before any threads start).
+   * 
+   * @return the stopwords
+   */
+  private Stopwords getHashStopwords() {
+    if (m_HashStopwords == null)
+      m_HashStopwords = loadStopwords();
+    return m_HashStopwords;
+  }
+
+  /**
+   * Applies the TF and IDF transforms to the values of a hashed document,
+   * and works out its length. Buckets that no training document fell into
+   * are dropped, just like words that aren't in the dictionary.
+   * 
+   * @param words the hashed document, changed in place
+   */
+  private void transformWords(HashedWords words) {
+
+    int firstWord = outputFormatPeek().numAttributes() - m_NumBuckets;
+    int numKept = 0;
+    double length = 0;
+    for (int i = 0; i < words.m_Buckets.length; i++) {
+      int docsCount = m_DocsCounts[firstWord + words.m_Buckets[i]];
+      if (docsCount == 0)
+	continue;
+      double val = words.m_Values[i];
+      if (m_TFTransform)
+	val = Math.log(val + 1);
+      if (m_IDFTransform)
+	val = val * Math.log(m_NumInstances / (double) docsCount);
+      words.m_Buckets[numKept] = words.m_Buckets[i];
+      words.m_Values[numKept] = val;
+      numKept++;
+      length += val * val;
+    }
+    if (numKept < words.m_Buckets.length) {
+      words.m_Buckets = Arrays.copyOf(words.m_Buckets, numKept);
+      words.m_Values = Arrays.copyOf(words.m_Values, numKept);
+    }
+    words.m_Length = Math.sqrt(length);
+  }
+
+  /**
+   * Makes the output instance for a hashed document, straight from the
+   * bucket arrays.
+   * 
+   * @param instance the input instance
+   * @param words the transformed buckets of the document
+   * @param normalize whether to normalize to the average document length
+   * @return the output instance
+   * @throws Exception if the average document length isn't set
+   */
+  private Instance makeHashedInstance(Instance instance, HashedWords words,
+      boolean normalize) throws Exception {
+
+    if (normalize && (m_AvgDocLength < 0)) {
+      throw new Exception("Average document length not set.");
+    }
+
+    TreeMap contained = new TreeMap();
+    int firstCopy = copyUnconvertedAttributes(instance, contained);
+    int numValues = contained.size() + words.m_Buckets.length;
+    int[] indices = new int[numValues];
+    double[] values = new double[numValues];
+    int pos = 0;
+    Iterator it = contained.keySet().iterator();
+    while (it.hasNext()) {
+      Integer index = (Integer) it.next();
+      indices[pos] = index.intValue();
+      values[pos] = ((Double) contained.get(index)).doubleValue();
+      pos++;
+    }
+    double scale = 1;
+    if (normalize && (words.m_Length > 0))
+      scale = m_AvgDocLength / words.m_Length;
+    for (int i = 0; i < words.m_Buckets.length; i++) {
+      indices[pos] = firstCopy + words.m_Buckets[i];
+      values[pos] = words.m_Values[i] * scale;
+      pos++;
+    }
+
+    Instance inst = new SparseInstance(instance.weight(), values, indices, 
+	outputFormatPeek().numAttributes());
+    inst.setDataset(outputFormatPeek());
+    return inst;
+  }
+
+  /**
+   * Converts the first batch when hashing. The documents are tokenized on
+   * several threads, a chunk at a time, then the document frequencies of
+   * the buckets are added up and the TF/IDF transforms applied, and
+   * finally the instances are pushed one after the other, normalized on
+   * the way out if necessary.
+   * 
+   * @throws Exception if tokenizing fails
+   */
+  private void hashFirstBatch() throws Exception {
+
+    determineSelectedRange();
+    m_HashStopwords = loadStopwords();
+
+    // the attributes that aren't converted, followed by the buckets
+    FastVector attributes = new FastVector(m_NumBuckets + 
+	getInputFormat().numAttributes());
+    int classIndex = -1;
+    for (int i = 0; i < getInputFormat().numAttributes(); i++) {
+      if (!m_SelectedRange.isInRange(i)) { 
+	if (getInputFormat().classIndex() == i) {
+	  classIndex = attributes.size();
+	}
+	attributes.addElement(getInputFormat().attribute(i).copy());
+      }     
+    }
+    int firstWord = attributes.size();
+    for (int b = 0; b < m_NumBuckets; b++) {
+      attributes.addElement(new Attribute(m_Prefix + "hash" + b));
+    }
+    Instances outputFormat = new Instances(getInputFormat().relationName(), 
+	attributes, 0);
+    outputFormat.setClassIndex(classIndex);
+    setOutputFormat(outputFormat);
+
+    final Instances data = getInputFormat();
+    m_NumInstances = data.numInstances();
+    final HashedWords[] docs = new HashedWords[m_NumInstances];
+    processChunks(data, docs, true);
+
+    m_DocsCounts = new int[attributes.size()];
+    for (int i = 0; i < m_NumInstances; i++) {
+      for (int b : docs[i].m_Buckets)
+	m_DocsCounts[firstWord + b]++;
+    }
+
+    processChunks(data, docs, false);
+
+    if (m_filterType != FILTER_NONE) {
+      m_AvgDocLength = 0;
+      for (int i = 0; i < m_NumInstances; i++)
+	m_AvgDocLength += docs[i].m_Length;
+      m_AvgDocLength /= m_NumInstances;
+    }
+
+    for (int i = 0; i < m_NumInstances; i++) {
+      push(makeHashedInstance(data.instance(i), docs[i], 
+	  m_filterType == FILTER_NORMALIZE_ALL));
+      docs[i] = null;
+    }
+  }
+
+  /**
+   * Tokenizes and hashes (or transforms) all documents, a chunk at a time,
+   * on as many threads as there are execution slots. Every document is
+   * handled the same way whichever thread it ends up on.
+   * 
+   * @param data the documents
+   * @param docs the hashed documents
+   * @param tokenize true to tokenize, false to transform
+   * @throws Exception if a chunk fails or the thread is interrupted
+   */
+  private void processChunks(final Instances data, final HashedWords[] docs,
+      final boolean tokenize) throws Exception {
+
+    int numChunks = (docs.length + HASH_CHUNK_SIZE - 1) / HASH_CHUNK_SIZE;
+    if ((m_NumExecutionSlots <= 1) || (numChunks <= 1)) {
+      processChunk(data, docs, 0, docs.length, tokenize);
+      return;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(m_NumExecutionSlots);
+    try {
+      List<Future<Object>> futures = new ArrayList<Future<Object>>();
+      for (int c = 0; c < numChunks; c++) {
+	final int from = c * HASH_CHUNK_SIZE;
+	final int to = Math.min(docs.length, from + HASH_CHUNK_SIZE);
+	futures.add(pool.submit(new Callable<Object>() {
+	  public Object call() throws Exception {
+	    processChunk(data, docs, from, to, tokenize);
+	    return null;
+	  }
+	}));
+      }
+      for (Future<Object> future : futures) {
+	future.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception)
+	throw (Exception) e.getCause();
+      throw new Exception(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Tokenizes and hashes (or transforms) a range of documents. Tokenizers
+   * and stemmers keep state, so every chunk gets its own copies.
+   * 
+   * @param data the documents
+   * @param docs the hashed documents
+   * @param from the first document
+   * @param to one past the last document
+   * @param tokenize true to tokenize, false to transform
+   * @throws Exception if the tokenizer or stemmer can't be copied
+   */
+  private void processChunk(Instances data, HashedWords[] docs, int from,
+      int to, boolean tokenize) throws Exception {
+
+    if (tokenize) {
+      Tokenizer tokenizer = 
+	(Tokenizer) new SerializedObject(m_Tokenizer).getObject();
+      Stemmer stemmer = (Stemmer) new SerializedObject(m_Stemmer).getObject();
+      for (int i = from; i < to; i++)
+	docs[i] = hashWords(data.instance(i), tokenizer, stemmer);
+    } else {
+      for (int i = from; i < to; i++)
+	transformWords(docs[i]);
+    }
+  }
+
   /**
    * Normalizes given instance to average doc length (only the newly
    * constructed attributes).
@@ -19,6 +19,9 @@
 
 package weka.attributeSelection;
 
+import weka.core.Attribute;
+import weka.core.Instances;
+
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
@@ -46,6 +49,46 @@ public class PrincipalComponentsTest
     return new PrincipalComponents();
   }
 
+  /**
+   * Builds a PrincipalComponents evaluator on some numeric data.
+   *
+   * @param truncate	the truncation threshold
+   * @param slots	the number of execution slots
+   * @return		the built evaluator
+   * @throws Exception	if the evaluator can't be built
+   */
+  protected PrincipalComponents buildEvaluator(int truncate, int slots)
+    throws Exception {
+
+    Instances data = m_Tester.makeTestDataset(
+	42, 40, 0, 8, 0, 0, 0, 2, Attribute.NOMINAL, false);
+    PrincipalComponents pc = new PrincipalComponents();
+    pc.setTruncationThreshold(truncate);
+    pc.setNumExecutionSlots(slots);
+    pc.buildEvaluator(data);
+    return pc;
+  }
+
+  /** The truncated decomposition has to cover the same variance */
+  public void testTruncated() throws Exception {
+    PrincipalComponents full = buildEvaluator(-1, 1);
+    PrincipalComponents truncated = buildEvaluator(0, 1);
+
+    int numAtts = full.transformedHeader().numAttributes() - 1;
+    assertEquals(numAtts, truncated.transformedHeader().numAttributes() - 1);
+    for (int i = 0; i < numAtts; i++)
+      assertEquals("Merit of component " + i,
+	  full.evaluateAttribute(i), truncated.evaluateAttribute(i), 1e-6);
+  }
+
+  /** Several threads mustn't change the truncated decomposition */
+  public void testTruncatedSlots() throws Exception {
+    PrincipalComponents serial = buildEvaluator(0, 1);
+    PrincipalComponents parallel = buildEvaluator(0, 4);
+
+    assertEquals(serial.toString(), parallel.toString());
+  }
+
   public static Test suite() {
     return new TestSuite(PrincipalComponentsTest.class);
   }
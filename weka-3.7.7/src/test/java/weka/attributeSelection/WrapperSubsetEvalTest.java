@@ -19,6 +19,11 @@
 
 package weka.attributeSelection;
 
+import java.util.BitSet;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
@@ -48,6 +53,67 @@ public class WrapperSubsetEvalTest
     return eval;
   }
 
+  /**
+   * Generates some data with a nominal class.
+   *
+   * @return		the data
+   * @throws Exception	if the data can't be generated
+   */
+  protected Instances generateData() throws Exception {
+    return m_Tester.makeTestDataset(
+	42, 60, 2, 4, 0, 0, 0, 2, Attribute.NOMINAL, false);
+  }
+
+  /**
+   * Runs the given search with one and with several execution slots, which
+   * has to select the same attributes.
+   *
+   * @param search	the search to use
+   * @throws Exception	if the selection fails
+   */
+  protected void checkNumExecutionSlots(ASSearch search) throws Exception {
+    Instances data = generateData();
+    ASSearch[] searches = ASSearch.makeCopies(search, 2);
+
+    m_Search = searches[0];
+    m_Evaluator = getEvaluator();
+    String serial = useScheme(data);
+
+    m_Search = searches[1];
+    m_Evaluator = getEvaluator();
+    ((WrapperSubsetEval) m_Evaluator).setNumExecutionSlots(4);
+    String parallel = useScheme(data);
+
+    assertEquals(serial, parallel);
+  }
+
+  /** Subsets evaluated side by side by GreedyStepwise */
+  public void testNumExecutionSlotsGreedyStepwise() throws Exception {
+    checkNumExecutionSlots(new GreedyStepwise());
+  }
+
+  /** Subsets evaluated side by side by BestFirst */
+  public void testNumExecutionSlotsBestFirst() throws Exception {
+    checkNumExecutionSlots(new BestFirst());
+  }
+
+  /** A single subset has its folds built side by side */
+  public void testNumExecutionSlotsFolds() throws Exception {
+    Instances data = generateData();
+    BitSet subset = new BitSet();
+    subset.set(0, data.numAttributes() - 1);
+
+    WrapperSubsetEval serial = (WrapperSubsetEval) getEvaluator();
+    serial.buildEvaluator(data);
+
+    WrapperSubsetEval parallel = (WrapperSubsetEval) getEvaluator();
+    parallel.setNumExecutionSlots(4);
+    parallel.buildEvaluator(data);
+
+    assertEquals(serial.evaluateSubset(subset),
+	parallel.evaluateSubset(subset), 0);
+  }
+
   public static Test suite() {
     return new TestSuite(WrapperSubsetEvalTest.class);
   }
@@ -21,6 +21,10 @@ package weka.classifiers.bayes;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.classifiers.CrossValidationHandler;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.TestInstances;
 import weka.core.CheckScheme.PostProcessor;
 
 import junit.framework.Test;
@@ -55,6 +59,72 @@ public class NaiveBayesMultinomialTest
     return new AbsPostProcessor();
   }
 
+  /** Generates some data with a nominal class */
+  protected Instances generateData(int numNominal, int numNumeric) 
+    throws Exception {
+
+    TestInstances generator = new TestInstances();
+    generator.setClassType(Attribute.NOMINAL);
+    generator.setNumClasses(3);
+    generator.setNumNominal(numNominal);
+    generator.setNumNumeric(numNumeric);
+    generator.setNumDate(0);
+    generator.setNumString(0);
+    generator.setNumRelational(0);
+    generator.setNumInstances(100);
+    generator.setClassIndex(TestInstances.CLASS_IS_LAST);
+    return generator.generate();
+  }
+
+  /**
+   * Checks that the models for all folds, built at once, predict the held
+   * out instances the same as models built on the training part of each
+   * fold.
+   */
+  protected void checkFoldClassifiers(Instances data, double tolerance)
+    throws Exception {
+
+    int numFolds = 5;
+    int[] folds = new int[data.numInstances()];
+    for (int i = 0; i < folds.length; i++)
+      folds[i] = i % numFolds;
+    Classifier[] models = ((CrossValidationHandler) getClassifier())
+      .buildFoldClassifiers(data, folds, numFolds);
+    assertEquals(numFolds, models.length);
+
+    for (int k = 0; k < numFolds; k++) {
+      Instances train = new Instances(data, 0);
+      for (int i = 0; i < folds.length; i++) {
+	if (folds[i] != k)
+	  train.add(data.instance(i));
+      }
+      Classifier model = getClassifier();
+      model.buildClassifier(train);
+
+      for (int i = 0; i < folds.length; i++) {
+	if (folds[i] != k)
+	  continue;
+	double[] expected = model.distributionForInstance(data.instance(i));
+	double[] actual = models[k].distributionForInstance(data.instance(i));
+	for (int j = 0; j < expected.length; j++)
+	  assertEquals("Fold " + k + ", instance " + i, 
+	      expected[j], actual[j], tolerance);
+      }
+    }
+  }
+
+  public void testFoldClassifiers() throws Exception {
+    // whole word counts
+    Instances data = generateData(0, 5);
+    for (int i = 0; i < data.numInstances(); i++) {
+      for (int j = 0; j < data.numAttributes(); j++) {
+	if (j != data.classIndex())
+	  data.instance(i).setValue(j, Math.round(Math.abs(data.instance(i).value(j))));
+      }
+    }
+    checkFoldClassifiers(data, 1e-10);
+  }
+
   public static Test suite() {
     return new TestSuite(NaiveBayesMultinomialTest.class);
   }
@@ -21,6 +21,10 @@ package weka.classifiers.functions;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -42,6 +46,64 @@ public class MultilayerPerceptronTest extends AbstractClassifierTest {
     return new MultilayerPerceptron();
   }
 
+  /** Generates some data with a nominal class */
+  protected Instances generateData() throws Exception {
+    TestInstances generator = new TestInstances();
+    generator.setClassType(Attribute.NOMINAL);
+    generator.setNumClasses(2);
+    generator.setNumNominal(2);
+    generator.setNumNumeric(3);
+    generator.setNumDate(0);
+    generator.setNumString(0);
+    generator.setNumRelational(0);
+    generator.setNumInstances(200);
+    generator.setClassIndex(TestInstances.CLASS_IS_LAST);
+    return generator.generate();
+  }
+
+  /** Returns the error rate of a classifier on its training data */
+  protected double trainingError(MultilayerPerceptron mlp, Instances data)
+    throws Exception {
+
+    mlp.buildClassifier(data);
+    Evaluation eval = new Evaluation(data);
+    eval.evaluateModel(mlp, data);
+    return eval.errorRate();
+  }
+
+  /** Mini-batches should fit the data about as well as single updates */
+  public void testMiniBatch() throws Exception {
+    Instances data = generateData();
+    double online = trainingError(new MultilayerPerceptron(), data);
+
+    MultilayerPerceptron mlp = new MultilayerPerceptron();
+    mlp.setMiniBatchSize(10);
+    double batch = trainingError(mlp, data);
+
+    assertTrue("Mini-batch error " + batch + " vs " + online,
+	batch <= online + 0.05);
+  }
+
+  /** Several threads mustn't change the mini-batch gradients */
+  public void testMiniBatchSlots() throws Exception {
+    Instances data = generateData();
+    MultilayerPerceptron serial = new MultilayerPerceptron();
+    serial.setMiniBatchSize(64);
+    serial.buildClassifier(data);
+
+    MultilayerPerceptron parallel = new MultilayerPerceptron();
+    parallel.setMiniBatchSize(64);
+    parallel.setNumExecutionSlots(4);
+    parallel.buildClassifier(data);
+
+    for (int i = 0; i < data.numInstances(); i++) {
+      double[] expected = serial.distributionForInstance(data.instance(i));
+      double[] actual = parallel.distributionForInstance(data.instance(i));
+      for (int j = 0; j < expected.length; j++)
+	assertEquals(expected[j], actual[j], 0);
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(MultilayerPerceptronTest.class);
   }
@@ -21,6 +21,10 @@ package weka.classifiers.functions;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.classifiers.functions.supportVector.CachedKernel;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +45,94 @@ public class SMOTest extends AbstractClassifierTest {
     return new SMO();
   }
 
+  /** Generates some data with a nominal class of three values */
+  protected Instances generateData() throws Exception {
+    TestInstances generator = new TestInstances();
+    generator.setClassType(Attribute.NOMINAL);
+    generator.setNumClasses(3);
+    generator.setNumNominal(2);
+    generator.setNumNumeric(4);
+    generator.setNumDate(0);
+    generator.setNumString(0);
+    generator.setNumRelational(0);
+    generator.setNumInstances(300);
+    generator.setClassIndex(TestInstances.CLASS_IS_LAST);
+    return generator.generate();
+  }
+
+  /** Creates an SMO whose kernel caches rows in the given memory */
+  protected SMO createSMO(int rowCacheMB) {
+    SMO smo = new SMO();
+    ((CachedKernel) smo.getKernel()).setRowCacheMB(rowCacheMB);
+    return smo;
+  }
+
+  /** Trains two SMOs and checks that they predict the same */
+  protected void checkPredictions(SMO expected, SMO actual, Instances data)
+    throws Exception {
+
+    checkPredictions(expected, actual, data, 1e-6);
+  }
+
+  /** Trains two SMOs and checks that they predict the same, up to the tolerance */
+  protected void checkPredictions(SMO expected, SMO actual, Instances data,
+      double tolerance) throws Exception {
+
+    expected.buildClassifier(data);
+    actual.buildClassifier(data);
+    for (int i = 0; i < data.numInstances(); i++) {
+      double[] expectedDist = expected.distributionForInstance(data.instance(i));
+      double[] actualDist = actual.distributionForInstance(data.instance(i));
+      for (int j = 0; j < expectedDist.length; j++)
+	assertEquals("Instance " + i, expectedDist[j], actualDist[j], tolerance);
+    }
+  }
+
+  /** Caching whole rows mustn't change the model */
+  public void testRowCache() throws Exception {
+    checkPredictions(createSMO(0), createSMO(16), generateData());
+  }
+
+  /** Neither must a budget too small to hold more than a few rows */
+  public void testSmallRowCache() throws Exception {
+    long bytes = CachedKernel.getDefaultRowCacheBytes();
+    try {
+      CachedKernel.setDefaultRowCacheBytes(20000);
+      checkPredictions(createSMO(0), createSMO(-1), generateData());
+    }
+    finally {
+      CachedKernel.setDefaultRowCacheBytes(bytes);
+    }
+  }
+
+  /** Skipping instances at a bound mustn't change the predictions */
+  public void testShrinking() throws Exception {
+    SMO shrinking = createSMO(16);
+    shrinking.setShrinking(true);
+    checkPredictions(createSMO(0), shrinking, generateData());
+  }
+
+  /** Training the binary models on several threads mustn't change them */
+  public void testSlots() throws Exception {
+    SMO parallel = createSMO(16);
+    parallel.setNumExecutionSlots(4);
+    checkPredictions(createSMO(16), parallel, generateData(), 0);
+  }
+
+  /** Neither must the threads' kernels sharing a small row cache budget */
+  public void testSlotsSmallRowCache() throws Exception {
+    long bytes = CachedKernel.getDefaultRowCacheBytes();
+    try {
+      CachedKernel.setDefaultRowCacheBytes(20000);
+      SMO parallel = createSMO(-1);
+      parallel.setNumExecutionSlots(4);
+      checkPredictions(createSMO(-1), parallel, generateData(), 0);
+    }
+    finally {
+      CachedKernel.setDefaultRowCacheBytes(bytes);
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(SMOTest.class);
   }
@@ -21,6 +21,11 @@ package weka.classifiers.functions;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.classifiers.functions.supportVector.CachedKernel;
+import weka.classifiers.functions.supportVector.RegSMOImproved;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +46,64 @@ public class SMOregTest extends AbstractClassifierTest {
     return new SMOreg();
   }
 
+  /** Generates some data with a numeric class */
+  protected Instances generateData() throws Exception {
+    TestInstances generator = new TestInstances();
+    generator.setClassType(Attribute.NUMERIC);
+    generator.setNumNominal(2);
+    generator.setNumNumeric(4);
+    generator.setNumDate(0);
+    generator.setNumString(0);
+    generator.setNumRelational(0);
+    generator.setNumInstances(200);
+    generator.setClassIndex(TestInstances.CLASS_IS_LAST);
+    return generator.generate();
+  }
+
+  /** Creates an SMOreg whose kernel caches rows in the given memory */
+  protected SMOreg createSMOreg(int rowCacheMB) {
+    SMOreg smo = new SMOreg();
+    ((CachedKernel) smo.getKernel()).setRowCacheMB(rowCacheMB);
+    return smo;
+  }
+
+  /** Trains two SMOregs and checks that they predict the same */
+  protected void checkPredictions(SMOreg expected, SMOreg actual, Instances data)
+    throws Exception {
+
+    expected.buildClassifier(data);
+    actual.buildClassifier(data);
+    for (int i = 0; i < data.numInstances(); i++) {
+      assertEquals("Instance " + i,
+	  expected.classifyInstance(data.instance(i)),
+	  actual.classifyInstance(data.instance(i)), 1e-6);
+    }
+  }
+
+  /** Caching whole rows mustn't change the model */
+  public void testRowCache() throws Exception {
+    checkPredictions(createSMOreg(0), createSMOreg(16), generateData());
+  }
+
+  /** Neither must a budget too small to hold more than a few rows */
+  public void testSmallRowCache() throws Exception {
+    long bytes = CachedKernel.getDefaultRowCacheBytes();
+    try {
+      CachedKernel.setDefaultRowCacheBytes(20000);
+      checkPredictions(createSMOreg(0), createSMOreg(-1), generateData());
+    }
+    finally {
+      CachedKernel.setDefaultRowCacheBytes(bytes);
+    }
+  }
+
+  /** Skipping instances at a bound mustn't change the predictions */
+  public void testShrinking() throws Exception {
+    SMOreg shrinking = createSMOreg(16);
+    ((RegSMOImproved) shrinking.getRegOptimizer()).setShrinking(true);
+    checkPredictions(createSMOreg(0), shrinking, generateData());
+  }
+
   public static Test suite() {
     return new TestSuite(SMOregTest.class);
   }
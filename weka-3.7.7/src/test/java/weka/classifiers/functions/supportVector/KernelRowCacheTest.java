@@ -0,0 +1,147 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright (C) 2012 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.classifiers.functions.supportVector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests KernelRowCache and the pool its caches share. Run from the command
+ * line with: <p/>
+ * java weka.classifiers.functions.supportVector.KernelRowCacheTest
+ *
+ * @version $Revision: 8034 $
+ */
+public class KernelRowCacheTest
+  extends TestCase {
+
+  /** The number of instances of the caches. */
+  protected static final int NUM_INSTANCES = 10;
+
+  /** The bytes of one row of the caches. */
+  protected static final long ROW_BYTES = 16 + 8 * NUM_INSTANCES;
+
+  public KernelRowCacheTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Fills a cache that is dropped without being released.
+   *
+   * @param pool	the pool the cache draws its rows from
+   * @param numRows	the number of rows to add
+   */
+  protected void dropCache(KernelRowCache.Pool pool, int numRows) {
+    KernelRowCache cache = new KernelRowCache(NUM_INSTANCES, Long.MAX_VALUE, pool);
+    for (int i = 0; i < numRows; i++)
+      assertNotNull(cache.allocate(i));
+  }
+
+  /**
+   * Tests that a cache takes no more rows than the pool has bytes for, 
+   * reusing its least recently used row once the pool is empty.
+   */
+  public void testReserve() {
+    KernelRowCache.Pool pool = new KernelRowCache.Pool(3 * ROW_BYTES);
+    KernelRowCache cache = new KernelRowCache(NUM_INSTANCES, Long.MAX_VALUE, pool);
+    for (int i = 0; i < 3; i++)
+      assertNotNull(cache.allocate(i));
+    assertEquals(3 * ROW_BYTES, pool.getUsed());
+
+    cache.get(0);
+    assertNotNull(cache.allocate(3));
+    assertEquals(3, cache.numRows());
+    assertEquals(1, cache.numEvictions());
+    assertNull("Least recently used row wasn't dropped", cache.peek(1));
+    assertNotNull(cache.peek(0));
+    assertEquals(3 * ROW_BYTES, pool.getUsed());
+
+    // nothing is left for a cache that holds no rows yet
+    KernelRowCache other = new KernelRowCache(NUM_INSTANCES, Long.MAX_VALUE, pool);
+    assertNull(other.allocate(0));
+    assertEquals(3 * ROW_BYTES, pool.getUsed());
+  }
+
+  /**
+   * Tests that a cache's own budget caps it below the pool's capacity.
+   */
+  public void testBudget() {
+    KernelRowCache.Pool pool = new KernelRowCache.Pool(10 * ROW_BYTES);
+    KernelRowCache cache = new KernelRowCache(NUM_INSTANCES, 2 * ROW_BYTES, pool);
+    assertEquals(2, cache.maxRows());
+    for (int i = 0; i < 5; i++)
+      assertNotNull(cache.allocate(i));
+    assertEquals(2, cache.numRows());
+    assertEquals(2 * ROW_BYTES, pool.getUsed());
+  }
+
+  /**
+   * Tests that releasing a cache gives its bytes back to the pool, once.
+   */
+  public void testClose() {
+    KernelRowCache.Pool pool = new KernelRowCache.Pool(3 * ROW_BYTES);
+    KernelRowCache cache = new KernelRowCache(NUM_INSTANCES, Long.MAX_VALUE, pool);
+    for (int i = 0; i < 3; i++)
+      cache.allocate(i);
+    KernelRowCache other = new KernelRowCache(NUM_INSTANCES, Long.MAX_VALUE, pool);
+    assertNull(other.allocate(0));
+
+    cache.release();
+    assertEquals(0, pool.getUsed());
+    assertEquals(0, cache.numRows());
+    assertNull(cache.allocate(0));
+    cache.release();
+    assertEquals(0, pool.getUsed());
+
+    assertNotNull(other.allocate(0));
+    assertEquals(ROW_BYTES, pool.getUsed());
+  }
+
+  /**
+   * Tests that the bytes of a cache that was dropped without being 
+   * released go back to the pool once it is garbage collected.
+   * 
+   * @throws Exception	if interrupted
+   */
+  public void testExpunge() throws Exception {
+    KernelRowCache.Pool pool = new KernelRowCache.Pool(3 * ROW_BYTES);
+    dropCache(pool, 3);
+    assertEquals(3 * ROW_BYTES, pool.getUsed());
+
+    for (int i = 0; (i < 100) && (pool.getUsed() > 0); i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(0, pool.getUsed());
+
+    KernelRowCache cache = new KernelRowCache(NUM_INSTANCES, Long.MAX_VALUE, pool);
+    for (int i = 0; i < 3; i++)
+      assertNotNull(cache.allocate(i));
+  }
+
+  public static Test suite() {
+    return new TestSuite(KernelRowCacheTest.class);
+  }
+
+  public static void main(String[] args){
+    junit.textui.TestRunner.run(suite());
+  }
+}
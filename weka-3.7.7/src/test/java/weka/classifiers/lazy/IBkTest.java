@@ -21,6 +21,9 @@ package weka.classifiers.lazy;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Instances;
+import weka.core.TestInstances;
+import weka.core.neighboursearch.LinearNNSearch;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +44,65 @@ public class IBkTest extends AbstractClassifierTest {
     return new IBk();
   }
 
+  /** IBk that looks up its test instances one at a time */
+  protected static class OneAtATimeIBk extends IBk {
+    protected boolean searchesInBatches() {
+      return false;
+    }
+  }
+
+  protected Instances generateData(int seed) throws Exception {
+    TestInstances gen = new TestInstances();
+    gen.setSeed(seed);
+    gen.setNumNominal(2);
+    gen.setNumNumeric(4);
+    gen.setNumClasses(3);
+    gen.setNumInstances(200);
+    return gen.generate();
+  }
+
+  protected IBk createIBk(IBk ibk, int numSlots) {
+    ibk.setKNN(5);
+    ibk.setCrossValidate(true);
+    LinearNNSearch search = new LinearNNSearch();
+    search.setNumExecutionSlots(numSlots);
+    ibk.setNearestNeighbourSearchAlgorithm(search);
+    return ibk;
+  }
+
+  /**
+   * Looking up a batch of test instances, some of which widen the ranges,
+   * has to give the same predictions as one instance after the other.
+   */
+  protected void checkBatch(int numSlots) throws Exception {
+    Instances train = generateData(1);
+    Instances test = generateData(2);
+
+    IBk reference = createIBk(new OneAtATimeIBk(), 1);
+    reference.buildClassifier(train);
+    IBk batch = createIBk(new IBk(), numSlots);
+    batch.buildClassifier(train);
+    assertEquals(reference.getKNN(), batch.getKNN());
+
+    double[][] expected = new double[test.numInstances()][];
+    for (int i = 0; i < test.numInstances(); i++)
+      expected[i] = reference.distributionForInstance(test.instance(i));
+    double[][] actual = batch.distributionsForInstances(test);
+    for (int i = 0; i < test.numInstances(); i++) {
+      for (int j = 0; j < expected[i].length; j++)
+	assertEquals("Class " + j + " of instance " + i,
+	    expected[i][j], actual[i][j], 1e-10);
+    }
+  }
+
+  public void testBatch() throws Exception {
+    checkBatch(1);
+  }
+
+  public void testBatchSlots() throws Exception {
+    checkBatch(4);
+  }
+
   public static Test suite() {
     return new TestSuite(IBkTest.class);
   }
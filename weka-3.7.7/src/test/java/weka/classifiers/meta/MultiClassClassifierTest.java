@@ -21,6 +21,10 @@ package weka.classifiers.meta;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -41,6 +45,56 @@ public class MultiClassClassifierTest extends AbstractClassifierTest {
     return new MultiClassClassifier();
   }
 
+  /** Generates some data with a nominal class of four values */
+  protected Instances generateData() throws Exception {
+    TestInstances generator = new TestInstances();
+    generator.setClassType(Attribute.NOMINAL);
+    generator.setNumClasses(4);
+    generator.setNumNominal(2);
+    generator.setNumNumeric(3);
+    generator.setNumDate(0);
+    generator.setNumString(0);
+    generator.setNumRelational(0);
+    generator.setNumInstances(200);
+    generator.setClassIndex(TestInstances.CLASS_IS_LAST);
+    return generator.generate();
+  }
+
+  /** 
+   * Trains the binary models with the given method on one thread and on 
+   * several, which mustn't change the predictions.
+   */
+  protected void checkNumExecutionSlots(int method) throws Exception {
+    Instances data = generateData();
+    MultiClassClassifier serial = new MultiClassClassifier();
+    serial.setMethod(new SelectedTag(method, MultiClassClassifier.TAGS_METHOD));
+    serial.buildClassifier(data);
+
+    MultiClassClassifier parallel = new MultiClassClassifier();
+    parallel.setMethod(new SelectedTag(method, MultiClassClassifier.TAGS_METHOD));
+    parallel.setNumExecutionSlots(4);
+    parallel.buildClassifier(data);
+
+    for (int i = 0; i < data.numInstances(); i++) {
+      double[] expected = serial.distributionForInstance(data.instance(i));
+      double[] actual = parallel.distributionForInstance(data.instance(i));
+      for (int j = 0; j < expected.length; j++)
+	assertEquals("Instance " + i, expected[j], actual[j], 0);
+    }
+  }
+
+  public void testSlotsOneAgainstAll() throws Exception {
+    checkNumExecutionSlots(MultiClassClassifier.METHOD_1_AGAINST_ALL);
+  }
+
+  public void testSlotsOneAgainstOne() throws Exception {
+    checkNumExecutionSlots(MultiClassClassifier.METHOD_1_AGAINST_1);
+  }
+
+  public void testSlotsRandomCode() throws Exception {
+    checkNumExecutionSlots(MultiClassClassifier.METHOD_ERROR_RANDOM);
+  }
+
   public static Test suite() {
     return new TestSuite(MultiClassClassifierTest.class);
   }
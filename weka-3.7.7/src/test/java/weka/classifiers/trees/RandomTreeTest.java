@@ -21,6 +21,9 @@ package weka.classifiers.trees;
 
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -44,6 +47,75 @@ public class RandomTreeTest
     return new RandomTree();
   }
 
+  /** 
+   * Generates data with a nominal class, and some values missing, so that
+   * instances get split up between branches.
+   */
+  protected Instances generateData(int seed) throws Exception {
+    TestInstances generator = new TestInstances();
+    generator.setSeed(seed);
+    generator.setClassType(Attribute.NOMINAL);
+    generator.setNumClasses(3);
+    generator.setNumNominal(3);
+    generator.setNumNominalValues(4);
+    generator.setNumNumeric(3);
+    generator.setNumDate(0);
+    generator.setNumString(0);
+    generator.setNumRelational(0);
+    generator.setNumInstances(300);
+    generator.setClassIndex(TestInstances.CLASS_IS_LAST);
+    Instances data = generator.generate();
+    for (int i = 0; i < data.numInstances(); i += 7)
+      data.instance(i).setMissing(i % (data.numAttributes() - 1));
+    return data;
+  }
+
+  /** 
+   * Trains the tree and checks that it comes up with the same 
+   * distributions for a batch as it does one instance at a time.
+   */
+  protected void checkBatch(RandomTree tree) throws Exception {
+    tree.buildClassifier(generateData(1));
+    Instances test = generateData(2);
+    double[][] batch = tree.distributionsForInstances(test);
+    assertEquals(test.numInstances(), batch.length);
+    for (int i = 0; i < test.numInstances(); i++) {
+      double[] single = tree.distributionForInstance(test.instance(i));
+      if (single == null) {
+	assertNull("Instance " + i, batch[i]);
+	continue;
+      }
+      assertEquals(single.length, batch[i].length);
+      for (int j = 0; j < single.length; j++)
+	assertEquals("Instance " + i, single[j], batch[i][j], 0);
+    }
+  }
+
+  public void testBatch() throws Exception {
+    checkBatch(new RandomTree());
+  }
+
+  /** Shallow trees leave several classes in a leaf */
+  public void testBatchMaxDepth() throws Exception {
+    RandomTree tree = new RandomTree();
+    tree.setMaxDepth(3);
+    checkBatch(tree);
+  }
+
+  /** Nominal splits with values that weren't seen leave empty nodes */
+  public void testBatchEmptyNodes() throws Exception {
+    RandomTree tree = new RandomTree();
+    tree.setAllowUnclassifiedInstances(true);
+    checkBatch(tree);
+  }
+
+  /** Backfitting keeps the distributions of inner nodes with empty successors */
+  public void testBatchBackfitting() throws Exception {
+    RandomTree tree = new RandomTree();
+    tree.setNumFolds(3);
+    checkBatch(tree);
+  }
+
   public static Test suite() {
     return new TestSuite(RandomTreeTest.class);
   }
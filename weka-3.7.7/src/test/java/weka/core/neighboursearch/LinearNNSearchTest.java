@@ -19,6 +19,10 @@
 
 package weka.core.neighboursearch;
 
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
@@ -40,6 +44,170 @@ public class LinearNNSearchTest
   public NearestNeighbourSearch getNearestNeighbourSearch() {
     return new LinearNNSearch();
   }
+
+  /**
+   * A LinearNNSearch that never uses an InstanceBlock, so that it computes
+   * every distance with the distance function.
+   */
+  protected static class DistanceFunctionSearch
+    extends LinearNNSearch {
+
+    /** for serialization */
+    private static final long serialVersionUID = 4717165934416337329L;
+
+    protected InstanceBlock getBlock() {
+      return null;
+    }
+  }
+
+  /**
+   * Checks that two searches come up with the same neighbours, and the 
+   * same distances to them, for the given target.
+   *
+   * @param block	the search that uses an InstanceBlock
+   * @param reference	the search that uses the distance function
+   * @param target	the target
+   * @param kNN		the number of neighbours
+   * @throws Exception	if a search fails
+   */
+  protected void checkNeighbours(LinearNNSearch block, LinearNNSearch reference,
+      Instance target, int kNN) throws Exception {
+
+    Instances expected = reference.kNearestNeighbours(target, kNN);
+    double[] expectedDistances = reference.getDistances();
+    Instances actual = block.kNearestNeighbours(target, kNN);
+    double[] actualDistances = block.getDistances();
+    assertNotNull("Block wasn't used", block.m_Block);
+
+    assertEquals(expected.numInstances(), actual.numInstances());
+    for (int i = 0; i < expected.numInstances(); i++) {
+      assertEquals("Neighbour " + i + " of " + target,
+	  expected.instance(i).toString(), actual.instance(i).toString());
+      assertEquals("Distance " + i + " of " + target,
+	  expectedDistances[i], actualDistances[i], 1e-10);
+    }
+  }
+
+  /**
+   * Checks that the block comes up with the same neighbours as the 
+   * distance function for every instance in the data. The data has
+   * missing values and more attributes than are added up between checks
+   * against the cut-off.
+   *
+   * @param block	the search that uses an InstanceBlock
+   * @param reference	the search that uses the distance function
+   * @throws Exception	if a search fails
+   */
+  protected void checkNeighbours(LinearNNSearch block, LinearNNSearch reference)
+    throws Exception {
+
+    assertTrue(m_Instances.numAttributes() > InstanceBlock.CHECK_INTERVAL);
+    block.setInstances(m_Instances);
+    reference.setInstances(m_Instances);
+    for (int i = 0; i < m_Instances.numInstances(); i++) {
+      for (int k = 1; k <= m_NumNeighbors; k++)
+	checkNeighbours(block, reference, m_Instances.instance(i), k);
+    }
+  }
+
+  /**
+   * Tests the block against the distance function with Euclidean distance.
+   *
+   * @throws Exception	if something goes wrong
+   */
+  public void testBlock() throws Exception {
+    checkNeighbours(new LinearNNSearch(), new DistanceFunctionSearch());
+  }
+
+  /**
+   * Tests the block against the distance function with Manhattan distance.
+   *
+   * @throws Exception	if something goes wrong
+   */
+  public void testBlockManhattan() throws Exception {
+    LinearNNSearch block = new LinearNNSearch();
+    block.setDistanceFunction(new ManhattanDistance());
+    LinearNNSearch reference = new DistanceFunctionSearch();
+    reference.setDistanceFunction(new ManhattanDistance());
+    checkNeighbours(block, reference);
+  }
+
+  /**
+   * Tests the block against the distance function when identical 
+   * instances are skipped.
+   *
+   * @throws Exception	if something goes wrong
+   */
+  public void testBlockSkipIdentical() throws Exception {
+    LinearNNSearch block = new LinearNNSearch();
+    block.setSkipIdentical(true);
+    LinearNNSearch reference = new DistanceFunctionSearch();
+    reference.setSkipIdentical(true);
+    checkNeighbours(block, reference);
+  }
+
+  /**
+   * Tests the block against the distance function when targets from
+   * outside the neighbourhood widen the ranges, which the block has to 
+   * normalize its values with again.
+   *
+   * @throws Exception	if something goes wrong
+   */
+  public void testBlockRangeWidening() throws Exception {
+    Instances train = new Instances(m_Instances, 0, m_Instances.numInstances() / 2);
+    LinearNNSearch block = new LinearNNSearch();
+    block.setInstances(train);
+    LinearNNSearch reference = new DistanceFunctionSearch();
+    reference.setInstances(train);
+
+    for (int i = train.numInstances(); i < m_Instances.numInstances(); i++) {
+      Instance target = m_Instances.instance(i);
+      block.addInstanceInfo(target);
+      reference.addInstanceInfo(target);
+      checkNeighbours(block, reference, target, m_NumNeighbors);
+    }
+  }
+
+  /**
+   * Tests looking for the neighbours of several targets at once, on
+   * several threads, against the distance function.
+   *
+   * @throws Exception	if something goes wrong
+   */
+  protected void checkBatch(int numSlots) throws Exception {
+    LinearNNSearch block = new LinearNNSearch();
+    block.setNumExecutionSlots(numSlots);
+    block.setInstances(m_Instances);
+    LinearNNSearch reference = new DistanceFunctionSearch();
+    reference.setInstances(m_Instances);
+
+    Instance[] targets = new Instance[m_Instances.numInstances()];
+    for (int i = 0; i < targets.length; i++)
+      targets[i] = m_Instances.instance(i);
+    double[][] distances = new double[targets.length][];
+    Instances[] neighbours = block.kNearestNeighbours(targets, m_NumNeighbors, distances);
+    assertNotNull("Block wasn't used", block.m_Block);
+
+    for (int i = 0; i < targets.length; i++) {
+      Instances expected = reference.kNearestNeighbours(targets[i], m_NumNeighbors);
+      double[] expectedDistances = reference.getDistances();
+      assertEquals(expected.numInstances(), neighbours[i].numInstances());
+      for (int j = 0; j < expected.numInstances(); j++) {
+	assertEquals("Neighbour " + j + " of " + targets[i],
+	    expected.instance(j).toString(), neighbours[i].instance(j).toString());
+	assertEquals("Distance " + j + " of " + targets[i],
+	    expectedDistances[j], distances[i][j], 1e-10);
+      }
+    }
+  }
+
+  public void testBatch() throws Exception {
+    checkBatch(1);
+  }
+
+  public void testBatchSlots() throws Exception {
+    checkBatch(4);
+  }
   
   public static Test suite() {
     return new TestSuite(LinearNNSearchTest.class);
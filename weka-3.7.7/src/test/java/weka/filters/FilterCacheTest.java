@@ -0,0 +1,150 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Copyright (C) 2012 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.filters;
+
+import java.io.File;
+
+import weka.core.Instances;
+import weka.core.TestInstances;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests FilterCache. Run from the command line with: <p/>
+ * java weka.filters.FilterCacheTest
+ *
+ * @version $Revision: 8034 $
+ */
+public class FilterCacheTest
+  extends TestCase {
+
+  /** The directory entries are spilled to. */
+  protected File m_Directory;
+
+  /** The data the entries hold. */
+  protected Instances m_Data;
+
+  public FilterCacheTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Sets up a cache that spills everything to an empty directory.
+   *
+   * @throws Exception if the directory can't be made
+   */
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_Directory = File.createTempFile("filtercache", "");
+    m_Directory.delete();
+    m_Directory.mkdirs();
+    FilterCache.clear();
+    FilterCache.setBudget(0);
+    FilterCache.setDirectory(m_Directory);
+    FilterCache.setDiskBudget(Long.MAX_VALUE);
+
+    TestInstances generator = new TestInstances();
+    generator.setNumInstances(50);
+    m_Data = generator.generate();
+  }
+
+  /**
+   * Puts the cache back the way it was.
+   *
+   * @throws Exception never
+   */
+  protected void tearDown() throws Exception {
+    FilterCache.setDirectory(null);
+    FilterCache.setDiskBudget(Long.MAX_VALUE);
+    FilterCache.clear();
+    File[] files = m_Directory.listFiles();
+    if (files != null) {
+      for (File file : files)
+	file.delete();
+    }
+    m_Directory.delete();
+
+    super.tearDown();
+  }
+
+  /**
+   * Returns the file the entry with the given key is spilled to.
+   *
+   * @param key the key of the entry
+   * @return the file
+   */
+  protected File getFile(String key) {
+    return new File(m_Directory, key + FilterCache.FILE_EXTENSION);
+  }
+
+  /**
+   * Tests that entries that don't fit in memory are read back from disk.
+   */
+  public void testSpill() {
+    FilterCache.put("a", new FilterCache.Entry(new AllFilter(), m_Data));
+    assertTrue(getFile("a").exists());
+    assertEquals(0, FilterCache.getNumBytes());
+
+    FilterCache.Entry entry = FilterCache.get("a");
+    assertNotNull(entry);
+    assertEquals(m_Data.toString(), entry.getData().toString());
+    assertNull(FilterCache.get("b"));
+  }
+
+  /**
+   * Tests that the least recently used files are deleted once the 
+   * directory goes over its budget, where reading a file counts as using
+   * it.
+   */
+  public void testDiskBudget() {
+    FilterCache.put("a", new FilterCache.Entry(new AllFilter(), m_Data));
+    FilterCache.put("b", new FilterCache.Entry(new AllFilter(), m_Data));
+    long length = getFile("a").length();
+    assertEquals(length, getFile("b").length());
+    long now = System.currentTimeMillis();
+    getFile("a").setLastModified(now - 20000);
+    getFile("b").setLastModified(now - 10000);
+
+    FilterCache.setDiskBudget(2 * length + length / 2);
+    assertTrue(getFile("a").exists());
+    assertTrue(getFile("b").exists());
+
+    assertNotNull(FilterCache.get("a"));
+    FilterCache.put("c", new FilterCache.Entry(new AllFilter(), m_Data));
+    assertTrue(getFile("a").exists());
+    assertFalse("Least recently used file wasn't deleted", getFile("b").exists());
+    assertTrue(getFile("c").exists());
+
+    // a tighter budget takes effect straight away
+    FilterCache.setDiskBudget(length);
+    assertEquals(1, m_Directory.listFiles().length);
+  }
+
+  public static Test suite() {
+    return new TestSuite(FilterCacheTest.class);
+  }
+
+  public static void main(String[] args){
+    junit.textui.TestRunner.run(suite());
+  }
+}
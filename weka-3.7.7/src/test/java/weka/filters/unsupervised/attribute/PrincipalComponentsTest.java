@@ -131,7 +131,53 @@ public class PrincipalComponentsTest
     ((PrincipalComponents) m_Filter).setMaximumAttributeNames(2);
     performTest();
   }
-  
+
+  /**
+   * Runs filter with the truncated decomposition, which has to come up with
+   * the same components as the full one, apart from their signs.
+   */
+  public void testTruncated() {
+    m_Filter = getFilter();
+    Instances full = useFilter();
+
+    m_Filter = getFilter();
+    ((PrincipalComponents) m_Filter).setTruncationThreshold(0);
+    Instances truncated = useFilter();
+
+    assertEquals(full.numAttributes(), truncated.numAttributes());
+    for (int j = 0; j < full.numAttributes(); j++) {
+      if (j == full.classIndex())
+	continue;
+      double sign = 0;
+      for (int i = 0; i < full.numInstances(); i++) {
+	double value = full.instance(i).value(j);
+	if ((sign == 0) && (Math.abs(value) > 1e-3))
+	  sign = Math.signum(value) * Math.signum(truncated.instance(i).value(j));
+	assertEquals("Component " + j + " of instance " + i,
+	    value, sign * truncated.instance(i).value(j), 1e-6);
+      }
+    }
+  }
+
+  /**
+   * Runs the truncated decomposition with several threads, which mustn't
+   * change the output.
+   */
+  public void testTruncatedSlots() {
+    m_Filter = getFilter();
+    ((PrincipalComponents) m_Filter).setTruncationThreshold(0);
+    Instances serial = useFilter();
+
+    m_Filter = getFilter();
+    ((PrincipalComponents) m_Filter).setTruncationThreshold(0);
+    ((PrincipalComponents) m_Filter).setNumExecutionSlots(4);
+    Instances parallel = useFilter();
+
+    assertEquals(serial.numAttributes(), parallel.numAttributes());
+    for (int i = 0; i < serial.numInstances(); i++)
+      assertEquals(serial.instance(i).toString(), parallel.instance(i).toString());
+  }
+
   /**
    * Returns a configures test suite.
    * 
@@ -60,6 +60,67 @@ public class StringToWordVectorTest extends AbstractFilterTest {
     assertEquals(m_Instances.numAttributes() - 2 + 3, result.numAttributes());
   }
 
+  public void testHashing() {
+    ((StringToWordVector)m_Filter).setNumBuckets(16);
+    Instances result = useFilter();
+    // Number of instances shouldn't change
+    assertEquals(m_Instances.numInstances(),  result.numInstances());
+
+    // Number of attributes will be minus 2 string attributes plus
+    // one attribute per bucket
+    assertEquals(m_Instances.numAttributes() - 2 + 16, result.numAttributes());
+  }
+
+  public void testHashingCounts() {
+    ((StringToWordVector)m_Filter).setOutputWordCounts(true);
+    ((StringToWordVector)m_Filter).setWordsToKeep(Integer.MAX_VALUE);
+    Instances dictionary = useFilter();
+
+    m_Filter = getFilter();
+    ((StringToWordVector)m_Filter).setOutputWordCounts(true);
+    ((StringToWordVector)m_Filter).setNumBuckets(64);
+    Instances hashed = useFilter();
+
+    // Buckets may share words, but every word is counted once either way
+    int firstWord = m_Instances.numAttributes() - 2;
+    for (int i = 0; i < m_Instances.numInstances(); i++) {
+      double dictionaryCount = 0;
+      for (int j = firstWord; j < dictionary.numAttributes(); j++)
+        dictionaryCount += dictionary.instance(i).value(j);
+      double hashedCount = 0;
+      for (int j = firstWord; j < hashed.numAttributes(); j++)
+        hashedCount += hashed.instance(i).value(j);
+      assertEquals("Word count of instance " + i, dictionaryCount, hashedCount, 1e-10);
+    }
+  }
+
+  public void testHashingSlots() {
+    // Documents are tokenized in chunks of 1024, so we need a few of them
+    Instances data = new Instances(m_Instances, 0);
+    for (int n = 0; n < 200; n++) {
+      for (int i = 0; i < m_Instances.numInstances(); i++)
+        data.add(m_Instances.instance((i + n) % m_Instances.numInstances()));
+    }
+    m_Instances = data;
+
+    ((StringToWordVector)m_Filter).setNumBuckets(16);
+    ((StringToWordVector)m_Filter).setTFTransform(true);
+    ((StringToWordVector)m_Filter).setIDFTransform(true);
+    Instances serial = useFilter();
+
+    m_Filter = getFilter();
+    ((StringToWordVector)m_Filter).setNumBuckets(16);
+    ((StringToWordVector)m_Filter).setTFTransform(true);
+    ((StringToWordVector)m_Filter).setIDFTransform(true);
+    ((StringToWordVector)m_Filter).setNumExecutionSlots(4);
+    Instances parallel = useFilter();
+
+    // Tokenizing on several threads mustn't change the output
+    assertEquals(serial.numAttributes(), parallel.numAttributes());
+    for (int i = 0; i < serial.numInstances(); i++)
+      assertEquals(serial.instance(i).toString(), parallel.instance(i).toString());
+  }
+
 
   public static Test suite() {
     return new TestSuite(StringToWordVectorTest.class);